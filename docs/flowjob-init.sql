@@ -102,13 +102,15 @@ CREATE TABLE `flowjob_plan`
     `recently_version` int(8) unsigned NOT NULL,
     `name`             varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '',
     `broker_url`       varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '',
+    `bucket`           int                                                    NOT NULL DEFAULT 0,
     `is_enabled`       bit(1)                                                          DEFAULT NULL,
     `is_deleted`       bit(1)                                                 NOT NULL DEFAULT 0,
     `created_at`       datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP,
     `updated_at`       datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
     PRIMARY KEY (`id`),
     UNIQUE KEY `uk_id` (`plan_id`),
-    KEY                `idx_update_broker` (`updated_at`, `broker_url`)
+    KEY                `idx_update_broker` (`updated_at`, `broker_url`),
+    KEY                `idx_bucket_update` (`bucket`, `updated_at`)
 ) ENGINE=InnoDB AUTO_INCREMENT=2 DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -186,6 +188,7 @@ CREATE TABLE `flowjob_plan_instance`
     `trigger_at`       datetime(6) NOT NULL,
     `start_at`         datetime(6) DEFAULT NULL,
     `feedback_at`      datetime(6) DEFAULT NULL,
+    `completed_jobs`   varchar(2048) COLLATE utf8mb4_bin DEFAULT NULL,
     `is_deleted`       bit(1)                                                 NOT NULL DEFAULT 0,
     `created_at`       datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP,
     `updated_at`       datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
@@ -213,6 +216,7 @@ CREATE TABLE `flowjob_delay_instance`
     `trigger_at`    datetime(6) NOT NULL,
     `start_at`      datetime(6) DEFAULT NULL,
     `feedback_at`   datetime(6) DEFAULT NULL,
+    `completed_jobs` varchar(2048) COLLATE utf8mb4_bin DEFAULT NULL,
     `is_deleted`    bit(1)                                                 NOT NULL DEFAULT 0,
     `created_at`    datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP,
     `updated_at`    datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
@@ -242,6 +246,7 @@ CREATE TABLE `flowjob_job_instance`
     `plan_id`         varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '',
     `plan_info_id`    varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '',
     `broker_url`      varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '',
+    `bucket`          int                                                    NOT NULL DEFAULT 0,
     `trigger_at`      datetime(6) NOT NULL,
     `context`         text COLLATE utf8mb4_bin,
     `start_at`        datetime(6) DEFAULT NULL,
@@ -255,7 +260,9 @@ CREATE TABLE `flowjob_job_instance`
     PRIMARY KEY (`id`),
     UNIQUE KEY `uk_id` (`job_instance_id`),
     UNIQUE KEY `uk_instance_job` (`instance_id`, `job_id`, `retry_times`),
-    KEY               `idx_report_broker` (`last_report_at`, `broker_url`)
+    KEY               `idx_report_broker` (`last_report_at`, `broker_url`),
+    KEY               `idx_bucket_trigger` (`bucket`, `status`, `trigger_at`),
+    KEY               `idx_bucket_report` (`bucket`, `status`, `last_report_at`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -581,6 +588,8 @@ INSERT INTO flowjob_id(`type`, `current_id`, `step`)
 VALUES ('JOB_INSTANCE', 100000, 1000);
 INSERT INTO flowjob_id(`type`, `current_id`, `step`)
 VALUES ('AGENT', 100000, 1000);
+INSERT INTO flowjob_id(`type`, `current_id`, `step`)
+VALUES ('NODE', 0, 1);
 /*!40000 ALTER TABLE `flowjob_id` ENABLE KEYS */;
 UNLOCK
 TABLES;
@@ -598,6 +607,7 @@ CREATE TABLE `flowjob_lock`
     `name`       varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '',
     `owner`      varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '',
     `expire_at`  datetime(6) NOT NULL,
+    `token`      bigint                                                 NOT NULL DEFAULT 0,
     `is_deleted` bit(1)                                                 NOT NULL DEFAULT 0,
     `created_at` datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP,
     `updated_at` datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
@@ -605,3 +615,43 @@ CREATE TABLE `flowjob_lock`
     UNIQUE KEY `uk_id` (`name`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
 /*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `flowjob_bucket`
+--
+
+DROP TABLE IF EXISTS `flowjob_bucket`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!50503 SET character_set_client = utf8mb4 */;
+CREATE TABLE `flowjob_bucket`
+(
+    `id`         bigint unsigned NOT NULL AUTO_INCREMENT,
+    `bucket`     int                                                    NOT NULL,
+    `broker_url` varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '',
+    `is_deleted` bit(1)                                                 NOT NULL DEFAULT 0,
+    `created_at` datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    `updated_at` datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (`id`),
+    UNIQUE KEY `uk_bucket` (`bucket`),
+    KEY          `idx_broker` (`broker_url`, `bucket`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `flowjob_plan_change`
+--
+
+DROP TABLE IF EXISTS `flowjob_plan_change`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!50503 SET character_set_client = utf8mb4 */;
+CREATE TABLE `flowjob_plan_change`
+(
+    `id`         bigint unsigned NOT NULL AUTO_INCREMENT,
+    `plan_id`    varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '',
+    `is_deleted` bit(1)                                                 NOT NULL DEFAULT 0,
+    `created_at` datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    `updated_at` datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (`id`),
+    KEY          `idx_created` (`created_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
+/*!40101 SET character_set_client = @saved_cs_client */;
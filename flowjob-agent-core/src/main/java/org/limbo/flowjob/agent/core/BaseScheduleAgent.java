@@ -228,9 +228,9 @@ public class BaseScheduleAgent implements ScheduleAgent, Heartbeat {
     public void receiveJob(Job job) {
         assertRunning();
 
-        int availableQueueSize = this.resource.availableQueueSize();
-        if (jobRepository.count() >= availableQueueSize) {
-            throw new IllegalArgumentException("Agent's queue is full, limit: " + availableQueueSize);
+        // availableQueueSize 已扣除排队中的作业
+        if (this.resource.availableQueueSize() <= 0) {
+            throw new IllegalArgumentException("Agent's queue is full, limit: " + this.resource.queueSize());
         }
 
         if (jobRepository.save(job)) {
@@ -245,6 +245,22 @@ public class BaseScheduleAgent implements ScheduleAgent, Heartbeat {
         // 可能重复下发到同个节点，这种时候不需要处理
     }
 
+    @Override
+    public List<String> receiveJobs(List<Job> jobs) {
+        assertRunning();
+
+        List<String> accepted = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            try {
+                receiveJob(job);
+                accepted.add(job.getId());
+            } catch (Exception e) {
+                log.warn("Failed to receive job={} reason={}", job.getId(), e.getMessage());
+            }
+        }
+        return accepted;
+    }
+
     @Override
     public void receiveSubTasks(SubTaskCreateParam param) {
         assertRunning();
@@ -318,6 +334,7 @@ public class BaseScheduleAgent implements ScheduleAgent, Heartbeat {
             throw new IllegalArgumentException("task not found jobId:" + jobId + " taskId:" + taskId);
         }
 
+        taskDispatcher.getLatencyRecorder().completed(task);
         Job job = jobRepository.getById(jobId);
         job.taskSuccess(task, context, result);
     }
@@ -331,10 +348,16 @@ public class BaseScheduleAgent implements ScheduleAgent, Heartbeat {
             throw new IllegalArgumentException("task not found jobId:" + jobId + " taskId:" + taskId);
         }
 
+        taskDispatcher.getLatencyRecorder().completed(task);
         Job job = jobRepository.getById(task.getJobId());
         job.taskFail(task, errorMsg, errorStackTrace);
     }
 
+    @Override
+    public TaskLatencyRecorder getLatencyRecorder() {
+        return taskDispatcher.getLatencyRecorder();
+    }
+
     /**
      * 验证 worker 正在运行中
      */
@@ -25,6 +25,7 @@ import org.limbo.flowjob.common.utils.attribute.Attributes;
 
 import java.net.URL;
 import java.time.Duration;
+import java.util.List;
 
 /**
  * @author Devil
@@ -56,6 +57,13 @@ public interface ScheduleAgent {
      */
     void receiveJob(Job job);
 
+    /**
+     * 批量接收 Broker 发送来的任务，每个任务单独接收，部分任务失败不影响其他任务
+     * @param jobs 任务数据
+     * @return 接收成功的任务 ID
+     */
+    List<String> receiveJobs(List<Job> jobs);
+
     /**
      * 接收子任务
      */
@@ -91,4 +99,9 @@ public interface ScheduleAgent {
      */
     AgentResources getResource();
 
+    /**
+     * 获取 task 耗时统计
+     */
+    TaskLatencyRecorder getLatencyRecorder();
+
 }
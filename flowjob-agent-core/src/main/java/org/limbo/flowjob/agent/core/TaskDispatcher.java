@@ -18,6 +18,7 @@
 
 package org.limbo.flowjob.agent.core;
 
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.limbo.flowjob.agent.core.entity.Job;
@@ -28,7 +29,7 @@ import org.limbo.flowjob.agent.core.rpc.AgentBrokerRpc;
 import org.limbo.flowjob.agent.core.rpc.AgentWorkerRpc;
 import org.limbo.flowjob.api.constants.TaskStatus;
 
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Devil
@@ -45,6 +46,12 @@ public class TaskDispatcher {
 
     private final AgentWorkerRpc agentWorkerRpc;
 
+    /**
+     * 统计下发到反馈的耗时
+     */
+    @Getter
+    private final TaskLatencyRecorder latencyRecorder = new TaskLatencyRecorder();
+
     public TaskDispatcher(JobRepository jobRepository, TaskRepository taskRepository, AgentBrokerRpc agentBrokerRpc, AgentWorkerRpc agentWorkerRpc) {
         this.jobRepository = jobRepository;
         this.taskRepository = taskRepository;
@@ -53,46 +60,62 @@ public class TaskDispatcher {
     }
 
     /**
-     * 将任务下发给worker。
+     * 将任务下发给worker，不阻塞调用线程，调用方可以连续下发大量任务。
+     * 调用失败时任务保持 SCHEDULING，由 {@link org.limbo.flowjob.agent.core.checker.TaskScheduleChecker} 重新下发。
      * task status -> EXECUTING or FAILED
+     *
+     * @return 下发结束后以是否下发成功完成，不会异常结束
      */
-    public void dispatch(Task task) {
+    public CompletableFuture<Boolean> dispatch(Task task) {
         if (log.isDebugEnabled()) {
             log.debug("start dispatch task={}", task);
         }
 
         if (task.getStatus() != TaskStatus.SCHEDULING) {
-            return;
+            return CompletableFuture.completedFuture(false);
         }
 
-        boolean dispatched = false;
-        try {
-            if (task.getWorker() == null) {
-                List<Worker> workers = agentBrokerRpc.availableWorkers(task.getJobId(), true, true, true, true);
-                if (CollectionUtils.isNotEmpty(workers)) {
-                    task.setWorker(workers.get(0));
-                }
-            }
+        CompletableFuture<Worker> selected = task.getWorker() != null
+                ? CompletableFuture.completedFuture(task.getWorker())
+                : agentBrokerRpc.availableWorkersAsync(task.getJobId(), true, true, true, true)
+                .thenApply(workers -> CollectionUtils.isNotEmpty(workers) ? workers.get(0) : null);
 
-            if (task.getWorker() != null) {
-                dispatched = agentWorkerRpc.dispatch(task);
-            }
+        return selected
+                .thenCompose(worker -> {
+                    if (worker == null) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    task.setWorker(worker);
+                    return agentWorkerRpc.dispatchAsync(task);
+                })
+                .handle((dispatched, e) -> {
+                    if (e != null) {
+                        log.error("Task dispatch failed: task={} worker={}", task.getId(), task.getWorker(), e);
+                        return false;
+                    }
+                    try {
+                        afterDispatch(task, dispatched);
+                    } catch (Exception ex) {
+                        log.error("Task dispatch failed: task={} worker={}", task.getId(), task.getWorker(), ex);
+                    }
+                    return dispatched;
+                });
+    }
 
-            if (dispatched) {
-                log.info("Task dispatch success task={} worker={}", task.getId(), task.getWorker());
-            } else {
-                task.dispatchFail();
-                log.error("Task dispatch failed: task={} worker={} times={}", task.getId(), task.getWorker(), task.getDispatchFailTimes());
-                taskRepository.dispatchFail(task.getJobId(), task.getId());
-                if (task.getDispatchFailTimes() >= 3) {
-                    Job job = jobRepository.getById(task.getJobId());
-                    String workerId = task.getWorker() == null ? "" : task.getWorker().getId();
-                    String workerUrl = task.getWorker() == null ? "" : task.getWorker().getUrl().toString();
-                    job.taskFail(task, String.format("task dispatch fail over limit last worker=(id=%s, url=%s)", workerId, workerUrl), "");
-                }
+    private void afterDispatch(Task task, boolean dispatched) {
+        if (dispatched) {
+            latencyRecorder.dispatched(task);
+            log.info("Task dispatch success task={} worker={}", task.getId(), task.getWorker());
+        } else {
+            task.dispatchFail();
+            log.error("Task dispatch failed: task={} worker={} times={}", task.getId(), task.getWorker(), task.getDispatchFailTimes());
+            taskRepository.dispatchFail(task.getJobId(), task.getId());
+            if (task.getDispatchFailTimes() >= 3) {
+                Job job = jobRepository.getById(task.getJobId());
+                String workerId = task.getWorker() == null ? "" : task.getWorker().getId();
+                String workerUrl = task.getWorker() == null ? "" : task.getWorker().getUrl().toString();
+                job.taskFail(task, String.format("task dispatch fail over limit last worker=(id=%s, url=%s)", workerId, workerUrl), "");
             }
-        } catch (Exception e) {
-            log.error("Task dispatch failed: task={} worker={}", task.getId(), task.getWorker(), e);
         }
     }
 
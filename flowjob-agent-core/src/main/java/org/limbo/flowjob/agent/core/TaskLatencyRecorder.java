@@ -0,0 +1,170 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.agent.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import org.limbo.flowjob.agent.core.entity.Task;
+import org.limbo.flowjob.api.param.broker.WorkerLatencyParam;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 统计 task 从下发到收到反馈的耗时和未反馈的 task 数，按 worker 汇总后随心跳上报给 broker。
+ * 下发和反馈都经过 agent，由 agent 统计未完成数，不受 broker 之间请求分布的影响
+ *
+ * @author Brozen
+ * @since 2024-02-11
+ */
+public class TaskLatencyRecorder {
+
+    /**
+     * 最多记录多少个执行中的 task，超出或超时未反馈的不再统计
+     */
+    private static final int MAX_PENDING = 100000;
+
+    /**
+     * workerId -> 已下发还未反馈的 task 数
+     */
+    private final Map<String, Integer> outstanding = new ConcurrentHashMap<>();
+
+    /**
+     * jobId:taskId -> 下发信息
+     */
+    private final Cache<String, Pending> pending = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PENDING)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .removalListener((RemovalListener<String, Pending>) notification -> {
+                // 反馈、超时、重复下发时都减少未完成数
+                Pending p = notification.getValue();
+                if (p != null) {
+                    outstanding.computeIfPresent(p.workerId, (id, count) -> count > 1 ? count - 1 : null);
+                }
+            })
+            .build();
+
+    /**
+     * workerId -> 上次心跳后的耗时汇总
+     */
+    private final Map<String, Sample> samples = new ConcurrentHashMap<>();
+
+    /**
+     * task 下发成功
+     */
+    public void dispatched(Task task) {
+        if (task.getWorker() == null) {
+            return;
+        }
+        String workerId = task.getWorker().getId();
+        outstanding.merge(workerId, 1, Integer::sum);
+        pending.put(key(task), new Pending(workerId, System.nanoTime()));
+    }
+
+    /**
+     * 收到 task 执行结果反馈
+     */
+    public void completed(Task task) {
+        Pending p = pending.asMap().remove(key(task));
+        if (p == null) {
+            return;
+        }
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - p.dispatchAt);
+        samples.merge(p.workerId, new Sample(1, latency, latency), Sample::merge);
+    }
+
+    /**
+     * 取出上次心跳后的耗时汇总，以及当前未反馈的 task 数
+     */
+    public List<WorkerLatencyParam> drain() {
+        pending.cleanUp();
+        Set<String> workerIds = new HashSet<>(samples.keySet());
+        workerIds.addAll(outstanding.keySet());
+
+        List<WorkerLatencyParam> latencies = new ArrayList<>();
+        for (String workerId : workerIds) {
+            WorkerLatencyParam param = new WorkerLatencyParam();
+            param.setWorkerId(workerId);
+            param.setOutstanding(outstanding.getOrDefault(workerId, 0));
+            Sample sample = samples.remove(workerId);
+            if (sample != null) {
+                param.setCompleted(sample.count);
+                param.setAvgLatency(sample.total / sample.count);
+                param.setMaxLatency(sample.max);
+            }
+            latencies.add(param);
+        }
+        return latencies;
+    }
+
+    /**
+     * 心跳失败时放回，下次心跳一起上报
+     */
+    public void restore(List<WorkerLatencyParam> latencies) {
+        for (WorkerLatencyParam latency : latencies) {
+            if (latency.getCompleted() <= 0) {
+                continue;
+            }
+            Sample sample = new Sample(latency.getCompleted(), latency.getAvgLatency() * latency.getCompleted(), latency.getMaxLatency());
+            samples.merge(latency.getWorkerId(), sample, Sample::merge);
+        }
+    }
+
+    private static String key(Task task) {
+        return task.getJobId() + ":" + task.getId();
+    }
+
+    private static class Pending {
+
+        final String workerId;
+
+        final long dispatchAt;
+
+        Pending(String workerId, long dispatchAt) {
+            this.workerId = workerId;
+            this.dispatchAt = dispatchAt;
+        }
+    }
+
+    private static class Sample {
+
+        final int count;
+
+        final long total;
+
+        final long max;
+
+        Sample(int count, long total, long max) {
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        Sample merge(Sample other) {
+            return new Sample(count + other.count, total + other.total, Math.max(max, other.max));
+        }
+    }
+
+}
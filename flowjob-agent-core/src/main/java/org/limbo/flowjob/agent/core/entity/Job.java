@@ -350,7 +350,12 @@ public class Job implements Runnable {
 
         @Override
         public void run() {
-            brokerRpc.reportJob(id);
+            // 异步上报，避免阻塞上报线程池；上报失败不影响下次上报
+            brokerRpc.reportJobAsync(id).whenComplete((r, e) -> {
+                if (e != null) {
+                    log.warn("report job fail job={}", id, e);
+                }
+            });
         }
     }
 
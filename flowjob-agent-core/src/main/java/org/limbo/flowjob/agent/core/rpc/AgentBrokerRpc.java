@@ -24,6 +24,7 @@ import org.limbo.flowjob.agent.core.entity.Job;
 import org.limbo.flowjob.common.exception.RegisterFailException;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Devil
@@ -79,4 +80,29 @@ public interface AgentBrokerRpc {
      */
     List<Worker> availableWorkers(String jobId, boolean filterExecutor, boolean filterTag, boolean filterResource, boolean lbSelect);
 
+    /**
+     * 异步反馈 job 执行中，见 {@link #reportExecuting(String)}
+     */
+    CompletableFuture<Boolean> reportExecutingAsync(String instanceId);
+
+    /**
+     * 异步反馈任务执行状态，见 {@link #reportJob(String)}
+     */
+    CompletableFuture<Boolean> reportJobAsync(String jobInstanceId);
+
+    /**
+     * 异步向 Broker 反馈任务执行成功，见 {@link #feedbackJobSucceed(Job)}
+     */
+    CompletableFuture<Boolean> feedbackJobSucceedAsync(Job job);
+
+    /**
+     * 异步向 Broker 反馈任务执行失败，见 {@link #feedbackJobFail(Job, String)}
+     */
+    CompletableFuture<Boolean> feedbackJobFailAsync(Job job, String errorMsg);
+
+    /**
+     * 异步获取 job 可以下发的所有worker，见 {@link #availableWorkers(String, boolean, boolean, boolean, boolean)}
+     */
+    CompletableFuture<List<Worker>> availableWorkersAsync(String jobId, boolean filterExecutor, boolean filterTag, boolean filterResource, boolean lbSelect);
+
 }
@@ -21,6 +21,8 @@ package org.limbo.flowjob.agent.core.rpc;
 import org.limbo.flowjob.agent.core.entity.Task;
 import org.limbo.flowjob.agent.core.Worker;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author Devil
  * @since 2023/8/4
@@ -34,4 +36,11 @@ public interface AgentWorkerRpc {
      */
     boolean dispatch(Task task);
 
+    /**
+     * 异步发送一个作业到worker执行，不阻塞调用线程，见 {@link #dispatch(Task)}
+     * @param task 任务
+     * @return worker接受task后以 true 完成
+     */
+    CompletableFuture<Boolean> dispatchAsync(Task task);
+
 }
@@ -43,11 +43,16 @@ public class RpcParamFactory {
     }
 
     /**
-     * 封装心跳参数
+     * 封装心跳参数，可排队数未变化时不上报
+     *
+     * @param reported broker 已知的资源，为空时全量上报
      */
-    public static AgentHeartbeatParam heartbeatParam(ScheduleAgent agent) {
+    public static AgentHeartbeatParam heartbeatParam(ScheduleAgent agent, AgentResourceParam reported) {
+        int queueSize = agent.getResource().availableQueueSize();
         AgentResourceParam availableResource = new AgentResourceParam();
-        availableResource.setAvailableQueueLimit(agent.getResource().availableQueueSize());
+        if (reported == null || queueSize != reported.getAvailableQueueLimit()) {
+            availableResource.setAvailableQueueLimit(queueSize);
+        }
 
         AgentHeartbeatParam registerParam = new AgentHeartbeatParam();
         registerParam.setAvailableResource(availableResource);
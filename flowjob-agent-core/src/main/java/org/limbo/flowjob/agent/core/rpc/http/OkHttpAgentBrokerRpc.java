@@ -34,8 +34,11 @@ import org.limbo.flowjob.api.dto.ResponseDTO;
 import org.limbo.flowjob.api.dto.broker.AgentRegisterDTO;
 import org.limbo.flowjob.api.dto.broker.AvailableWorkerDTO;
 import org.limbo.flowjob.api.dto.broker.BrokerTopologyDTO;
+import org.limbo.flowjob.api.param.broker.AgentHeartbeatParam;
 import org.limbo.flowjob.api.param.broker.AgentRegisterParam;
+import org.limbo.flowjob.api.param.broker.AgentResourceParam;
 import org.limbo.flowjob.api.param.broker.JobFeedbackParam;
+import org.limbo.flowjob.api.param.broker.WorkerLatencyParam;
 import org.limbo.flowjob.common.exception.RegisterFailException;
 import org.limbo.flowjob.common.exception.RpcException;
 import org.limbo.flowjob.common.http.OKHttpRpc;
@@ -49,6 +52,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static org.limbo.flowjob.api.constants.rpc.HttpBrokerApi.*;
@@ -69,8 +73,49 @@ public class OkHttpAgentBrokerRpc extends OKHttpRpc<BaseLBServer> implements Age
 
     private static final Protocol DEFAULT_PROTOCOL = Protocol.HTTP;
 
+    private static final TypeReference<ResponseDTO<Boolean>> BOOLEAN_RESPONSE = new TypeReference<ResponseDTO<Boolean>>() {
+    };
+
+    private static final TypeReference<ResponseDTO<List<AvailableWorkerDTO>>> AVAILABLE_WORKERS_RESPONSE = new TypeReference<ResponseDTO<List<AvailableWorkerDTO>>>() {
+    };
+
+    /**
+     * 每隔多少次心跳全量上报一次资源，避免 broker 上的资源因增量丢失而偏离
+     */
+    private static final int FULL_SYNC_PERIOD = 10;
+
+    /**
+     * 心跳尽量发往同一个 broker，增量上报基于的资源保存在该 broker 上
+     */
+    private static final String HEARTBEAT_AFFINITY = "heartbeat";
+
     private String agentId = "";
 
+    /**
+     * broker 已知的资源，心跳只上报相对它的变化，为空时下次全量上报
+     */
+    private AgentResourceParam reported;
+
+    /**
+     * reported 对应的资源版本
+     */
+    private long reportedVersion;
+
+    /**
+     * 最近一次上报的资源版本，每次心跳递增
+     */
+    private long resourceVersion = 0;
+
+    /**
+     * 心跳次数
+     */
+    private int heartbeatCount = 0;
+
+    /**
+     * 已知的 broker 拓扑版本
+     */
+    private volatile Long topologyVersion;
+
     public OkHttpAgentBrokerRpc(LBServerRepository<BaseLBServer> repository, LBStrategy<BaseLBServer> strategy) {
         super(repository, strategy);
         this.repository = repository;
@@ -89,6 +134,8 @@ public class OkHttpAgentBrokerRpc extends OKHttpRpc<BaseLBServer> implements Age
         if (result != null) {
             agentId = result.getAgentId();
             updateBrokerTopology(result.getBrokerTopology());
+            reported = null;
+            heartbeatCount = 0;
         } else {
             String msg = "Register failed after tried all broker, please check your configuration";
             throw new RegisterFailException(msg);
@@ -138,6 +185,7 @@ public class OkHttpAgentBrokerRpc extends OKHttpRpc<BaseLBServer> implements Age
         }
 
         repository.updateServers(brokerNodes);
+        topologyVersion = topo.getVersion();
     }
 
     /**
@@ -147,80 +195,159 @@ public class OkHttpAgentBrokerRpc extends OKHttpRpc<BaseLBServer> implements Age
      */
     @Override
     public void heartbeat(ScheduleAgent agent) {
-        ResponseDTO<AgentRegisterDTO> response = executePost(BASE_URL + API_AGENT_HEARTBEAT + "?id=" + agentId, RpcParamFactory.heartbeatParam(agent), new TypeReference<ResponseDTO<AgentRegisterDTO>>() {
-        });
+        AgentResourceParam base = heartbeatCount++ % FULL_SYNC_PERIOD == 0 ? null : reported;
+        List<WorkerLatencyParam> latencies = agent.getLatencyRecorder().drain();
+        AgentRegisterDTO data;
+        try {
+            data = sendHeartbeat(agent, base, latencies);
+        } catch (RuntimeException e) {
+            agent.getLatencyRecorder().restore(latencies);
+            throw e;
+        }
+        if (base != null && data != null && data.isFullSyncRequired()) {
+            // 心跳发往了没有增量基准的 broker，立即全量上报，耗时样本已经上报过，只带上未完成任务数
+            sendHeartbeat(agent, null, outstandingOnly(latencies));
+        }
+    }
+
+    private static List<WorkerLatencyParam> outstandingOnly(List<WorkerLatencyParam> latencies) {
+        List<WorkerLatencyParam> result = new ArrayList<>(latencies.size());
+        for (WorkerLatencyParam latency : latencies) {
+            WorkerLatencyParam param = new WorkerLatencyParam();
+            param.setWorkerId(latency.getWorkerId());
+            param.setOutstanding(latency.getOutstanding());
+            result.add(param);
+        }
+        return result;
+    }
+
+    private AgentRegisterDTO sendHeartbeat(ScheduleAgent agent, AgentResourceParam base, List<WorkerLatencyParam> latencies) {
+        AgentHeartbeatParam param = RpcParamFactory.heartbeatParam(agent, base);
+        param.setTopologyVersion(topologyVersion);
+        param.setWorkerLatencies(latencies);
+        long version = ++resourceVersion;
+        param.setResourceVersion(version);
+        if (base != null) {
+            param.setBaseVersion(reportedVersion);
+        }
 
+        // 心跳失败时 broker 可能没有收到增量，下次全量上报
+        reported = null;
+        // 资源均为绝对值，可以重复发送；携带耗时样本时重复发送会重复统计
+        String url = BASE_URL + API_AGENT_HEARTBEAT + "?id=" + agentId;
+        ResponseDTO<AgentRegisterDTO> response = executeStickyPost(url, param, new TypeReference<ResponseDTO<AgentRegisterDTO>>() {
+        }, HEARTBEAT_AFFINITY, latencies.isEmpty());
         checkResponse(response, API_AGENT_HEARTBEAT);
+        reported = param.getAvailableResource().getAvailableQueueLimit() != null ? param.getAvailableResource() : base;
+        reportedVersion = version;
 
-        // 更新 broker 节点拓扑
-        if (response.getData() != null) {
-            AgentRegisterDTO data = response.getData();
+        // 拓扑版本变化时才会返回，更新 broker 节点拓扑
+        AgentRegisterDTO data = response.getData();
+        if (data != null && data.getBrokerTopology() != null) {
             updateBrokerTopology(data.getBrokerTopology());
         }
+        return data;
     }
 
     @Override
     public boolean reportExecuting(String jobInstanceId) {
-        String url = BASE_URL +
+        ResponseDTO<Boolean> response = executePost(reportExecutingUrl(jobInstanceId), null, BOOLEAN_RESPONSE);
+        checkResponse(response, API_JOB_EXECUTING);
+        return response.getData();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> reportExecutingAsync(String jobInstanceId) {
+        return executePostAsync(reportExecutingUrl(jobInstanceId), null, BOOLEAN_RESPONSE, response -> {
+            checkResponse(response, API_JOB_EXECUTING);
+            return response.getData();
+        });
+    }
+
+    private String reportExecutingUrl(String jobInstanceId) {
+        return BASE_URL +
                 API_JOB_EXECUTING +
                 "?agentId=" + agentId +
                 "&jobInstanceId=" + jobInstanceId;
-        ResponseDTO<Boolean> response = executePost(url, null, new TypeReference<ResponseDTO<Boolean>>() {
-        });
-
-        checkResponse(response, API_JOB_EXECUTING);
+    }
 
+    @Override
+    public boolean reportJob(String jobInstanceId) {
+        ResponseDTO<Boolean> response = executePost(BASE_URL + API_JOB_REPORT + "?jobInstanceId=" + jobInstanceId, null, BOOLEAN_RESPONSE);
+        checkResponse(response, API_JOB_REPORT);
         return response.getData();
     }
 
     @Override
-    public boolean reportJob(String jobInstanceId) {
-        String url = BASE_URL +
-                API_JOB_REPORT +
-                "?jobInstanceId=" + jobInstanceId;
-        ResponseDTO<Boolean> response = executePost(url, null, new TypeReference<ResponseDTO<Boolean>>() {
+    public CompletableFuture<Boolean> reportJobAsync(String jobInstanceId) {
+        return executePostAsync(BASE_URL + API_JOB_REPORT + "?jobInstanceId=" + jobInstanceId, null, BOOLEAN_RESPONSE, response -> {
+            checkResponse(response, API_JOB_REPORT);
+            return response.getData();
         });
+    }
 
-        checkResponse(response, API_JOB_REPORT);
-
+    @Override
+    public boolean feedbackJobSucceed(Job job) {
+        ResponseDTO<Boolean> response = executePost(BASE_URL + API_JOB_FEEDBACK + "?jobInstanceId=" + job.getId(), succeedParam(job), BOOLEAN_RESPONSE);
+        checkResponse(response, API_JOB_FEEDBACK);
         return response.getData();
     }
 
     @Override
-    public boolean feedbackJobSucceed(Job job) {
+    public CompletableFuture<Boolean> feedbackJobSucceedAsync(Job job) {
+        return executePostAsync(BASE_URL + API_JOB_FEEDBACK + "?jobInstanceId=" + job.getId(), succeedParam(job), BOOLEAN_RESPONSE, response -> {
+            checkResponse(response, API_JOB_FEEDBACK);
+            return response.getData();
+        });
+    }
+
+    private JobFeedbackParam succeedParam(Job job) {
         JobFeedbackParam param = new JobFeedbackParam();
         param.setContext(job.getContext().toMap());
         param.setResult(ExecuteResult.SUCCEED);
-        String url = BASE_URL + API_JOB_FEEDBACK + "?jobInstanceId=" + job.getId();
-        ResponseDTO<Boolean> response = executePost(url, param, new TypeReference<ResponseDTO<Boolean>>() {
-        });
+        return param;
+    }
 
+    @Override
+    public boolean feedbackJobFail(Job job, String errorMsg) {
+        ResponseDTO<Boolean> response = executePost(BASE_URL + API_JOB_FEEDBACK + "?jobInstanceId=" + job.getId(), failParam(errorMsg), BOOLEAN_RESPONSE);
         checkResponse(response, API_JOB_FEEDBACK);
-
         return response.getData();
     }
 
     @Override
-    public boolean feedbackJobFail(Job job, String errorMsg) {
+    public CompletableFuture<Boolean> feedbackJobFailAsync(Job job, String errorMsg) {
+        return executePostAsync(BASE_URL + API_JOB_FEEDBACK + "?jobInstanceId=" + job.getId(), failParam(errorMsg), BOOLEAN_RESPONSE, response -> {
+            checkResponse(response, API_JOB_FEEDBACK);
+            return response.getData();
+        });
+    }
+
+    private JobFeedbackParam failParam(String errorMsg) {
         JobFeedbackParam param = new JobFeedbackParam();
         param.setErrorMsg(errorMsg);
         param.setResult(ExecuteResult.FAILED);
-        String url = BASE_URL + API_JOB_FEEDBACK + "?jobInstanceId=" + job.getId();
-        ResponseDTO<Boolean> response = executePost(url, param, new TypeReference<ResponseDTO<Boolean>>() {
-        });
-
-        checkResponse(response, API_JOB_FEEDBACK);
-
-        return response.getData();
+        return param;
     }
 
     @Override
     public List<Worker> availableWorkers(String jobId, boolean filterExecutor, boolean filterTag, boolean filterResource, boolean lbSelect) {
-        String url = String.format(BASE_URL + API_JOB_FILTER_WORKER + "?jobInstanceId=%s&filterExecutor=%s&filterTag=%s&filterResource=%s&lbSelect=%s",
+        String url = availableWorkersUrl(jobId, filterExecutor, filterTag, filterResource, lbSelect);
+        return toWorkers(executeGet(url, AVAILABLE_WORKERS_RESPONSE));
+    }
+
+    @Override
+    public CompletableFuture<List<Worker>> availableWorkersAsync(String jobId, boolean filterExecutor, boolean filterTag, boolean filterResource, boolean lbSelect) {
+        String url = availableWorkersUrl(jobId, filterExecutor, filterTag, filterResource, lbSelect);
+        return executeGetAsync(url, AVAILABLE_WORKERS_RESPONSE, this::toWorkers);
+    }
+
+    private String availableWorkersUrl(String jobId, boolean filterExecutor, boolean filterTag, boolean filterResource, boolean lbSelect) {
+        return String.format(BASE_URL + API_JOB_FILTER_WORKER + "?jobInstanceId=%s&filterExecutor=%s&filterTag=%s&filterResource=%s&lbSelect=%s",
                 jobId, filterExecutor, filterTag, filterResource, lbSelect);
-        ResponseDTO<List<AvailableWorkerDTO>> response = executeGet(url, new TypeReference<ResponseDTO<List<AvailableWorkerDTO>>>() {
-        });
+    }
 
+    private List<Worker> toWorkers(ResponseDTO<List<AvailableWorkerDTO>> response) {
         checkResponse(response, API_JOB_FILTER_WORKER);
         List<AvailableWorkerDTO> workerDTOS = response.getData();
         if (CollectionUtils.isEmpty(workerDTOS)) {
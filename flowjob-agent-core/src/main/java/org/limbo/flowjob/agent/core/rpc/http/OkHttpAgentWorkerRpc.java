@@ -36,6 +36,7 @@ import java.net.URL;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.limbo.flowjob.api.constants.rpc.HttpWorkerApi.API_SUBMIT_TASK;
 
@@ -46,10 +47,13 @@ import static org.limbo.flowjob.api.constants.rpc.HttpWorkerApi.API_SUBMIT_TASK;
 @Slf4j
 public class OkHttpAgentWorkerRpc extends OKHttpRpc<BaseLBServer> implements AgentWorkerRpc {
 
+    private static final TypeReference<ResponseDTO<Boolean>> BOOLEAN_RESPONSE = new TypeReference<ResponseDTO<Boolean>>() {
+    };
+
     private URL agentUrl;
 
     public OkHttpAgentWorkerRpc(URL agentUrl) {
-        super(null, null);
+        super(null, null, true);
         this.agentUrl = agentUrl;
     }
 
@@ -59,14 +63,28 @@ public class OkHttpAgentWorkerRpc extends OKHttpRpc<BaseLBServer> implements Age
         if (worker == null) {
             return false;
         }
+        ResponseDTO<Boolean> response = executePost(submitUrl(worker), toTaskSubmitParam(agentUrl, task), BOOLEAN_RESPONSE);
+        return checkResponse(response);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> dispatchAsync(Task task) {
+        Worker worker = task.getWorker();
+        if (worker == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return executePostAsync(submitUrl(worker), toTaskSubmitParam(agentUrl, task), BOOLEAN_RESPONSE, this::checkResponse);
+    }
+
+    private String submitUrl(Worker worker) {
         URL url = worker.getUrl();
-        String baseUrl = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
-        ResponseDTO<Boolean> response = executePost(baseUrl + API_SUBMIT_TASK, toTaskSubmitParam(agentUrl, task), new TypeReference<ResponseDTO<Boolean>>() {
-        });
+        return url.getProtocol() + "://" + url.getHost() + ":" + url.getPort() + API_SUBMIT_TASK;
+    }
 
+    private boolean checkResponse(ResponseDTO<Boolean> response) {
         if (response == null || !response.success()) {
             String msg = response == null ? MsgConstants.UNKNOWN : (response.getCode() + ":" + response.getMessage());
-            throw new RpcException("Agent heartbeat failed: " + msg);
+            throw new RpcException("Agent dispatch task failed: " + msg);
         }
         return response.getData();
     }
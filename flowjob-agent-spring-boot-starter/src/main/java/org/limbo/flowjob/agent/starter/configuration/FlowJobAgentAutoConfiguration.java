@@ -19,6 +19,7 @@
 package org.limbo.flowjob.agent.starter.configuration;
 
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.limbo.flowjob.agent.core.AgentResources;
@@ -40,6 +41,7 @@ import org.limbo.flowjob.agent.starter.component.H2ConnectionFactory;
 import org.limbo.flowjob.agent.starter.handler.HttpHandlerProcessor;
 import org.limbo.flowjob.agent.starter.properties.AgentProperties;
 import org.limbo.flowjob.api.constants.Protocol;
+import org.limbo.flowjob.common.http.HttpClientRegistry;
 import org.limbo.flowjob.common.lb.BaseLBServer;
 import org.limbo.flowjob.common.lb.BaseLBServerRepository;
 import org.limbo.flowjob.common.lb.LBServerRepository;
@@ -53,6 +55,7 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.util.Assert;
 
 import java.net.MalformedURLException;
@@ -80,6 +83,16 @@ public class FlowJobAgentAutoConfiguration {
         this.properties = properties;
     }
 
+    /**
+     * 按配置初始化的共享 HTTP 客户端，RPC 客户端都从 {@link HttpClientRegistry} 获取，创建 RPC 客户端的 bean 依赖此 bean。
+     * 不参与按类型注入，避免与应用自己声明的 {@link OkHttpClient} 冲突
+     */
+    @Bean(name = "fjaHttpClient", autowireCandidate = false)
+    public OkHttpClient httpClient() {
+        HttpClientRegistry.configure(properties.getHttp());
+        return HttpClientRegistry.client();
+    }
+
 
     /**
      * agent 实例，
@@ -171,6 +184,7 @@ public class FlowJobAgentAutoConfiguration {
     }
 
     @Bean("fjaAgentWorkerRpc")
+    @DependsOn("fjaHttpClient")
     @ConditionalOnMissingBean(AgentWorkerRpc.class)
     public AgentWorkerRpc workerRpc(URL fjaAgentServerUrl) {
         return new OkHttpAgentWorkerRpc(fjaAgentServerUrl);
@@ -181,6 +195,7 @@ public class FlowJobAgentAutoConfiguration {
      * Broker 通信模块
      */
     @Bean("fjaAgentBrokerRpc")
+    @DependsOn("fjaHttpClient")
     @ConditionalOnMissingBean(AgentBrokerRpc.class)
     public AgentBrokerRpc brokerRpc(LBServerRepository<BaseLBServer> fjaBrokerLoadBalanceRepo, LBStrategy<BaseLBServer> fjaBrokerLoadBalanceStrategy) {
         List<URL> brokers = properties.getBrokers();
@@ -32,7 +32,10 @@ import org.limbo.flowjob.api.constants.JobType;
 import org.limbo.flowjob.api.constants.LoadBalanceType;
 import org.limbo.flowjob.api.dto.PageDTO;
 import org.limbo.flowjob.api.dto.ResponseDTO;
+import org.limbo.flowjob.api.dto.agent.JobBatchReceiveDTO;
+import org.limbo.flowjob.api.dto.agent.JobReceiveDTO;
 import org.limbo.flowjob.api.dto.console.TaskDTO;
+import org.limbo.flowjob.api.param.agent.JobBatchSubmitParam;
 import org.limbo.flowjob.api.param.agent.JobSubmitParam;
 import org.limbo.flowjob.api.param.agent.SubTaskCreateParam;
 import org.limbo.flowjob.api.param.agent.TaskFeedbackParam;
@@ -42,7 +45,16 @@ import org.limbo.flowjob.common.rpc.IHttpHandlerProcessor;
 import org.limbo.flowjob.common.utils.attribute.Attributes;
 import org.limbo.flowjob.common.utils.json.JacksonUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static org.limbo.flowjob.api.constants.rpc.HttpAgentApi.*;
 
@@ -67,10 +79,31 @@ public class HttpHandlerProcessor implements IHttpHandlerProcessor {
 
     @Override
     public String process(HttpMethod httpMethod, String uri, String data) {
-        return JacksonUtils.toJSONString(process0(httpMethod, uri, data));
+        byte[] bytes = data == null ? new byte[0] : data.getBytes(StandardCharsets.UTF_8);
+        return JacksonUtils.toJSONString(process0(httpMethod, uri, new ByteArrayInputStream(bytes), null));
     }
 
-    private ResponseDTO<?> process0(HttpMethod httpMethod, String uri, String data) {
+    /**
+     * 在业务线程池中直接从请求体解析参数，不再先转为字符串
+     */
+    @Override
+    public CompletableFuture<String> processAsync(HttpMethod httpMethod, String uri, InputStream data, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> JacksonUtils.toJSONString(process0(httpMethod, uri, data, null)), executor);
+    }
+
+    /**
+     * 二进制协议解码后的参数直接使用，无需再解析 JSON
+     */
+    @Override
+    public CompletableFuture<String> processParamAsync(HttpMethod httpMethod, String uri, Object param, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> JacksonUtils.toJSONString(process0(httpMethod, uri, null, param)), executor);
+    }
+
+    /**
+     * @param data  JSON 请求体，param 不为空时忽略
+     * @param param 已解码的请求参数
+     */
+    private ResponseDTO<?> process0(HttpMethod httpMethod, String uri, InputStream data, Object param) {
         if (StringUtils.isBlank(uri)) {
             String msg = "Invalid request, Uri is empty.";
             return ResponseDTO.<Void>builder().notFound(msg).build();
@@ -85,23 +118,26 @@ public class HttpHandlerProcessor implements IHttpHandlerProcessor {
         try {
             switch (uri) {
                 case API_JOB_RECEIVE:
-                    JobSubmitParam jobSubmitParam = JacksonUtils.parseObject(data, JobSubmitParam.class);
-                    return ResponseDTO.<Boolean>builder().ok(receive(jobSubmitParam)).build();
+                    JobSubmitParam jobSubmitParam = parseParam(data, param, JobSubmitParam.class);
+                    return ResponseDTO.<JobReceiveDTO>builder().ok(receive(jobSubmitParam)).build();
+                case API_JOB_BATCH_RECEIVE:
+                    JobBatchSubmitParam jobBatchSubmitParam = parseParam(data, param, JobBatchSubmitParam.class);
+                    return ResponseDTO.<JobBatchReceiveDTO>builder().ok(batchReceive(jobBatchSubmitParam)).build();
                 case API_TASK_EXECUTING:
-                    TaskReportParam taskReportExecutingParam = JacksonUtils.parseObject(data, TaskReportParam.class);
+                    TaskReportParam taskReportExecutingParam = parseParam(data, param, TaskReportParam.class);
                     return ResponseDTO.<Boolean>builder().ok(reportTaskExecuting(taskReportExecutingParam)).build();
                 case API_TASK_REPORT:
-                    TaskReportParam taskReportParam = JacksonUtils.parseObject(data, TaskReportParam.class);
+                    TaskReportParam taskReportParam = parseParam(data, param, TaskReportParam.class);
                     return ResponseDTO.<Boolean>builder().ok(reportTask(taskReportParam)).build();
                 case API_TASK_RECEIVE:
-                    SubTaskCreateParam subTaskCreateParam = JacksonUtils.parseObject(data, SubTaskCreateParam.class);
+                    SubTaskCreateParam subTaskCreateParam = parseParam(data, param, SubTaskCreateParam.class);
                     return ResponseDTO.<Boolean>builder().ok(receiveSubTasks(subTaskCreateParam)).build();
                 case API_TASK_FEEDBACK:
-                    TaskFeedbackParam taskFeedbackParam = JacksonUtils.parseObject(data, TaskFeedbackParam.class);
+                    TaskFeedbackParam taskFeedbackParam = parseParam(data, param, TaskFeedbackParam.class);
                     taskFeedback(taskFeedbackParam);
                     return ResponseDTO.<Boolean>builder().ok(true).build();
                 case API_TASK_PAGE:
-                    TaskQueryParam taskQueryParam = JacksonUtils.parseObject(data, TaskQueryParam.class);
+                    TaskQueryParam taskQueryParam = parseParam(data, param, TaskQueryParam.class);
                     return ResponseDTO.<PageDTO<TaskDTO>>builder().ok(taskService.page(taskQueryParam)).build();
                 case "/api/v1/backdoor/job/list":
                     return ResponseDTO.<List<Job>>builder().ok(jobRepository.findAll()).build();
@@ -111,26 +147,71 @@ public class HttpHandlerProcessor implements IHttpHandlerProcessor {
             log.info(msg + " uri={}", uri);
             return ResponseDTO.<Void>builder().notFound(msg).build();
         } catch (Exception e) {
-            log.error("Request process fail uri={} param={}", uri, data, e);
+            log.error("Request process fail uri={}", uri, e);
             return ResponseDTO.<Void>builder().error(e.getMessage()).build();
         }
     }
 
+    private static <T> T parseParam(InputStream data, Object param, Class<T> type) {
+        if (param == null) {
+            return JacksonUtils.parseObject(data, type);
+        }
+        if (!type.isInstance(param)) {
+            throw new IllegalArgumentException("Param type mismatch, expect " + type.getSimpleName() + " but " + param.getClass().getSimpleName());
+        }
+        return type.cast(param);
+    }
+
 
-    public boolean receive(JobSubmitParam param) {
+    public JobReceiveDTO receive(JobSubmitParam param) {
         log.info("receive job param={}", param);
+        JobReceiveDTO result = new JobReceiveDTO();
         try {
             Job job = agentConverter.convert(param);
             agent.receiveJob(job);
-            return true;
+            result.setAccepted(true);
         } catch (Exception e) {
             log.error("Failed to receive job param={}", param, e);
-            return false;
+            result.setAccepted(false);
         } finally {
             if (log.isDebugEnabled()) {
                 log.debug("receive job success param={}", param);
             }
         }
+        // 无论是否接收成功都返回剩余可排队数，broker 据此重置下发额度
+        result.setAvailableQueueLimit(agent.getResource().availableQueueSize());
+        return result;
+    }
+
+    public JobBatchReceiveDTO batchReceive(JobBatchSubmitParam param) {
+        List<JobSubmitParam> params = param.getJobs() == null ? Collections.emptyList() : param.getJobs();
+        if (log.isDebugEnabled()) {
+            log.debug("receive jobs size={}", params.size());
+        }
+        List<Job> jobs = new ArrayList<>(params.size());
+        List<String> rejected = new ArrayList<>();
+        for (JobSubmitParam jobParam : params) {
+            try {
+                jobs.add(agentConverter.convert(jobParam));
+            } catch (Exception e) {
+                log.error("Failed to convert job param={}", jobParam, e);
+                rejected.add(jobParam.getJobInstanceId());
+            }
+        }
+
+        List<String> accepted = jobs.isEmpty() ? Collections.emptyList() : agent.receiveJobs(jobs);
+        Set<String> acceptedIds = new HashSet<>(accepted);
+        for (Job job : jobs) {
+            if (!acceptedIds.contains(job.getId())) {
+                rejected.add(job.getId());
+            }
+        }
+
+        JobBatchReceiveDTO result = new JobBatchReceiveDTO();
+        result.setAcceptedJobInstanceIds(accepted);
+        result.setRejectedJobInstanceIds(rejected);
+        result.setAvailableQueueLimit(agent.getResource().availableQueueSize());
+        return result;
     }
 
     public boolean reportTaskExecuting(TaskReportParam param) {
@@ -20,6 +20,7 @@ package org.limbo.flowjob.agent.starter.properties;
 
 import lombok.Data;
 import org.limbo.flowjob.api.constants.Protocol;
+import org.limbo.flowjob.common.http.HttpClientConfig;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 import java.net.URL;
@@ -81,6 +82,11 @@ public class AgentProperties {
      */
     private int queueSize = 1024;
 
+    /**
+     * 与 broker、worker 通信的 HTTP 客户端配置
+     */
+    private HttpClientConfig http = new HttpClientConfig();
+
     /**
      * 数据库配置
      */
@@ -31,6 +31,7 @@ import lombok.Getter;
  *     <li>{@linkplain LoadBalanceType#LEAST_FREQUENTLY_USED 最不经常使用}</li>
  *     <li>{@linkplain LoadBalanceType#LEAST_RECENTLY_USED 最近最少使用}</li>
  *     <li>{@linkplain LoadBalanceType#CONSISTENT_HASH 一致性hash}</li>
+ *     <li>{@linkplain LoadBalanceType#LEAST_LOADED 最小负载}</li>
  * </ul>
  *
  * @author Brozen
@@ -69,6 +70,11 @@ public enum LoadBalanceType {
      */
     CONSISTENT_HASH(6, "一致性hash"),
 
+    /**
+     * 最小负载。随机选取两个worker，下发给 未完成任务数 * 任务耗时 较小的一个。
+     */
+    LEAST_LOADED(7, "最小负载"),
+
     ;
 
     @JsonValue
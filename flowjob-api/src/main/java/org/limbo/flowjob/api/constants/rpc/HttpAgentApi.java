@@ -25,6 +25,12 @@ package org.limbo.flowjob.api.constants.rpc;
 public interface HttpAgentApi {
 
     String API_JOB_RECEIVE = "/api/v1/rpc/job";
+
+    /**
+     * 批量接收作业
+     */
+    String API_JOB_BATCH_RECEIVE = "/api/v1/rpc/job/batch";
+
     /**
      * 任务接收
      */
@@ -0,0 +1,54 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.api.dto.agent;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * agent 批量接收作业的结果，每个作业单独返回是否接收成功
+ *
+ * @author Brozen
+ * @since 2024-02-21
+ */
+@Data
+@Schema(title = "agent 批量接收作业的结果")
+public class JobBatchReceiveDTO {
+
+    /**
+     * 接收成功的作业实例 ID
+     */
+    @Schema(description = "接收成功的作业实例ID")
+    private List<String> acceptedJobInstanceIds;
+
+    /**
+     * 被拒绝的作业实例 ID
+     */
+    @Schema(description = "被拒绝的作业实例ID")
+    private List<String> rejectedJobInstanceIds;
+
+    /**
+     * 接收后任务队列剩余可排队数，broker 据此补充下发额度
+     */
+    @Schema(description = "任务队列剩余可排队数")
+    private Integer availableQueueLimit;
+
+}
@@ -0,0 +1,46 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.api.dto.agent;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * agent 接收作业的结果
+ *
+ * @author Brozen
+ * @since 2024-02-20
+ */
+@Data
+@Schema(title = "agent 接收作业的结果")
+public class JobReceiveDTO {
+
+    /**
+     * 是否接收成功
+     */
+    @Schema(description = "是否接收成功")
+    private boolean accepted;
+
+    /**
+     * 接收后任务队列剩余可排队数，broker 据此补充下发额度
+     */
+    @Schema(description = "任务队列剩余可排队数")
+    private Integer availableQueueLimit;
+
+}
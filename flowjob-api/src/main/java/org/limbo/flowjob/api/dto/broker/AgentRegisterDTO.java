@@ -43,4 +43,10 @@ public class AgentRegisterDTO {
     @Schema(description = "broker 的拓扑结构")
     private BrokerTopologyDTO brokerTopology;
 
+    /**
+     * 心跳响应中使用，broker 没有持有增量上报基于的资源版本，客户端需要立即全量上报
+     */
+    @Schema(description = "是否需要全量上报资源")
+    private boolean fullSyncRequired;
+
 }
@@ -43,4 +43,10 @@ public class BrokerTopologyDTO {
     @Schema(description = "broker节点列表，主从模式下，列表中仅包括一个主节点")
     private List<BrokerDTO> brokers = new ArrayList<>();
 
+    /**
+     * 拓扑版本，由存活节点地址计算，节点不变时版本不变
+     */
+    @Schema(description = "拓扑版本，由存活节点地址计算，节点不变时版本不变")
+    private Long version;
+
 }
@@ -22,6 +22,7 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.Data;
 
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * 心跳 相比于注册时候，只返回更少的内容
@@ -41,4 +42,28 @@ public class AgentHeartbeatParam implements Serializable {
     @Schema(description = "可用的资源")
     private AgentResourceParam availableResource;
 
+    /**
+     * 客户端已知的 broker 拓扑版本，与 broker 当前版本一致时响应中不再返回拓扑
+     */
+    @Schema(description = "客户端已知的 broker 拓扑版本")
+    private Long topologyVersion;
+
+    /**
+     * 本次上报资源的版本，客户端每次心跳递增
+     */
+    @Schema(description = "本次上报资源的版本")
+    private Long resourceVersion;
+
+    /**
+     * 增量上报时基于的资源版本，为空表示全量上报。broker 持有的版本不一致时要求客户端全量上报
+     */
+    @Schema(description = "增量上报时基于的资源版本，为空表示全量上报")
+    private Long baseVersion;
+
+    /**
+     * 上次心跳后各 worker 完成任务的耗时
+     */
+    @Schema(description = "上次心跳后各 worker 完成任务的耗时")
+    private List<WorkerLatencyParam> workerLatencies;
+
 }
@@ -23,6 +23,7 @@ import lombok.Data;
 
 /**
  * 节点上可用的资源
+ * 心跳上报时未变化的字段为空
  *
  * @author Brozen
  * @since 2021-05-17
@@ -35,6 +36,6 @@ public class AgentResourceParam {
      * 任务队列剩余可排队数
      */
     @Schema(description = "任务队列可排队数")
-    private int availableQueueLimit;
+    private Integer availableQueueLimit;
 
 }
@@ -41,4 +41,22 @@ public class WorkerHeartbeatParam implements Serializable {
     @Schema(description = "worker可用的资源")
     private WorkerResourceParam availableResource;
 
+    /**
+     * 客户端已知的 broker 拓扑版本，与 broker 当前版本一致时响应中不再返回拓扑
+     */
+    @Schema(description = "客户端已知的 broker 拓扑版本")
+    private Long topologyVersion;
+
+    /**
+     * 本次上报资源的版本，客户端每次心跳递增
+     */
+    @Schema(description = "本次上报资源的版本")
+    private Long resourceVersion;
+
+    /**
+     * 增量上报时基于的资源版本，为空表示全量上报。broker 持有的版本不一致时要求客户端全量上报
+     */
+    @Schema(description = "增量上报时基于的资源版本，为空表示全量上报")
+    private Long baseVersion;
+
 }
@@ -0,0 +1,65 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.api.param.broker;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * agent 观测到的 worker 任务耗时（从下发到收到反馈）和未完成任务数
+ *
+ * @author Brozen
+ * @since 2024-02-11
+ */
+@Data
+@Schema(title = "worker任务耗时")
+public class WorkerLatencyParam implements Serializable {
+
+    private static final long serialVersionUID = -3160284917343618220L;
+
+    @Schema(description = "workerId")
+    private String workerId;
+
+    /**
+     * 上次心跳后完成的任务数
+     */
+    @Schema(description = "上次心跳后完成的任务数")
+    private int completed;
+
+    /**
+     * 平均耗时，毫秒
+     */
+    @Schema(description = "平均耗时，毫秒")
+    private long avgLatency;
+
+    /**
+     * 最大耗时，毫秒
+     */
+    @Schema(description = "最大耗时，毫秒")
+    private long maxLatency;
+
+    /**
+     * 该 agent 已下发给 worker 还未收到反馈的任务数，为空表示 agent 未统计
+     */
+    @Schema(description = "已下发还未收到反馈的任务数")
+    private Integer outstanding;
+
+}
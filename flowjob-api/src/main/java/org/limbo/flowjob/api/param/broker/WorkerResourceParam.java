@@ -23,6 +23,7 @@ import lombok.Data;
 
 /**
  * worker节点上可用的资源
+ * 心跳上报时只携带相对上次上报变化超过阈值的字段，为空的字段表示未变化
  *
  * @author Brozen
  * @since 2021-05-17
@@ -35,18 +36,18 @@ public class WorkerResourceParam {
      * 可用的CPU核心数。
      */
     @Schema(description = "可用的CPU核心数。")
-    private float availableCpu;
+    private Float availableCpu;
 
     /**
      * 可用的内存空间，单位MB。
      */
     @Schema(description = "可用的内存空间，单位MB。")
-    private long availableRAM;
+    private Long availableRAM;
 
     /**
      * 任务队列剩余可排队数
      */
     @Schema(description = "任务队列可排队数")
-    private int availableQueueLimit;
+    private Integer availableQueueLimit;
 
 }
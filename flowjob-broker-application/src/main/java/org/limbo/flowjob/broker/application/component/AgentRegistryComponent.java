@@ -21,6 +21,7 @@ package org.limbo.flowjob.broker.application.component;
 import lombok.extern.slf4j.Slf4j;
 import org.limbo.flowjob.broker.core.agent.AgentRegistry;
 import org.limbo.flowjob.broker.core.agent.AgentRepository;
+import org.limbo.flowjob.broker.core.cluster.NodeManger;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.stereotype.Component;
 
@@ -32,8 +33,8 @@ import org.springframework.stereotype.Component;
 @Component
 public class AgentRegistryComponent extends AgentRegistry implements InitializingBean {
 
-    public AgentRegistryComponent(AgentRepository agentRepository) {
-        super(agentRepository);
+    public AgentRegistryComponent(AgentRepository agentRepository, NodeManger nodeManger) {
+        super(agentRepository, () -> nodeManger.allAlive().size());
     }
 
     @Override
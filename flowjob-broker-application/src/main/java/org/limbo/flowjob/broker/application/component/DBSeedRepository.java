@@ -0,0 +1,156 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.application.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.broker.core.cluster.gossip.SeedRepository;
+import org.limbo.flowjob.broker.core.meta.IDGenerator;
+import org.limbo.flowjob.broker.core.meta.IDType;
+import org.limbo.flowjob.broker.dao.entity.BrokerEntity;
+import org.limbo.flowjob.broker.dao.repositories.BrokerEntityRepo;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.net.URL;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 基于db的 gossip 种子，启动时写入，之后低频刷新心跳，只返回心跳未超时的 broker
+ *
+ * @author Brozen
+ * @since 2024-02-10
+ */
+@Slf4j
+public class DBSeedRepository implements SeedRepository {
+
+    /**
+     * 最多返回的种子数，按上线时间倒序
+     */
+    private static final int SEED_LIMIT = 16;
+
+    /**
+     * 心跳间隔，只用于筛选种子，成员状态由 gossip 维护
+     */
+    private static final long HEARTBEAT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * 超过该时间没有心跳的 broker 不作为种子
+     */
+    private static final long HEARTBEAT_TIMEOUT = HEARTBEAT_INTERVAL * 3;
+
+    private final BrokerEntityRepo brokerEntityRepo;
+
+    private final IDGenerator idGenerator;
+
+    /**
+     * url -> 心跳定时器
+     */
+    private final Map<String, Timer> heartbeats = new ConcurrentHashMap<>();
+
+    public DBSeedRepository(BrokerEntityRepo brokerEntityRepo, IDGenerator idGenerator) {
+        this.brokerEntityRepo = brokerEntityRepo;
+        this.idGenerator = idGenerator;
+    }
+
+    @Override
+    public void register(String name, URL url) {
+        String protocol = url.getProtocol();
+        String host = url.getHost();
+        Integer port = url.getPort();
+        BrokerEntity broker = brokerEntityRepo.findByProtocolAndHostAndPort(protocol, host, port);
+        if (broker == null) {
+            broker = new BrokerEntity();
+            broker.setBrokerId(idGenerator.generateId(IDType.BROKER));
+        }
+        LocalDateTime now = TimeUtils.currentLocalDateTime();
+        broker.setName(name);
+        broker.setProtocol(protocol);
+        broker.setHost(host);
+        broker.setPort(port);
+        broker.setOnlineTime(now);
+        broker.setLastHeartbeat(now);
+        brokerEntityRepo.saveAndFlush(broker);
+
+        Timer timer = new Timer("DBSeedHeartbeat", true);
+        timer.schedule(new HeartbeatTask(url), HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL);
+        Timer previous = heartbeats.put(url.toString(), timer);
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    /**
+     * 停止心跳，并将心跳时间置为已超时，其他节点不再获取到本节点作为种子
+     */
+    @Override
+    public void unregister(URL url) {
+        Timer timer = heartbeats.remove(url.toString());
+        if (timer != null) {
+            timer.cancel();
+        }
+
+        BrokerEntity broker = brokerEntityRepo.findByProtocolAndHostAndPort(url.getProtocol(), url.getHost(), url.getPort());
+        if (broker == null) {
+            return;
+        }
+        broker.setLastHeartbeat(TimeUtils.currentLocalDateTime().minusSeconds(TimeUnit.MILLISECONDS.toSeconds(HEARTBEAT_TIMEOUT)));
+        brokerEntityRepo.saveAndFlush(broker);
+    }
+
+    @Override
+    public List<URL> seeds() {
+        LocalDateTime liveAfter = TimeUtils.currentLocalDateTime().minusSeconds(TimeUnit.MILLISECONDS.toSeconds(HEARTBEAT_TIMEOUT));
+        PageRequest page = PageRequest.of(0, SEED_LIMIT, Sort.by(Sort.Direction.DESC, "onlineTime"));
+        return brokerEntityRepo.findByLastHeartbeatAfter(liveAfter, page).stream()
+                .map(DBBrokerRegistry::url)
+                .collect(Collectors.toList());
+    }
+
+    private class HeartbeatTask extends TimerTask {
+
+        private final URL url;
+
+        HeartbeatTask(URL url) {
+            this.url = url;
+        }
+
+        @Override
+        public void run() {
+            try {
+                BrokerEntity broker = brokerEntityRepo.findByProtocolAndHostAndPort(url.getProtocol(), url.getHost(), url.getPort());
+                if (broker == null) {
+                    return;
+                }
+                broker.setLastHeartbeat(TimeUtils.currentLocalDateTime());
+                brokerEntityRepo.saveAndFlush(broker);
+            } catch (Exception e) {
+                log.error("[DBSeedRepository] heartbeat fail", e);
+            }
+        }
+    }
+
+}
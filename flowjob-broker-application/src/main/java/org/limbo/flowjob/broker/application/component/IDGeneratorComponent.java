@@ -18,99 +18,366 @@
 
 package org.limbo.flowjob.broker.application.component;
 
-import lombok.AllArgsConstructor;
-import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.limbo.flowjob.api.constants.MsgConstants;
+import org.limbo.flowjob.broker.core.cluster.BrokerConfig;
 import org.limbo.flowjob.broker.core.meta.IDGenerator;
 import org.limbo.flowjob.broker.core.meta.IDType;
+import org.limbo.flowjob.broker.core.meta.lock.LeaseManager;
 import org.limbo.flowjob.broker.core.utils.Verifies;
 import org.limbo.flowjob.broker.dao.entity.IdEntity;
 import org.limbo.flowjob.broker.dao.repositories.IdEntityRepo;
+import org.limbo.flowjob.common.thread.NamedThreadFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntUnaryOperator;
 
 /**
+ * 号段 ID 生成器。
+ * 每个类型维护当前号段和预取的下一个号段，号段内通过 CAS 分配 ID 不加锁；
+ * 当前号段使用超过 {@link #PREFETCH_RATIO} 时在后台线程预取下一个号段，号段耗尽时直接切换。
+ * 号段申请都在后台线程执行，不会加入调用方的事务。
+ *
  * @author Devil
  * @since 2022/11/26
  */
 @Slf4j
 @Component
-public class IDGeneratorComponent implements IDGenerator {
+public class IDGeneratorComponent implements IDGenerator, DisposableBean {
+
+    /**
+     * 号段使用超过此比例时预取下一个号段
+     */
+    private static final double PREFETCH_RATIO = 0.2;
+
+    /**
+     * 期望一个号段的使用时长，消耗快于此时长步长翻倍，慢于两倍时长步长减半（不小于库中配置的步长）
+     */
+    private static final long SEGMENT_DURATION = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * 最大步长
+     */
+    private static final int MAX_STEP = 1000000;
+
+    /**
+     * 号段申请 CAS 最大重试次数
+     */
+    private static final int MAX_RETRY = 10;
+
+    /**
+     * 号段耗尽时等待新号段的最长时间
+     */
+    private static final long LOAD_TIMEOUT = TimeUnit.SECONDS.toMillis(3);
+
+    /**
+     * 时间递增 ID 节点号租约名前缀，每个节点号一个租约，持有租约的 broker 才能使用该节点号
+     */
+    private static final String NODE_LEASE_PREFIX = "ID_NODE_";
+
+    /**
+     * 节点号租约时长
+     */
+    private static final long NODE_LEASE_DURATION = TimeUnit.SECONDS.toMillis(30);
+
+    private final Map<IDType, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * 号段申请线程，同一个 broker 的号段申请串行执行
+     */
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(NamedThreadFactory.newInstance("FlowJobIDLoader"));
 
-    private static final Map<IDType, ID> ID_MAP = new ConcurrentHashMap<>();
+    private volatile TimeOrderedID timeOrderedID;
+
+    /**
+     * 申请中的节点号，超时后下次调用继续等待，避免重复占用节点号
+     */
+    private Future<Long> nodeLoading;
 
     @Setter(onMethod_ = @Inject)
     private IdEntityRepo idEntityRepo;
 
+    @Setter(onMethod_ = @Inject)
+    private BrokerConfig brokerConfig;
+
+    @Setter(onMethod_ = @Inject)
+    private LeaseManager leaseManager;
+
     @Override
     public String generateId(IDType type) {
-        Long randomAutoId = gainRandomAutoId(type);
-        return String.valueOf(randomAutoId);
+        Verifies.notNull(type, MsgConstants.UNKNOWN + " type: " + type);
+        if (brokerConfig.isTimeOrderedId() && (type == IDType.INSTANCE || type == IDType.JOB_INSTANCE)) {
+            return timeOrderedID().nextId();
+        }
+        return String.valueOf(buffers.computeIfAbsent(type, SegmentBuffer::new).nextId());
     }
 
-    private Long gainRandomAutoId(final IDType type) {
-        synchronized (type) {
-            ID id = ID_MAP.get(type);
-            if (id == null || !id.valid()) {
-                id = getNewId(type);
+    private TimeOrderedID timeOrderedID() {
+        TimeOrderedID id = timeOrderedID;
+        if (id == null || !holdsNode(id)) {
+            synchronized (this) {
+                id = timeOrderedID;
+                if (id == null || !holdsNode(id)) {
+                    if (id != null) {
+                        log.warn("[IDGenerator] time ordered id node={} lease lost", id.node);
+                    }
+                    if (nodeLoading == null) {
+                        nodeLoading = loader.submit(this::acquireNode);
+                    }
+                    long node;
+                    try {
+                        node = await(nodeLoading, IDType.NODE);
+                    } catch (TimeoutException e) {
+                        throw new IllegalStateException("The system is busy, Try again later!!!");
+                    } finally {
+                        if (nodeLoading.isDone()) {
+                            nodeLoading = null;
+                        }
+                    }
+                    id = new TimeOrderedID(node);
+                    timeOrderedID = id;
+                    log.info("[IDGenerator] time ordered id node={}", id.node);
+                }
             }
-            return id.getCurrentId().incrementAndGet();
         }
+        return id;
     }
 
-    private ID getNewId(IDType type) {
-        Verifies.notNull(type, MsgConstants.UNKNOWN + " type: " + type);
-
-        String typeName = type.name();
-
-        int updateNum = 0; // 更新库存的条数
-        int time = 0; // 重试次数
+    private boolean holdsNode(TimeOrderedID id) {
+        return leaseManager.get(NODE_LEASE_PREFIX + id.node) != null;
+    }
 
-        long startId = 0;
-        long endId = 0;
+    /**
+     * 申请节点号，只在 loader 线程执行。
+     * 从库中递增的序号开始依次尝试获取节点号租约，持有租约期间其它 broker 无法使用同一个节点号
+     */
+    private long acquireNode() {
+        long start = gainSegment(IDType.NODE, step -> 1).endId;
+        for (long i = 0; i <= TimeOrderedID.NODE_MASK; i++) {
+            long node = (start + i) & TimeOrderedID.NODE_MASK;
+            if (leaseManager.tryAcquire(NODE_LEASE_PREFIX + node, NODE_LEASE_DURATION) != null) {
+                return node;
+            }
+        }
+        throw new IllegalStateException("No free time ordered id node");
+    }
 
-        while (updateNum <= 0 && time < 10) {
-            // 加锁 获取 类型
+    /**
+     * 从库中申请号段，只在 loader 线程执行。CAS 失败才退避重试
+     *
+     * @param type ID类型
+     * @param step 根据库中配置的步长计算本次申请的步长
+     */
+    private Segment gainSegment(IDType type, IntUnaryOperator step) {
+        String typeName = type.name();
+        for (int time = 0; time < MAX_RETRY; time++) {
             IdEntity idEntity = idEntityRepo.findById(typeName).orElse(null);
             if (idEntity == null) {
                 throw new IllegalStateException(MsgConstants.UNKNOWN + " ID Type of " + typeName);
             }
-            startId = idEntity.getCurrentId();
-            endId = idEntity.getCurrentId() + idEntity.getStep();
-            updateNum = idEntityRepo.casGainId(typeName, endId, startId);
+            long startId = idEntity.getCurrentId();
+            long endId = startId + step.applyAsInt(idEntity.getStep());
+            if (idEntityRepo.casGainId(typeName, endId, startId) > 0) {
+                return new Segment(startId, endId);
+            }
+
             try {
-                Thread.sleep(200);
+                Thread.sleep(ThreadLocalRandom.current().nextLong(10, 50) * (time + 1));
             } catch (InterruptedException e) {
-                log.error("thread sleep fail", e);
                 Thread.currentThread().interrupt();
+                break;
             }
-            time++;
         }
+        throw new IllegalStateException("The system is busy, Try again later!!!");
+    }
 
-        if (updateNum <= 0) {
-            throw new IllegalStateException("The system is busy, Try again later!!!");
+    private <T> T await(Future<T> future, IDType type) throws TimeoutException {
+        try {
+            return future.get(LOAD_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Gain id segment fail type: " + type, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while gaining id segment type: " + type, e);
         }
+    }
 
-        ID id = new ID(new AtomicLong(startId), endId);
-        ID_MAP.put(type, id);
-        return id;
+    @Override
+    public void destroy() {
+        loader.shutdownNow();
     }
 
-    @Getter
-    @AllArgsConstructor
-    private static class ID {
-        private AtomicLong currentId;
+    /**
+     * 左开右闭的号段 (startId, endId]
+     */
+    private static class Segment {
+
+        static final Segment EMPTY = new Segment(0, 0);
 
-        private Long endId;
+        final AtomicLong currentId;
+
+        final long endId;
+
+        /**
+         * 分配到此 ID 时触发预取
+         */
+        final long prefetchId;
+
+        Segment(long startId, long endId) {
+            this.currentId = new AtomicLong(startId);
+            this.endId = endId;
+            this.prefetchId = startId + Math.max(1, (long) ((endId - startId) * PREFETCH_RATIO));
+        }
+    }
 
-        public boolean valid() {
-            return currentId.get() < endId;
+    /**
+     * 双号段缓冲
+     */
+    private class SegmentBuffer {
+
+        final IDType type;
+
+        volatile Segment current = Segment.EMPTY;
+
+        volatile Future<Segment> next;
+
+        /**
+         * 上次申请的步长和申请时间，只在 loader 线程访问
+         */
+        int step;
+
+        long loadedAt;
+
+        SegmentBuffer(IDType type) {
+            this.type = type;
+        }
+
+        long nextId() {
+            while (true) {
+                Segment segment = current;
+                long id = segment.currentId.incrementAndGet();
+                if (id <= segment.endId) {
+                    // 只有分配到 prefetchId 的线程会触发预取
+                    if (id == segment.prefetchId && next == null) {
+                        next = loader.submit(this::load);
+                    }
+                    return id;
+                }
+                switchSegment(segment);
+            }
+        }
+
+        private synchronized void switchSegment(Segment exhausted) {
+            if (current != exhausted) {
+                return; // 其他线程已经切换
+            }
+            Future<Segment> future = next;
+            if (future == null) {
+                future = loader.submit(this::load);
+            }
+            try {
+                Segment segment = await(future, type);
+                // 先清空 next 再发布新号段，否则新号段上到达 prefetchId 的线程会看到旧的 next 而跳过预取
+                next = null;
+                current = segment;
+            } catch (TimeoutException e) {
+                // 保留未完成的申请，下次继续等待
+                next = future;
+                throw new IllegalStateException("The system is busy, Try again later!!!");
+            } catch (RuntimeException e) {
+                next = null;
+                throw e;
+            }
+        }
+
+        private Segment load() {
+            long now = System.currentTimeMillis();
+            Segment segment = gainSegment(type, this::nextStep);
+            step = (int) (segment.endId - segment.currentId.get());
+            loadedAt = now;
+            return segment;
+        }
+
+        /**
+         * 根据上个号段的消耗速度调整步长
+         */
+        private int nextStep(int baseStep) {
+            if (step <= 0) {
+                return baseStep;
+            }
+            long duration = System.currentTimeMillis() - loadedAt;
+            if (duration < SEGMENT_DURATION) {
+                return (int) Math.min(step * 2L, Math.max(MAX_STEP, baseStep));
+            } else if (duration > SEGMENT_DURATION * 2) {
+                return Math.max(step / 2, baseStep);
+            }
+            return Math.max(step, baseStep);
+        }
+    }
+
+    /**
+     * 按时间递增的 64 位 ID：41 位毫秒时间戳（相对 {@link #EPOCH}）| 10 位节点号 | 12 位序列号。
+     * 时钟回拨或同一毫秒内序列号用完时沿用/借用后续时间戳，保证单调递增不阻塞。
+     * 输出固定 19 位十进制，字符串比较与数值比较一致
+     */
+    private static class TimeOrderedID {
+
+        static final long EPOCH = 1704067200000L; // 2024-01-01T00:00:00Z
+
+        static final int NODE_BITS = 10;
+
+        static final int SEQUENCE_BITS = 12;
+
+        static final long NODE_MASK = (1L << NODE_BITS) - 1;
+
+        static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+        static final String ZEROS = "0000000000000000000";
+
+        final long node;
+
+        long lastTimestamp = -1;
+
+        long sequence;
+
+        TimeOrderedID(long node) {
+            this.node = node & NODE_MASK;
+        }
+
+        String nextId() {
+            String id = Long.toString(next());
+            return ZEROS.substring(id.length()) + id;
+        }
+
+        synchronized long next() {
+            long timestamp = Math.max(System.currentTimeMillis() - EPOCH, lastTimestamp);
+            if (timestamp == lastTimestamp) {
+                sequence = (sequence + 1) & SEQUENCE_MASK;
+                if (sequence == 0) {
+                    timestamp++;
+                }
+            } else {
+                sequence = 0;
+            }
+            lastTimestamp = timestamp;
+            return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence;
         }
     }
 
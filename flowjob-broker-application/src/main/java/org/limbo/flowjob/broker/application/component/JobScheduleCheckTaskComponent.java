@@ -22,6 +22,7 @@ import org.limbo.flowjob.broker.core.agent.AgentRegistry;
 import org.limbo.flowjob.broker.core.cluster.Broker;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
 import org.limbo.flowjob.broker.core.meta.job.JobInstanceRepository;
+import org.limbo.flowjob.broker.core.meta.processor.JobDispatchBatcher;
 import org.limbo.flowjob.broker.core.meta.task.JobScheduleCheckTask;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
 import org.springframework.beans.factory.InitializingBean;
@@ -39,8 +40,9 @@ public class JobScheduleCheckTaskComponent extends JobScheduleCheckTask implemen
                                          @Lazy Broker broker,
                                          NodeManger nodeManger,
                                          AgentRegistry agentRegistry,
+                                         JobDispatchBatcher dispatchBatcher,
                                          JobInstanceRepository jobInstanceRepository) {
-        super(scheduler, broker, nodeManger, agentRegistry, jobInstanceRepository);
+        super(scheduler, broker, nodeManger, agentRegistry, dispatchBatcher, jobInstanceRepository);
     }
 
     @Override
@@ -20,6 +20,8 @@ package org.limbo.flowjob.broker.application.component;
 
 import org.limbo.flowjob.broker.core.cluster.Broker;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
+import org.limbo.flowjob.broker.core.meta.info.PlanCache;
+import org.limbo.flowjob.broker.core.meta.info.PlanChangeRepository;
 import org.limbo.flowjob.broker.core.meta.info.PlanRepository;
 import org.limbo.flowjob.broker.core.meta.processor.PlanInstanceProcessor;
 import org.limbo.flowjob.broker.core.meta.task.PlanLoadTask;
@@ -37,10 +39,12 @@ public class PlanLoadTaskComponent extends PlanLoadTask implements InitializingB
 
     public PlanLoadTaskComponent(MetaTaskScheduler scheduler,
                                  PlanRepository planRepository,
+                                 PlanChangeRepository planChangeRepository,
+                                 PlanCache planCache,
                                  PlanInstanceProcessor processor,
                                  @Lazy Broker broker,
                                  NodeManger nodeManger) {
-        super(scheduler, planRepository, processor, broker, nodeManger);
+        super(scheduler, planRepository, planChangeRepository, planCache, processor, broker, nodeManger);
     }
 
     @Override
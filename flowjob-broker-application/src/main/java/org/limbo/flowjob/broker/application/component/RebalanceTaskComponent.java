@@ -18,10 +18,9 @@
 
 package org.limbo.flowjob.broker.application.component;
 
+import org.limbo.flowjob.broker.core.cluster.BucketRepository;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
-import org.limbo.flowjob.broker.core.meta.info.PlanRepository;
-import org.limbo.flowjob.broker.core.meta.job.JobInstanceRepository;
-import org.limbo.flowjob.broker.core.meta.lock.DistributedLock;
+import org.limbo.flowjob.broker.core.meta.lock.LeaseManager;
 import org.limbo.flowjob.broker.core.meta.task.RebalanceTask;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.stereotype.Component;
@@ -34,10 +33,9 @@ import org.springframework.stereotype.Component;
 public class RebalanceTaskComponent extends RebalanceTask implements InitializingBean {
 
     public RebalanceTaskComponent(NodeManger nodeManger,
-                                  DistributedLock lock,
-                                  PlanRepository planRepository,
-                                  JobInstanceRepository jobInstanceRepository) {
-        super(nodeManger, lock, planRepository, jobInstanceRepository);
+                                  LeaseManager leaseManager,
+                                  BucketRepository bucketRepository) {
+        super(nodeManger, leaseManager, bucketRepository);
     }
 
     @Override
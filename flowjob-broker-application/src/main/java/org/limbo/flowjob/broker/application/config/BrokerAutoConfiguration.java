@@ -20,22 +20,30 @@ package org.limbo.flowjob.broker.application.config;
 
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
 import org.apache.commons.lang3.StringUtils;
 import org.limbo.flowjob.broker.application.component.BrokerStarter;
 import org.limbo.flowjob.broker.application.component.DBBrokerRegistry;
+import org.limbo.flowjob.broker.application.component.DBSeedRepository;
 import org.limbo.flowjob.broker.core.agent.AgentRegistry;
 import org.limbo.flowjob.broker.core.cluster.Broker;
 import org.limbo.flowjob.broker.core.cluster.BrokerConfig;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
 import org.limbo.flowjob.broker.core.cluster.NodeRegistry;
+import org.limbo.flowjob.broker.core.cluster.gossip.GossipNodeRegistry;
 import org.limbo.flowjob.broker.core.meta.IDGenerator;
+import org.limbo.flowjob.broker.core.meta.info.PlanCache;
+import org.limbo.flowjob.broker.core.meta.info.PlanChangeRepository;
 import org.limbo.flowjob.broker.core.meta.info.PlanRepository;
 import org.limbo.flowjob.broker.core.meta.instance.DelayInstanceRepository;
 import org.limbo.flowjob.broker.core.meta.instance.PlanInstanceRepository;
 import org.limbo.flowjob.broker.core.meta.job.JobInstanceRepository;
+import org.limbo.flowjob.broker.core.meta.lock.LeaseManager;
+import org.limbo.flowjob.broker.core.meta.lock.LeaseRepository;
 import org.limbo.flowjob.broker.core.meta.processor.DelayInstanceProcessor;
 import org.limbo.flowjob.broker.core.meta.processor.PlanInstanceProcessor;
 import org.limbo.flowjob.broker.core.meta.processor.InstanceProcessorFactory;
+import org.limbo.flowjob.broker.core.meta.processor.JobDispatchBatcher;
 import org.limbo.flowjob.broker.core.meta.task.PlanLoadTask;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTask;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
@@ -46,6 +54,7 @@ import org.limbo.flowjob.broker.core.service.TransactionService;
 import org.limbo.flowjob.broker.core.worker.WorkerDomainService;
 import org.limbo.flowjob.broker.core.worker.WorkerRegistry;
 import org.limbo.flowjob.broker.dao.repositories.BrokerEntityRepo;
+import org.limbo.flowjob.common.http.HttpClientRegistry;
 import org.limbo.flowjob.common.utils.NetUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
@@ -54,6 +63,7 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplicat
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.util.Assert;
 
@@ -74,8 +84,7 @@ import java.util.concurrent.TimeUnit;
 @ConditionalOnProperty(prefix = "flowjob.broker", value = "enabled", havingValue = "true", matchIfMissing = true)
 public class BrokerAutoConfiguration {
 
-    @Setter(onMethod_ = @Inject)
-    private BrokerProperties brokerProperties;
+    private final BrokerProperties brokerProperties;
 
     @Setter(onMethod_ = @Inject)
     private NodeRegistry brokerRegistry;
@@ -83,17 +92,37 @@ public class BrokerAutoConfiguration {
     @Setter(onMethod_ = @Value("${server.port:8080}"))
     private Integer httpServerPort;
 
+    public BrokerAutoConfiguration(BrokerProperties brokerProperties) {
+        this.brokerProperties = brokerProperties;
+    }
+
+    /**
+     * 按配置初始化的共享 HTTP 客户端，与 agent 通信的 RPC 客户端都从 {@link HttpClientRegistry} 获取。
+     * 不参与按类型注入，避免与应用自己声明的 {@link OkHttpClient} 冲突
+     */
+    @Bean(name = "fjHttpClient", autowireCandidate = false)
+    public OkHttpClient httpClient() {
+        HttpClientRegistry.configure(brokerProperties.getHttp());
+        return HttpClientRegistry.client();
+    }
+
     /**
      * worker 管理，持久化等
      */
     @Bean
+    @DependsOn("fjHttpClient")
     public Broker broker(URL brokerUrl, NodeManger nodeManger, MetaTaskScheduler metaTaskScheduler, List<MetaTask> metaTasks) {
         return new BrokerStarter(brokerProperties.getName(), brokerUrl, brokerRegistry, nodeManger, metaTaskScheduler, metaTasks);
     }
 
     @Bean
-    public NodeManger brokerManger(PlanRepository planRepository, JobInstanceRepository jobInstanceRepository) {
-        return new NodeManger(planRepository, jobInstanceRepository);
+    public NodeManger brokerManger() {
+        return new NodeManger();
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public LeaseManager leaseManager(URL brokerUrl, LeaseRepository leaseRepository) {
+        return new LeaseManager(leaseRepository, brokerUrl.toString());
     }
 
     @Bean
@@ -111,16 +140,26 @@ public class BrokerAutoConfiguration {
     /**
      * 元任务调度器 目前支持秒级任务
      */
-    @Bean
+    @Bean(destroyMethod = "stop")
     public MetaTaskScheduler metaTaskScheduler() {
-        return new MetaTaskScheduler(100L, TimeUnit.MILLISECONDS);
+        return new MetaTaskScheduler(100L, TimeUnit.MILLISECONDS, brokerProperties.getScheduleLanes(), brokerProperties.getScheduleLaneQueueSize());
     }
 
     @Bean
-    public DBBrokerRegistry brokerRegistry(BrokerConfig config, BrokerEntityRepo brokerEntityRepo, IDGenerator idGenerator) {
+    @ConditionalOnProperty(prefix = "flowjob.broker", value = "registry", havingValue = "db", matchIfMissing = true)
+    public NodeRegistry brokerRegistry(BrokerConfig config, BrokerEntityRepo brokerEntityRepo, IDGenerator idGenerator) {
         return new DBBrokerRegistry(config.getHeartbeatInterval(), config.getHeartbeatTimeout(), brokerEntityRepo, idGenerator);
     }
 
+    /**
+     * 基于 gossip 的集群成员发现，数据库只用于获取种子节点
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = "flowjob.broker", value = "registry", havingValue = "gossip")
+    public NodeRegistry gossipBrokerRegistry(BrokerConfig config, BrokerEntityRepo brokerEntityRepo, IDGenerator idGenerator) {
+        return new GossipNodeRegistry(new DBSeedRepository(brokerEntityRepo, idGenerator), config.getGossipProbeInterval(), config.getGossipSuspectTimeout());
+    }
+
     /**
      * 如果未声明 WorkerStatisticsRepository 类型的 Bean，则使用基于内存统计的单机模式
      */
@@ -144,10 +183,12 @@ public class BrokerAutoConfiguration {
     @Bean
     public PlanLoadTask planLoadTask(MetaTaskScheduler scheduler,
                                      PlanRepository planRepository,
+                                     PlanChangeRepository planChangeRepository,
+                                     PlanCache planCache,
                                      PlanInstanceProcessor processor,
                                      @Lazy Broker broker,
                                      NodeManger nodeManger) {
-        return new PlanLoadTask(scheduler, planRepository, processor, broker, nodeManger);
+        return new PlanLoadTask(scheduler, planRepository, planChangeRepository, planCache, processor, broker, nodeManger);
     }
 
     @Bean
@@ -158,15 +199,31 @@ public class BrokerAutoConfiguration {
     }
 
     @Bean
+    public PlanCache planCache(PlanRepository planRepository) {
+        return new PlanCache(planRepository);
+    }
+
+    /**
+     * 作业按 agent 合并下发
+     */
+    @Bean(destroyMethod = "shutdown")
+    public JobDispatchBatcher jobDispatchBatcher(NodeManger nodeManger, URL brokerUrl) {
+        return new JobDispatchBatcher(brokerProperties.getJobDispatchLinger(), brokerProperties.getJobDispatchBatchSize(), nodeManger, brokerUrl);
+    }
+
+    @Bean(destroyMethod = "shutdown")
     public PlanInstanceProcessor planInstanceProcessor(MetaTaskScheduler metaTaskScheduler,
                                                        IDGenerator idGenerator,
                                                        NodeManger nodeManger,
                                                        AgentRegistry agentRegistry,
                                                        PlanRepository planRepository,
+                                                       PlanCache planCache,
                                                        TransactionService transactionService,
                                                        PlanInstanceRepository planInstanceRepository,
-                                                       JobInstanceRepository jobInstanceRepository) {
-        return new PlanInstanceProcessor(metaTaskScheduler, idGenerator, nodeManger, agentRegistry, planRepository, transactionService, planInstanceRepository, jobInstanceRepository);
+                                                       JobInstanceRepository jobInstanceRepository,
+                                                       JobDispatchBatcher jobDispatchBatcher) {
+        return new PlanInstanceProcessor(metaTaskScheduler, idGenerator, nodeManger, agentRegistry, planRepository, planCache, transactionService, planInstanceRepository, jobInstanceRepository,
+                jobDispatchBatcher, brokerProperties.getPlanTriggerLinger(), brokerProperties.getPlanTriggerBatchSize());
     }
 
     @Bean
@@ -176,8 +233,9 @@ public class BrokerAutoConfiguration {
                                                          AgentRegistry agentRegistry,
                                                          TransactionService transactionService,
                                                          DelayInstanceRepository delayInstanceRepository,
-                                                         JobInstanceRepository jobInstanceRepository) {
-        return new DelayInstanceProcessor(metaTaskScheduler, idGenerator, nodeManger, agentRegistry, transactionService, delayInstanceRepository, jobInstanceRepository);
+                                                         JobInstanceRepository jobInstanceRepository,
+                                                         JobDispatchBatcher jobDispatchBatcher) {
+        return new DelayInstanceProcessor(metaTaskScheduler, idGenerator, nodeManger, agentRegistry, transactionService, delayInstanceRepository, jobInstanceRepository, jobDispatchBatcher);
     }
 
     @Bean
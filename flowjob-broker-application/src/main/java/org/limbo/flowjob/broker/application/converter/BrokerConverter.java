@@ -36,8 +36,9 @@ import java.util.Collection;
 @Slf4j
 public class BrokerConverter {
 
-    public static BrokerTopologyDTO toBrokerTopologyDTO(Collection<Node> nodes) {
+    public static BrokerTopologyDTO toBrokerTopologyDTO(Collection<Node> nodes, long version) {
         BrokerTopologyDTO brokerTopologyDTO = new BrokerTopologyDTO();
+        brokerTopologyDTO.setVersion(version);
         if (CollectionUtils.isNotEmpty(nodes)) {
             for (Node node : nodes) {
                 URL url = node.getUrl();
@@ -27,7 +27,6 @@ import org.limbo.flowjob.api.dto.broker.WorkerRegisterDTO;
 import org.limbo.flowjob.api.dto.console.WorkerDTO;
 import org.limbo.flowjob.api.dto.console.WorkerTagDTO;
 import org.limbo.flowjob.api.param.broker.WorkerExecutorRegisterParam;
-import org.limbo.flowjob.api.param.broker.WorkerHeartbeatParam;
 import org.limbo.flowjob.api.param.broker.WorkerRegisterParam;
 import org.limbo.flowjob.api.param.broker.WorkerResourceParam;
 import org.limbo.flowjob.broker.core.cluster.Node;
@@ -95,24 +94,6 @@ public class WorkerConverter {
     }
 
 
-    /**
-     * 根据心跳参数，生成worker指标信息
-     *
-     * @param options worker注册参数
-     */
-    public static WorkerMetric toWorkerMetric(WorkerHeartbeatParam options) {
-        WorkerResourceParam resource = options.getAvailableResource();
-        return WorkerMetric.builder()
-                .availableResource(new WorkerAvailableResource(
-                        resource.getAvailableCpu(),
-                        resource.getAvailableRAM(),
-                        resource.getAvailableQueueLimit()
-                ))
-                .lastHeartbeatAt(TimeUtils.currentLocalDateTime())
-                .build();
-    }
-
-
     /**
      * Worker 执行器列表转换，根据注册参数中的 id 设置 workerId
      * {@link WorkerExecutorRegisterParam} => {@link WorkerExecutor}
@@ -144,16 +125,22 @@ public class WorkerConverter {
 
     /**
      * Worker 注册结果
+     *
+     * @param nodes   存活的 broker 节点，为空时不返回拓扑
+     * @param version 拓扑版本
      */
-    public static WorkerRegisterDTO toRegisterDTO(Worker worker, Collection<Node> nodes) {
+    public static WorkerRegisterDTO toRegisterDTO(Worker worker, Collection<Node> nodes, long version) {
         WorkerRegisterDTO registerResult = new WorkerRegisterDTO();
         registerResult.setWorkerId(worker.getId());
-        registerResult.setBrokerTopology(toBrokerTopologyDTO(nodes));
+        if (nodes != null) {
+            registerResult.setBrokerTopology(toBrokerTopologyDTO(nodes, version));
+        }
         return registerResult;
     }
 
-    public static BrokerTopologyDTO toBrokerTopologyDTO(Collection<Node> nodes) {
+    public static BrokerTopologyDTO toBrokerTopologyDTO(Collection<Node> nodes, long version) {
         BrokerTopologyDTO brokerTopologyDTO = new BrokerTopologyDTO();
+        brokerTopologyDTO.setVersion(version);
         if (CollectionUtils.isNotEmpty(nodes)) {
             for (Node node : nodes) {
                 URL url = node.getUrl();
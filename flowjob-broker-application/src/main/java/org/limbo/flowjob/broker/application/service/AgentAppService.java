@@ -20,16 +20,21 @@ package org.limbo.flowjob.broker.application.service;
 
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
 import org.limbo.flowjob.api.constants.AgentStatus;
 import org.limbo.flowjob.api.constants.MsgConstants;
 import org.limbo.flowjob.api.constants.Protocol;
 import org.limbo.flowjob.api.dto.broker.AgentRegisterDTO;
 import org.limbo.flowjob.api.param.broker.AgentHeartbeatParam;
 import org.limbo.flowjob.api.param.broker.AgentRegisterParam;
+import org.limbo.flowjob.api.param.broker.WorkerLatencyParam;
 import org.limbo.flowjob.broker.application.converter.BrokerConverter;
+import org.limbo.flowjob.broker.core.agent.AgentRegistry;
+import org.limbo.flowjob.broker.core.agent.ScheduleAgent;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
 import org.limbo.flowjob.broker.core.meta.IDGenerator;
 import org.limbo.flowjob.broker.core.meta.IDType;
+import org.limbo.flowjob.broker.core.schedule.selector.WorkerStatisticsRepository;
 import org.limbo.flowjob.broker.core.utils.Verifies;
 import org.limbo.flowjob.broker.dao.entity.AgentEntity;
 import org.limbo.flowjob.broker.dao.repositories.AgentEntityRepo;
@@ -39,6 +44,7 @@ import org.springframework.stereotype.Service;
 import javax.inject.Inject;
 import javax.transaction.Transactional;
 import java.net.URL;
+import java.util.Objects;
 
 /**
  * @author Devil
@@ -57,6 +63,12 @@ public class AgentAppService {
     @Setter(onMethod_ = @Inject)
     private NodeManger nodeManger;
 
+    @Setter(onMethod_ = @Inject)
+    private AgentRegistry agentRegistry;
+
+    @Setter(onMethod_ = @Inject)
+    private WorkerStatisticsRepository workerStatisticsRepository;
+
     /**
      * 注册
      *
@@ -88,31 +100,47 @@ public class AgentAppService {
     }
 
     /**
-     * 心跳
+     * 心跳，只更新内存，由 {@link AgentRegistry} 批量落库
      *
      * @param option 心跳参数，上报部分指标数据
      */
-    @Transactional(rollbackOn = Throwable.class)
     public AgentRegisterDTO heartbeat(String agentId, AgentHeartbeatParam option) {
-        AgentEntity agent = agentEntityRepo.findById(agentId).get();
+        Integer availableQueueLimit = option.getAvailableResource() == null ? null : option.getAvailableResource().getAvailableQueueLimit();
+        ScheduleAgent agent = agentRegistry.heartbeat(agentId, availableQueueLimit, option.getResourceVersion(), option.getBaseVersion());
         Verifies.requireNotNull(agent, "agent不存在！");
-        // 更新
-        agent.setAvailableQueueLimit(option.getAvailableResource().getAvailableQueueLimit());
-        agent.setLastHeartbeatAt(TimeUtils.currentLocalDateTime());
-        agent.setStatus(AgentStatus.RUNNING.status);
-        agentEntityRepo.saveAndFlush(agent);
+
+        // agent 观测到的 worker 任务耗时和未完成任务数，用于最小负载策略
+        if (CollectionUtils.isNotEmpty(option.getWorkerLatencies())) {
+            for (WorkerLatencyParam latency : option.getWorkerLatencies()) {
+                workerStatisticsRepository.recordCompleted(agentId, latency.getWorkerId(), latency.getCompleted(),
+                        latency.getAvgLatency(), latency.getMaxLatency(), latency.getOutstanding());
+            }
+        }
 
         if (log.isDebugEnabled()) {
             log.debug("receive heartbeat from " + agentId);
         }
 
-        return toDTO(agentId);
+        AgentRegisterDTO result = toDTO(agentId, option.getTopologyVersion());
+        // 增量基于的资源不是本节点收到的，要求 agent 全量上报
+        result.setFullSyncRequired(!agentRegistry.isResourceSynced(agentId, option.getResourceVersion()));
+        return result;
     }
 
     public AgentRegisterDTO toDTO(String agentId) {
+        return toDTO(agentId, null);
+    }
+
+    /**
+     * @param topologyVersion agent 已知的拓扑版本，与当前版本一致时不返回拓扑
+     */
+    public AgentRegisterDTO toDTO(String agentId, Long topologyVersion) {
         AgentRegisterDTO registerResult = new AgentRegisterDTO();
         registerResult.setAgentId(agentId);
-        registerResult.setBrokerTopology(BrokerConverter.toBrokerTopologyDTO(nodeManger.allAlive()));
+        long version = nodeManger.topologyVersion();
+        if (!Objects.equals(topologyVersion, version)) {
+            registerResult.setBrokerTopology(BrokerConverter.toBrokerTopologyDTO(nodeManger.allAlive(), version));
+        }
         return registerResult;
     }
 
@@ -36,12 +36,14 @@ import org.limbo.flowjob.api.param.console.PlanVersionParam;
 import org.limbo.flowjob.api.param.console.ScheduleOptionParam;
 import org.limbo.flowjob.broker.application.converter.JobParamConverter;
 import org.limbo.flowjob.broker.application.converter.PlanConverter;
+import org.limbo.flowjob.broker.core.cluster.Buckets;
 import org.limbo.flowjob.broker.core.cluster.Node;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
 import org.limbo.flowjob.broker.core.exceptions.VerifyException;
 import org.limbo.flowjob.broker.core.meta.IDGenerator;
 import org.limbo.flowjob.broker.core.meta.IDType;
 import org.limbo.flowjob.broker.core.meta.info.JobInfo;
+import org.limbo.flowjob.broker.core.meta.info.PlanChangeRepository;
 import org.limbo.flowjob.broker.core.schedule.calculator.CronScheduleCalculator;
 import org.limbo.flowjob.broker.core.utils.Verifies;
 import org.limbo.flowjob.broker.dao.entity.PlanEntity;
@@ -90,6 +92,9 @@ public class PlanAppService {
     @Setter(onMethod_ = @Inject)
     private NodeManger nodeManger;
 
+    @Setter(onMethod_ = @Inject)
+    private PlanChangeRepository planChangeRepository;
+
     @Transactional
     public String add(PlanParam.NormalPlanParam param) {
         JobInfo jobInfo = JobParamConverter.createJob(param);
@@ -132,6 +137,7 @@ public class PlanAppService {
             planEntity.setEnabled(false);
             planEntity.setPlanId(planId);
             planEntity.setName(param.getName());
+            planEntity.setBucket(Buckets.of(planId));
 
             Node elect = nodeManger.elect(planId);
             planEntity.setBrokerUrl(elect.getUrl().toString());
@@ -174,6 +180,7 @@ public class PlanAppService {
         // 保存版本信息
         planInfoEntityRepo.saveAndFlush(planInfoEntity);
 
+        planChangeRepository.record(planId);
         return planId;
     }
 
@@ -199,7 +206,11 @@ public class PlanAppService {
             brokerUrl = elect.getUrl().toString();
         }
 
-        return planEntityRepo.updateEnableAndBrokerUrl(planEntity.getPlanId(), false, true, brokerUrl) == 1;
+        if (planEntityRepo.updateEnableAndBrokerUrl(planEntity.getPlanId(), false, true, brokerUrl) != 1) {
+            return false;
+        }
+        planChangeRepository.record(planId);
+        return true;
     }
 
     /**
@@ -219,7 +230,11 @@ public class PlanAppService {
         }
 
         // 停用计划
-        return planEntityRepo.updateEnable(planEntity.getPlanId(), true, false) == 1;
+        if (planEntityRepo.updateEnable(planEntity.getPlanId(), true, false) != 1) {
+            return false;
+        }
+        planChangeRepository.record(planId);
+        return true;
     }
 
     public PlanInfoDTO.NormalPlanInfoDTO get(String planId) {
@@ -331,7 +346,11 @@ public class PlanAppService {
         PlanEntity planEntity = planEntityOptional.get();
         // 更新 Plan 版本信息
         int effected = planEntityRepo.updateVersion(version, planId, planEntity.getCurrentVersion());
-        return effected > 0;
+        if (effected < 1) {
+            return false;
+        }
+        planChangeRepository.record(planId);
+        return true;
     }
 
 }
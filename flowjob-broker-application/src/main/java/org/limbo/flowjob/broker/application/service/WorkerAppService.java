@@ -24,7 +24,6 @@ import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.limbo.flowjob.api.constants.MsgConstants;
 import org.limbo.flowjob.api.constants.Protocol;
-import org.limbo.flowjob.api.constants.WorkerStatus;
 import org.limbo.flowjob.api.dto.PageDTO;
 import org.limbo.flowjob.api.dto.broker.AvailableWorkerDTO;
 import org.limbo.flowjob.api.dto.broker.WorkerRegisterDTO;
@@ -35,6 +34,7 @@ import org.limbo.flowjob.api.param.console.WorkerQueryParam;
 import org.limbo.flowjob.broker.application.converter.BrokerConverter;
 import org.limbo.flowjob.broker.application.converter.WorkerConverter;
 import org.limbo.flowjob.broker.application.converter.WorkerParamConverter;
+import org.limbo.flowjob.broker.core.cluster.Node;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
 import org.limbo.flowjob.broker.core.meta.IDGenerator;
 import org.limbo.flowjob.broker.core.meta.IDType;
@@ -43,6 +43,7 @@ import org.limbo.flowjob.broker.core.meta.job.JobInstanceRepository;
 import org.limbo.flowjob.broker.core.utils.Verifies;
 import org.limbo.flowjob.broker.core.worker.Worker;
 import org.limbo.flowjob.broker.core.worker.WorkerDomainService;
+import org.limbo.flowjob.broker.core.worker.WorkerRegistry;
 import org.limbo.flowjob.broker.core.worker.WorkerRepository;
 import org.limbo.flowjob.broker.dao.entity.WorkerEntity;
 import org.limbo.flowjob.broker.dao.entity.WorkerMetricEntity;
@@ -61,8 +62,10 @@ import javax.persistence.criteria.Order;
 import javax.persistence.criteria.Predicate;
 import javax.transaction.Transactional;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -100,6 +103,9 @@ public class WorkerAppService {
     @Setter(onMethod_ = @Inject)
     private WorkerDomainService workerDomainService;
 
+    @Setter(onMethod_ = @Inject)
+    private WorkerRegistry workerRegistry;
+
     /**
      * worker注册
      *
@@ -131,33 +137,31 @@ public class WorkerAppService {
 
         // 保存 worker
         workerRepository.save(worker);
+        workerRegistry.online(worker);
         log.info("worker registered " + worker);
-        return WorkerConverter.toRegisterDTO(worker, nodeManger.allAlive());
+        return WorkerConverter.toRegisterDTO(worker, nodeManger.allAlive(), nodeManger.topologyVersion());
     }
 
     /**
-     * worker心跳
+     * worker心跳，只更新内存，状态和指标由 {@link WorkerRegistry} 批量落库
      *
-     * @param option 心跳参数，上报部分指标数据
+     * @param option 心跳参数，只上报变化的指标数据
      */
-    @Transactional(rollbackOn = Throwable.class)
     public WorkerRegisterDTO heartbeat(String workerId, WorkerHeartbeatParam option) {
-        // 查询worker并校验
-        Worker worker = workerRepository.get(workerId);
+        Worker worker = workerRegistry.heartbeat(workerId, option.getAvailableResource(), option.getResourceVersion(), option.getBaseVersion());
         Verifies.requireNotNull(worker, "worker不存在！");
 
-        // 更新状态
-        workerEntityRepo.updateStatus(workerId, WorkerStatus.RUNNING.status);
-
-        // 更新metric
-        worker.heartbeat(WorkerConverter.toWorkerMetric(option));
-        workerRepository.saveMetric(worker);
-
         if (log.isDebugEnabled()) {
             log.debug("receive heartbeat from " + workerId);
         }
 
-        return WorkerConverter.toRegisterDTO(worker, nodeManger.allAlive());
+        // worker 已知的拓扑是最新的就不再返回
+        long version = nodeManger.topologyVersion();
+        Collection<Node> nodes = Objects.equals(option.getTopologyVersion(), version) ? null : nodeManger.allAlive();
+        WorkerRegisterDTO result = WorkerConverter.toRegisterDTO(worker, nodes, version);
+        // 增量基于的资源不是本节点收到的，要求 worker 全量上报
+        result.setFullSyncRequired(!workerRegistry.isResourceSynced(workerId, option.getResourceVersion()));
+        return result;
     }
 
     /**
@@ -0,0 +1,45 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+DROP TABLE IF EXISTS `flowjob_bucket`;
+CREATE TABLE `flowjob_bucket`
+(
+    `id`         bigint unsigned NOT NULL AUTO_INCREMENT,
+    `bucket`     int                                                    NOT NULL,
+    `broker_url` varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '',
+    `is_deleted` bit(1)                                                 NOT NULL DEFAULT 0,
+    `created_at` datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    `updated_at` datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (`id`),
+    UNIQUE KEY `uk_bucket` (`bucket`),
+    KEY          `idx_broker` (`broker_url`, `bucket`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
+
+ALTER TABLE `flowjob_plan`
+    ADD COLUMN `bucket` int NOT NULL DEFAULT 0;
+UPDATE `flowjob_plan`
+SET `bucket` = CRC32(`plan_id`) % 4096;
+ALTER TABLE `flowjob_plan`
+    ADD INDEX `idx_bucket_update` (`bucket`, `updated_at`);
+
+ALTER TABLE `flowjob_job_instance`
+    ADD COLUMN `bucket` int NOT NULL DEFAULT 0;
+UPDATE `flowjob_job_instance`
+SET `bucket` = CRC32(`job_instance_id`) % 4096;
+ALTER TABLE `flowjob_job_instance`
+    ADD INDEX `idx_bucket_trigger` (`bucket`, `status`, `trigger_at`),
+    ADD INDEX `idx_bucket_report` (`bucket`, `status`, `last_report_at`);
@@ -0,0 +1,22 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+ALTER TABLE `flowjob_plan_instance`
+    ADD COLUMN `completed_jobs` varchar(2048) COLLATE utf8mb4_bin DEFAULT NULL AFTER `feedback_at`;
+
+ALTER TABLE `flowjob_delay_instance`
+    ADD COLUMN `completed_jobs` varchar(2048) COLLATE utf8mb4_bin DEFAULT NULL AFTER `feedback_at`;
@@ -20,6 +20,7 @@ package org.limbo.flowjob.broker.core.agent;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.collections4.ListUtils;
 import org.limbo.flowjob.api.constants.AgentStatus;
 import org.limbo.flowjob.common.constants.AgentConstant;
 import org.limbo.flowjob.common.utils.time.Formatters;
@@ -29,46 +30,234 @@ import org.limbo.flowjob.common.utils.time.TimeUtils;
 import java.net.URL;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
 
 /**
+ * agent 心跳先更新内存，定时批量落库；存活状态变化（RUNNING -> FUSING -> TERMINATED）根据内存中的心跳时间判断。
+ * 向其他 broker 发送心跳的 agent 通过定时扫描数据库同步到内存。
+ *
  * @author Devil
  * @since 2023/11/21
  */
 @Slf4j
 public class AgentRegistry {
 
-    private static final Map<String, ScheduleAgent> ONLINE_AGENT_MAP = new ConcurrentHashMap<>();
+    /**
+     * 心跳落库间隔，毫秒，需要小于心跳超时时间，其他 broker 才能及时感知
+     */
+    private static final long FLUSH_INTERVAL = 1000;
+
+    /**
+     * 其他 broker 的心跳落库最多延迟的时间，扫描数据库和判断超时时需要留出余量
+     */
+    private static final long FLUSH_DELAY = FLUSH_INTERVAL * 2;
+
+    /**
+     * 未知的资源版本，客户端上报的版本从 1 开始
+     */
+    private static final long UNKNOWN_VERSION = 0L;
+
+    /**
+     * 每批落库的 agent 数量
+     */
+    private static final int FLUSH_BATCH_SIZE = 200;
 
     private final AgentRepository agentRepository;
 
+    /**
+     * 存活的 broker 数量，agent 的可排队数按 broker 数量均分为各 broker 的下发额度
+     */
+    private final IntSupplier brokerCount;
+
     /**
      * 心跳超时时间，毫秒
      */
     private final Duration heartbeatTimeout = Duration.ofSeconds(AgentConstant.HEARTBEAT_TIMEOUT_SECOND);
 
+    /**
+     * 心跳时间来自数据库的 agent 判断超时前额外等待的时间。库中的心跳时间在同步时最多已经过了一个心跳间隔加落库延迟，
+     * 同步间隔内不会再更新，因此需要留出 同步间隔 + 心跳间隔 + 落库延迟，心跳间隔与超时时间相同
+     */
+    private final Duration remoteDelay = heartbeatTimeout.multipliedBy(2).plusMillis(FLUSH_DELAY);
+
+    private final Map<String, ScheduleAgent> onlineAgents = new ConcurrentHashMap<>();
+
+    /**
+     * 心跳超时熔断中的 agent，再超时一个周期后终止
+     */
+    private final Map<String, ScheduleAgent> fusingAgents = new ConcurrentHashMap<>();
+
+    /**
+     * 最近一次心跳由本 broker 接收的 agent 及本 broker 持有的资源版本，其余 agent 的心跳时间来自数据库，存在落库延迟
+     */
+    private final Map<String, Long> localAgents = new ConcurrentHashMap<>();
+
+    /**
+     * 等待落库的 agent，多次心跳只保留最新的
+     */
+    private final Map<String, ScheduleAgent> dirtyAgents = new ConcurrentHashMap<>();
+
+    /**
+     * 通过心跳恢复的 agent 及恢复前的状态，落库时更新为 RUNNING
+     */
+    private final Map<String, AgentStatus> recoveredAgents = new ConcurrentHashMap<>();
+
+    /**
+     * 授予下发额度后的回调
+     */
+    private final List<Consumer<ScheduleAgent>> creditListeners = new CopyOnWriteArrayList<>();
+
     public AgentRegistry(AgentRepository agentRepository) {
+        this(agentRepository, () -> 1);
+    }
+
+    public AgentRegistry(AgentRepository agentRepository, IntSupplier brokerCount) {
         this.agentRepository = agentRepository;
+        this.brokerCount = brokerCount;
     }
 
     /**
      * 获取所有存活Agent
      */
     public Collection<ScheduleAgent> all() {
-        return ONLINE_AGENT_MAP.values();
+        return onlineAgents.values();
     }
 
     public void init() {
         new Timer().schedule(new AgentOnlineCheckTask(), 0, heartbeatTimeout.toMillis());
-        new Timer().schedule(new AgentFusingCheckTask(), 0, heartbeatTimeout.toMillis());
-        new Timer().schedule(new AgentTerminatedCheckTask(), 0, heartbeatTimeout.toMillis());
+        new Timer().schedule(new AgentLivenessCheckTask(), 0, FLUSH_INTERVAL);
+        new Timer().schedule(new AgentHeartbeatFlushTask(), FLUSH_INTERVAL, FLUSH_INTERVAL);
+    }
+
+    /**
+     * agent 心跳，只更新内存，由 {@link AgentHeartbeatFlushTask} 批量落库
+     *
+     * @param agentId             agentId
+     * @param availableQueueLimit 任务队列剩余可排队数，为空表示未变化
+     * @return agent，不存在时返回 null
+     */
+    public ScheduleAgent heartbeat(String agentId, Integer availableQueueLimit) {
+        return heartbeat(agentId, availableQueueLimit, null, null);
+    }
+
+    /**
+     * agent 心跳，只更新内存，由 {@link AgentHeartbeatFlushTask} 批量落库
+     *
+     * @param agentId             agentId
+     * @param availableQueueLimit 任务队列剩余可排队数，为空表示未变化
+     * @param resourceVersion     本次上报的资源版本
+     * @param baseVersion         增量基于的资源版本，为空表示全量上报
+     * @return agent，不存在时返回 null
+     */
+    public ScheduleAgent heartbeat(String agentId, Integer availableQueueLimit, Long resourceVersion, Long baseVersion) {
+        ScheduleAgent agent = onlineAgents.get(agentId);
+        if (agent == null) {
+            agent = fusingAgents.remove(agentId);
+        }
+        if (agent == null) {
+            // 第一次收到心跳或已经终止，从数据库加载
+            agent = agentRepository.get(agentId);
+            if (agent == null) {
+                return null;
+            }
+        }
+
+        AgentStatus before = agent.getStatus();
+        agent.heartbeat(availableQueueLimit, TimeUtils.currentLocalDateTime());
+        if (before != null && before != AgentStatus.RUNNING) {
+            recoveredAgents.putIfAbsent(agentId, before);
+        }
+        if (availableQueueLimit != null) {
+            grantCredits(agent, availableQueueLimit);
+        } else if (!agent.isGranted() && agent.getAvailableQueueLimit() != null) {
+            // 从数据库加载的 agent 按库中最后上报的值授予一次
+            grantCredits(agent, agent.getAvailableQueueLimit());
+        }
+        localAgents.put(agentId, nextVersion(localAgents.get(agentId), resourceVersion, baseVersion));
+        onlineAgents.put(agentId, agent);
+        dirtyAgents.put(agentId, agent);
+        return agent;
     }
 
+    /**
+     * 按 agent 上报的剩余可排队数授予本 broker 的下发额度。每个 broker 只占用均分后的份额（向上取整），
+     * 各 broker 同时下发时最多超出 broker 数量减一个作业，由 agent 拒绝后重新下发
+     *
+     * @param availableQueueLimit agent 上报的剩余可排队数，只能来自心跳或下发响应，不能使用缓存的值
+     */
+    public void grantCredits(ScheduleAgent agent, int availableQueueLimit) {
+        int brokers = Math.max(brokerCount.getAsInt(), 1);
+        int share = availableQueueLimit <= 0 ? 0 : (availableQueueLimit + brokers - 1) / brokers;
+        agent.grantCredits(share);
+        notifyCredits(agent);
+    }
+
+    /**
+     * agent 有剩余额度时通知回调
+     */
+    private void notifyCredits(ScheduleAgent agent) {
+        if (agent.getCredits() <= 0) {
+            return;
+        }
+        for (Consumer<ScheduleAgent> listener : creditListeners) {
+            try {
+                listener.accept(agent);
+            } catch (Exception e) {
+                log.error("[AgentRegistry] credit listener fail agent={}", agent.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * 添加授予下发额度后的回调，在心跳或下发响应的线程中执行，不能阻塞
+     */
+    public void addCreditListener(Consumer<ScheduleAgent> listener) {
+        creditListeners.add(listener);
+    }
+
+    private static boolean expired(ScheduleAgent agent, LocalDateTime deadline) {
+        return agent.getLastHeartbeatAt() == null || agent.getLastHeartbeatAt().isBefore(deadline);
+    }
+
+    /**
+     * 增量上报基于的版本与本 broker 持有的版本不一致时，未上报的字段可能是旧值，记为未知版本
+     */
+    private static long nextVersion(Long held, Long resourceVersion, Long baseVersion) {
+        if (resourceVersion == null) {
+            return UNKNOWN_VERSION;
+        }
+        return baseVersion == null || baseVersion.equals(held) ? resourceVersion : UNKNOWN_VERSION;
+    }
+
+    /**
+     * 本 broker 是否持有 agent 上报的最新资源，否则需要 agent 全量上报
+     *
+     * @param resourceVersion 心跳上报的资源版本，为空时不校验
+     */
+    public boolean isResourceSynced(String id, Long resourceVersion) {
+        return resourceVersion == null || resourceVersion.equals(localAgents.get(id));
+    }
+
+    /**
+     * 心跳时间来自数据库的 agent 多等待 remoteDelay 再判断超时，避免两次同步之间被误熔断
+     */
+    private boolean expired(ScheduleAgent agent, LocalDateTime deadline, LocalDateTime remoteDeadline) {
+        return expired(agent, localAgents.containsKey(agent.getId()) ? deadline : remoteDeadline);
+    }
+
+    /**
+     * 同步在其他 broker 上心跳的 agent
+     */
     private class AgentOnlineCheckTask extends TimerTask {
 
         private static final String TASK_NAME = "[AgentOnlineCheckTask]";
@@ -78,16 +267,36 @@ public class AgentRegistry {
         @Override
         public void run() {
             try {
-                LocalDateTime startTime = lastCheckTime;
+                // 心跳时间早于上次扫描、但在上次扫描之后才落库的 agent 也需要扫到
+                LocalDateTime startTime = lastCheckTime.minus(FLUSH_DELAY, ChronoUnit.MILLIS);
                 LocalDateTime endTime = TimeUtils.currentLocalDateTime();
                 if (log.isDebugEnabled()) {
                     log.info("{} checkOnline start:{} end:{}", TASK_NAME, LocalTimeUtils.format(startTime, Formatters.YMD_HMS), LocalTimeUtils.format(endTime, Formatters.YMD_HMS));
                 }
                 List<ScheduleAgent> onlines = agentRepository.findByLastHeartbeatAtBetween(startTime, endTime);
                 if (CollectionUtils.isNotEmpty(onlines)) {
-                    for (ScheduleAgent agent : onlines) {
-                        // 更新数据
-                        ScheduleAgent n = ONLINE_AGENT_MAP.put(agent.getId(), agent);
+                    for (ScheduleAgent stored : onlines) {
+                        // 本节点收到的心跳比库中新，保留内存中的数据
+                        ScheduleAgent local = onlineAgents.get(stored.getId());
+                        if (local == null) {
+                            local = fusingAgents.get(stored.getId());
+                        }
+                        if (local != null && !expired(local, stored.getLastHeartbeatAt())) {
+                            continue;
+                        }
+                        // 更新已有对象，保留本 broker 的下发额度和已下发未响应的作业，下发中的作业仍持有该对象。
+                        // 库中的可排队数是缓存的值，不用于授予额度
+                        localAgents.remove(stored.getId());
+                        ScheduleAgent agent = local == null ? stored : local;
+                        if (local != null) {
+                            local.sync(stored);
+                        }
+                        fusingAgents.remove(agent.getId(), agent);
+                        ScheduleAgent n = onlineAgents.put(agent.getId(), agent);
+                        if (!agent.isGranted()) {
+                            // 未授予过额度时以库中的可排队数下发，唤醒等待额度的作业
+                            notifyCredits(agent);
+                        }
                         URL url = agent.getUrl();
                         if (n == null && log.isDebugEnabled()) {
                             log.debug("{} find online id: {}, host: {}, port: {} lastHeartbeat:{}", TASK_NAME, agent.getId(), url.getHost(), url.getPort(), LocalTimeUtils.format(agent.getLastHeartbeatAt(), Formatters.YMD_HMS));
@@ -102,72 +311,81 @@ public class AgentRegistry {
 
     }
 
-    private class AgentFusingCheckTask extends TimerTask {
-
-        private static final String TASK_NAME = "[AgentFusingCheckTask]";
+    /**
+     * 根据内存中的心跳时间熔断、终止 agent，只在状态变化时更新数据库。
+     * 数据库按心跳时间条件更新，agent 在其他 broker 上仍有心跳时不会被熔断。
+     */
+    private class AgentLivenessCheckTask extends TimerTask {
 
-        LocalDateTime lastCheckTime = TimeUtils.currentLocalDateTime().plusSeconds(-2 * heartbeatTimeout.getSeconds());
+        private static final String TASK_NAME = "[AgentLivenessCheckTask]";
 
         @Override
         public void run() {
             try {
-                LocalDateTime startTime = lastCheckTime;
-                LocalDateTime endTime = TimeUtils.currentLocalDateTime().plusSeconds(-heartbeatTimeout.getSeconds());
-                if (log.isDebugEnabled()) {
-                    log.debug("{} check start:{} end:{}", TASK_NAME, LocalTimeUtils.format(startTime, Formatters.YMD_HMS), LocalTimeUtils.format(endTime, Formatters.YMD_HMS));
-                }
-                List<ScheduleAgent> offlines = agentRepository.findByLastHeartbeatAtBetween(startTime, endTime);
-                if (CollectionUtils.isNotEmpty(offlines)) {
-                    for (ScheduleAgent agent : offlines) {
-                        URL url = agent.getUrl();
+                LocalDateTime now = TimeUtils.currentLocalDateTime();
+                LocalDateTime fusingDeadline = now.minus(heartbeatTimeout);
+                LocalDateTime terminatedDeadline = now.minus(heartbeatTimeout.multipliedBy(2));
+                LocalDateTime remoteFusingDeadline = fusingDeadline.minus(remoteDelay);
+                LocalDateTime remoteTerminatedDeadline = terminatedDeadline.minus(remoteDelay);
+
+                for (ScheduleAgent agent : onlineAgents.values()) {
+                    if (expired(agent, fusingDeadline, remoteFusingDeadline) && onlineAgents.remove(agent.getId(), agent)) {
                         if (log.isDebugEnabled()) {
-                            log.debug("{} find id: {}, host: {}, port: {} lastHeartbeat:{}", TASK_NAME, agent.getId(), url.getHost(), url.getPort(), LocalTimeUtils.format(agent.getLastHeartbeatAt(), Formatters.YMD_HMS));
+                            log.debug("{} fusing id: {}", TASK_NAME, agent.getId());
                         }
-                        ONLINE_AGENT_MAP.remove(agent.getId());
+                        agent.setStatus(AgentStatus.FUSING);
+                        fusingAgents.put(agent.getId(), agent);
+                        agentRepository.updateStatusIfExpired(agent.getId(), AgentStatus.RUNNING.status, AgentStatus.FUSING.status, fusingDeadline);
+                    }
+                }
 
-                        if (AgentStatus.RUNNING == agent.getStatus()) {
-                            agentRepository.updateStatus(agent.getId(), AgentStatus.RUNNING.status, AgentStatus.FUSING.status);
+                for (ScheduleAgent agent : fusingAgents.values()) {
+                    if (expired(agent, terminatedDeadline, remoteTerminatedDeadline) && fusingAgents.remove(agent.getId(), agent)) {
+                        localAgents.remove(agent.getId());
+                        if (log.isDebugEnabled()) {
+                            log.debug("{} terminated id: {}", TASK_NAME, agent.getId());
                         }
+                        agent.setStatus(AgentStatus.TERMINATED);
+                        agentRepository.updateStatusIfExpired(agent.getId(), AgentStatus.FUSING.status, AgentStatus.TERMINATED.status, terminatedDeadline);
                     }
                 }
-                lastCheckTime = endTime;
             } catch (Exception e) {
                 log.error("{} check fail", TASK_NAME, e);
             }
         }
     }
 
-    private class AgentTerminatedCheckTask extends TimerTask {
-
-        private static final String TASK_NAME = "[AgentTerminatedCheckTask]";
+    /**
+     * 批量落库心跳
+     */
+    private class AgentHeartbeatFlushTask extends TimerTask {
 
-        LocalDateTime lastCheckTime = TimeUtils.currentLocalDateTime().plusSeconds(-3 * heartbeatTimeout.getSeconds());
+        private static final String TASK_NAME = "[AgentHeartbeatFlushTask]";
 
         @Override
         public void run() {
             try {
-                LocalDateTime startTime = lastCheckTime;
-                LocalDateTime endTime = TimeUtils.currentLocalDateTime().plusSeconds(-2 * heartbeatTimeout.getSeconds());
-                if (log.isDebugEnabled()) {
-                    log.debug("{} check start:{} end:{}", TASK_NAME, LocalTimeUtils.format(startTime, Formatters.YMD_HMS), LocalTimeUtils.format(endTime, Formatters.YMD_HMS));
+                List<ScheduleAgent> agents = new ArrayList<>(dirtyAgents.size());
+                for (String agentId : dirtyAgents.keySet()) {
+                    ScheduleAgent agent = dirtyAgents.remove(agentId);
+                    if (agent != null) {
+                        agents.add(agent);
+                    }
+                }
+                for (List<ScheduleAgent> batch : ListUtils.partition(agents, FLUSH_BATCH_SIZE)) {
+                    agentRepository.saveHeartbeats(batch);
                 }
-                List<ScheduleAgent> offlines = agentRepository.findByLastHeartbeatAtBetween(startTime, endTime);
-                if (CollectionUtils.isNotEmpty(offlines)) {
-                    for (ScheduleAgent agent : offlines) {
-                        URL url = agent.getUrl();
-                        if (log.isDebugEnabled()) {
-                            log.debug("{} find id: {}, host: {}, port: {} lastHeartbeat:{}", TASK_NAME, agent.getId(), url.getHost(), url.getPort(), LocalTimeUtils.format(agent.getLastHeartbeatAt(), Formatters.YMD_HMS));
-                        }
-                        ONLINE_AGENT_MAP.remove(agent.getId());
 
-                        if (AgentStatus.FUSING == agent.getStatus()) {
-                            agentRepository.updateStatus(agent.getId(), AgentStatus.FUSING.status, AgentStatus.TERMINATED.status);
-                        }
+                // 只恢复本次心跳恢复的 agent，按恢复前的状态更新，库中已被其他 broker 改变状态时不覆盖
+                for (String agentId : recoveredAgents.keySet()) {
+                    AgentStatus before = recoveredAgents.remove(agentId);
+                    if (before != null) {
+                        agentRepository.updateStatus(agentId, before.status, AgentStatus.RUNNING.status);
                     }
                 }
-                lastCheckTime = endTime;
             } catch (Exception e) {
-                log.error("{} check fail", TASK_NAME, e);
+                // 未落库的心跳在下次心跳时重新写入
+                log.error("{} flush fail", TASK_NAME, e);
             }
         }
     }
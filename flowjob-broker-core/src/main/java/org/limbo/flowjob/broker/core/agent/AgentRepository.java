@@ -19,6 +19,7 @@
 package org.limbo.flowjob.broker.core.agent;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -32,4 +33,17 @@ public interface AgentRepository {
     List<ScheduleAgent> findByLastHeartbeatAtBetween(LocalDateTime startTime, LocalDateTime endTime);
 
     boolean updateStatus(String agentId, Integer oldStatus, Integer newStatus);
+
+    /**
+     * 心跳超时时更新状态，库中心跳时间不早于 deadline 时不更新，避免其他 broker 上仍在心跳的 agent 被熔断
+     *
+     * @param deadline 心跳时间早于此时间才更新
+     * @return 是否更新成功
+     */
+    boolean updateStatusIfExpired(String agentId, Integer oldStatus, Integer newStatus, LocalDateTime deadline);
+
+    /**
+     * 批量更新心跳数据：可用资源、心跳时间。状态不在这里更新，心跳恢复的 agent 通过 {@link #updateStatus(String, Integer, Integer)} 更新
+     */
+    void saveHeartbeats(Collection<ScheduleAgent> agents);
 }
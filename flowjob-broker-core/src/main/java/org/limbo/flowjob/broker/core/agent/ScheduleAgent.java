@@ -31,6 +31,7 @@ import org.limbo.flowjob.common.lb.LBServer;
 
 import java.net.URL;
 import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Devil
@@ -42,6 +43,8 @@ import java.time.LocalDateTime;
 @Builder(builderClassName = "Builder")
 public class ScheduleAgent implements AgentRpc, LBServer {
 
+    private static final int UNGRANTED = Integer.MIN_VALUE;
+
     /**
      * ID
      */
@@ -72,6 +75,21 @@ public class ScheduleAgent implements AgentRpc, LBServer {
      */
     private AgentStatus status;
 
+    /**
+     * 本 broker 可继续下发的作业数。由 {@link AgentRegistry} 按 agent 上报的可排队数授予本 broker 的份额，每次下发前在本地扣减，
+     * 未授予过时以 availableQueueLimit 为准
+     */
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private final AtomicInteger credits = new AtomicInteger(UNGRANTED);
+
+    /**
+     * 已扣减额度、还未收到 agent 响应的作业数。agent 上报的可排队数不包含这些作业，授予额度时需要扣除
+     */
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private final AtomicInteger inFlight = new AtomicInteger();
+
     /**
      * RPC 通信协议
      */
@@ -90,6 +108,99 @@ public class ScheduleAgent implements AgentRpc, LBServer {
         return this.rpc;
     }
 
+    /**
+     * 心跳，更新可用资源并置为运行状态。额度由 {@link AgentRegistry} 在 agent 上报可排队数时重新授予，
+     * 未上报时保留本地已扣减的额度
+     *
+     * @param availableQueueLimit 任务队列剩余可排队数，为空表示未变化
+     */
+    public void heartbeat(Integer availableQueueLimit, LocalDateTime heartbeatAt) {
+        if (availableQueueLimit != null) {
+            this.availableQueueLimit = availableQueueLimit;
+        }
+        this.lastHeartbeatAt = heartbeatAt;
+        this.status = AgentStatus.RUNNING;
+    }
+
+    /**
+     * 同步其他 broker 落库的心跳，不改变本 broker 的下发额度和已下发未响应的作业
+     *
+     * @param stored 从数据库加载的 agent
+     */
+    void sync(ScheduleAgent stored) {
+        this.availableQueueLimit = stored.availableQueueLimit;
+        this.lastHeartbeatAt = stored.lastHeartbeatAt;
+        this.status = stored.status;
+    }
+
+    /**
+     * @return 剩余下发额度
+     */
+    public int getCredits() {
+        int current = credits.get();
+        if (current != UNGRANTED) {
+            return current;
+        }
+        return availableQueueLimit == null ? 0 : Math.max(availableQueueLimit, 0);
+    }
+
+    /**
+     * @return 是否已经授予过下发额度
+     */
+    public boolean isGranted() {
+        return credits.get() != UNGRANTED;
+    }
+
+    /**
+     * 授予下发额度，覆盖本地剩余额度，已下发未响应的作业继续占用额度
+     *
+     * @param granted 本 broker 可占用的 agent 剩余可排队数
+     */
+    public void grantCredits(int granted) {
+        credits.set(Math.max(granted - inFlight.get(), 0));
+    }
+
+    /**
+     * 下发前扣减一个额度
+     *
+     * @return 额度不足时返回 false
+     */
+    public boolean tryAcquireCredit() {
+        while (true) {
+            int current = credits.get();
+            int available = current == UNGRANTED ? getCredits() : current;
+            if (available <= 0) {
+                return false;
+            }
+            if (credits.compareAndSet(current, available - 1)) {
+                inFlight.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 收到 agent 响应，作业不再占用额度，剩余额度以 agent 返回的可排队数为准
+     */
+    public void completeDispatch() {
+        inFlight.updateAndGet(current -> Math.max(current - 1, 0));
+    }
+
+    /**
+     * 下发失败且 agent 未返回剩余可排队数时归还额度
+     */
+    public void releaseCredit() {
+        completeDispatch();
+        credits.updateAndGet(current -> current == UNGRANTED ? current : current + 1);
+    }
+
+    /**
+     * 由 {@link AgentRegistry} 根据心跳超时更新状态
+     */
+    void setStatus(AgentStatus status) {
+        this.status = status;
+    }
+
     @Override
     public String getServerId() {
         return id;
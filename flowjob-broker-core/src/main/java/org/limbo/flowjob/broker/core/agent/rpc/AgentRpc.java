@@ -17,11 +17,15 @@
 package org.limbo.flowjob.broker.core.agent.rpc;
 
 import org.limbo.flowjob.api.dto.PageDTO;
+import org.limbo.flowjob.api.dto.agent.JobBatchReceiveDTO;
+import org.limbo.flowjob.api.dto.agent.JobReceiveDTO;
 import org.limbo.flowjob.api.dto.console.TaskDTO;
 import org.limbo.flowjob.api.param.console.TaskQueryParam;
 import org.limbo.flowjob.broker.core.meta.job.JobInstance;
 import org.limbo.flowjob.broker.core.rpc.IRpc;
 
+import java.util.List;
+
 /**
  * Worker 通信接口
  *
@@ -31,11 +35,18 @@ import org.limbo.flowjob.broker.core.rpc.IRpc;
 public interface AgentRpc extends IRpc {
 
     /**
-     * 发送一个作业到worker执行。当worker接受此task后，将触发返回
+     * 发送一个作业到agent执行。当agent接受此作业后，将触发返回
      * @param instance 作业实例
-     * @return worker接受task后触发
+     * @return 是否接收成功，以及agent剩余可排队数
+     */
+    JobReceiveDTO dispatch(JobInstance instance);
+
+    /**
+     * 批量发送作业到agent执行，每个作业单独返回是否接收成功
+     * @param instances 作业实例
+     * @return 接收成功、被拒绝的作业实例，以及agent剩余可排队数
      */
-    boolean dispatch(JobInstance instance);
+    JobBatchReceiveDTO batchDispatch(List<JobInstance> instances);
 
     /**
      * task查询
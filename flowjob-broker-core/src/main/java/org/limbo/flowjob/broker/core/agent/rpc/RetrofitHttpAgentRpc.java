@@ -17,11 +17,13 @@
 package org.limbo.flowjob.broker.core.agent.rpc;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.BooleanUtils;
 import org.limbo.flowjob.api.constants.rpc.HttpAgentApi;
 import org.limbo.flowjob.api.dto.PageDTO;
 import org.limbo.flowjob.api.dto.ResponseDTO;
+import org.limbo.flowjob.api.dto.agent.JobBatchReceiveDTO;
+import org.limbo.flowjob.api.dto.agent.JobReceiveDTO;
 import org.limbo.flowjob.api.dto.console.TaskDTO;
+import org.limbo.flowjob.api.param.agent.JobBatchSubmitParam;
 import org.limbo.flowjob.api.param.agent.JobSubmitParam;
 import org.limbo.flowjob.api.param.console.TaskQueryParam;
 import org.limbo.flowjob.broker.core.agent.AgentConverter;
@@ -29,6 +31,7 @@ import org.limbo.flowjob.broker.core.agent.ScheduleAgent;
 import org.limbo.flowjob.broker.core.meta.job.JobInstance;
 import org.limbo.flowjob.broker.core.exceptions.RpcException;
 import org.limbo.flowjob.broker.core.rpc.AbstractRpc;
+import org.limbo.flowjob.common.http.HttpClientRegistry;
 import org.limbo.flowjob.common.utils.json.JacksonUtils;
 import retrofit2.Call;
 import retrofit2.Retrofit;
@@ -38,6 +41,9 @@ import retrofit2.http.Headers;
 import retrofit2.http.POST;
 
 import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * @author Brozen
@@ -55,14 +61,33 @@ public class RetrofitHttpAgentRpc extends AbstractRpc implements AgentRpc {
         this.baseUrl = agent.getUrl();
         this.api = new Retrofit.Builder()
                 .baseUrl(baseUrl)
+                // 所有 agent 共享连接池
+                .client(HttpClientRegistry.embedClient())
                 .addConverterFactory(JacksonConverterFactory.create(JacksonUtils.newObjectMapper()))
                 .build().create(RetrofitAgentApi.class);
     }
 
     @Override
-    public boolean dispatch(JobInstance instance) {
-        Boolean result = send(api.dispatch(AgentConverter.toJobDispatchParam(instance)));
-        return BooleanUtils.isTrue(result);
+    public JobReceiveDTO dispatch(JobInstance instance) {
+        JobReceiveDTO result = send(api.dispatch(AgentConverter.toJobDispatchParam(instance)));
+        if (result == null) {
+            result = new JobReceiveDTO();
+        }
+        return result;
+    }
+
+    @Override
+    public JobBatchReceiveDTO batchDispatch(List<JobInstance> instances) {
+        JobBatchSubmitParam param = new JobBatchSubmitParam();
+        param.setJobs(instances.stream().map(AgentConverter::toJobDispatchParam).collect(Collectors.toList()));
+        JobBatchReceiveDTO result = send(api.batchDispatch(param));
+        if (result == null) {
+            result = new JobBatchReceiveDTO();
+        }
+        if (result.getAcceptedJobInstanceIds() == null) {
+            result.setAcceptedJobInstanceIds(Collections.emptyList());
+        }
+        return result;
     }
 
     @Override
@@ -90,7 +115,13 @@ public class RetrofitHttpAgentRpc extends AbstractRpc implements AgentRpc {
                 "Content-Type: application/json"
         )
         @POST(HttpAgentApi.API_JOB_RECEIVE)
-        Call<ResponseDTO<Boolean>> dispatch(@Body JobSubmitParam param);
+        Call<ResponseDTO<JobReceiveDTO>> dispatch(@Body JobSubmitParam param);
+
+        @Headers(
+                "Content-Type: application/json"
+        )
+        @POST(HttpAgentApi.API_JOB_BATCH_RECEIVE)
+        Call<ResponseDTO<JobBatchReceiveDTO>> batchDispatch(@Body JobBatchSubmitParam param);
 
         @Headers(
                 "Content-Type: application/json"
@@ -20,6 +20,8 @@ package org.limbo.flowjob.broker.core.cluster;
 
 import lombok.Data;
 import org.limbo.flowjob.api.constants.Protocol;
+import org.limbo.flowjob.broker.core.schedule.scheduler.HashedWheelTimerScheduler;
+import org.limbo.flowjob.common.http.HttpClientConfig;
 
 /**
  * @author Devil
@@ -55,6 +57,21 @@ public class BrokerConfig {
      */
     private Protocol protocol = Protocol.HTTP;
 
+    /**
+     * broker 集群成员发现方式。db：基于数据库心跳；gossip：基于 SWIM 协议，使用与 port 相同的 UDP 端口，数据库只用于获取种子节点
+     */
+    protected String registry = "db";
+
+    /**
+     * gossip 探测周期，毫秒
+     */
+    protected long gossipProbeInterval = 200;
+
+    /**
+     * gossip 怀疑超时时间，毫秒，超时未被反驳的节点视为下线
+     */
+    protected long gossipSuspectTimeout = 600;
+
     /**
      * 心跳时间间隔，毫秒
      */
@@ -65,4 +82,44 @@ public class BrokerConfig {
      */
     protected long heartbeatTimeout = 5000;
 
+    /**
+     * 元任务执行通道数量，同一个任务总是在同一个通道中顺序执行
+     */
+    protected int scheduleLanes = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 每个元任务执行通道的队列大小，队列满后进入通道的溢出队列，不阻塞时间轮线程
+     */
+    protected int scheduleLaneQueueSize = HashedWheelTimerScheduler.DEFAULT_LANE_QUEUE_SIZE;
+
+    /**
+     * plan 定时触发的合并窗口，毫秒，窗口内的触发在一个事务中创建实例
+     */
+    protected long planTriggerLinger = 100;
+
+    /**
+     * plan 定时触发每批最大数量
+     */
+    protected int planTriggerBatchSize = 200;
+
+    /**
+     * 作业按 agent 合并下发的收集窗口，毫秒
+     */
+    protected long jobDispatchLinger = 5;
+
+    /**
+     * 作业按 agent 合并下发每批最大数量
+     */
+    protected int jobDispatchBatchSize = 100;
+
+    /**
+     * INSTANCE、JOB_INSTANCE 是否使用按时间递增的 64 位 ID，默认使用号段 ID
+     */
+    protected boolean timeOrderedId = false;
+
+    /**
+     * 与 agent 通信的 HTTP 客户端配置
+     */
+    protected HttpClientConfig http = new HttpClientConfig();
+
 }
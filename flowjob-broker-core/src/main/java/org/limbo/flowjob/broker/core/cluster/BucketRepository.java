@@ -0,0 +1,62 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.cluster;
+
+import org.limbo.flowjob.broker.core.meta.lock.Lease;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 桶归属信息
+ *
+ * @author Brozen
+ * @since 2024-02-06
+ */
+public interface BucketRepository {
+
+    /**
+     * 所有桶的归属
+     *
+     * @return bucket -> brokerUrl
+     */
+    Map<Integer, URL> findAll();
+
+    /**
+     * 初始化还不存在的桶，只有租约 token 未变化时才会写入
+     *
+     * @param buckets bucket -> brokerUrl
+     * @param lease   执行变更持有的租约
+     * @return 创建的桶数量
+     */
+    int create(Map<Integer, URL> buckets, Lease lease);
+
+    /**
+     * 将桶的归属从 from 切换到 to，只有当前归属仍为 from 且租约 token 未变化时才会更新
+     *
+     * @param buckets 桶
+     * @param from    原归属
+     * @param to      新归属
+     * @param lease   执行变更持有的租约
+     * @return 更新的桶数量
+     */
+    int transfer(Collection<Integer> buckets, URL from, URL to, Lease lease);
+
+}
@@ -0,0 +1,87 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.cluster;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.zip.CRC32;
+
+/**
+ * 虚拟桶。plan、job instance 按 id 固定落入某个桶，broker 以桶为单位持有数据，
+ * 节点变化时只需要变更桶的归属，不需要逐行迁移数据。
+ *
+ * @author Brozen
+ * @since 2024-02-06
+ */
+public final class Buckets {
+
+    /**
+     * 桶的数量，修改后需要重新计算表中已有数据的 bucket 字段
+     */
+    public static final int COUNT = 4096;
+
+    private Buckets() {
+    }
+
+    /**
+     * 计算 id 所属的桶，和数据库中 CRC32(id) % 4096 结果一致
+     *
+     * @param id 资源id
+     * @return 桶
+     */
+    public static int of(String id) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(id.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc32.getValue() % COUNT);
+    }
+
+    /**
+     * 最高随机权重（rendezvous hashing）选出桶的归属节点。
+     * 节点增减时只有原本属于该节点或新归属该节点的桶会变化，约为 1/N。
+     *
+     * @param bucket 桶
+     * @param nodes  候选节点
+     * @return 归属节点，没有候选节点时返回 null
+     */
+    public static Node owner(int bucket, Collection<Node> nodes) {
+        Node owner = null;
+        long maxWeight = Long.MIN_VALUE;
+        for (Node node : nodes) {
+            long weight = weight(bucket, node.getUrl());
+            if (owner == null || weight > maxWeight) {
+                owner = node;
+                maxWeight = weight;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * String.hashCode 在各个 JVM 中结果一致，再经过 splitmix64 混合保证分布均匀
+     */
+    private static long weight(int bucket, URL url) {
+        long z = ((long) url.toString().hashCode() << 32) ^ bucket;
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -19,19 +19,21 @@
 package org.limbo.flowjob.broker.core.cluster;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.collections4.CollectionUtils;
-import org.limbo.flowjob.broker.core.meta.info.PlanRepository;
-import org.limbo.flowjob.broker.core.meta.job.JobInstanceRepository;
 import org.limbo.flowjob.common.utils.json.JacksonUtils;
 
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
-import java.util.Comparator;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
 
 /**
  * 内存中缓存的 broker节点信息
@@ -44,21 +46,29 @@ public class NodeManger {
 
     private static final Map<String, Node> nodes = new ConcurrentHashMap<>();
 
-    private final PlanRepository planRepository;
+    /**
+     * 桶的归属，下标为桶，整体替换
+     */
+    private volatile URL[] bucketOwners = new URL[Buckets.COUNT];
 
-    private final JobInstanceRepository jobInstanceRepository;
+    /**
+     * 桶的归属变化后回调
+     */
+    private final List<Runnable> bucketListeners = new CopyOnWriteArrayList<>();
 
-    public NodeManger(PlanRepository planRepository, JobInstanceRepository jobInstanceRepository) {
-        this.planRepository = planRepository;
-        this.jobInstanceRepository = jobInstanceRepository;
-    }
+    /**
+     * 拓扑版本，由存活节点地址计算，各 broker 上相同的节点集合得到相同的版本
+     */
+    private volatile long topologyVersion = topologyVersion(Collections.emptySet());
 
     /**
      * 节点上线
      */
     public void online(Node node) {
         URL url = node.getUrl();
-        nodes.putIfAbsent(url.toString(), node);
+        if (nodes.putIfAbsent(url.toString(), node) == null) {
+            refreshTopologyVersion();
+        }
         if (log.isDebugEnabled()) {
             log.debug("[LocalNodeManger] online {}", JacksonUtils.toJSONString(nodes));
         }
@@ -69,7 +79,9 @@ public class NodeManger {
      */
     public void offline(Node node) {
         URL url = node.getUrl();
-        nodes.remove(url.toString());
+        if (nodes.remove(url.toString()) != null) {
+            refreshTopologyVersion();
+        }
         if (log.isDebugEnabled()) {
             log.debug("[LocalNodeManger] offline {}", JacksonUtils.toJSONString(nodes));
         }
@@ -92,27 +104,121 @@ public class NodeManger {
         return nodes.values();
     }
 
+    /**
+     * 当前拓扑版本，节点上下线后变化
+     */
+    public long topologyVersion() {
+        return topologyVersion;
+    }
+
+    private synchronized void refreshTopologyVersion() {
+        topologyVersion = topologyVersion(nodes.keySet());
+    }
+
+    /**
+     * 对排序后的节点地址计算 CRC32 作为版本，与节点上下线顺序无关
+     */
+    private static long topologyVersion(Collection<String> urls) {
+        CRC32 crc = new CRC32();
+        for (String url : new TreeSet<>(urls)) {
+            crc.update(url.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * 更新桶的归属
+     *
+     * @param owners bucket -> brokerUrl
+     */
+    public void updateBuckets(Map<Integer, URL> owners) {
+        URL[] newOwners = new URL[Buckets.COUNT];
+        for (Map.Entry<Integer, URL> entry : owners.entrySet()) {
+            newOwners[entry.getKey()] = entry.getValue();
+        }
+        URL[] oldOwners = bucketOwners;
+        bucketOwners = newOwners;
+        if (changed(oldOwners, newOwners)) {
+            for (Runnable listener : bucketListeners) {
+                try {
+                    listener.run();
+                } catch (Exception e) {
+                    log.error("[LocalNodeManger] bucket listener fail", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按地址比较，URL.equals 会解析域名
+     */
+    private static boolean changed(URL[] oldOwners, URL[] newOwners) {
+        for (int bucket = 0; bucket < newOwners.length; bucket++) {
+            URL oldOwner = oldOwners[bucket];
+            URL newOwner = newOwners[bucket];
+            if (!Objects.equals(oldOwner == null ? null : oldOwner.toString(), newOwner == null ? null : newOwner.toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 监听桶的归属变化，在更新归属的线程中回调，回调不应阻塞
+     */
+    public void addBucketListener(Runnable listener) {
+        bucketListeners.add(listener);
+    }
+
+    /**
+     * 资源是否由该节点负责，与 {@link #elect(String)} 的结果一致
+     *
+     * @param url 节点地址
+     * @param id  资源id
+     */
+    public boolean isOwner(String url, String id) {
+        Node node = elect(id);
+        return node != null && node.getUrl().toString().equals(url);
+    }
+
+    /**
+     * 节点持有的桶
+     *
+     * @param url 节点地址
+     */
+    public Set<Integer> ownedBuckets(String url) {
+        URL[] owners = bucketOwners;
+        Set<Integer> buckets = new HashSet<>();
+        for (int bucket = 0; bucket < owners.length; bucket++) {
+            if (owners[bucket] != null && owners[bucket].toString().equals(url)) {
+                buckets.add(bucket);
+            }
+        }
+        return buckets;
+    }
+
     /**
      * 为某个资源选择一个broker
+     * 优先选择资源所属桶的持有者，桶未分配或持有者不存活时按 rendezvous hashing 选择
      *
      * @param id 资源id
      * @return broker信息
      */
     public Node elect(String id) {
-        List<Node> sortedNodes = nodes.values().stream().sorted(Comparator
-                .comparing((Function<Node, String>) node -> node.getUrl().getHost())
-                .thenComparingInt(node -> node.getUrl().getPort())
-        ).collect(Collectors.toList());
-
-        if (CollectionUtils.isEmpty(sortedNodes)) {
+        if (nodes.isEmpty()) {
             return null;
         }
 
-        // hash获取id对应的值
-        int idx = id.hashCode() % sortedNodes.size();
-
-        Node node = sortedNodes.get(idx);
-        log.info("find elect:{}", node);
+        int bucket = Buckets.of(id);
+        URL owner = bucketOwners[bucket];
+        Node node = owner == null ? null : nodes.get(owner.toString());
+        if (node == null) {
+            node = Buckets.owner(bucket, nodes.values());
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("find elect:{} bucket:{}", node, bucket);
+        }
         return node;
     }
 
@@ -0,0 +1,60 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.cluster.gossip;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * gossip 中传播的成员状态
+ *
+ * @author Brozen
+ * @since 2024-02-10
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GossipMember {
+
+    private String name;
+
+    /**
+     * broker 地址，gossip 使用同端口的 UDP 通信
+     */
+    private String url;
+
+    /**
+     * 版本号，只有成员自己可以递增，用于反驳怀疑和覆盖旧状态
+     */
+    private long incarnation;
+
+    private Status status;
+
+    public GossipMember copy() {
+        return new GossipMember(name, url, incarnation, status);
+    }
+
+    public enum Status {
+        ALIVE,
+        SUSPECT,
+        DEAD,
+    }
+
+}
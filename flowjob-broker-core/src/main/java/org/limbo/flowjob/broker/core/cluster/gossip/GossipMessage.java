@@ -0,0 +1,76 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.cluster.gossip;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * gossip 消息，成员状态变更附带在每条消息上传播
+ *
+ * @author Brozen
+ * @since 2024-02-10
+ */
+@Data
+public class GossipMessage {
+
+    private Type type;
+
+    /**
+     * 探测序号，ACK 原样返回
+     */
+    private long seq;
+
+    /**
+     * 间接探测的目标地址，仅 PING_REQ 使用
+     */
+    private String target;
+
+    private List<GossipMember> updates = new ArrayList<>();
+
+    public enum Type {
+        /**
+         * 直接探测
+         */
+        PING,
+        /**
+         * 请求其他成员代为探测
+         */
+        PING_REQ,
+        ACK,
+        /**
+         * 新节点加入，对方回复 SYNC
+         */
+        JOIN,
+        /**
+         * 全量成员列表
+         */
+        SYNC,
+    }
+
+    public static GossipMessage of(Type type, long seq) {
+        GossipMessage message = new GossipMessage();
+        message.setType(type);
+        message.setSeq(seq);
+        return message;
+    }
+
+}
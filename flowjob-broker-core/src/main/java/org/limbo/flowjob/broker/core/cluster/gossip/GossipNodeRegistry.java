@@ -0,0 +1,630 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.cluster.gossip;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.NetUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.broker.core.cluster.NodeEvent;
+import org.limbo.flowjob.broker.core.cluster.NodeListener;
+import org.limbo.flowjob.broker.core.cluster.NodeRegistry;
+import org.limbo.flowjob.broker.core.cluster.gossip.GossipMember.Status;
+import org.limbo.flowjob.broker.core.cluster.gossip.GossipMessage.Type;
+import org.limbo.flowjob.common.thread.CommonThreadPool;
+import org.limbo.flowjob.common.thread.NamedThreadFactory;
+import org.limbo.flowjob.common.utils.json.JacksonUtils;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 基于 SWIM 协议的成员发现，使用与 broker 端口相同的 UDP 端口通信，数据库只用于获取种子节点。
+ * <ul>
+ *     <li>每个探测周期按乱序轮询选择一个成员 PING，超时未 ACK 则请求 {@link #INDIRECT_PROBES} 个成员代为探测</li>
+ *     <li>周期结束仍未 ACK 则标记为怀疑，怀疑超时未被反驳则标记为下线</li>
+ *     <li>成员状态变更附带在探测消息上传播，被怀疑的成员递增版本号反驳</li>
+ * </ul>
+ * 所有成员状态只在 netty 的事件循环线程中读写，不需要加锁。
+ *
+ * @author Brozen
+ * @since 2024-02-10
+ */
+@Slf4j
+public class GossipNodeRegistry implements NodeRegistry {
+
+    /**
+     * 间接探测的成员数
+     */
+    private static final int INDIRECT_PROBES = 3;
+
+    /**
+     * 每条消息最多附带的状态变更数
+     */
+    private static final int MAX_PIGGYBACK = 8;
+
+    /**
+     * 状态变更重复传播次数系数，传播次数为 系数 * log2(成员数 + 1)
+     */
+    private static final int RETRANSMIT_MULT = 3;
+
+    /**
+     * 没有其他存活成员时，重新从种子加入的间隔
+     */
+    private static final long SEED_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * 下线成员保留时间，防止过期的存活状态将其复活
+     */
+    private static final long DEAD_RETENTION = TimeUnit.MINUTES.toMillis(10);
+
+    private final SeedRepository seedRepository;
+
+    /**
+     * 探测周期，毫秒
+     */
+    private final long probeInterval;
+
+    /**
+     * 直接探测超时时间，毫秒
+     */
+    private final long probeTimeout;
+
+    /**
+     * 怀疑超时时间，毫秒
+     */
+    private final long suspectTimeout;
+
+    private final List<NodeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * url -> 成员，不包含自己
+     */
+    private final Map<String, Member> members = new HashMap<>();
+
+    /**
+     * 本轮探测顺序
+     */
+    private final List<Member> probeOrder = new ArrayList<>();
+
+    private int probeIndex = 0;
+
+    /**
+     * 等待 ACK 的探测，seq -> 回调
+     */
+    private final Map<Long, Consumer<GossipMessage>> pendingAcks = new HashMap<>();
+
+    /**
+     * 待传播的状态变更，url -> 变更
+     */
+    private final Map<String, Broadcast> broadcasts = new LinkedHashMap<>();
+
+    /**
+     * 成员 url 解析后的地址。域名在 IO 线程池解析，不阻塞事件循环
+     */
+    private final Map<String, InetSocketAddress> addresses = new HashMap<>();
+
+    /**
+     * 正在解析的 url
+     */
+    private final Set<String> resolving = new HashSet<>();
+
+    private long seq = 0;
+
+    private long lastSeedAt = 0;
+
+    private GossipMember self;
+
+    /**
+     * 本节点地址
+     */
+    private URL url;
+
+    private EventLoopGroup group;
+
+    private Channel channel;
+
+    public GossipNodeRegistry(SeedRepository seedRepository, long probeInterval, long suspectTimeout) {
+        this.seedRepository = seedRepository;
+        this.probeInterval = probeInterval;
+        this.probeTimeout = probeInterval / 2;
+        this.suspectTimeout = suspectTimeout;
+    }
+
+    @Override
+    public void register(String name, URL url) {
+        // 用启动时间作为初始版本号，重启后可以覆盖之前的下线状态
+        self = new GossipMember(name, url.toString(), System.currentTimeMillis(), Status.ALIVE);
+        this.url = url;
+
+        group = new NioEventLoopGroup(1, NamedThreadFactory.newInstance("FlowJobGossip"));
+        channel = new Bootstrap()
+                .group(group)
+                .channel(NioDatagramChannel.class)
+                .handler(new SimpleChannelInboundHandler<DatagramPacket>() {
+                    @Override
+                    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+                        receive(packet);
+                    }
+                })
+                .bind(url.getPort())
+                .syncUninterruptibly()
+                .channel();
+
+        seedRepository.register(name, url);
+
+        EventLoop loop = channel.eventLoop();
+        loop.execute(() -> {
+            broadcast(self);
+            join();
+        });
+        loop.scheduleAtFixedRate(this::probe, probeInterval, probeInterval, TimeUnit.MILLISECONDS);
+        log.info("[GossipNodeRegistry] started name={} url={}", name, url);
+    }
+
+    @Override
+    public void subscribe(NodeListener listener) {
+        if (listener == null) {
+            return;
+        }
+        listeners.add(listener);
+        if (channel == null) {
+            return;
+        }
+        // 注册后可能已经发现了其他成员，补发给新的监听器
+        channel.eventLoop().execute(() -> {
+            for (Member member : members.values()) {
+                if (member.state.getStatus() != Status.DEAD) {
+                    notify(listener, NodeEvent.Type.ONLINE, member.state);
+                }
+            }
+        });
+    }
+
+    /**
+     * 通知其他成员自己下线，并关闭通信
+     */
+    public void shutdown() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            seedRepository.unregister(url);
+        } catch (Exception e) {
+            log.error("[GossipNodeRegistry] unregister seed fail url={}", url, e);
+        }
+        channel.eventLoop().submit(() -> {
+            GossipMember leave = self.copy();
+            leave.setStatus(Status.DEAD);
+            for (Member member : members.values()) {
+                if (member.state.getStatus() != Status.DEAD) {
+                    GossipMessage message = GossipMessage.of(Type.PING, nextSeq());
+                    message.getUpdates().add(leave);
+                    write(address(member.state.getUrl()), message);
+                }
+            }
+        }).awaitUninterruptibly(probeInterval);
+        channel.close().awaitUninterruptibly();
+        group.shutdownGracefully(0, probeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 向种子节点发送 JOIN，种子从数据库读取，不阻塞事件循环
+     */
+    private void join() {
+        lastSeedAt = System.currentTimeMillis();
+        CommonThreadPool.IO.execute(() -> {
+            Map<String, InetSocketAddress> seeds = new LinkedHashMap<>();
+            try {
+                for (URL seed : seedRepository.seeds()) {
+                    if (!seed.toString().equals(self.getUrl())) {
+                        seeds.put(seed.toString(), new InetSocketAddress(seed.getHost(), seed.getPort()));
+                    }
+                }
+            } catch (Exception e) {
+                log.error("[GossipNodeRegistry] load seeds fail", e);
+                return;
+            }
+            channel.eventLoop().execute(() -> {
+                for (Map.Entry<String, InetSocketAddress> seed : seeds.entrySet()) {
+                    if (!seed.getValue().isUnresolved()) {
+                        addresses.put(seed.getKey(), seed.getValue());
+                    }
+                    send(seed.getValue(), GossipMessage.of(Type.JOIN, nextSeq()));
+                }
+            });
+        });
+    }
+
+    /**
+     * 一个探测周期
+     */
+    private void probe() {
+        try {
+            long now = System.currentTimeMillis();
+            expire(now);
+            if (aliveCount() == 0 && now - lastSeedAt > SEED_INTERVAL) {
+                join();
+            }
+
+            Member target = nextProbeTarget();
+            if (target == null) {
+                return;
+            }
+
+            long probeSeq = nextSeq();
+            boolean[] acked = {false};
+            pendingAcks.put(probeSeq, ack -> acked[0] = true);
+            send(address(target.state.getUrl()), GossipMessage.of(Type.PING, probeSeq));
+
+            EventLoop loop = channel.eventLoop();
+            loop.schedule(() -> {
+                if (acked[0]) {
+                    return;
+                }
+                // 直接探测超时，请求其他成员间接探测，ACK 使用相同 seq 转发回来
+                for (Member helper : randomMembers(target, INDIRECT_PROBES)) {
+                    GossipMessage request = GossipMessage.of(Type.PING_REQ, probeSeq);
+                    request.setTarget(target.state.getUrl());
+                    send(address(helper.state.getUrl()), request);
+                }
+            }, probeTimeout, TimeUnit.MILLISECONDS);
+            loop.schedule(() -> {
+                pendingAcks.remove(probeSeq);
+                if (!acked[0]) {
+                    suspect(target);
+                }
+            }, probeInterval, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.error("[GossipNodeRegistry] probe fail", e);
+        }
+    }
+
+    private void receive(DatagramPacket packet) {
+        GossipMessage message;
+        try {
+            message = JacksonUtils.parseObject(packet.content().toString(StandardCharsets.UTF_8), GossipMessage.class);
+        } catch (Exception e) {
+            log.warn("[GossipNodeRegistry] illegal message from {}", packet.sender(), e);
+            return;
+        }
+        if (message == null || message.getType() == null) {
+            return;
+        }
+
+        InetSocketAddress sender = packet.sender();
+        if (message.getUpdates() != null) {
+            message.getUpdates().forEach(this::merge);
+        }
+
+        switch (message.getType()) {
+            case PING:
+                send(sender, GossipMessage.of(Type.ACK, message.getSeq()));
+                break;
+            case PING_REQ:
+                long requestSeq = message.getSeq();
+                long probeSeq = nextSeq();
+                pendingAcks.put(probeSeq, ack -> send(sender, GossipMessage.of(Type.ACK, requestSeq)));
+                send(address(message.getTarget()), GossipMessage.of(Type.PING, probeSeq));
+                channel.eventLoop().schedule(() -> pendingAcks.remove(probeSeq), probeInterval, TimeUnit.MILLISECONDS);
+                break;
+            case ACK:
+                Consumer<GossipMessage> callback = pendingAcks.remove(message.getSeq());
+                if (callback != null) {
+                    callback.accept(message);
+                }
+                break;
+            case JOIN:
+                GossipMessage sync = GossipMessage.of(Type.SYNC, message.getSeq());
+                sync.getUpdates().add(self.copy());
+                for (Member member : members.values()) {
+                    if (member.state.getStatus() != Status.DEAD) {
+                        sync.getUpdates().add(member.state.copy());
+                    }
+                }
+                write(sender, sync);
+                break;
+            case SYNC:
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 合并收到的成员状态
+     */
+    private void merge(GossipMember update) {
+        if (update.getUrl() == null || update.getStatus() == null) {
+            return;
+        }
+
+        // 自己被怀疑或被判定下线，递增版本号反驳
+        if (update.getUrl().equals(self.getUrl())) {
+            if (update.getStatus() != Status.ALIVE && update.getIncarnation() >= self.getIncarnation()) {
+                self.setIncarnation(update.getIncarnation() + 1);
+                broadcast(self);
+            }
+            return;
+        }
+
+        Member member = members.get(update.getUrl());
+        if (member == null) {
+            if (update.getStatus() == Status.DEAD) {
+                return;
+            }
+            member = new Member(update.copy());
+            members.put(update.getUrl(), member);
+            broadcast(member.state);
+            fire(NodeEvent.Type.ONLINE, member.state);
+            return;
+        }
+
+        if (!overrides(member.state, update)) {
+            return;
+        }
+        Status before = member.state.getStatus();
+        member.state = update.copy();
+        member.statusAt = System.currentTimeMillis();
+        broadcast(member.state);
+        if (before == Status.DEAD && update.getStatus() != Status.DEAD) {
+            fire(NodeEvent.Type.ONLINE, member.state);
+        } else if (before != Status.DEAD && update.getStatus() == Status.DEAD) {
+            fire(NodeEvent.Type.OFFLINE, member.state);
+        }
+    }
+
+    /**
+     * SWIM 的状态覆盖规则：版本号更大的状态覆盖旧状态，相同版本号时 DEAD > SUSPECT > ALIVE
+     */
+    private boolean overrides(GossipMember local, GossipMember update) {
+        if (update.getIncarnation() != local.getIncarnation()) {
+            return update.getIncarnation() > local.getIncarnation();
+        }
+        return update.getStatus().ordinal() > local.getStatus().ordinal();
+    }
+
+    private void suspect(Member member) {
+        if (member.state.getStatus() != Status.ALIVE) {
+            return;
+        }
+        member.state.setStatus(Status.SUSPECT);
+        member.statusAt = System.currentTimeMillis();
+        broadcast(member.state);
+        if (log.isDebugEnabled()) {
+            log.debug("[GossipNodeRegistry] suspect {}", member.state.getUrl());
+        }
+    }
+
+    /**
+     * 怀疑超时的成员标记下线，清理保留时间已过的下线成员
+     */
+    private void expire(long now) {
+        Iterator<Member> iterator = members.values().iterator();
+        while (iterator.hasNext()) {
+            Member member = iterator.next();
+            Status status = member.state.getStatus();
+            if (status == Status.SUSPECT && now - member.statusAt >= suspectTimeout) {
+                member.state.setStatus(Status.DEAD);
+                member.statusAt = now;
+                broadcast(member.state);
+                fire(NodeEvent.Type.OFFLINE, member.state);
+            } else if (status == Status.DEAD && now - member.statusAt >= DEAD_RETENTION) {
+                iterator.remove();
+                addresses.remove(member.state.getUrl());
+            }
+        }
+    }
+
+    private Member nextProbeTarget() {
+        while (true) {
+            if (probeIndex >= probeOrder.size()) {
+                probeOrder.clear();
+                for (Member member : members.values()) {
+                    if (member.state.getStatus() != Status.DEAD) {
+                        probeOrder.add(member);
+                    }
+                }
+                Collections.shuffle(probeOrder, ThreadLocalRandom.current());
+                probeIndex = 0;
+                if (probeOrder.isEmpty()) {
+                    return null;
+                }
+            }
+            Member member = probeOrder.get(probeIndex++);
+            if (member.state.getStatus() != Status.DEAD && members.get(member.state.getUrl()) == member) {
+                return member;
+            }
+        }
+    }
+
+    private List<Member> randomMembers(Member exclude, int count) {
+        List<Member> candidates = new ArrayList<>();
+        for (Member member : members.values()) {
+            if (member != exclude && member.state.getStatus() == Status.ALIVE) {
+                candidates.add(member);
+            }
+        }
+        Collections.shuffle(candidates, ThreadLocalRandom.current());
+        return candidates.size() > count ? candidates.subList(0, count) : candidates;
+    }
+
+    private void broadcast(GossipMember state) {
+        int transmits = RETRANSMIT_MULT * (32 - Integer.numberOfLeadingZeros(aliveCount() + 1));
+        broadcasts.put(state.getUrl(), new Broadcast(state.copy(), transmits));
+    }
+
+    /**
+     * @return 未下线的成员数，不包含自己
+     */
+    private int aliveCount() {
+        int count = 0;
+        for (Member member : members.values()) {
+            if (member.state.getStatus() != Status.DEAD) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 附带待传播的状态变更后发送
+     */
+    private void send(InetSocketAddress address, GossipMessage message) {
+        if (!broadcasts.isEmpty()) {
+            List<Broadcast> pending = new ArrayList<>(broadcasts.values());
+            pending.sort(Comparator.comparingInt((Broadcast b) -> b.transmits).reversed());
+            for (int i = 0; i < pending.size() && i < MAX_PIGGYBACK; i++) {
+                Broadcast broadcast = pending.get(i);
+                message.getUpdates().add(broadcast.state);
+                if (--broadcast.transmits <= 0) {
+                    broadcasts.remove(broadcast.state.getUrl());
+                }
+            }
+        }
+        write(address, message);
+    }
+
+    private void write(InetSocketAddress address, GossipMessage message) {
+        if (address.isUnresolved()) {
+            if (log.isDebugEnabled()) {
+                log.debug("[GossipNodeRegistry] skip unresolved {}", address);
+            }
+            return;
+        }
+        byte[] bytes = JacksonUtils.toJSONString(message).getBytes(StandardCharsets.UTF_8);
+        channel.writeAndFlush(new DatagramPacket(Unpooled.wrappedBuffer(bytes), address));
+    }
+
+    private void fire(NodeEvent.Type type, GossipMember state) {
+        if (log.isDebugEnabled()) {
+            log.debug("[GossipNodeRegistry] {} {}", type, state.getUrl());
+        }
+        for (NodeListener listener : listeners) {
+            notify(listener, type, state);
+        }
+    }
+
+    private void notify(NodeListener listener, NodeEvent.Type type, GossipMember state) {
+        try {
+            listener.event(new NodeEvent(type, state.getName(), new URL(state.getUrl())));
+        } catch (Exception e) {
+            log.error("[GossipNodeRegistry] notify {} {} fail", type, state.getUrl(), e);
+        }
+    }
+
+    private long nextSeq() {
+        return ++seq;
+    }
+
+    /**
+     * 获取 url 对应的地址。IP 直接构造，域名首次使用时提交到 IO 线程池解析，解析完成前返回未解析地址，发送时跳过
+     */
+    private InetSocketAddress address(String url) {
+        InetSocketAddress address = addresses.get(url);
+        if (address != null) {
+            return address;
+        }
+
+        URL u;
+        try {
+            u = new URL(url);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("illegal url " + url, e);
+        }
+        String host = u.getHost();
+        byte[] ip = NetUtil.createByteArrayFromIpAddressString(host);
+        if (ip != null) {
+            try {
+                address = new InetSocketAddress(InetAddress.getByAddress(host, ip), u.getPort());
+            } catch (Exception e) {
+                throw new IllegalArgumentException("illegal url " + url, e);
+            }
+            addresses.put(url, address);
+            return address;
+        }
+
+        if (resolving.add(url)) {
+            CommonThreadPool.IO.execute(() -> {
+                InetSocketAddress resolved = new InetSocketAddress(host, u.getPort());
+                channel.eventLoop().execute(() -> {
+                    resolving.remove(url);
+                    if (resolved.isUnresolved()) {
+                        log.warn("[GossipNodeRegistry] resolve {} fail", url);
+                    } else {
+                        addresses.put(url, resolved);
+                    }
+                });
+            });
+        }
+        return InetSocketAddress.createUnresolved(host, u.getPort());
+    }
+
+    private static class Member {
+
+        GossipMember state;
+
+        /**
+         * 最近一次状态变更时间
+         */
+        long statusAt;
+
+        Member(GossipMember state) {
+            this.state = state;
+            this.statusAt = System.currentTimeMillis();
+        }
+    }
+
+    private static class Broadcast {
+
+        final GossipMember state;
+
+        int transmits;
+
+        Broadcast(GossipMember state, int transmits) {
+            this.state = state;
+            this.transmits = transmits;
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.cluster.gossip;
+
+import java.net.URL;
+import java.util.List;
+
+/**
+ * gossip 种子节点，只在启动和孤立时读取
+ *
+ * @author Brozen
+ * @since 2024-02-10
+ */
+public interface SeedRepository {
+
+    /**
+     * 记录本节点，供之后启动的节点作为种子
+     */
+    void register(String name, URL url);
+
+    /**
+     * @return 种子节点地址
+     */
+    List<URL> seeds();
+
+    /**
+     * 本节点下线，停止维护 {@link #register} 记录的信息，之后不再作为种子
+     */
+    default void unregister(URL url) {
+    }
+
+}
@@ -46,6 +46,11 @@ public enum IDType {
 
     JOB_INSTANCE,
 
+    /**
+     * broker 节点号，用于生成按时间递增的 ID
+     */
+    NODE,
+
     ;
 
 }
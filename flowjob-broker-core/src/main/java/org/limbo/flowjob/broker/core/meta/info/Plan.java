@@ -42,7 +42,7 @@ import java.time.LocalDateTime;
 @Getter
 @Setter(AccessLevel.NONE)
 @ToString
-@Builder(builderClassName = "Builder")
+@Builder(builderClassName = "Builder", toBuilder = true)
 public class Plan implements Serializable {
 
     private static final long serialVersionUID = 5657376836197403211L;
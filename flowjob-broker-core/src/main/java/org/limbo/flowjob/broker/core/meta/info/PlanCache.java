@@ -0,0 +1,191 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.meta.info;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.broker.core.cluster.Buckets;
+import org.limbo.flowjob.broker.core.exceptions.VerifyException;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 当前节点负责的 plan 缓存
+ * 由 plan 变更记录驱动刷新，每个 plan 记录最后应用的变更序号，重复或更早的变更不会重新加载。
+ * 持有的桶变化时移除不再持有的 plan；其它节点负责的 plan 按需加载，放在有上限和过期时间的缓存中。
+ *
+ * @author Brozen
+ * @since 2024-02-08
+ */
+@Slf4j
+public class PlanCache {
+
+    /**
+     * 最多缓存的其它节点负责的 plan 个数
+     */
+    public static final int MAX_OTHERS = 1000;
+
+    /**
+     * 其它节点负责的 plan 的缓存时间，这些 plan 的变更不会应用到缓存
+     */
+    public static final long OTHERS_EXPIRE = 60000; // 1min
+
+    private final PlanRepository planRepository;
+
+    /**
+     * 当前节点负责的 plan
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 其它节点负责的 plan
+     */
+    private final Cache<String, Plan> others = CacheBuilder.newBuilder()
+            .maximumSize(MAX_OTHERS)
+            .expireAfterWrite(OTHERS_EXPIRE, TimeUnit.MILLISECONDS)
+            .build();
+
+    public PlanCache(PlanRepository planRepository) {
+        this.planRepository = planRepository;
+    }
+
+    /**
+     * 获取 plan，缓存中没有时从数据库加载，加载的 plan 放入其它节点的缓存，由 {@link #put(Plan, long)} 转为当前节点负责
+     *
+     * @return plan 不存在时返回 null
+     */
+    public Plan get(String planId) {
+        Entry entry = entries.get(planId);
+        if (entry != null) {
+            return entry.plan;
+        }
+        Plan plan = others.getIfPresent(planId);
+        if (plan != null) {
+            return plan;
+        }
+        plan = load(planId);
+        if (plan != null) {
+            others.put(planId, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * 获取缓存中当前节点负责的 plan，不会访问数据库
+     */
+    public Plan getIfPresent(String planId) {
+        Entry entry = entries.get(planId);
+        return entry == null ? null : entry.plan;
+    }
+
+    /**
+     * 放入完整加载的 plan
+     *
+     * @param seq 加载时已知的变更序号
+     */
+    public void put(Plan plan, long seq) {
+        others.invalidate(plan.getId());
+        entries.merge(plan.getId(), new Entry(plan, seq), (o, n) -> o.seq > n.seq ? o : n);
+    }
+
+    /**
+     * 应用一条变更，重新加载 plan
+     *
+     * @return 是否有变化，已经应用过的变更返回 false
+     */
+    public boolean apply(PlanChange change) {
+        Entry entry = entries.get(change.getPlanId());
+        if (entry != null && entry.seq >= change.getSeq()) {
+            return false;
+        }
+        Plan plan = load(change.getPlanId());
+        if (plan == null) {
+            entries.remove(change.getPlanId());
+        } else {
+            put(plan, change.getSeq());
+        }
+        return true;
+    }
+
+    /**
+     * 应用一条晚于更大序号提交的变更，无论已应用的序号都重新加载 plan
+     */
+    public void refresh(PlanChange change) {
+        Plan plan = load(change.getPlanId());
+        if (plan == null) {
+            entries.remove(change.getPlanId());
+        } else {
+            others.invalidate(plan.getId());
+            entries.merge(plan.getId(), new Entry(plan, change.getSeq()), (o, n) -> new Entry(plan, Math.max(o.seq, n.seq)));
+        }
+    }
+
+    /**
+     * 移除缓存
+     */
+    public void evict(String planId) {
+        entries.remove(planId);
+        others.invalidate(planId);
+    }
+
+    /**
+     * 移除不在持有的桶中的 plan，由新的持有者维护
+     *
+     * @param buckets 当前持有的桶
+     */
+    public void retain(Set<Integer> buckets) {
+        entries.keySet().removeIf(planId -> !buckets.contains(Buckets.of(planId)));
+    }
+
+    /**
+     * 当前节点负责的 plan 个数
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private Plan load(String planId) {
+        try {
+            return planRepository.get(planId);
+        } catch (VerifyException e) {
+            log.warn("[PlanCache] load plan fail {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static class Entry {
+
+        private final Plan plan;
+
+        /**
+         * 最后应用的变更序号
+         */
+        private final long seq;
+
+        Entry(Plan plan, long seq) {
+            this.plan = plan;
+            this.seq = seq;
+        }
+    }
+
+}
@@ -16,28 +16,28 @@
  *
  */
 
-package org.limbo.flowjob.broker.core.meta.lock;
+package org.limbo.flowjob.broker.core.meta.info;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
 
 /**
- * @author Devil
- * @since 2024/1/13
+ * plan 变更记录，seq 单调递增
+ *
+ * @author Brozen
+ * @since 2024-02-08
  */
-public interface DistributedLock {
+@Getter
+@ToString
+@AllArgsConstructor
+public class PlanChange {
 
     /**
-     * 尝试加锁，如果锁被占有返回失败
-     * 可重入，已有锁对象可以重复加锁刷新锁的过期时间
-     *
-     * @param name   锁名
-     * @param expire 加锁时间/毫秒
-     * @return 是否成功
+     * 变更序号
      */
-    boolean tryLock(String name, long expire);
+    private final long seq;
+
+    private final String planId;
 
-    /**
-     * 释放锁
-     *
-     * @param name 锁名
-     */
-    boolean unlock(String name);
 }
@@ -0,0 +1,68 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.meta.info;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * plan 变更记录，和 plan 的修改在同一个事务中写入
+ *
+ * @author Brozen
+ * @since 2024-02-08
+ */
+public interface PlanChangeRepository {
+
+    /**
+     * 记录 plan 变更
+     */
+    void record(String planId);
+
+    /**
+     * 按序号获取 seq 之后的变更
+     *
+     * @param seq   上次读取到的序号（不包含）
+     * @param limit 数量
+     */
+    List<PlanChange> findAfter(long seq, int limit);
+
+    /**
+     * 按序号获取变更，用于查询晚提交的空洞序号
+     *
+     * @param seqs 序号
+     */
+    List<PlanChange> findBySeqs(Collection<Long> seqs);
+
+    /**
+     * 当前最大序号，没有变更时返回 0
+     */
+    long maxSeq();
+
+    /**
+     * 清理已被读取的过期变更
+     *
+     * @param seq    只清理小于等于此序号的变更
+     * @param before 只清理在此之前创建的变更
+     * @param limit  最多清理的数量
+     * @return 清理的数量
+     */
+    int deleteBefore(long seq, LocalDateTime before, int limit);
+
+}
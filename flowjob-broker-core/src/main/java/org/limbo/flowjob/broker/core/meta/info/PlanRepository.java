@@ -18,8 +18,7 @@
 
 package org.limbo.flowjob.broker.core.meta.info;
 
-import java.net.URL;
-import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -33,26 +32,21 @@ public interface PlanRepository {
 
     Plan lockAndGet(String id);
 
-    Plan getByVersion(String id, String version);
-
-    List<Plan> loadUpdatedPlans(URL brokerUrl, LocalDateTime updatedAt);
-
     /**
-     * 获取不属于broker列表中broker管理的plan
+     * 批量锁定plan，按 planId 顺序加锁防止死锁
      *
-     * @param brokerUrls broker地址列表
-     * @return planId, brokerUrl
+     * @param ids planId列表
+     * @return planId -> 当前版本，只包含启用中的plan
      */
-    Map<String, URL> findNotInBrokers(List<URL> brokerUrls, int limit);
+    Map<String, String> lockAndGetEnabledVersions(List<String> ids);
+
+    Plan getByVersion(String id, String version);
 
     /**
-     * 更新绑定的broker
+     * 获取桶中所有启用的plan，用于新获得桶时加载
      *
-     * @param id           当前plan
-     * @param oldBrokerUrl 旧的broker
-     * @param newBrokerUrl 新的broker
-     * @return 是否成功
+     * @param buckets 桶
      */
-    boolean updateBroker(String id, URL oldBrokerUrl, URL newBrokerUrl);
+    List<Plan> loadPlansInBuckets(Collection<Integer> buckets);
 
 }
@@ -27,6 +27,7 @@ import org.limbo.flowjob.common.utils.attribute.Attributes;
 import org.limbo.flowjob.common.utils.dag.DAG;
 
 import java.time.LocalDateTime;
+import java.util.BitSet;
 
 /**
  * @author Devil
@@ -46,8 +47,8 @@ public class DelayInstance extends Instance {
     private String bizId;
 
     @Builder
-    public DelayInstance(String id, InstanceType type, InstanceStatus status, Attributes attributes, LocalDateTime triggerAt, LocalDateTime startAt, LocalDateTime feedbackAt, String bizType, String bizId, DAG<WorkflowJobInfo> dag) {
-        super(id, type, status, dag, attributes, triggerAt, startAt, feedbackAt);
+    public DelayInstance(String id, InstanceType type, InstanceStatus status, Attributes attributes, LocalDateTime triggerAt, LocalDateTime startAt, LocalDateTime feedbackAt, String bizType, String bizId, DAG<WorkflowJobInfo> dag, BitSet completedJobs) {
+        super(id, type, status, dag, attributes, triggerAt, startAt, feedbackAt, completedJobs);
         this.bizType = bizType;
         this.bizId = bizId;
     }
@@ -19,6 +19,7 @@
 package org.limbo.flowjob.broker.core.meta.instance;
 
 import java.time.LocalDateTime;
+import java.util.BitSet;
 
 /**
  * @author Devil
@@ -39,4 +40,9 @@ public interface DelayInstanceRepository {
     boolean success(String instanceId, LocalDateTime feedbackAt);
 
     boolean fail(String instanceId, LocalDateTime startAt, LocalDateTime feedbackAt);
+
+    /**
+     * 更新已完成的 job，需要在锁定实例后调用
+     */
+    boolean updateCompletedJobs(String instanceId, BitSet completedJobs);
 }
@@ -27,6 +27,7 @@ import org.limbo.flowjob.common.utils.attribute.Attributes;
 import org.limbo.flowjob.common.utils.dag.DAG;
 
 import java.time.LocalDateTime;
+import java.util.BitSet;
 
 /**
  * @author Devil
@@ -76,4 +77,10 @@ public abstract class Instance {
      */
     private LocalDateTime feedbackAt;
 
+    /**
+     * 已完成（成功或者失败可忽略）的 job，按 {@link DAG#indexOf(String)} 记录
+     * 为 null 表示实例创建时还没有记录，需要逐个查询 job 实例状态
+     */
+    private BitSet completedJobs;
+
 }
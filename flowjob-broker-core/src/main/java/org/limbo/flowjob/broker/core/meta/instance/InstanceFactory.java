@@ -27,6 +27,7 @@ import org.limbo.flowjob.common.utils.attribute.Attributes;
 import org.limbo.flowjob.common.utils.dag.DAG;
 
 import java.time.LocalDateTime;
+import java.util.BitSet;
 
 /**
  * @author Devil
@@ -34,6 +35,12 @@ import java.time.LocalDateTime;
  */
 public class InstanceFactory {
 
+    /**
+     * 使用位图记录完成状态的最大 job 数。completed_jobs 字段为 varchar(2048)，每个十六进制字符记录 4 个 job，
+     * 超过的实例不记录位图，完成状态退回到逐个查询 job 实例
+     */
+    public static final int MAX_BITMAP_JOBS = 2048 * 4;
+
     public static PlanInstance create(String id, Plan plan, Attributes attributes, LocalDateTime triggerAt) {
         ScheduleOption scheduleOption = plan.getScheduleOption();
         return PlanInstance.builder()
@@ -47,6 +54,7 @@ public class InstanceFactory {
                 .dag(plan.getDag())
                 .attributes(attributes == null ? new Attributes() : attributes)
                 .triggerAt(triggerAt)
+                .completedJobs(newCompletedJobs(plan.getDag()))
                 .build();
     }
 
@@ -60,6 +68,14 @@ public class InstanceFactory {
                 .attributes(attributes == null ? new Attributes() : attributes)
                 .status(InstanceStatus.SCHEDULING)
                 .dag(dag)
+                .completedJobs(newCompletedJobs(dag))
                 .build();
     }
+
+    private static BitSet newCompletedJobs(DAG<WorkflowJobInfo> dag) {
+        if (dag != null && dag.nodes().size() > MAX_BITMAP_JOBS) {
+            return null;
+        }
+        return new BitSet();
+    }
 }
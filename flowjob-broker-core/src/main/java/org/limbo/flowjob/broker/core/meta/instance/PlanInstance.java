@@ -29,6 +29,7 @@ import org.limbo.flowjob.common.utils.attribute.Attributes;
 import org.limbo.flowjob.common.utils.dag.DAG;
 
 import java.time.LocalDateTime;
+import java.util.BitSet;
 
 /**
  * @author Devil
@@ -58,8 +59,8 @@ public class PlanInstance extends Instance {
     private ScheduleType scheduleType;
 
     @Builder
-    public PlanInstance(String id, InstanceType type, InstanceStatus status, Attributes attributes, LocalDateTime triggerAt, LocalDateTime startAt, LocalDateTime feedbackAt, String planId, String version, DAG<WorkflowJobInfo> dag, TriggerType triggerType, ScheduleType scheduleType) {
-        super(id, type, status, dag, attributes, triggerAt, startAt, feedbackAt);
+    public PlanInstance(String id, InstanceType type, InstanceStatus status, Attributes attributes, LocalDateTime triggerAt, LocalDateTime startAt, LocalDateTime feedbackAt, String planId, String version, DAG<WorkflowJobInfo> dag, TriggerType triggerType, ScheduleType scheduleType, BitSet completedJobs) {
+        super(id, type, status, dag, attributes, triggerAt, startAt, feedbackAt, completedJobs);
         this.planId = planId;
         this.version = version;
         this.triggerType = triggerType;
@@ -20,8 +20,13 @@ package org.limbo.flowjob.broker.core.meta.instance;
 
 import org.limbo.flowjob.api.constants.ScheduleType;
 import org.limbo.flowjob.api.constants.TriggerType;
+import org.limbo.flowjob.broker.core.meta.info.Plan;
 
 import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author Devil
@@ -35,11 +40,28 @@ public interface PlanInstanceRepository {
 
     PlanInstance getLatelyTrigger(String planId, String version, ScheduleType scheduleType, TriggerType triggerType);
 
+    /**
+     * 批量获取各个 plan 当前版本、当前调度方式下最近一次触发的实例，与 {@link #getLatelyTrigger} 条件一致
+     * 返回的实例只包含基础信息，不包含 DAG
+     *
+     * @param plans       plan列表
+     * @param triggerType 触发方式
+     * @return version -> 实例
+     */
+    Map<String, PlanInstance> getLatelyTriggers(Collection<Plan> plans, TriggerType triggerType);
+
     void save(PlanInstance instance);
 
+    void saveAll(List<PlanInstance> instances);
+
     boolean executing(String instanceId, LocalDateTime startAt);
 
     boolean success(String instanceId, LocalDateTime feedbackAt);
 
     boolean fail(String instanceId, LocalDateTime startAt, LocalDateTime feedbackAt);
+
+    /**
+     * 更新已完成的 job，需要在锁定实例后调用
+     */
+    boolean updateCompletedJobs(String instanceId, BitSet completedJobs);
 }
@@ -21,7 +21,6 @@ package org.limbo.flowjob.broker.core.meta.job;
 import java.net.URL;
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author Devil
@@ -50,21 +49,12 @@ public interface JobInstanceRepository {
     List<JobInstance> findInSchedule(URL brokerUrl, LocalDateTime lastReportAt, LocalDateTime triggerAt, String startId, Integer limit);
 
     /**
-     * 获取不属于broker列表中broker管理的 JobInstance
+     * 获取触发时间在 (triggerAtStart, triggerAtEnd] 区间内还未下发的 JobInstance，用于提前加载到时间轮
      *
-     * @param brokerUrls broker地址列表
-     * @return jobInstanceId, brokerUrl
+     * @param brokerUrl      绑定的broker
+     * @param triggerAtStart 触发时间开始（不包含）
+     * @param triggerAtEnd   触发时间结束（包含）
      */
-    Map<String, URL> findNotInBrokers(List<URL> brokerUrls, int limit);
-
-    /**
-     * 更新绑定的broker
-     *
-     * @param id           当前plan
-     * @param oldBrokerUrl 旧的broker
-     * @param newBrokerUrl 新的broker
-     * @return 是否成功
-     */
-    boolean updateBroker(String id, URL oldBrokerUrl, URL newBrokerUrl);
+    List<JobInstance> findInTriggerWindow(URL brokerUrl, LocalDateTime triggerAtStart, LocalDateTime triggerAtEnd, String startId, Integer limit);
 
 }
@@ -0,0 +1,78 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.meta.lock;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 当前节点持有的租约
+ * 每次重新获取租约 fencing token 都会递增，持有者写数据时带上 token，数据库中 token 不一致说明租约已被其它节点获取
+ *
+ * @author Brozen
+ * @since 2024-02-07
+ */
+@Getter
+@ToString
+public class Lease {
+
+    private final String name;
+
+    /**
+     * fencing token，单调递增
+     */
+    private final long token;
+
+    /**
+     * 租约时长，毫秒
+     */
+    private final long duration;
+
+    /**
+     * 本地到期时间，基于 System.nanoTime，从发起请求时开始计算，比数据库中的到期时间略早
+     */
+    @ToString.Exclude
+    private final long deadlineNanos;
+
+    public Lease(String name, long token, long duration, long startNanos) {
+        this.name = name;
+        this.token = token;
+        this.duration = duration;
+        this.deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(duration);
+    }
+
+    /**
+     * 是否还在有效期内
+     */
+    public boolean isValid() {
+        return System.nanoTime() - deadlineNanos < 0;
+    }
+
+    /**
+     * 续期后的租约
+     *
+     * @param startNanos 发起续期请求的时间
+     */
+    Lease renewed(long startNanos) {
+        return new Lease(name, token, duration, startNanos);
+    }
+
+}
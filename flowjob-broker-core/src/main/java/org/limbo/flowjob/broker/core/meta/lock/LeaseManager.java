@@ -0,0 +1,165 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.meta.lock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.common.thread.NamedThreadFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 租约管理
+ * 已持有的租约缓存在本地，有效期内获取不访问数据库；后台按 1/3 租约时长续期，续期失败则视为丢失租约。
+ * 集群单例任务只需要在每个租约周期内访问一次数据库。
+ *
+ * @author Brozen
+ * @since 2024-02-07
+ */
+@Slf4j
+public class LeaseManager {
+
+    /**
+     * 每个租约周期内的续期次数
+     */
+    private static final int RENEW_TIMES = 3;
+
+    private final LeaseRepository leaseRepository;
+
+    /**
+     * 当前节点标识
+     */
+    private final String owner;
+
+    /**
+     * 本地持有的租约
+     */
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService renewer;
+
+    public LeaseManager(LeaseRepository leaseRepository, String owner) {
+        this.leaseRepository = leaseRepository;
+        this.owner = owner;
+        this.renewer = Executors.newSingleThreadScheduledExecutor(NamedThreadFactory.newInstance("LeaseRenewer"));
+    }
+
+    /**
+     * 尝试获取租约，已持有且有效时直接返回本地缓存
+     *
+     * @param name     租约名
+     * @param duration 租约时长，毫秒
+     * @return 持有的租约，获取失败返回 null
+     */
+    public Lease tryAcquire(String name, long duration) {
+        Lease lease = leases.get(name);
+        if (lease != null && lease.isValid()) {
+            return lease;
+        }
+
+        long start = System.nanoTime();
+        Long token = leaseRepository.acquire(name, owner, duration);
+        if (token == null) {
+            leases.remove(name);
+            return null;
+        }
+
+        lease = new Lease(name, token, duration, start);
+        leases.put(name, lease);
+        scheduleRenew(lease);
+        if (log.isDebugEnabled()) {
+            log.debug("[LeaseManager] acquire {}", lease);
+        }
+        return lease;
+    }
+
+    /**
+     * 获取本地持有的有效租约
+     *
+     * @return 未持有或已过期返回 null
+     */
+    public Lease get(String name) {
+        Lease lease = leases.get(name);
+        return lease != null && lease.isValid() ? lease : null;
+    }
+
+    /**
+     * 释放租约
+     */
+    public void release(String name) {
+        Lease lease = leases.remove(name);
+        if (lease != null) {
+            leaseRepository.release(name, owner, lease.getToken());
+        }
+    }
+
+    /**
+     * 停止续期并释放所有租约
+     */
+    public void shutdown() {
+        renewer.shutdownNow();
+        for (String name : leases.keySet()) {
+            try {
+                release(name);
+            } catch (Exception e) {
+                log.warn("[LeaseManager] release {} fail", name, e);
+            }
+        }
+    }
+
+    private void scheduleRenew(Lease lease) {
+        if (renewer.isShutdown()) {
+            return;
+        }
+        renewer.schedule(() -> renew(lease), lease.getDuration() / RENEW_TIMES, TimeUnit.MILLISECONDS);
+    }
+
+    private void renew(Lease lease) {
+        String name = lease.getName();
+        // 已释放或者已经重新获取
+        if (leases.get(name) != lease) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (leaseRepository.renew(name, owner, lease.getToken(), lease.getDuration())) {
+                Lease renewed = lease.renewed(start);
+                if (leases.replace(name, lease, renewed)) {
+                    scheduleRenew(renewed);
+                }
+            } else {
+                leases.remove(name, lease);
+                log.warn("[LeaseManager] lease lost {}", lease);
+            }
+        } catch (Exception e) {
+            // 数据库异常时在有效期内继续重试，过期后由下次获取重新抢占
+            log.warn("[LeaseManager] renew {} fail", lease, e);
+            if (lease.isValid()) {
+                scheduleRenew(lease);
+            } else {
+                leases.remove(name, lease);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.meta.lock;
+
+/**
+ * 租约存储
+ *
+ * @author Brozen
+ * @since 2024-02-07
+ */
+public interface LeaseRepository {
+
+    /**
+     * 尝试获取租约，租约不存在、已过期或者已由当前持有者持有时成功，成功后 token 递增
+     *
+     * @param name     租约名
+     * @param owner    持有者
+     * @param duration 租约时长，毫秒
+     * @return 成功返回 fencing token，失败返回 null
+     */
+    Long acquire(String name, String owner, long duration);
+
+    /**
+     * 续期，只有持有者和 token 都没变且未过期时成功
+     *
+     * @return 是否成功
+     */
+    boolean renew(String name, String owner, long token, long duration);
+
+    /**
+     * 释放租约，保留 token 以保证单调递增
+     */
+    void release(String name, String owner, long token);
+
+}
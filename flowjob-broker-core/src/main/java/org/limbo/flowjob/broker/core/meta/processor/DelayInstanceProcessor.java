@@ -44,6 +44,7 @@ import org.limbo.flowjob.common.utils.time.TimeUtils;
 import java.text.MessageFormat;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -63,8 +64,9 @@ public class DelayInstanceProcessor extends InstanceProcessor {
                                   AgentRegistry agentRegistry,
                                   TransactionService transactionService,
                                   DelayInstanceRepository delayInstanceRepository,
-                                  JobInstanceRepository jobInstanceRepository) {
-        super(agentRegistry, nodeManger, idGenerator, metaTaskScheduler, transactionService, jobInstanceRepository);
+                                  JobInstanceRepository jobInstanceRepository,
+                                  JobDispatchBatcher dispatchBatcher) {
+        super(agentRegistry, nodeManger, idGenerator, metaTaskScheduler, transactionService, jobInstanceRepository, dispatchBatcher);
         this.delayInstanceRepository = delayInstanceRepository;
     }
 
@@ -99,6 +101,11 @@ public class DelayInstanceProcessor extends InstanceProcessor {
         return delayInstanceRepository.lockAndGet(instanceId);
     }
 
+    @Override
+    protected void updateCompletedJobs(String instanceId, BitSet completedJobs) {
+        delayInstanceRepository.updateCompletedJobs(instanceId, completedJobs);
+    }
+
     @Override
     protected void asyncSchedule(ScheduleContext scheduleContext) {
         if (scheduleContext == null) {
@@ -106,7 +113,7 @@ public class DelayInstanceProcessor extends InstanceProcessor {
         }
         if (CollectionUtils.isNotEmpty(scheduleContext.getWaitScheduleJobs())) {
             for (JobInstance jobInstance : scheduleContext.getWaitScheduleJobs()) {
-                JobInstanceTask metaTask = new JobInstanceTask(jobInstance, agentRegistry);
+                JobInstanceTask metaTask = new JobInstanceTask(jobInstance, agentRegistry, dispatchBatcher);
                 metaTaskScheduler.schedule(metaTask);
             }
         }
@@ -42,6 +42,7 @@ import org.limbo.flowjob.common.utils.time.TimeUtils;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 
@@ -64,18 +65,22 @@ public abstract class InstanceProcessor {
 
     protected final JobInstanceRepository jobInstanceRepository;
 
+    protected final JobDispatchBatcher dispatchBatcher;
+
     protected InstanceProcessor(AgentRegistry agentRegistry,
                                 NodeManger nodeManger,
                                 IDGenerator idGenerator,
                                 MetaTaskScheduler metaTaskScheduler,
                                 TransactionService transactionService,
-                                JobInstanceRepository jobInstanceRepository) {
+                                JobInstanceRepository jobInstanceRepository,
+                                JobDispatchBatcher dispatchBatcher) {
         this.agentRegistry = agentRegistry;
         this.nodeManger = nodeManger;
         this.idGenerator = idGenerator;
         this.metaTaskScheduler = metaTaskScheduler;
         this.transactionService = transactionService;
         this.jobInstanceRepository = jobInstanceRepository;
+        this.dispatchBatcher = dispatchBatcher;
     }
 
     /**
@@ -143,28 +148,40 @@ public abstract class InstanceProcessor {
      * 处理某个job实例执行成功
      */
     protected ScheduleContext handleJobSuccess(JobInstance jobInstance) {
-        String instanceId = jobInstance.getInstanceId();
-        WorkflowJobInfo jobInfo = jobInstance.getJobInfo();
-        String jobId = jobInfo.getId();
-
         // 防止并发问题，两个任务结束后并发过来后，由于无法读取到未提交数据，可能导致都认为不需要下发而导致失败
         // 考虑到可能是RR级别，如果放到 jobInstanceRepository.success 之后 checkJobsSuccess 获取的数据可能是非完成状态导致一直无法完成
-        Instance instance = lockAndGet(instanceId);
+        Instance instance = lockAndGet(jobInstance.getInstanceId());
 
         ScheduleContext scheduleContext = new ScheduleContext();
         if (!jobInstanceRepository.success(jobInstance.getId(), TimeUtils.currentLocalDateTime(), jobInstance.getContext().toString())) {
             return scheduleContext; // 被其他更新
         }
+        return handleJobComplete(instance, jobInstance, scheduleContext);
+    }
 
+    /**
+     * job 实例已经成功或者失败可忽略，记录完成状态并下发后续节点
+     *
+     * @param instance 已锁定的实例
+     */
+    protected ScheduleContext handleJobComplete(Instance instance, JobInstance jobInstance, ScheduleContext scheduleContext) {
+        String instanceId = instance.getId();
+        String jobId = jobInstance.getJobInfo().getId();
         DAG<WorkflowJobInfo> dag = instance.getDag();
 
+        BitSet completedJobs = instance.getCompletedJobs();
+        if (completedJobs != null) {
+            completedJobs.set(dag.indexOf(jobId));
+            updateCompletedJobs(instanceId, completedJobs);
+        }
+
         // 当前节点的子节点
         List<WorkflowJobInfo> subJobInfos = dag.subNodes(jobId);
 
         if (CollectionUtils.isEmpty(subJobInfos)) {
             // 当前节点为叶子节点 检测 Plan 实例是否已经执行完成
             // 1. 所有节点都已经成功或者失败 2. 这里只关心plan的成功更新，失败是在task回调
-            if (checkJobsSuccess(instanceId, dag.lasts(), true)) {
+            if (checkJobsCompleted(instance, dag.lasts())) {
                 handlerInstanceComplete(instanceId, true, scheduleContext);
             }
             return scheduleContext;
@@ -174,7 +191,7 @@ public abstract class InstanceProcessor {
             List<JobInstance> subJobInstances = new ArrayList<>();
             for (WorkflowJobInfo subJobInfo : subJobInfos) {
                 // 前置节点已经完成则可以下发
-                if (checkJobsSuccess(instanceId, dag.preNodes(subJobInfo.getId()), true) && TriggerType.SCHEDULE == subJobInfo.getTriggerType()) {
+                if (checkJobsCompleted(instance, dag.preNodes(subJobInfo.getId())) && TriggerType.SCHEDULE == subJobInfo.getTriggerType()) {
                     String jobInstanceId = idGenerator.generateId(IDType.JOB_INSTANCE);
                     Node elect = nodeManger.elect(jobInstanceId);
                     JobInstance subJobInstance = JobInstanceFactory.create(jobInstanceId, instanceId, instance.getType(), elect.getUrl(), instance.getAttributes(), jobInstance.getContext(), subJobInfo, triggerAt);
@@ -213,7 +230,7 @@ public abstract class InstanceProcessor {
             return scheduleContext;
         } else if (jobInfo.isSkipWhenFail()) {
             // 如果 配置job失败了也继续执行
-            return handleJobSuccess(jobInstance);
+            return handleJobComplete(lockAndGet(planInstanceId), jobInstance, scheduleContext);
         } else {
             handlerInstanceComplete(planInstanceId, false, scheduleContext);
             return scheduleContext;
@@ -238,6 +255,14 @@ public abstract class InstanceProcessor {
      */
     protected abstract Instance lockAndGet(String instanceId);
 
+    /**
+     * 更新实例已完成的 job
+     *
+     * @param instanceId    实例ID
+     * @param completedJobs 已完成的 job
+     */
+    protected abstract void updateCompletedJobs(String instanceId, BitSet completedJobs);
+
     /**
      * 异步处理数据
      *
@@ -245,9 +270,27 @@ public abstract class InstanceProcessor {
      */
     protected abstract void asyncSchedule(ScheduleContext scheduleContext);
 
+    /**
+     * 校验 instance 下对应 job 是否都已完成（执行成功 或者失败了但是可以忽略失败）
+     * 直接读取实例上记录的完成状态，没有记录的老实例逐个查询 job 实例
+     */
+    public boolean checkJobsCompleted(Instance instance, List<WorkflowJobInfo> jobInfos) {
+        BitSet completedJobs = instance.getCompletedJobs();
+        if (completedJobs == null) {
+            return checkJobsSuccess(instance.getId(), jobInfos, true);
+        }
+        DAG<WorkflowJobInfo> dag = instance.getDag();
+        for (WorkflowJobInfo jobInfo : jobInfos) {
+            if (!completedJobs.get(dag.indexOf(jobInfo.getId()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * 校验 instance 下对应 job 的 jobInstance 是否都执行成功 或者失败了但是可以忽略失败
-     * todo 性能
+     * 每个 job 都需要查询，只用于没有记录完成状态的实例
      *
      * @param checkSkipWhenFail 和 continueWithFail 同时 true，当job执行失败，会认为执行成功
      */
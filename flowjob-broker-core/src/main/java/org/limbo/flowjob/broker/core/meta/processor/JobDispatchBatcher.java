@@ -0,0 +1,522 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.meta.processor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.api.dto.agent.JobBatchReceiveDTO;
+import org.limbo.flowjob.api.dto.agent.JobReceiveDTO;
+import org.limbo.flowjob.broker.core.agent.AgentRegistry;
+import org.limbo.flowjob.broker.core.agent.ScheduleAgent;
+import org.limbo.flowjob.broker.core.cluster.NodeManger;
+import org.limbo.flowjob.broker.core.meta.job.JobInstance;
+import org.limbo.flowjob.common.thread.CommonThreadPool;
+import org.limbo.flowjob.common.thread.NamedThreadFactory;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * 按 agent 合并下发作业。
+ * 作业到期时立即选择 agent 并扣减下发额度，然后放入该 agent 的待发送队列；
+ * 队列中第一个作业到达后等待 linger 时长，或队列达到 batchSize 时立即发送，一批作业只发起一次 RPC。
+ * agent 对每个作业单独返回接收结果，被拒绝或发送失败的作业换一个 agent 重新下发。
+ * 没有 agent 有下发额度时作业在内存中等待，agent 被授予额度后立即重新下发；
+ * 尝试过所有可选 agent 仍失败的作业退避一段时间后重新下发。
+ * 等待中的作业最多保留 {@link #MAX_WAIT_MILLIS}，之后交给状态检测；重新下发前确认作业所属的桶仍由本节点持有，
+ * 桶被转移时丢弃等待中的作业，由新的持有者负责。
+ *
+ * @author Brozen
+ * @since 2024-02-21
+ */
+@Slf4j
+public class JobDispatchBatcher {
+
+    /**
+     * 单个作业一轮最多尝试的 agent 数，超出后退避重试
+     */
+    private static final int MAX_DISPATCH_ATTEMPTS = 3;
+
+    /**
+     * 第一次退避的时长，毫秒，之后每轮翻倍
+     */
+    private static final long RETRY_BACKOFF = 500;
+
+    /**
+     * 最多退避的轮数，超出后由状态检测重新下发
+     */
+    private static final int MAX_RETRY_ROUNDS = 4;
+
+    /**
+     * 等待额度的作业上限，超出的由状态检测重新下发
+     */
+    private static final int MAX_WAITING_JOBS = 10000;
+
+    /**
+     * 等待额度的最长时长，毫秒，超出后不再等待，由状态检测重新下发
+     */
+    private static final long MAX_WAIT_MILLIS = 10000;
+
+    private final Map<String, AgentBatch> batches = new ConcurrentHashMap<>();
+
+    /**
+     * 没有 agent 有下发额度时等待的作业
+     */
+    private final Queue<PendingJob> starvedJobs = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 等待额度或退避中的作业，状态检测重复下发时跳过；
+     * 重新下发前需要从这里移除成功，被替换或已过期的不再下发
+     */
+    private final Map<String, PendingJob> waitingJobs = new ConcurrentHashMap<>();
+
+    /**
+     * 作业是否仍由本节点负责
+     */
+    private final Predicate<JobInstance> ownership;
+
+    /**
+     * 已注册额度回调的 AgentRegistry
+     */
+    private final Set<AgentRegistry> listenedRegistries = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 是否已经安排了等待作业的重新下发
+     */
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    private final ScheduledExecutorService lingerTimer;
+
+    /**
+     * 收集窗口，毫秒
+     */
+    private final long lingerMillis;
+
+    /**
+     * 每批最大作业数
+     */
+    private final int batchSize;
+
+    public JobDispatchBatcher(long lingerMillis, int batchSize) {
+        this(lingerMillis, batchSize, jobInstance -> true);
+    }
+
+    /**
+     * @param nodeManger 桶的归属，桶被转移后丢弃等待中的作业
+     * @param brokerUrl  本节点地址
+     */
+    public JobDispatchBatcher(long lingerMillis, int batchSize, NodeManger nodeManger, URL brokerUrl) {
+        this(lingerMillis, batchSize, jobInstance -> nodeManger.isOwner(brokerUrl.toString(), jobInstance.getId()));
+        nodeManger.addBucketListener(this::purgeWaiting);
+    }
+
+    private JobDispatchBatcher(long lingerMillis, int batchSize, Predicate<JobInstance> ownership) {
+        if (lingerMillis < 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("lingerMillis must not be negative and batchSize must be positive");
+        }
+        this.lingerMillis = lingerMillis;
+        this.batchSize = batchSize;
+        this.ownership = ownership;
+        this.lingerTimer = Executors.newSingleThreadScheduledExecutor(NamedThreadFactory.newInstance("JobDispatchBatcher"));
+        // 没有 agent 被授予额度时，过期的等待作业也需要清理
+        this.lingerTimer.scheduleWithFixedDelay(this::purgeWaiting, MAX_WAIT_MILLIS, MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 下发作业，不会阻塞调用线程
+     */
+    public void dispatch(JobInstance jobInstance, AgentRegistry agentRegistry) {
+        PendingJob waiting = waitingJobs.get(jobInstance.getId());
+        if (waiting != null && !waiting.isExpired(System.currentTimeMillis())) {
+            return;
+        }
+        // 等待已过期，由本次下发接管
+        if (waiting != null) {
+            waitingJobs.remove(jobInstance.getId(), waiting);
+        }
+        dispatch(new PendingJob(jobInstance, agentRegistry));
+    }
+
+    private void dispatch(PendingJob job) {
+        // 选择有下发额度的 agent，跳过已经失败过的
+        List<ScheduleAgent> agents = job.agentRegistry.all().stream()
+                .filter(ScheduleAgent::isEnabled)
+                .filter(a -> a.getCredits() > 0)
+                .filter(a -> !job.excludedAgentIds.contains(a.getId()))
+                .collect(Collectors.toList());
+        ScheduleAgent agent = JobDispatchSelect.select(agents);
+        if (agent == null) {
+            if (job.excludedAgentIds.isEmpty()) {
+                park(job);
+            } else {
+                // 剩余的 agent 都已经失败过
+                retryLater(job);
+            }
+            return;
+        }
+
+        job.agent = agent;
+        batches.computeIfAbsent(agent.getId(), AgentBatch::new).add(job);
+    }
+
+    /**
+     * 换一个 agent 重新下发
+     */
+    private void redispatch(PendingJob job) {
+        job.excludedAgentIds.add(job.agent.getId());
+        if (job.excludedAgentIds.size() >= MAX_DISPATCH_ATTEMPTS) {
+            retryLater(job);
+            return;
+        }
+        dispatch(job);
+    }
+
+    /**
+     * 没有 agent 有下发额度，等待 agent 被授予额度后重新下发
+     */
+    private void park(PendingJob job) {
+        String jobInstanceId = job.jobInstance.getId();
+        if (waitingJobs.size() >= MAX_WAITING_JOBS) {
+            // 状态检测的时候自动重试
+            log.warn("No available agent for job={} and too many waiting jobs", jobInstanceId);
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("No available agent for job={}, wait for credits", jobInstanceId);
+        }
+        if (listenedRegistries.add(job.agentRegistry)) {
+            job.agentRegistry.addCreditListener(agent -> drainStarved());
+        }
+        // 从第一次等待开始计时，被授予额度后仍抢不到的不会一直延长
+        long now = System.currentTimeMillis();
+        if (job.parkedAt == 0) {
+            job.parkedAt = now;
+        }
+        job.waitUntil = job.parkedAt + MAX_WAIT_MILLIS;
+        if (job.isExpired(now)) {
+            log.warn("No available agent for job={} after {}ms", jobInstanceId, MAX_WAIT_MILLIS);
+            return;
+        }
+        waitingJobs.put(jobInstanceId, job);
+        starvedJobs.add(job);
+    }
+
+    /**
+     * agent 被授予额度，在收集线程中重新下发等待的作业，不阻塞心跳线程
+     */
+    private void drainStarved() {
+        if (starvedJobs.isEmpty() || !drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            lingerTimer.execute(() -> {
+                drainScheduled.set(false);
+                // 只处理当前等待的作业，仍然没有额度的会重新加入队列
+                int count = starvedJobs.size();
+                PendingJob job;
+                for (int i = 0; i < count && (job = starvedJobs.poll()) != null; i++) {
+                    if (resume(job)) {
+                        dispatch(job);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            drainScheduled.set(false);
+        }
+    }
+
+    /**
+     * 结束等待，准备重新下发
+     *
+     * @return 作业已过期、已被状态检测接管或不再由本节点负责时返回 false
+     */
+    private boolean resume(PendingJob job) {
+        String jobInstanceId = job.jobInstance.getId();
+        if (!waitingJobs.remove(jobInstanceId, job) || job.isExpired(System.currentTimeMillis())) {
+            return false;
+        }
+        if (!ownership.test(job.jobInstance)) {
+            log.info("JobInstance id={} is no longer owned, drop waiting dispatch", jobInstanceId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 清理过期或不再由本节点负责的等待作业，在收集线程中执行
+     */
+    private void purgeWaiting() {
+        if (waitingJobs.isEmpty()) {
+            return;
+        }
+        try {
+            lingerTimer.execute(() -> {
+                long now = System.currentTimeMillis();
+                for (PendingJob job : waitingJobs.values()) {
+                    if (job.isExpired(now) || !ownership.test(job.jobInstance)) {
+                        waitingJobs.remove(job.jobInstance.getId(), job);
+                    }
+                }
+                // 等待额度的队列中一并丢弃，退避中的作业在定时任务中 resume 失败后丢弃
+                starvedJobs.removeIf(job -> waitingJobs.get(job.jobInstance.getId()) != job);
+            });
+        } catch (RejectedExecutionException e) {
+            // 已停止
+        }
+    }
+
+    /**
+     * 所有可选的 agent 都失败过，退避后重新选择
+     */
+    private void retryLater(PendingJob job) {
+        String jobInstanceId = job.jobInstance.getId();
+        if (job.retryRounds >= MAX_RETRY_ROUNDS) {
+            // 状态检测的时候自动重试
+            log.warn("Dispatch JobInstance id={} fail after {} rounds", jobInstanceId, job.retryRounds + 1);
+            return;
+        }
+        long delay = RETRY_BACKOFF << job.retryRounds;
+        job.retryRounds++;
+        job.excludedAgentIds.clear();
+        log.warn("Dispatch JobInstance id={} fail, retry after {}ms", jobInstanceId, delay);
+        // 退避期间状态检测不重复下发；退避任务未执行时最多再等待 MAX_WAIT_MILLIS，之后交给状态检测
+        job.waitUntil = System.currentTimeMillis() + delay + MAX_WAIT_MILLIS;
+        waitingJobs.put(jobInstanceId, job);
+        try {
+            lingerTimer.schedule(() -> {
+                if (resume(job)) {
+                    dispatch(job);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            waitingJobs.remove(jobInstanceId, job);
+        }
+    }
+
+    private void send(List<PendingJob> jobs) {
+        CommonThreadPool.IO.execute(() -> {
+            try {
+                if (jobs.size() == 1) {
+                    sendOne(jobs.get(0));
+                } else {
+                    sendBatch(jobs);
+                }
+            } catch (Exception e) {
+                log.error("[JobDispatchBatcher] send fail size={}", jobs.size(), e);
+            }
+        });
+    }
+
+    private void sendOne(PendingJob job) {
+        ScheduleAgent agent = job.agent;
+        JobInstance jobInstance = job.jobInstance;
+        JobReceiveDTO result;
+        try {
+            log.info("Try dispatch JobInstance id={} to agent={}", jobInstance.getId(), agent.getId());
+            result = agent.dispatch(jobInstance); // 可能存在接口超时导致重复下发，HttpBrokerApi.API_JOB_EXECUTING 由对应接口处理
+        } catch (Exception e) {
+            log.error("Dispatch JobInstance id={} to agent={} fail", jobInstance.getId(), agent.getId(), e);
+            agent.releaseCredit();
+            redispatch(job);
+            return;
+        }
+
+        log.info("Dispatch JobInstance id={} to agent={} success={}", jobInstance.getId(), agent.getId(), result.isAccepted());
+        if (result.isAccepted() || result.getAvailableQueueLimit() != null) {
+            agent.completeDispatch();
+        } else {
+            agent.releaseCredit();
+        }
+        if (result.getAvailableQueueLimit() != null) {
+            job.agentRegistry.grantCredits(agent, result.getAvailableQueueLimit());
+        }
+        if (!result.isAccepted()) {
+            redispatch(job);
+        }
+    }
+
+    private void sendBatch(List<PendingJob> jobs) {
+        // 同一批中的作业都选择了同一个 agent
+        ScheduleAgent agent = jobs.get(0).agent;
+        List<JobInstance> jobInstances = jobs.stream().map(job -> job.jobInstance).collect(Collectors.toList());
+        JobBatchReceiveDTO result;
+        try {
+            log.info("Try dispatch {} JobInstances to agent={}", jobs.size(), agent.getId());
+            result = agent.batchDispatch(jobInstances);
+        } catch (Exception e) {
+            log.error("Dispatch {} JobInstances to agent={} fail", jobs.size(), agent.getId(), e);
+            for (PendingJob job : jobs) {
+                agent.releaseCredit();
+                redispatch(job);
+            }
+            return;
+        }
+
+        Set<String> accepted = new HashSet<>(result.getAcceptedJobInstanceIds());
+        log.info("Dispatch {} JobInstances to agent={} accepted={}", jobs.size(), agent.getId(), accepted.size());
+        List<PendingJob> rejected = new ArrayList<>();
+        for (PendingJob job : jobs) {
+            boolean jobAccepted = accepted.contains(job.jobInstance.getId());
+            if (jobAccepted || result.getAvailableQueueLimit() != null) {
+                agent.completeDispatch();
+            } else {
+                agent.releaseCredit();
+            }
+            if (!jobAccepted) {
+                rejected.add(job);
+            }
+        }
+        // 先更新额度再重新下发被拒绝的作业
+        if (result.getAvailableQueueLimit() != null) {
+            jobs.get(0).agentRegistry.grantCredits(agent, result.getAvailableQueueLimit());
+        }
+        for (PendingJob job : rejected) {
+            redispatch(job);
+        }
+    }
+
+    /**
+     * 停止收集，已收集的作业立即发送，之后加入的作业不再等待直接发送。
+     * 等待额度的作业不再下发，由状态检测处理
+     */
+    public void shutdown() {
+        lingerTimer.shutdown();
+        starvedJobs.clear();
+        waitingJobs.clear();
+        for (AgentBatch batch : batches.values()) {
+            batch.flush();
+        }
+    }
+
+    /**
+     * 等待下发的作业
+     */
+    private static class PendingJob {
+
+        final JobInstance jobInstance;
+
+        final AgentRegistry agentRegistry;
+
+        /**
+         * 已经下发失败的 agent
+         */
+        final Set<String> excludedAgentIds = new HashSet<>();
+
+        /**
+         * 本次选中的 agent，已扣减额度
+         */
+        ScheduleAgent agent;
+
+        /**
+         * 已经退避的轮数
+         */
+        int retryRounds;
+
+        /**
+         * 第一次等待额度的时间，毫秒
+         */
+        long parkedAt;
+
+        /**
+         * 等待额度或退避的截止时间，毫秒
+         */
+        volatile long waitUntil;
+
+        boolean isExpired(long now) {
+            return now >= waitUntil;
+        }
+
+        PendingJob(JobInstance jobInstance, AgentRegistry agentRegistry) {
+            this.jobInstance = jobInstance;
+            this.agentRegistry = agentRegistry;
+        }
+    }
+
+    /**
+     * 单个 agent 的待发送队列
+     */
+    private class AgentBatch {
+
+        private final String agentId;
+
+        private final Queue<PendingJob> jobs = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger size = new AtomicInteger();
+
+        /**
+         * 是否已经安排了 flush
+         */
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+        AgentBatch(String agentId) {
+            this.agentId = agentId;
+        }
+
+        void add(PendingJob job) {
+            jobs.add(job);
+            if (size.incrementAndGet() >= batchSize) {
+                CommonThreadPool.IO.execute(this::flush);
+            } else if (flushScheduled.compareAndSet(false, true)) {
+                try {
+                    lingerTimer.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    flush();
+                }
+            }
+        }
+
+        void flush() {
+            // 先重置标记再取数据，保证 flush 期间新加入的作业会安排下一次 flush
+            flushScheduled.set(false);
+            List<PendingJob> batch = new ArrayList<>(batchSize);
+            PendingJob job;
+            while ((job = jobs.poll()) != null) {
+                size.decrementAndGet();
+                batch.add(job);
+                if (batch.size() >= batchSize) {
+                    send(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                send(batch);
+            }
+            // 队列已空时移除，下线的 agent 不会一直保留在 batches 中。
+            // 移除后仍加入本队列的作业由本队列已安排的 flush 发送，下次下发会创建新的队列
+            if (jobs.isEmpty()) {
+                batches.remove(agentId, this);
+            }
+        }
+    }
+
+}
@@ -18,28 +18,51 @@
 
 package org.limbo.flowjob.broker.core.meta.processor;
 
-import org.limbo.flowjob.api.constants.rpc.HttpAgentApi;
 import org.limbo.flowjob.broker.core.agent.ScheduleAgent;
-import org.limbo.flowjob.common.lb.LBStrategy;
-import org.limbo.flowjob.common.lb.strategies.RoundRobinLBStrategy;
-import org.limbo.flowjob.common.rpc.RPCInvocation;
 
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
+ * 按剩余下发额度加权随机选择 agent，选中的同时扣减一个额度。
+ * 额度多的 agent 被选中的概率更高，突发的大量作业会按 agent 的空闲程度分散下发。
+ *
  * @author Devil
  * @since 2024/1/4
  */
 public class JobDispatchSelect {
 
-    private static final LBStrategy<ScheduleAgent> lbStrategy = new RoundRobinLBStrategy<>();
-
-    private static final RPCInvocation lbInvocation = RPCInvocation.builder()
-            .path(HttpAgentApi.API_JOB_RECEIVE)
-            .build();
+    /**
+     * 并发扣减导致选中的 agent 额度不足时，重新选择的次数
+     */
+    private static final int MAX_ATTEMPTS = 8;
 
+    /**
+     * @param agents 候选 agent
+     * @return 已扣减额度的 agent，所有 agent 都没有额度时返回 null
+     */
     public static ScheduleAgent select(List<ScheduleAgent> agents) {
-        return lbStrategy.select(agents, lbInvocation).orElse(null);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long total = 0;
+            for (ScheduleAgent agent : agents) {
+                total += agent.getCredits();
+            }
+            if (total <= 0) {
+                return null;
+            }
+
+            long random = ThreadLocalRandom.current().nextLong(total);
+            for (ScheduleAgent agent : agents) {
+                random -= agent.getCredits();
+                if (random < 0) {
+                    if (agent.tryAcquireCredit()) {
+                        return agent;
+                    }
+                    break;
+                }
+            }
+        }
+        return null;
     }
 
 }
@@ -32,6 +32,7 @@ import org.limbo.flowjob.broker.core.exceptions.VerifyException;
 import org.limbo.flowjob.broker.core.meta.IDGenerator;
 import org.limbo.flowjob.broker.core.meta.IDType;
 import org.limbo.flowjob.broker.core.meta.info.Plan;
+import org.limbo.flowjob.broker.core.meta.info.PlanCache;
 import org.limbo.flowjob.broker.core.meta.info.PlanRepository;
 import org.limbo.flowjob.broker.core.meta.info.WorkflowJobInfo;
 import org.limbo.flowjob.broker.core.meta.instance.Instance;
@@ -53,10 +54,15 @@ import org.limbo.flowjob.common.utils.time.TimeUtils;
 
 import java.text.MessageFormat;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 /**
  * 处理整体调度的逻辑
@@ -67,21 +73,58 @@ import java.util.Objects;
 @Slf4j
 public class PlanInstanceProcessor extends InstanceProcessor {
 
+    /**
+     * 定时触发默认收集窗口，和时间轮刻度一致
+     */
+    public static final long DEFAULT_TRIGGER_LINGER = 100;
+
+    /**
+     * 定时触发默认每批最大数量
+     */
+    public static final int DEFAULT_TRIGGER_BATCH_SIZE = 200;
+
     private final PlanRepository planRepository;
 
+    private final PlanCache planCache;
+
     private final PlanInstanceRepository planInstanceRepository;
 
+    /**
+     * 合并同一时间窗口内的定时触发
+     */
+    private final PlanTriggerBatcher triggerBatcher;
+
+    public PlanInstanceProcessor(MetaTaskScheduler metaTaskScheduler,
+                                 IDGenerator idGenerator,
+                                 NodeManger nodeManger,
+                                 AgentRegistry agentRegistry,
+                                 PlanRepository planRepository,
+                                 PlanCache planCache,
+                                 TransactionService transactionService,
+                                 PlanInstanceRepository planInstanceRepository,
+                                 JobInstanceRepository jobInstanceRepository,
+                                 JobDispatchBatcher dispatchBatcher) {
+        this(metaTaskScheduler, idGenerator, nodeManger, agentRegistry, planRepository, planCache, transactionService, planInstanceRepository, jobInstanceRepository,
+                dispatchBatcher, DEFAULT_TRIGGER_LINGER, DEFAULT_TRIGGER_BATCH_SIZE);
+    }
+
     public PlanInstanceProcessor(MetaTaskScheduler metaTaskScheduler,
                                  IDGenerator idGenerator,
                                  NodeManger nodeManger,
                                  AgentRegistry agentRegistry,
                                  PlanRepository planRepository,
+                                 PlanCache planCache,
                                  TransactionService transactionService,
                                  PlanInstanceRepository planInstanceRepository,
-                                 JobInstanceRepository jobInstanceRepository) {
-        super(agentRegistry, nodeManger, idGenerator, metaTaskScheduler, transactionService, jobInstanceRepository);
+                                 JobInstanceRepository jobInstanceRepository,
+                                 JobDispatchBatcher dispatchBatcher,
+                                 long triggerLingerMillis,
+                                 int triggerBatchSize) {
+        super(agentRegistry, nodeManger, idGenerator, metaTaskScheduler, transactionService, jobInstanceRepository, dispatchBatcher);
         this.planRepository = planRepository;
+        this.planCache = planCache;
         this.planInstanceRepository = planInstanceRepository;
+        this.triggerBatcher = new PlanTriggerBatcher(this::batchSchedule, triggerLingerMillis, triggerBatchSize);
     }
 
     // 如是定时1小时后执行，task的创建问题 比如任务执行失败后，重试间隔可能导致这个问题
@@ -111,23 +154,7 @@ public class PlanInstanceProcessor extends InstanceProcessor {
 
                 // 校验是否重复创建
                 PlanInstance latelyPlanInstance = planInstanceRepository.getLatelyTrigger(planId, version, currentPlan.getScheduleOption().getScheduleType(), triggerType);
-                switch (scheduleOption.getScheduleType()) {
-                    case FIXED_RATE:
-                    case CRON:
-                        if (!(latelyPlanInstance == null || !triggerAt.isEqual(latelyPlanInstance.getTriggerAt()))) {
-                            throw new VerifyException(MessageFormat.format("Duplicate create PlanInstance,triggerAt:{0} planId[{1}] Version[{2}] oldPlanInstance[{3}]",
-                                    triggerAt, planId, version, latelyPlanInstance.getId()));
-                        }
-                        break;
-                    case FIXED_DELAY:
-                        if (!(latelyPlanInstance == null || (!triggerAt.isEqual(latelyPlanInstance.getTriggerAt()) && latelyPlanInstance.getStatus().isCompleted()))) {
-                            throw new VerifyException(MessageFormat.format("Please wait last PlanInstance[{0}] complete.Plan[{1}] Version[{2}]",
-                                    latelyPlanInstance.getId(), planId, version));
-                        }
-                        break;
-                    default:
-                        throw new VerifyException(MsgConstants.UNKNOWN + " scheduleType:" + currentPlan.getScheduleOption().getScheduleType());
-                }
+                verifyLatelyTrigger(planId, version, scheduleOption.getScheduleType(), latelyPlanInstance, triggerAt);
             }
 
             String id = idGenerator.generateId(IDType.INSTANCE);
@@ -138,15 +165,7 @@ public class PlanInstanceProcessor extends InstanceProcessor {
 
             planInstanceRepository.save(planInstance);
 
-            // 获取头部节点
-            List<JobInstance> jobInstances = new ArrayList<>();
-            for (WorkflowJobInfo jobInfo : plan.getDag().origins()) {
-                if (TriggerType.SCHEDULE == jobInfo.getTriggerType()) {
-                    String jobInstanceId = idGenerator.generateId(IDType.JOB_INSTANCE);
-                    Node elect = nodeManger.elect(jobInstanceId);
-                    jobInstances.add(JobInstanceFactory.create(jobInstanceId, planInstance.getId(), planInstance.getType(), elect.getUrl(), attributes, new Attributes(), jobInfo, triggerAt));
-                }
-            }
+            List<JobInstance> jobInstances = createRootJobs(plan, planInstance, attributes, triggerAt);
             jobInstanceRepository.saveAll(jobInstances);
             scheduleContext.setWaitScheduleJobs(jobInstances);
             return id;
@@ -156,6 +175,121 @@ public class PlanInstanceProcessor extends InstanceProcessor {
         return instanceId;
     }
 
+    /**
+     * 定时触发，同一时间窗口内的触发会合并到一个事务中处理
+     *
+     * @param trigger 触发信息，校验失败时回调 {@link PlanTrigger#getVerifyFailHandler()}
+     */
+    public void scheduleInBatch(PlanTrigger trigger) {
+        triggerBatcher.add(trigger);
+    }
+
+    /**
+     * 批量处理定时触发：批量加锁校验版本，批量插入 PlanInstance 和头部 JobInstance，提交后统一下发
+     * 整批事务失败时退化为逐个调度，避免一个 plan 的问题影响其它 plan
+     */
+    void batchSchedule(List<PlanTrigger> triggers) {
+        ScheduleContext scheduleContext = new ScheduleContext();
+        Map<PlanTrigger, VerifyException> verifyFails = new HashMap<>();
+        try {
+            transactionService.transactional(() -> {
+                // 按 planId 排序加锁
+                List<String> planIds = triggers.stream().map(t -> t.getPlan().getId()).distinct().sorted().collect(Collectors.toList());
+                Map<String, String> currentVersions = planRepository.lockAndGetEnabledVersions(planIds);
+
+                List<Plan> plans = triggers.stream().map(PlanTrigger::getPlan).collect(Collectors.toList());
+                Map<String, PlanInstance> latelyInstances = planInstanceRepository.getLatelyTriggers(plans, TriggerType.SCHEDULE);
+
+                List<PlanInstance> planInstances = new ArrayList<>();
+                List<JobInstance> jobInstances = new ArrayList<>();
+                for (PlanTrigger trigger : triggers) {
+                    Plan plan = trigger.getPlan();
+                    try {
+                        String currentVersion = currentVersions.get(plan.getId());
+                        Verifies.notNull(currentVersion, MessageFormat.format("plan:{0} is null or not enabled", plan.getId()));
+                        Verifies.verify(Objects.equals(plan.getVersion(), currentVersion), MessageFormat.format("plan:{0} version {1} change to {2}", plan.getId(), plan.getVersion(), currentVersion));
+                        verifyLatelyTrigger(plan.getId(), plan.getVersion(), plan.getScheduleOption().getScheduleType(), latelyInstances.get(plan.getVersion()), trigger.getTriggerAt());
+                    } catch (VerifyException e) {
+                        verifyFails.put(trigger, e);
+                        continue;
+                    }
+
+                    Attributes attributes = new Attributes();
+                    PlanInstance planInstance = InstanceFactory.create(idGenerator.generateId(IDType.INSTANCE), plan, attributes, trigger.getTriggerAt());
+                    planInstances.add(planInstance);
+                    // 同一个 plan 在一批内触发多次时，后续的触发基于本次创建的实例校验
+                    latelyInstances.put(plan.getVersion(), planInstance);
+                    jobInstances.addAll(createRootJobs(plan, planInstance, attributes, trigger.getTriggerAt()));
+                }
+
+                planInstanceRepository.saveAll(planInstances);
+                jobInstanceRepository.saveAll(jobInstances);
+                scheduleContext.setWaitScheduleJobs(jobInstances);
+                return planInstances.size();
+            });
+        } catch (Exception e) {
+            log.warn("batch schedule fail size={}, fallback to schedule one by one", triggers.size(), e);
+            for (PlanTrigger trigger : triggers) {
+                try {
+                    schedule(trigger.getPlan(), TriggerType.SCHEDULE, new Attributes(), trigger.getTriggerAt());
+                } catch (VerifyException ve) {
+                    trigger.getVerifyFailHandler().accept(ve);
+                } catch (Exception ex) {
+                    log.error("schedule plan:{} fail", trigger.getPlan().getId(), ex);
+                }
+            }
+            return;
+        }
+
+        asyncSchedule(scheduleContext);
+        verifyFails.forEach((trigger, e) -> trigger.getVerifyFailHandler().accept(e));
+    }
+
+    /**
+     * 停止合并定时触发，已收集的触发立即处理
+     */
+    public void shutdown() {
+        triggerBatcher.shutdown();
+    }
+
+    /**
+     * 根据最近一次触发的实例校验本次是否可以触发
+     */
+    private void verifyLatelyTrigger(String planId, String version, ScheduleType scheduleType, PlanInstance latelyPlanInstance, LocalDateTime triggerAt) {
+        switch (scheduleType) {
+            case FIXED_RATE:
+            case CRON:
+                if (!(latelyPlanInstance == null || !triggerAt.isEqual(latelyPlanInstance.getTriggerAt()))) {
+                    throw new VerifyException(MessageFormat.format("Duplicate create PlanInstance,triggerAt:{0} planId[{1}] Version[{2}] oldPlanInstance[{3}]",
+                            triggerAt, planId, version, latelyPlanInstance.getId()));
+                }
+                break;
+            case FIXED_DELAY:
+                if (!(latelyPlanInstance == null || (!triggerAt.isEqual(latelyPlanInstance.getTriggerAt()) && latelyPlanInstance.getStatus().isCompleted()))) {
+                    throw new VerifyException(MessageFormat.format("Please wait last PlanInstance[{0}] complete.Plan[{1}] Version[{2}]",
+                            latelyPlanInstance.getId(), planId, version));
+                }
+                break;
+            default:
+                throw new VerifyException(MsgConstants.UNKNOWN + " scheduleType:" + scheduleType);
+        }
+    }
+
+    /**
+     * 创建头部节点的 JobInstance
+     */
+    private List<JobInstance> createRootJobs(Plan plan, PlanInstance planInstance, Attributes attributes, LocalDateTime triggerAt) {
+        List<JobInstance> jobInstances = new ArrayList<>();
+        for (WorkflowJobInfo jobInfo : plan.getDag().origins()) {
+            if (TriggerType.SCHEDULE == jobInfo.getTriggerType()) {
+                String jobInstanceId = idGenerator.generateId(IDType.JOB_INSTANCE);
+                Node elect = nodeManger.elect(jobInstanceId);
+                jobInstances.add(JobInstanceFactory.create(jobInstanceId, planInstance.getId(), planInstance.getType(), elect.getUrl(), attributes, new Attributes(), jobInfo, triggerAt));
+            }
+        }
+        return jobInstances;
+    }
+
     /**
      * api 方式下发节点任务
      */
@@ -168,7 +302,7 @@ public class PlanInstanceProcessor extends InstanceProcessor {
             DAG<WorkflowJobInfo> dag = planInstance.getDag();
             WorkflowJobInfo jobInfo = dag.getNode(jobId);
 
-            Verifies.verify(checkJobsSuccess(planInstanceId, dag.preNodes(jobInfo.getId()), true), "previous job is not complete, please wait!");
+            Verifies.verify(checkJobsCompleted(planInstance, dag.preNodes(jobInfo.getId())), "previous job is not complete, please wait!");
 
             Verifies.verify(TriggerType.API == jobInfo.getTriggerType(), "only api triggerType job can schedule by api");
 
@@ -229,10 +363,18 @@ public class PlanInstanceProcessor extends InstanceProcessor {
         Verifies.notNull(planInstance, MsgConstants.CANT_FIND_PLAN_INSTANCE + instanceId);
         ScheduleContext scheduleContext = new ScheduleContext();
         transactionService.transactional(() -> {
-            DAG<WorkflowJobInfo> dag = planInstance.getDag();
+            // 锁定实例，重新执行的节点需要移除完成状态
+            Instance lockedInstance = lockAndGet(instanceId);
+            DAG<WorkflowJobInfo> dag = lockedInstance.getDag();
             WorkflowJobInfo jobInfo = dag.getNode(jobId);
 
-            Verifies.verify(checkJobsSuccess(instanceId, dag.preNodes(jobInfo.getId()), true), "previous job is not complete, please wait!");
+            Verifies.verify(checkJobsCompleted(lockedInstance, dag.preNodes(jobInfo.getId())), "previous job is not complete, please wait!");
+
+            BitSet completedJobs = lockedInstance.getCompletedJobs();
+            if (completedJobs != null) {
+                completedJobs.clear(dag.indexOf(jobId));
+                updateCompletedJobs(instanceId, completedJobs);
+            }
 
             JobInstance jobInstance = jobInstanceRepository.getLatest(instanceId, jobId);// 获取最后一条
             String newJobInstanceId = idGenerator.generateId(IDType.JOB_INSTANCE);
@@ -255,7 +397,7 @@ public class PlanInstanceProcessor extends InstanceProcessor {
         }
         if (CollectionUtils.isNotEmpty(scheduleContext.getWaitScheduleJobs())) {
             for (JobInstance jobInstance : scheduleContext.getWaitScheduleJobs()) {
-                JobInstanceTask metaTask = new JobInstanceTask(jobInstance, agentRegistry);
+                JobInstanceTask metaTask = new JobInstanceTask(jobInstance, agentRegistry, dispatchBatcher);
                 metaTaskScheduler.schedule(metaTask);
             }
         }
@@ -265,17 +407,22 @@ public class PlanInstanceProcessor extends InstanceProcessor {
     protected void handlerInstanceComplete(String instanceId, boolean success, ScheduleContext scheduleContext) {
         PlanInstance planInstance = planInstanceRepository.get(instanceId);
         Verifies.notNull(planInstance, MsgConstants.CANT_FIND_PLAN_INSTANCE + instanceId);
+        LocalDateTime current = TimeUtils.currentLocalDateTime();
         if (success) {
-            planInstanceRepository.success(instanceId, TimeUtils.currentLocalDateTime());
+            planInstanceRepository.success(instanceId, current);
         } else {
-            LocalDateTime current = TimeUtils.currentLocalDateTime();
             LocalDateTime startAt = planInstance.getStartAt() == null ? current : planInstance.getStartAt();
             planInstanceRepository.fail(instanceId, startAt, current);
         }
         // 下发 fixed_delay 任务
         if (ScheduleType.FIXED_DELAY == planInstance.getScheduleType()) {
-            Plan plan = planRepository.get(planInstance.getPlanId());
-            scheduleContext.setWaitSchedulePlan(plan);
+            // 从缓存获取，本次实例的触发和反馈时间即为 plan 最近一次的触发和反馈时间
+            Plan plan = planCache.get(planInstance.getPlanId());
+            Verifies.notNull(plan, MsgConstants.CANT_FIND_PLAN + planInstance.getPlanId());
+            scheduleContext.setWaitSchedulePlan(plan.toBuilder()
+                    .latelyTriggerAt(planInstance.getTriggerAt().truncatedTo(ChronoUnit.SECONDS))
+                    .latelyFeedbackAt(current.truncatedTo(ChronoUnit.SECONDS))
+                    .build());
         }
     }
 
@@ -284,4 +431,9 @@ public class PlanInstanceProcessor extends InstanceProcessor {
         return planInstanceRepository.lockAndGet(instanceId);
     }
 
+    @Override
+    protected void updateCompletedJobs(String instanceId, BitSet completedJobs) {
+        planInstanceRepository.updateCompletedJobs(instanceId, completedJobs);
+    }
+
 }
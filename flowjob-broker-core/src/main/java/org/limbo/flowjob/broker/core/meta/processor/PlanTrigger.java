@@ -0,0 +1,48 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.meta.processor;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.limbo.flowjob.broker.core.exceptions.VerifyException;
+import org.limbo.flowjob.broker.core.meta.info.Plan;
+
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+
+/**
+ * 一次待执行的 plan 调度触发
+ *
+ * @author Brozen
+ * @since 2024-02-06
+ */
+@Getter
+@AllArgsConstructor
+public class PlanTrigger {
+
+    private final Plan plan;
+
+    private final LocalDateTime triggerAt;
+
+    /**
+     * 校验失败（版本变更、未启用、重复触发等）时的回调
+     */
+    private final Consumer<VerifyException> verifyFailHandler;
+
+}
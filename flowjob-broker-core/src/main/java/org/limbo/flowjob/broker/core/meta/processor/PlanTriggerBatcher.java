@@ -0,0 +1,172 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.meta.processor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.common.thread.NamedThreadFactory;
+import org.limbo.flowjob.common.thread.OrderedLaneExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 合并同一时间轮刻度（或一小段时间窗口）内到期的 plan 触发。
+ * 第一个触发到达后等待 linger 时长，再将期间收集到的触发按 batchSize 分批交给 flusher 处理，
+ * 每批在一个事务内完成校验和插入，避免每个 plan 单独开启事务。
+ * 批次在专用的有序通道中执行，同一个 plan 的触发总是落在同一个通道，多次 flush 之间不会并发处理同一个 plan；
+ * 执行批次不会占用收集线程，慢事务不会推迟后续的收集窗口。
+ *
+ * @author Brozen
+ * @since 2024-02-06
+ */
+@Slf4j
+public class PlanTriggerBatcher {
+
+    private final Queue<PlanTrigger> triggers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 是否已经安排了 flush
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    /**
+     * 默认 flush 通道数
+     */
+    public static final int DEFAULT_FLUSH_LANES = 4;
+
+    /**
+     * 每个 flush 通道的队列大小，队列满时进入通道的溢出队列，不会阻塞收集线程；溢出队列也满时在收集线程中执行
+     */
+    private static final int FLUSH_QUEUE_SIZE = 64;
+
+    private final ScheduledExecutorService lingerTimer;
+
+    /**
+     * 按 plan 分片执行批次
+     */
+    private final OrderedLaneExecutor flushExecutor;
+
+    private final Consumer<List<PlanTrigger>> flusher;
+
+    /**
+     * 收集窗口，毫秒
+     */
+    private final long lingerMillis;
+
+    /**
+     * 每批最大触发数
+     */
+    private final int batchSize;
+
+    public PlanTriggerBatcher(Consumer<List<PlanTrigger>> flusher, long lingerMillis, int batchSize) {
+        this(flusher, lingerMillis, batchSize, DEFAULT_FLUSH_LANES);
+    }
+
+    /**
+     * @param flushLanes 执行批次的通道数
+     */
+    public PlanTriggerBatcher(Consumer<List<PlanTrigger>> flusher, long lingerMillis, int batchSize, int flushLanes) {
+        if (lingerMillis < 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("lingerMillis must not be negative and batchSize must be positive");
+        }
+        this.flusher = flusher;
+        this.lingerMillis = lingerMillis;
+        this.batchSize = batchSize;
+        this.lingerTimer = Executors.newSingleThreadScheduledExecutor(NamedThreadFactory.newInstance("PlanTriggerBatcher"));
+        this.flushExecutor = new OrderedLaneExecutor("PlanTriggerFlush", flushLanes, FLUSH_QUEUE_SIZE);
+    }
+
+    /**
+     * 添加触发，不会阻塞调用线程
+     */
+    public void add(PlanTrigger trigger) {
+        triggers.add(trigger);
+        if (flushScheduled.compareAndSet(false, true)) {
+            lingerTimer.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void flush() {
+        // 先重置标记再取数据，保证 flush 期间新加入的触发会安排下一次 flush
+        flushScheduled.set(false);
+        // 按通道分批，一批内的 plan 都属于同一个通道
+        List<PlanTrigger>[] batches = new List[flushExecutor.laneCount()];
+        PlanTrigger trigger;
+        while ((trigger = triggers.poll()) != null) {
+            int lane = flushExecutor.laneOf(trigger.getPlan().getId());
+            List<PlanTrigger> batch = batches[lane];
+            if (batch == null) {
+                batch = new ArrayList<>(batchSize);
+                batches[lane] = batch;
+            }
+            batch.add(trigger);
+            if (batch.size() >= batchSize) {
+                submit(batch);
+                batches[lane] = null;
+            }
+        }
+        for (List<PlanTrigger> batch : batches) {
+            if (batch != null) {
+                submit(batch);
+            }
+        }
+    }
+
+    private void submit(List<PlanTrigger> batch) {
+        Runnable task = () -> {
+            try {
+                flusher.accept(batch);
+            } catch (Exception e) {
+                log.error("[PlanTriggerBatcher] flush fail size={}", batch.size(), e);
+            }
+        };
+        try {
+            flushExecutor.execute(batch.get(0).getPlan().getId(), task);
+        } catch (RejectedExecutionException e) {
+            // 通道已停止或溢出队列已满，在当前线程处理，不丢弃触发
+            task.run();
+        }
+    }
+
+    /**
+     * @return 通道队列满而进入溢出队列的批次数
+     */
+    public long overflowCount() {
+        return flushExecutor.overflowCount();
+    }
+
+    /**
+     * 停止收集，已收集的触发立即处理
+     */
+    public void shutdown() {
+        lingerTimer.shutdown();
+        flush();
+        flushExecutor.shutdown();
+    }
+
+}
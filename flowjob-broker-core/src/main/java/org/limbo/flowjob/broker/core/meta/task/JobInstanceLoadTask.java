@@ -0,0 +1,166 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.meta.task;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.limbo.flowjob.broker.core.agent.AgentRegistry;
+import org.limbo.flowjob.broker.core.cluster.Broker;
+import org.limbo.flowjob.broker.core.cluster.NodeManger;
+import org.limbo.flowjob.broker.core.meta.job.JobInstance;
+import org.limbo.flowjob.broker.core.meta.job.JobInstanceRepository;
+import org.limbo.flowjob.broker.core.meta.processor.JobDispatchBatcher;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * 按时间窗口提前加载即将触发的 JobInstance 放入时间轮
+ * 每次从上次加载到的时间点开始，按 BUCKET 大小分段加载到 当前时间 + LOOK_AHEAD，已加载的窗口不会重复扫描
+ */
+@Slf4j
+public class JobInstanceLoadTask {
+
+    /**
+     * 预加载的时间范围，触发时间在此范围内的 JobInstance 可以直接放入时间轮
+     */
+    public static final long LOOK_AHEAD = 120000; // 2min
+
+    /**
+     * 每次查询的时间段大小
+     */
+    public static final long BUCKET = 10000; // 10s
+
+    /**
+     * 加载间隔
+     */
+    public static final long INTERVAL = 5000; // 5s
+
+    private final MetaTaskScheduler scheduler;
+
+    private final Broker broker;
+
+    private final NodeManger nodeManger;
+
+    private final AgentRegistry agentRegistry;
+
+    private final JobDispatchBatcher dispatchBatcher;
+
+    private final JobInstanceRepository jobInstanceRepository;
+
+    private final InnerTask task = new InnerTask();
+
+    public JobInstanceLoadTask(MetaTaskScheduler scheduler,
+                               Broker broker,
+                               NodeManger nodeManger,
+                               AgentRegistry agentRegistry,
+                               JobDispatchBatcher dispatchBatcher,
+                               JobInstanceRepository jobInstanceRepository) {
+        this.scheduler = scheduler;
+        this.broker = broker;
+        this.nodeManger = nodeManger;
+        this.agentRegistry = agentRegistry;
+        this.dispatchBatcher = dispatchBatcher;
+        this.jobInstanceRepository = jobInstanceRepository;
+    }
+
+    public void init() {
+        new Timer().schedule(task, 0, Duration.ofMillis(INTERVAL).toMillis());
+    }
+
+    /**
+     * 执行一次加载，与定时任务使用同一份状态，不能与 {@link #init()} 同时使用
+     */
+    public void load() {
+        task.run();
+    }
+
+    private class InnerTask extends TimerTask {
+
+        /**
+         * 已经加载到的触发时间，为空表示还未加载过
+         */
+        private LocalDateTime loadedUntil;
+
+        /**
+         * 加载时持有的桶
+         */
+        private Set<Integer> loadedBuckets = Collections.emptySet();
+
+        @Override
+        public void run() {
+            try {
+                String url = broker.getRpcBaseURL().toString();
+                // 判断自己是否存在 --- 可能由于心跳异常导致不存活
+                if (!nodeManger.alive(url)) {
+                    loadedUntil = null;
+                    return;
+                }
+
+                // 接管了新的桶，已加载的窗口中没有这些桶的数据，需要重新加载；已在时间轮中的任务不会重复调度
+                Set<Integer> ownedBuckets = nodeManger.ownedBuckets(url);
+                if (!loadedBuckets.containsAll(ownedBuckets)) {
+                    loadedUntil = null;
+                }
+                loadedBuckets = ownedBuckets;
+
+                LocalDateTime currentTime = TimeUtils.currentLocalDateTime();
+                if (loadedUntil == null) {
+                    // 首次加载往前多取一个检测周期，刚创建还未被 JobScheduleCheckTask 处理的也能及时下发
+                    loadedUntil = currentTime.plus(-JobScheduleCheckTask.INTERVAL, ChronoUnit.MILLIS);
+                }
+
+                LocalDateTime loadEnd = currentTime.plus(LOOK_AHEAD, ChronoUnit.MILLIS);
+                while (loadedUntil.isBefore(loadEnd)) {
+                    LocalDateTime bucketEnd = loadedUntil.plus(BUCKET, ChronoUnit.MILLIS);
+                    if (bucketEnd.isAfter(loadEnd)) {
+                        bucketEnd = loadEnd;
+                    }
+                    loadBucket(loadedUntil, bucketEnd);
+                    loadedUntil = bucketEnd;
+                }
+            } catch (Exception e) {
+                log.error("[{}] execute fail", this.getClass().getSimpleName(), e);
+            }
+        }
+
+        private void loadBucket(LocalDateTime triggerAtStart, LocalDateTime triggerAtEnd) {
+            Integer limit = 100;
+            String startId = "";
+            List<JobInstance> jobInstances = jobInstanceRepository.findInTriggerWindow(broker.getRpcBaseURL(), triggerAtStart, triggerAtEnd, startId, limit);
+            while (CollectionUtils.isNotEmpty(jobInstances)) {
+                for (JobInstance jobInstance : jobInstances) {
+                    JobInstanceTask metaTask = new JobInstanceTask(jobInstance, agentRegistry, dispatchBatcher);
+                    scheduler.schedule(metaTask);
+                }
+                startId = jobInstances.get(jobInstances.size() - 1).getId();
+                jobInstances = jobInstanceRepository.findInTriggerWindow(broker.getRpcBaseURL(), triggerAtStart, triggerAtEnd, startId, limit);
+            }
+        }
+    }
+
+}
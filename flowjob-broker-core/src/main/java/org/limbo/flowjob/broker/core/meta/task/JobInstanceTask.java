@@ -21,17 +21,13 @@ package org.limbo.flowjob.broker.core.meta.task;
 import lombok.extern.slf4j.Slf4j;
 import org.limbo.flowjob.api.constants.JobStatus;
 import org.limbo.flowjob.broker.core.agent.AgentRegistry;
-import org.limbo.flowjob.broker.core.agent.ScheduleAgent;
 import org.limbo.flowjob.broker.core.meta.job.JobInstance;
-import org.limbo.flowjob.broker.core.meta.processor.JobDispatchSelect;
+import org.limbo.flowjob.broker.core.meta.processor.JobDispatchBatcher;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTask;
-import org.limbo.flowjob.common.thread.CommonThreadPool;
 import org.limbo.flowjob.common.utils.time.TimeUtils;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * @author Devil
@@ -44,47 +40,29 @@ public class JobInstanceTask extends MetaTask {
 
     private final AgentRegistry agentRegistry;
 
+    private final JobDispatchBatcher dispatchBatcher;
+
     public JobInstanceTask(JobInstance jobInstance,
-                           AgentRegistry agentRegistry) {
+                           AgentRegistry agentRegistry,
+                           JobDispatchBatcher dispatchBatcher) {
         this.jobInstance = jobInstance;
         this.agentRegistry = agentRegistry;
+        this.dispatchBatcher = dispatchBatcher;
     }
 
     @Override
     public void execute() {
-        CommonThreadPool.IO.submit(() -> dispatch(jobInstance));
+        dispatch(jobInstance);
     }
 
     /**
-     * 下发job给agent
+     * 下发job给agent，同一时间到期的作业按 agent 合并下发
      */
     public void dispatch(JobInstance jobInstance) {
         if (jobInstance.getStatus() != JobStatus.SCHEDULING) {
             return;
         }
-
-        // 选择 agent
-        List<ScheduleAgent> agents = agentRegistry.all().stream()
-                .filter(a -> a.getAvailableQueueLimit() > 0)
-                .filter(ScheduleAgent::isEnabled)
-                .collect(Collectors.toList());
-        ScheduleAgent agent = JobDispatchSelect.select(agents);
-        if (agent == null) {
-            // 状态检测的时候自动重试
-            if (log.isDebugEnabled()) {
-                log.debug("No alive server for job={}", jobInstance.getId());
-            }
-            return;
-        }
-
-        // rpc 执行
-        try {
-            log.info("Try dispatch JobInstance id={} to agent={}", jobInstance.getId(), agent.getId());
-            boolean dispatched = agent.dispatch(jobInstance); // 可能存在接口超时导致重复下发，HttpBrokerApi.API_JOB_EXECUTING 由对应接口处理
-            log.info("Dispatch JobInstance id={} to agent={} success={}", jobInstance.getId(), agent.getId(), dispatched);
-        } catch (Exception e) {
-            log.error("Dispatch JobInstance id={} to agent={} fail", jobInstance.getId(), agent.getId(), e);
-        }
+        dispatchBatcher.dispatch(jobInstance, agentRegistry);
     }
 
     @Override
@@ -107,6 +85,7 @@ public class JobInstanceTask extends MetaTask {
         long delay = Duration.between(TimeUtils.currentLocalDateTime(), scheduleAt()).toMillis();
         delay = delay < 0 ? 0 : delay;
 
-        return delay <= JobScheduleCheckTask.INTERVAL;
+        // 超出预加载范围的由 JobInstanceLoadTask 在临近触发时加载
+        return delay <= JobInstanceLoadTask.LOOK_AHEAD;
     }
 }
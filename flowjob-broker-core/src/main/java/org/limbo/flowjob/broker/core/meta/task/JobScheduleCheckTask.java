@@ -25,6 +25,7 @@ import org.limbo.flowjob.broker.core.cluster.Broker;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
 import org.limbo.flowjob.broker.core.meta.job.JobInstance;
 import org.limbo.flowjob.broker.core.meta.job.JobInstanceRepository;
+import org.limbo.flowjob.broker.core.meta.processor.JobDispatchBatcher;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
 import org.limbo.flowjob.common.utils.time.TimeUtils;
 
@@ -49,6 +50,8 @@ public class JobScheduleCheckTask {
 
     private final AgentRegistry agentRegistry;
 
+    private final JobDispatchBatcher dispatchBatcher;
+
     private final JobInstanceRepository jobInstanceRepository;
 
     public static final long INTERVAL = 10000; // 10s
@@ -57,11 +60,13 @@ public class JobScheduleCheckTask {
                                 Broker broker,
                                 NodeManger nodeManger,
                                 AgentRegistry agentRegistry,
+                                JobDispatchBatcher dispatchBatcher,
                                 JobInstanceRepository jobInstanceRepository) {
         this.scheduler = scheduler;
         this.broker = broker;
         this.nodeManger = nodeManger;
         this.agentRegistry = agentRegistry;
+        this.dispatchBatcher = dispatchBatcher;
         this.jobInstanceRepository = jobInstanceRepository;
     }
 
@@ -87,7 +92,7 @@ public class JobScheduleCheckTask {
                 List<JobInstance> jobInstances = jobInstanceRepository.findInSchedule(broker.getRpcBaseURL(), currentTime.plus(-INTERVAL, ChronoUnit.MILLIS), currentTime, startId, limit);
                 while (CollectionUtils.isNotEmpty(jobInstances)) {
                     for (JobInstance jobInstance : jobInstances) {
-                        JobInstanceTask metaTask = new JobInstanceTask(jobInstance, agentRegistry);
+                        JobInstanceTask metaTask = new JobInstanceTask(jobInstance, agentRegistry, dispatchBatcher);
                         scheduler.schedule(metaTask);
                     }
                     startId = jobInstances.get(jobInstances.size() - 1).getId();
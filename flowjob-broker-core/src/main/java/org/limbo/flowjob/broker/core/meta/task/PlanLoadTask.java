@@ -22,32 +22,78 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.limbo.flowjob.api.constants.TriggerType;
 import org.limbo.flowjob.broker.core.cluster.Broker;
+import org.limbo.flowjob.broker.core.cluster.Buckets;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
 import org.limbo.flowjob.broker.core.meta.info.Plan;
+import org.limbo.flowjob.broker.core.meta.info.PlanCache;
+import org.limbo.flowjob.broker.core.meta.info.PlanChange;
+import org.limbo.flowjob.broker.core.meta.info.PlanChangeRepository;
 import org.limbo.flowjob.broker.core.meta.info.PlanRepository;
 import org.limbo.flowjob.broker.core.meta.processor.PlanInstanceProcessor;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
-import org.limbo.flowjob.common.utils.time.Formatters;
-import org.limbo.flowjob.common.utils.time.LocalDateTimeUtils;
 import org.limbo.flowjob.common.utils.time.TimeUtils;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
 /**
  * 获取plan下发
- * 第一次会获取所有的，后续则获取近期更新的
+ * 持有的桶发生变化时，新获得的桶全量加载，失去的桶中的plan停止调度
+ * 之后按序号读取 plan 变更记录，只重新加载发生变更的 plan，每次查询量与 plan 总数无关
+ * 序号空洞在 {@link #GAP_TIMEOUT} 内阻止游标前进，超时后转为迟到序号，在 {@link #RETENTION} 内继续按序号查询，晚提交的变更仍会被应用
+ * 变更记录保留 {@link #RETENTION}，各节点定期清理自己已读取且超过保留时间的记录；超过保留时间未追上变更的节点重新全量加载
  */
 @Slf4j
 public class PlanLoadTask {
 
+    /**
+     * 每次读取的变更数量
+     */
+    public static final int CHANGE_LIMIT = 500;
+
+    /**
+     * 序号空洞的最长等待时间
+     * 自增序号在事务提交前分配，较小的序号可能晚于较大的序号可见，超过此时间仍未出现则认为事务已回滚
+     */
+    public static final long GAP_TIMEOUT = 5000; // 5s
+
+    /**
+     * 最多跟踪的空洞序号数，超过后重新全量加载
+     */
+    public static final int MAX_GAPS = 1000;
+
+    /**
+     * 变更记录的保留时间，存活节点的游标落后远小于此时间，早于此时间且已读取的记录可以清理
+     */
+    public static final long RETENTION = 600000; // 10min
+
+    /**
+     * 清理变更记录的间隔
+     */
+    public static final long PRUNE_INTERVAL = 60000; // 1min
+
+    /**
+     * 每次清理的数量
+     */
+    public static final int PRUNE_LIMIT = 1000;
+
     private final MetaTaskScheduler scheduler;
 
     private final PlanRepository planRepository;
 
+    private final PlanChangeRepository planChangeRepository;
+
+    private final PlanCache planCache;
+
     private final PlanInstanceProcessor processor;
 
     /**
@@ -57,25 +103,76 @@ public class PlanLoadTask {
 
     private final NodeManger nodeManger;
 
+    private final InnerTask task = new InnerTask();
+
     public PlanLoadTask(MetaTaskScheduler scheduler,
                         PlanRepository planRepository,
+                        PlanChangeRepository planChangeRepository,
+                        PlanCache planCache,
                         PlanInstanceProcessor processor,
                         Broker broker,
                         NodeManger nodeManger) {
         this.scheduler = scheduler;
         this.planRepository = planRepository;
+        this.planChangeRepository = planChangeRepository;
+        this.planCache = planCache;
         this.processor = processor;
         this.broker = broker;
         this.nodeManger = nodeManger;
     }
 
     public void init() {
-        new Timer().schedule(new InnerTask(), 0, Duration.ofSeconds(1).toMillis());
+        new Timer().schedule(task, 0, Duration.ofSeconds(1).toMillis());
+    }
+
+    /**
+     * 执行一次加载，与定时任务使用同一份状态，不能与 {@link #init()} 同时使用
+     */
+    public void load() {
+        task.run();
     }
 
     private class InnerTask extends TimerTask {
 
-        private LocalDateTime loadTimePoint = LocalDateTimeUtils.parse("2000-01-01 00:00:00", Formatters.YMD_HMS);
+        /**
+         * 已处理的变更序号，小于等于此序号的变更都已应用或已转为迟到序号，为空表示还未加载过
+         */
+        private Long cursor;
+
+        /**
+         * 已读取到的最大变更序号
+         */
+        private long maxSeq;
+
+        /**
+         * 上次读完所有变更的时间
+         */
+        private long syncedAt;
+
+        /**
+         * 上次清理变更记录的时间
+         */
+        private long prunedAt;
+
+        /**
+         * 游标到最大序号之间未出现的序号 -> 首次发现的时间，阻止游标前进
+         */
+        private final Map<Long, Long> gaps = new HashMap<>();
+
+        /**
+         * 等待超过 {@link #GAP_TIMEOUT} 的空洞序号 -> 转为迟到的时间，不再阻止游标，保留 {@link #RETENTION} 内继续查询
+         */
+        private final Map<Long, Long> lateSeqs = new HashMap<>();
+
+        /**
+         * 上次加载时持有的桶
+         */
+        private Set<Integer> ownedBuckets = new HashSet<>();
+
+        /**
+         * 当前节点调度中的 planId -> scheduleId
+         */
+        private final Map<String, String> scheduledPlans = new HashMap<>();
 
         @Override
         public void run() {
@@ -85,25 +182,198 @@ public class PlanLoadTask {
                     return;
                 }
 
-                // 调度当前时间以及未来的任务
-                List<Plan> plans = planRepository.loadUpdatedPlans(broker.getRpcBaseURL(), loadTimePoint.plusSeconds(-1)); // 防止部分延迟导致变更丢失
-                loadTimePoint = TimeUtils.currentLocalDateTime();
-                if (CollectionUtils.isEmpty(plans)) {
-                    return;
+                // 长时间未追上变更，期间的记录可能已被清理，重新全量加载
+                long now = System.currentTimeMillis();
+                if (cursor != null && now - syncedAt > RETENTION) {
+                    log.warn("[PlanLoadTask] changes not synced since {}, reload all plans", syncedAt);
+                    reset();
+                }
+                // 空洞过多时逐个跟踪的代价大于全量加载
+                if (gaps.size() + lateSeqs.size() > MAX_GAPS) {
+                    log.warn("[PlanLoadTask] too many sequence gaps {}, reload all plans", gaps.size() + lateSeqs.size());
+                    reset();
+                }
+
+                // 先确定变更的起点再全量加载，加载期间的变更会在之后重复应用
+                if (cursor == null) {
+                    cursor = planChangeRepository.maxSeq();
+                    maxSeq = cursor;
+                    syncedAt = now;
                 }
-                for (Plan plan : plans) {
-                    PlanScheduleTask metaTask = new PlanScheduleTask(plan, processor, scheduler);
-                    // 移除老的
-                    scheduler.unschedule(metaTask.scheduleId());
-                    // 调度新的
-                    if (TriggerType.SCHEDULE == plan.getTriggerType() && plan.isEnabled()) {
-                        scheduler.schedule(metaTask);
+
+                Set<Integer> currentBuckets = nodeManger.ownedBuckets(broker.getRpcBaseURL().toString());
+                releaseBuckets(currentBuckets);
+                planCache.retain(currentBuckets);
+
+                // 新获得的桶全量加载
+                Set<Integer> acquired = new HashSet<>(currentBuckets);
+                acquired.removeAll(ownedBuckets);
+                ownedBuckets = currentBuckets;
+                if (!acquired.isEmpty()) {
+                    List<Plan> plans = planRepository.loadPlansInBuckets(acquired);
+                    for (Plan plan : plans) {
+                        planCache.put(plan, cursor);
+                        schedule(plan);
                     }
                 }
+
+                // 应用变更
+                boolean hasMore = true;
+                while (hasMore) {
+                    hasMore = loadChanges();
+                }
+                loadGaps();
+                syncedAt = now;
+
+                if (now - prunedAt >= PRUNE_INTERVAL) {
+                    prunedAt = now;
+                    prune();
+                }
             } catch (Exception e) {
                 log.error("[{}] execute fail", this.getClass().getSimpleName(), e);
             }
         }
+
+        private void reset() {
+            cursor = null;
+            ownedBuckets = new HashSet<>();
+            gaps.clear();
+            lateSeqs.clear();
+        }
+
+        /**
+         * 读取并应用最大序号之后的一批变更，记录其中的序号空洞
+         *
+         * @return 是否还有未读取的变更
+         */
+        private boolean loadChanges() {
+            List<PlanChange> changes = planChangeRepository.findAfter(maxSeq, CHANGE_LIMIT);
+            if (CollectionUtils.isEmpty(changes)) {
+                return false;
+            }
+
+            long now = System.currentTimeMillis();
+            for (PlanChange change : changes) {
+                // 自增序号在事务提交前分配，跳过的序号可能之后才提交
+                for (long seq = maxSeq + 1; seq < change.getSeq() && gaps.size() <= MAX_GAPS; seq++) {
+                    gaps.put(seq, now);
+                }
+                maxSeq = change.getSeq();
+                apply(change, false);
+            }
+            return changes.size() >= CHANGE_LIMIT;
+        }
+
+        /**
+         * 按序号查询空洞和迟到序号，应用晚提交的变更；之后推进游标到第一个未超时的空洞之前
+         */
+        private void loadGaps() {
+            long now = System.currentTimeMillis();
+            if (!gaps.isEmpty() || !lateSeqs.isEmpty()) {
+                Set<Long> seqs = new HashSet<>(gaps.keySet());
+                seqs.addAll(lateSeqs.keySet());
+                for (PlanChange change : planChangeRepository.findBySeqs(seqs)) {
+                    Long lateAt = lateSeqs.remove(change.getSeq());
+                    if (gaps.remove(change.getSeq()) == null && lateAt == null) {
+                        continue;
+                    }
+                    if (lateAt != null) {
+                        log.info("[PlanLoadTask] apply late plan change {}", change);
+                    }
+                    // 更大序号的变更可能已经应用，需要无视序号重新加载
+                    apply(change, true);
+                }
+            }
+
+            // 超时的空洞转为迟到序号，超过保留时间的迟到序号认为事务已回滚
+            Iterator<Map.Entry<Long, Long>> iterator = gaps.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Long> gap = iterator.next();
+                if (now - gap.getValue() >= GAP_TIMEOUT) {
+                    lateSeqs.put(gap.getKey(), now);
+                    iterator.remove();
+                }
+            }
+            lateSeqs.values().removeIf(lateAt -> now - lateAt >= RETENTION);
+
+            long committed = maxSeq;
+            for (Long seq : gaps.keySet()) {
+                committed = Math.min(committed, seq - 1);
+            }
+            cursor = committed;
+        }
+
+        /**
+         * 清理自己已读取且超过保留时间的变更，其它存活节点在保留时间内都已读过这些记录
+         */
+        private void prune() {
+            LocalDateTime before = TimeUtils.currentLocalDateTime().minus(RETENTION, ChronoUnit.MILLIS);
+            int deleted;
+            int total = 0;
+            do {
+                deleted = planChangeRepository.deleteBefore(cursor, before, PRUNE_LIMIT);
+                total += deleted;
+            } while (deleted >= PRUNE_LIMIT);
+            if (total > 0) {
+                log.info("[PlanLoadTask] pruned {} plan changes before {}", total, before);
+            }
+        }
+
+        /**
+         * @param late 是否为晚于更大序号提交的变更
+         */
+        private void apply(PlanChange change, boolean late) {
+            String planId = change.getPlanId();
+            if (!ownedBuckets.contains(Buckets.of(planId))) {
+                // 其它节点负责的 plan 不维护，下次使用时重新加载
+                planCache.evict(planId);
+                return;
+            }
+            if (late) {
+                planCache.refresh(change);
+            } else if (!planCache.apply(change)) {
+                return;
+            }
+            Plan plan = planCache.getIfPresent(planId);
+            if (plan == null) {
+                unschedule(planId);
+            } else {
+                schedule(plan);
+            }
+        }
+
+        private void schedule(Plan plan) {
+            PlanScheduleTask metaTask = new PlanScheduleTask(plan, processor, scheduler);
+            // 移除老的
+            scheduler.unschedule(metaTask.scheduleId());
+            unschedule(plan.getId());
+            // 调度新的
+            if (TriggerType.SCHEDULE == plan.getTriggerType() && plan.isEnabled()) {
+                scheduler.schedule(metaTask);
+                scheduledPlans.put(plan.getId(), metaTask.scheduleId());
+            }
+        }
+
+        private void unschedule(String planId) {
+            String scheduleId = scheduledPlans.remove(planId);
+            if (scheduleId != null) {
+                scheduler.unschedule(scheduleId);
+            }
+        }
+
+        /**
+         * 不再持有的桶中的 plan 停止调度，由新的持有者加载；未调度的 plan 同样由 {@link PlanCache#retain(Set)} 移除
+         */
+        private void releaseBuckets(Set<Integer> currentBuckets) {
+            Iterator<Map.Entry<String, String>> iterator = scheduledPlans.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, String> entry = iterator.next();
+                if (!currentBuckets.contains(Buckets.of(entry.getKey()))) {
+                    scheduler.unschedule(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
     }
 
 }
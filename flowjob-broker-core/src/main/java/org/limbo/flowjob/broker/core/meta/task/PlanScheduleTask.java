@@ -25,13 +25,11 @@ import lombok.Setter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.limbo.flowjob.api.constants.ScheduleType;
-import org.limbo.flowjob.api.constants.TriggerType;
-import org.limbo.flowjob.broker.core.exceptions.VerifyException;
 import org.limbo.flowjob.broker.core.meta.info.Plan;
 import org.limbo.flowjob.broker.core.meta.processor.PlanInstanceProcessor;
+import org.limbo.flowjob.broker.core.meta.processor.PlanTrigger;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.LoopMetaTask;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
-import org.limbo.flowjob.common.utils.attribute.Attributes;
 import org.limbo.flowjob.common.utils.time.TimeUtils;
 
 import java.time.LocalDateTime;
@@ -93,11 +91,12 @@ public class PlanScheduleTask extends LoopMetaTask {
                 return;
             }
 
-            processor.schedule(plan, TriggerType.SCHEDULE, new Attributes(), triggerAt);
-
-        } catch (VerifyException e) {
-            log.error("{} schedule verify fail", scheduleId(), e);
-            metaTaskScheduler.unschedule(scheduleId());
+            // 同一刻度到期的 plan 合并到一个事务中创建实例
+            String scheduleId = scheduleId();
+            processor.scheduleInBatch(new PlanTrigger(plan, triggerAt, e -> {
+                log.error("{} schedule verify fail", scheduleId, e);
+                metaTaskScheduler.unschedule(scheduleId);
+            }));
         } catch (Exception e) {
             log.error("{} execute fail", scheduleId(), e);
         }
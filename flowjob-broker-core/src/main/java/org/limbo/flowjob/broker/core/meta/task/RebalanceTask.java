@@ -20,124 +20,142 @@ package org.limbo.flowjob.broker.core.meta.task;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
-import org.apache.commons.collections4.MapUtils;
+import org.limbo.flowjob.broker.core.cluster.BucketRepository;
+import org.limbo.flowjob.broker.core.cluster.Buckets;
 import org.limbo.flowjob.broker.core.cluster.Node;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
-import org.limbo.flowjob.broker.core.meta.info.PlanRepository;
-import org.limbo.flowjob.broker.core.meta.job.JobInstanceRepository;
-import org.limbo.flowjob.broker.core.meta.lock.DistributedLock;
+import org.limbo.flowjob.broker.core.meta.lock.Lease;
+import org.limbo.flowjob.broker.core.meta.lock.LeaseManager;
 
 import java.net.URL;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.stream.Collectors;
 
 /**
+ * 维护桶的归属：按 rendezvous hashing 计算每个桶应该归属的存活节点，
+ * 归属变化的桶按 (原节点, 新节点) 分组，每组一条 SQL 切换归属，不需要迁移 plan 和 job instance 数据。
+ * 变更由持有租约的节点执行，租约在后台续期，所有节点都会将最新的归属同步到 {@link NodeManger}。
+ * 归属与当前存活节点一致后，只有拓扑版本变化时才重新读取归属。
+ *
  * @author Devil
  * @since 2024/1/13
  */
 @Slf4j
 public class RebalanceTask {
 
-    private final NodeManger nodeManger;
+    /**
+     * 检测间隔
+     */
+    public static final long INTERVAL = 2000;
 
-    private final DistributedLock lock;
+    /**
+     * 租约时长
+     */
+    public static final long LEASE_DURATION = INTERVAL * 5;
 
-    private final PlanRepository planRepository;
+    private static final String BUCKET_LEASE = "BUCKET_LEASE";
+
+    private final NodeManger nodeManger;
 
-    private final JobInstanceRepository jobInstanceRepository;
+    private final LeaseManager leaseManager;
+
+    private final BucketRepository bucketRepository;
 
     public RebalanceTask(NodeManger nodeManger,
-                         DistributedLock lock,
-                         PlanRepository planRepository,
-                         JobInstanceRepository jobInstanceRepository) {
+                         LeaseManager leaseManager,
+                         BucketRepository bucketRepository) {
         this.nodeManger = nodeManger;
-        this.lock = lock;
-        this.planRepository = planRepository;
-        this.jobInstanceRepository = jobInstanceRepository;
+        this.leaseManager = leaseManager;
+        this.bucketRepository = bucketRepository;
     }
 
     public void init() {
-        new Timer().schedule(new InnerTask(), 0, Duration.ofSeconds(10).toMillis());
+        new Timer().schedule(new InnerTask(), 0, Duration.ofMillis(INTERVAL).toMillis());
     }
 
     private class InnerTask extends TimerTask {
 
-        private static final String PLAN_LOCK = "PLAN_LOCK";
-
-        private static final String JOB_LOCK = "JOB_LOCK";
+        /**
+         * 桶归属已与存活节点一致时的拓扑版本
+         */
+        private Long balancedVersion;
 
         @Override
         public void run() {
-
             try {
-                if (CollectionUtils.isEmpty(nodeManger.allAlive())) {
-                    return;
-                }
-
-                rebalancePlan();
-
-                rebalanceJob();
-
-            } catch (Exception e) {
-                log.error("[RebalanceTask] run fail", e);
-            }
-        }
-
-        private void rebalancePlan() {
-            while (true) {
-                if (!lock.tryLock(PLAN_LOCK, 5000)) {
+                // 先取版本再取节点，期间节点变化会在下次检测时因版本不一致重新读取
+                long version = nodeManger.topologyVersion();
+                if (balancedVersion != null && balancedVersion == version) {
                     return;
                 }
-
-                List<URL> brokerUrls = nodeManger.allAlive().stream().map(Node::getUrl).collect(Collectors.toList());
-                Map<String, URL> notInBrokers = planRepository.findNotInBrokers(brokerUrls, 100);
-                if (MapUtils.isEmpty(notInBrokers)) {
-                    lock.unlock(PLAN_LOCK);
+                Collection<Node> nodes = nodeManger.allAlive();
+                if (CollectionUtils.isEmpty(nodes)) {
                     return;
                 }
 
-                for (Map.Entry<String, URL> entry : notInBrokers.entrySet()) {
-                    String planId = entry.getKey();
-                    URL url = entry.getValue();
-                    // 如果重新上线了需要忽略
-                    if (url != null && nodeManger.alive(url.toString())) {
-                        continue;
+                Map<Integer, URL> owners = bucketRepository.findAll();
+                boolean balanced = !needRebalance(owners, nodes);
+                if (!balanced) {
+                    Lease lease = leaseManager.tryAcquire(BUCKET_LEASE, LEASE_DURATION);
+                    if (lease != null) {
+                        rebalance(owners, nodes, lease);
+                        owners = bucketRepository.findAll();
+                        balanced = !needRebalance(owners, nodes);
                     }
-                    Node elect = nodeManger.elect(planId);
-                    planRepository.updateBroker(planId, url, elect.getUrl());
                 }
-                lock.unlock(PLAN_LOCK);
+                nodeManger.updateBuckets(owners);
+                // 未持有租约的节点等待持有者完成变更，变更完成前继续读取
+                balancedVersion = balanced ? version : null;
+            } catch (Exception e) {
+                log.error("[RebalanceTask] run fail", e);
             }
         }
 
-        private void rebalanceJob() {
-            while (true) {
-                if (!lock.tryLock(JOB_LOCK, 5000)) {
-                    return;
+        private boolean needRebalance(Map<Integer, URL> owners, Collection<Node> nodes) {
+            if (owners.size() < Buckets.COUNT) {
+                return true;
+            }
+            for (int bucket = 0; bucket < Buckets.COUNT; bucket++) {
+                Node expect = Buckets.owner(bucket, nodes);
+                if (!Objects.equals(expect.getUrl(), owners.get(bucket))) {
+                    return true;
                 }
+            }
+            return false;
+        }
 
-                List<URL> brokerUrls = nodeManger.allAlive().stream().map(Node::getUrl).collect(Collectors.toList());
-                Map<String, URL> notInBrokers = jobInstanceRepository.findNotInBrokers(brokerUrls, 100);
-                if (MapUtils.isEmpty(notInBrokers)) {
-                    lock.unlock(JOB_LOCK);
-                    return;
+        private void rebalance(Map<Integer, URL> owners, Collection<Node> nodes, Lease lease) {
+            Map<Integer, URL> creates = new HashMap<>();
+            // 原节点 -> 新节点 -> 桶
+            Map<URL, Map<URL, List<Integer>>> transfers = new HashMap<>();
+            for (int bucket = 0; bucket < Buckets.COUNT; bucket++) {
+                URL expect = Buckets.owner(bucket, nodes).getUrl();
+                URL current = owners.get(bucket);
+                if (!owners.containsKey(bucket)) {
+                    creates.put(bucket, expect);
+                } else if (!Objects.equals(expect, current)) {
+                    transfers.computeIfAbsent(current, k -> new HashMap<>())
+                            .computeIfAbsent(expect, k -> new ArrayList<>())
+                            .add(bucket);
                 }
+            }
 
-                for (Map.Entry<String, URL> entry : notInBrokers.entrySet()) {
-                    String jobInstanceId = entry.getKey();
-                    URL url = entry.getValue();
-                    // 如果重新上线了需要忽略
-                    if (url != null && nodeManger.alive(url.toString())) {
-                        continue;
-                    }
-                    Node elect = nodeManger.elect(jobInstanceId);
-                    jobInstanceRepository.updateBroker(jobInstanceId, url, elect.getUrl());
+            if (!creates.isEmpty()) {
+                int created = bucketRepository.create(creates, lease);
+                log.info("[RebalanceTask] create {} buckets", created);
+            }
+            for (Map.Entry<URL, Map<URL, List<Integer>>> fromEntry : transfers.entrySet()) {
+                for (Map.Entry<URL, List<Integer>> toEntry : fromEntry.getValue().entrySet()) {
+                    int transferred = bucketRepository.transfer(toEntry.getValue(), fromEntry.getKey(), toEntry.getKey(), lease);
+                    log.info("[RebalanceTask] transfer {} buckets from {} to {}", transferred, fromEntry.getKey(), toEntry.getKey());
                 }
-                lock.unlock(JOB_LOCK);
             }
         }
 
@@ -0,0 +1,206 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.schedule.calculator;
+
+import com.cronutils.model.Cron;
+import com.cronutils.model.CronType;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.model.time.ExecutionTime;
+import com.cronutils.parser.CronParser;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.limbo.flowjob.broker.core.schedule.ScheduleCalculator;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 编译后的 cron 表达式，进程内按 (表达式, 类型) 缓存。
+ * 每个表达式维护一段预先计算好的触发时间序列，所有使用相同表达式的任务共享，
+ * 查询下次触发时间时只需在序列上二分查找，序列用完后再向后延伸。
+ * 早于序列起点的查询（如错过触发后的补偿）只计算一次下次触发时间，不重算序列。
+ *
+ * @author Brozen
+ * @since 2024-02-05
+ */
+public class CompiledCron {
+
+    /**
+     * 每次预计算的触发时间个数
+     */
+    private static final int PRECOMPUTE_SIZE = 32;
+
+    /**
+     * 最多缓存的表达式个数
+     */
+    private static final int MAX_CACHED = 10000;
+
+    private static final Map<CronType, CronParser> PARSERS = new EnumMap<>(CronType.class);
+
+    private static final Cache<String, CompiledCron> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED)
+            .build();
+
+    static {
+        for (CronType cronType : CronType.values()) {
+            PARSERS.put(cronType, new CronParser(CronDefinitionBuilder.instanceDefinitionFor(cronType)));
+        }
+    }
+
+    private final Cron cron;
+
+    private final ExecutionTime executionTime;
+
+    /**
+     * 当前预计算的触发时间序列，整体替换保证并发读取安全
+     */
+    private volatile FireTimes fireTimes;
+
+    private CompiledCron(Cron cron) {
+        this.cron = cron;
+        this.executionTime = ExecutionTime.forCron(cron);
+        this.fireTimes = FireTimes.EMPTY;
+    }
+
+    /**
+     * 获取编译后的 cron，表达式非法时抛出 {@link IllegalArgumentException}
+     *
+     * @param cron     cron表达式
+     * @param cronType cron表达式类型 {@link CronType}
+     */
+    public static CompiledCron of(String cron, String cronType) {
+        try {
+            return CACHE.get(cronType + " " + cron, () -> new CompiledCron(parse(cron, cronType)));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalArgumentException(cause);
+        }
+    }
+
+    /**
+     * 解析 cron 表达式，不经过缓存
+     */
+    public static Cron parse(String cron, String cronType) {
+        return PARSERS.get(CronType.valueOf(cronType)).parse(cron);
+    }
+
+    public Cron getCron() {
+        return cron;
+    }
+
+    /**
+     * 获取指定时间之后的下次触发时间
+     *
+     * @param after 时间戳，毫秒
+     * @return 下次触发的时间戳，没有下次触发时间时返回 {@link ScheduleCalculator#NO_TRIGGER}
+     */
+    public long nextAfter(long after) {
+        FireTimes current = fireTimes;
+        if (current.covers(after)) {
+            return current.nextAfter(after);
+        }
+
+        // 只向后推进共享序列，较早的查询不覆盖，也不为其预计算
+        if (after < current.from) {
+            ZonedDateTime next = nextExecution(toZoned(after));
+            return next == null ? ScheduleCalculator.NO_TRIGGER : next.toInstant().toEpochMilli();
+        }
+
+        FireTimes computed = compute(after);
+        fireTimes = computed;
+        return computed.nextAfter(after);
+    }
+
+    private FireTimes compute(long from) {
+        long[] times = new long[PRECOMPUTE_SIZE];
+        int size = 0;
+        boolean finished = false;
+        ZonedDateTime cursor = toZoned(from);
+        while (size < PRECOMPUTE_SIZE) {
+            ZonedDateTime next = nextExecution(cursor);
+            if (next == null) {
+                finished = true;
+                break;
+            }
+            cursor = next;
+            times[size++] = cursor.toInstant().toEpochMilli();
+        }
+        return new FireTimes(from, size == PRECOMPUTE_SIZE ? times : Arrays.copyOf(times, size), finished);
+    }
+
+    private ZonedDateTime nextExecution(ZonedDateTime after) {
+        Optional<ZonedDateTime> next = executionTime.nextExecution(after);
+        return next.orElse(null);
+    }
+
+    private static ZonedDateTime toZoned(long timestamp) {
+        return ZonedDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
+    }
+
+    /**
+     * 从 from 之后连续的触发时间
+     */
+    private static class FireTimes {
+
+        static final FireTimes EMPTY = new FireTimes(Long.MIN_VALUE, new long[0], false);
+
+        /**
+         * 计算起点，times[0] 是 from 之后的第一个触发时间
+         */
+        final long from;
+
+        final long[] times;
+
+        /**
+         * times 之后是否已经没有触发时间
+         */
+        final boolean finished;
+
+        FireTimes(long from, long[] times, boolean finished) {
+            this.from = from;
+            this.times = times;
+            this.finished = finished;
+        }
+
+        boolean covers(long after) {
+            if (after < from) {
+                return false;
+            }
+            return finished || (times.length > 0 && after < times[times.length - 1]);
+        }
+
+        long nextAfter(long after) {
+            int idx = Arrays.binarySearch(times, after);
+            // 命中则取下一个，未命中 binarySearch 返回 -(插入点) - 1
+            idx = idx >= 0 ? idx + 1 : -idx - 1;
+            return idx < times.length ? times[idx] : ScheduleCalculator.NO_TRIGGER;
+        }
+    }
+
+}
@@ -17,19 +17,12 @@
 package org.limbo.flowjob.broker.core.schedule.calculator;
 
 import com.cronutils.model.Cron;
-import com.cronutils.model.CronType;
-import com.cronutils.model.definition.CronDefinition;
-import com.cronutils.model.definition.CronDefinitionBuilder;
-import com.cronutils.model.time.ExecutionTime;
-import com.cronutils.parser.CronParser;
 import lombok.extern.slf4j.Slf4j;
 import org.limbo.flowjob.api.constants.ScheduleType;
 import org.limbo.flowjob.broker.core.schedule.Calculated;
 import org.limbo.flowjob.broker.core.schedule.ScheduleCalculator;
 import org.limbo.flowjob.broker.core.schedule.ScheduleOption;
-
-import java.time.ZonedDateTime;
-import java.util.Optional;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
 
 /**
  * CRON调度时间计算器
@@ -46,6 +39,7 @@ public class CronScheduleCalculator extends ScheduleCalculator {
 
     /**
      * 通过此策略计算下一次触发调度的时间戳。如果不应该被触发，返回0或负数。
+     * 以上次触发时间为基准计算，时间轮延迟执行也不会导致调度时间漂移；如果已经错过了下次触发时间，则从当前时间开始计算。
      * @param calculated 待调度对象
      * @return 下次触发调度的时间戳，当返回非正数时，表示作业不会有触发时间。
      */
@@ -56,15 +50,20 @@ public class CronScheduleCalculator extends ScheduleCalculator {
         String cron = scheduleOption.getScheduleCron();
         String cronType = scheduleOption.getScheduleCronType();
         try {
-            ExecutionTime executionTime = ExecutionTime.forCron(getCron(cron, cronType));
+            CompiledCron compiledCron = CompiledCron.of(cron, cronType);
 
             // 解析下次触发时间
-            Optional<ZonedDateTime> nextSchedule = executionTime.nextExecution(ZonedDateTime.now());
-            if (!nextSchedule.isPresent()) {
+            long now = TimeUtils.currentInstant().toEpochMilli();
+            Long lastTriggerAt = TimeUtils.toTimestamp(calculated.lastTriggerAt());
+            long nextSchedule = compiledCron.nextAfter(lastTriggerAt == null ? now : lastTriggerAt);
+            if (nextSchedule > ScheduleCalculator.NO_TRIGGER && nextSchedule < now) {
+                nextSchedule = compiledCron.nextAfter(now);
+            }
+            if (nextSchedule <= ScheduleCalculator.NO_TRIGGER) {
                 log.error("cron expression {} {} next schedule is null", cron, cronType);
                 return ScheduleCalculator.NO_TRIGGER;
             }
-            return nextSchedule.get().toInstant().toEpochMilli();
+            return nextSchedule;
         } catch (Exception e) {
             log.error("parse cron expression {} {} failed!", cron, cronType, e);
             return ScheduleCalculator.NO_TRIGGER;
@@ -73,9 +72,7 @@ public class CronScheduleCalculator extends ScheduleCalculator {
 
     public static Cron getCron(String cron, String cronType) {
         // 校验CRON表达式
-        CronDefinition cronDefinition = CronDefinitionBuilder.instanceDefinitionFor(CronType.valueOf(cronType));
-        CronParser parser = new CronParser(cronDefinition);
-        return parser.parse(cron);
+        return CompiledCron.of(cron, cronType).getCron();
     }
 
 }
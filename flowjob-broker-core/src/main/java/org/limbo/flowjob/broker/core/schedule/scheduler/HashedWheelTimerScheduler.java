@@ -18,20 +18,23 @@
 
 package org.limbo.flowjob.broker.core.schedule.scheduler;
 
-import io.netty.util.HashedWheelTimer;
 import io.netty.util.Timeout;
 import io.netty.util.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.limbo.flowjob.broker.core.schedule.Scheduled;
 import org.limbo.flowjob.common.thread.NamedThreadFactory;
+import org.limbo.flowjob.common.thread.OrderedLaneExecutor;
 import org.limbo.flowjob.common.utils.time.TimeUtils;
 
 import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
  * 基于Netty时间轮算法的作业执行器。一个作业申请执行后，会计算下次执行的间隔，并注册到时间轮上。
  * 当时间轮触发作业执行时，将进入作业下发流程，并将生成的实例分发给下游。
+ * 时间轮为分层结构，远期任务先放在分钟/小时级的桶中，临近时才进入秒级时间轮，见 {@link HierarchicalWheelTimer}。
  *
  * @author Brozen
  * @since 2021-05-18
@@ -40,15 +43,49 @@ import java.util.concurrent.TimeUnit;
 public abstract class HashedWheelTimerScheduler<T extends Scheduled> implements Scheduler<T> {
 
     /**
-     * 依赖netty的时间轮算法进行作业调度
+     * 依赖分层时间轮算法进行作业调度
      */
     private final Timer timer;
 
     /**
-     * 使用指定执行器构造一个调度器，该调度器基于哈希时间轮算法。
+     * 默认每个执行通道的队列大小
+     */
+    public static final int DEFAULT_LANE_QUEUE_SIZE = 4096;
+
+    /**
+     * 停止时等待执行通道中任务完成的时间
+     */
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+
+    /**
+     * 执行通道的溢出队列已满时，重新放入时间轮等待的时间，毫秒
+     */
+    private static final long REJECT_RETRY_MILLIS = 1000;
+
+    /**
+     * 任务执行通道，时间轮线程只负责将到期任务按 scheduleId 分发到通道，不执行任务本身，
+     * 避免执行耗时影响时间轮的精度。通道队列满时任务进入通道的溢出队列，不阻塞时间轮线程，同一任务仍按触发顺序执行；
+     * 溢出队列也满时任务被拒绝，延迟后重新放入时间轮
+     */
+    private final OrderedLaneExecutor executor;
+
+    /**
+     * 构造一个基于哈希时间轮算法的调度器，执行通道数量为处理器数量，队列大小为 {@link #DEFAULT_LANE_QUEUE_SIZE}
      */
     protected HashedWheelTimerScheduler(long tickDuration, TimeUnit unit) {
-        this.timer = new HashedWheelTimer(NamedThreadFactory.newInstance(this.getClass().getSimpleName()), tickDuration, unit);
+        this(tickDuration, unit, Runtime.getRuntime().availableProcessors(), DEFAULT_LANE_QUEUE_SIZE);
+    }
+
+    /**
+     * 构造一个基于哈希时间轮算法的调度器
+     *
+     * @param laneCount     执行通道数量
+     * @param laneQueueSize 每个执行通道的队列大小
+     */
+    protected HashedWheelTimerScheduler(long tickDuration, TimeUnit unit, int laneCount, int laneQueueSize) {
+        String name = this.getClass().getSimpleName();
+        this.timer = new HierarchicalWheelTimer(NamedThreadFactory.newInstance(name), tickDuration, unit);
+        this.executor = new OrderedLaneExecutor(name + "-Lane", laneCount, laneQueueSize);
     }
 
     protected void calAndSchedule(T scheduled) {
@@ -56,22 +93,63 @@ public abstract class HashedWheelTimerScheduler<T extends Scheduled> implements
         long delay = Duration.between(TimeUtils.currentLocalDateTime(), scheduled.scheduleAt()).toMillis();
         delay = delay < 0 ? 0 : delay;
 
-        // 在timer上调度作业执行
-        this.timer.newTimeout(timeout -> {
-            Throwable thrown = null;
-            try {
-                // 已经取消调度了，则不再重新调度作业
-                if (scheduled.stopped()) {
-                    return;
+        // 在timer上调度作业执行，到期后交给执行通道
+        this.timer.newTimeout(timeout -> dispatch(scheduled), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 在时间轮线程中将到期任务交给执行通道。通道已满时不阻塞时间轮线程，也不丢弃任务，
+     * 等待 {@link #REJECT_RETRY_MILLIS} 后重新交给执行通道
+     */
+    private void dispatch(T scheduled) {
+        try {
+            executor.execute(scheduled.scheduleId(), () -> {
+                Throwable thrown = null;
+                try {
+                    // 已经取消调度了，则不再重新调度作业
+                    if (scheduled.stopped()) {
+                        return;
+                    }
+                    scheduled.execute();
+                } catch (Exception e) {
+                    log.error("[HashedWheelTimerScheduler] schedule fail id:{}", scheduled.scheduleId(), e);
+                    thrown = e;
+                } finally {
+                    afterExecute(scheduled, thrown);
                 }
-                scheduled.execute();
-            } catch (Exception e) {
-                log.error("[HashedWheelTimerScheduler] schedule fail id:{}", scheduled.scheduleId(), e);
-                thrown = e;
-            } finally {
-                afterExecute(scheduled, thrown);
+            });
+        } catch (RejectedExecutionException e) {
+            // 已停止调度
+            if (executor.isShutdown()) {
+                return;
+            }
+            log.warn("[HashedWheelTimerScheduler] lane is full, retry after {}ms id:{} rejected:{}",
+                    REJECT_RETRY_MILLIS, scheduled.scheduleId(), executor.rejectedCount());
+            timer.newTimeout(timeout -> dispatch(scheduled), REJECT_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return 执行通道，可用于获取排队、溢出、拒绝等统计信息
+     */
+    public OrderedLaneExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * 停止调度。先停止时间轮，不再触发新的任务，再等待执行通道中已触发的任务执行完成
+     */
+    public void stop() {
+        Set<Timeout> unprocessed = timer.stop();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("[HashedWheelTimerScheduler] lanes not terminated in {}s, queued={}", STOP_TIMEOUT_SECONDS, executor.queuedCount());
             }
-        }, delay, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("[HashedWheelTimerScheduler] stopped, unprocessed timeouts={}", unprocessed.size());
     }
 
     protected abstract void afterExecute(T scheduled, Throwable thrown);
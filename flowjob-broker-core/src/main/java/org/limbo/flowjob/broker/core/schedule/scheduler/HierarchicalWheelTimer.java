@@ -0,0 +1,250 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.schedule.scheduler;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 分层时间轮：秒级 -> 分钟级 -> 小时级。
+ * 秒级使用 netty 的 {@link HashedWheelTimer}，只存放一分钟内到期的任务；
+ * 更远的任务按到期时间落入分钟桶或小时桶，桶开始时再整体降级到下一层，
+ * 避免大量远期任务在秒级时间轮中每一圈都被遍历。
+ *
+ * @author Brozen
+ * @since 2024-02-01
+ */
+@Slf4j
+public class HierarchicalWheelTimer implements Timer {
+
+    /**
+     * 分钟级桶跨度
+     */
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * 小时级桶跨度
+     */
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * 降级检测间隔
+     */
+    private static final long CASCADE_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * 秒级时间轮
+     */
+    private final HashedWheelTimer secondWheel;
+
+    /**
+     * 分钟桶 key 为到期时间 / MINUTE
+     */
+    private final TreeMap<Long, Queue<TieredTimeout>> minuteBuckets = new TreeMap<>();
+
+    /**
+     * 小时桶 key 为到期时间 / HOUR
+     */
+    private final TreeMap<Long, Queue<TieredTimeout>> hourBuckets = new TreeMap<>();
+
+    /**
+     * 计算到期时间和分层使用的时钟，秒级时间轮内部仍使用系统时间
+     */
+    private final LongSupplier clock;
+
+    private volatile boolean stopped = false;
+
+    public HierarchicalWheelTimer(ThreadFactory threadFactory, long tickDuration, TimeUnit unit) {
+        this(threadFactory, tickDuration, unit, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock 毫秒时钟，可以替换为可控的时钟以验证分钟、小时级的降级
+     */
+    public HierarchicalWheelTimer(ThreadFactory threadFactory, long tickDuration, TimeUnit unit, LongSupplier clock) {
+        this.clock = clock;
+        this.secondWheel = new HashedWheelTimer(threadFactory, tickDuration, unit);
+        this.secondWheel.newTimeout(this::cascade, CASCADE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new IllegalStateException("cannot be started once stopped");
+        }
+        long deadline = clock.getAsLong() + Math.max(unit.toMillis(delay), 0);
+        TieredTimeout timeout = new TieredTimeout(task, deadline);
+        place(timeout, true);
+        return timeout;
+    }
+
+    /**
+     * 按到期时间放入对应层级
+     *
+     * @param allowHour 是否允许放入小时桶，从小时桶降级时不允许，防止循环
+     */
+    private void place(TieredTimeout timeout, boolean allowHour) {
+        long delay = timeout.deadline - clock.getAsLong();
+        if (delay < MINUTE) {
+            timeout.arm(delay);
+            return;
+        }
+
+        synchronized (this) {
+            if (delay < HOUR || !allowHour) {
+                minuteBuckets.computeIfAbsent(timeout.deadline / MINUTE, k -> new ArrayDeque<>()).add(timeout);
+            } else {
+                hourBuckets.computeIfAbsent(timeout.deadline / HOUR, k -> new ArrayDeque<>()).add(timeout);
+            }
+        }
+    }
+
+    /**
+     * 将已开始（或即将开始）的桶降级到下一层，先处理小时桶再处理分钟桶
+     */
+    private void cascade(Timeout cascadeTimeout) {
+        try {
+            long horizon = clock.getAsLong() + CASCADE_INTERVAL * 2;
+            for (TieredTimeout timeout : pollStarted(hourBuckets, HOUR, horizon)) {
+                place(timeout, false);
+            }
+            for (TieredTimeout timeout : pollStarted(minuteBuckets, MINUTE, horizon)) {
+                timeout.arm(timeout.deadline - clock.getAsLong());
+            }
+        } catch (Exception e) {
+            log.error("[HierarchicalWheelTimer] cascade fail", e);
+        } finally {
+            if (!stopped) {
+                secondWheel.newTimeout(this::cascade, CASCADE_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private synchronized Queue<TieredTimeout> pollStarted(TreeMap<Long, Queue<TieredTimeout>> buckets, long span, long horizon) {
+        Queue<TieredTimeout> polled = new ArrayDeque<>();
+        while (!buckets.isEmpty() && buckets.firstKey() * span <= horizon) {
+            for (TieredTimeout timeout : buckets.pollFirstEntry().getValue()) {
+                if (!timeout.isCancelled()) {
+                    polled.add(timeout);
+                }
+            }
+        }
+        return polled;
+    }
+
+    @Override
+    public Set<Timeout> stop() {
+        stopped = true;
+        Set<Timeout> unprocessed = new HashSet<>();
+        synchronized (this) {
+            for (Map.Entry<Long, Queue<TieredTimeout>> entry : hourBuckets.entrySet()) {
+                unprocessed.addAll(entry.getValue());
+            }
+            for (Map.Entry<Long, Queue<TieredTimeout>> entry : minuteBuckets.entrySet()) {
+                unprocessed.addAll(entry.getValue());
+            }
+            hourBuckets.clear();
+            minuteBuckets.clear();
+        }
+        unprocessed.addAll(secondWheel.stop());
+        return unprocessed;
+    }
+
+    /**
+     * 对外暴露的 Timeout，落入秒级时间轮前只记录到期时间
+     */
+    private class TieredTimeout implements Timeout {
+
+        private final TimerTask task;
+
+        private final long deadline;
+
+        /**
+         * 秒级时间轮上的 Timeout，降级到秒级后才会赋值
+         */
+        private volatile Timeout delegate;
+
+        private volatile boolean cancelled = false;
+
+        TieredTimeout(TimerTask task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        void arm(long delay) {
+            if (cancelled) {
+                return;
+            }
+            Timeout t = secondWheel.newTimeout(timeout -> task.run(this), Math.max(delay, 0), TimeUnit.MILLISECONDS);
+            delegate = t;
+            // cancel 可能在上面的判断之后、delegate 赋值之前执行，此时它读不到 delegate，这里补偿取消
+            if (cancelled) {
+                t.cancel();
+            }
+        }
+
+        @Override
+        public Timer timer() {
+            return HierarchicalWheelTimer.this;
+        }
+
+        @Override
+        public TimerTask task() {
+            return task;
+        }
+
+        @Override
+        public boolean isExpired() {
+            Timeout t = delegate;
+            return t != null && t.isExpired();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (cancelled || isExpired()) {
+                return false;
+            }
+            cancelled = true;
+            Timeout t = delegate;
+            if (t != null) {
+                t.cancel();
+            }
+            return true;
+        }
+    }
+
+}
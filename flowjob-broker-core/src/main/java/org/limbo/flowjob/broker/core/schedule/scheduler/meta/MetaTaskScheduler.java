@@ -33,7 +33,11 @@ public class MetaTaskScheduler extends HashedWheelTimerScheduler<MetaTask> {
     private final Map<String, MetaTask> scheduling;
 
     public MetaTaskScheduler(long tickDuration, TimeUnit unit) {
-        super(tickDuration, unit);
+        this(tickDuration, unit, Runtime.getRuntime().availableProcessors(), DEFAULT_LANE_QUEUE_SIZE);
+    }
+
+    public MetaTaskScheduler(long tickDuration, TimeUnit unit, int laneCount, int laneQueueSize) {
+        super(tickDuration, unit, laneCount, laneQueueSize);
         this.scheduling = new ConcurrentHashMap<>();
     }
 
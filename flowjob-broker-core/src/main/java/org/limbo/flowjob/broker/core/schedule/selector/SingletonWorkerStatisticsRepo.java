@@ -18,38 +18,81 @@
 
 package org.limbo.flowjob.broker.core.schedule.selector;
 
-import lombok.AllArgsConstructor;
-import lombok.Setter;
 import org.limbo.flowjob.broker.core.worker.Worker;
-import org.limbo.flowjob.common.utils.concurrent.Lockable;
+import org.limbo.flowjob.common.constants.AgentConstant;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
 
 /**
- * 单机内存存储 Worker 统计数据
+ * 单机内存存储 Worker 统计数据。
+ * 每个 Worker 维护一个环形的时间桶数组，桶内用一个 long 同时记录桶的时间序号和下发次数，CAS 更新，
+ * 记录下发为 O(1)，查询为 O(Worker 数)，内存占用只和 Worker 数有关，与下发频率无关。
+ * 窗口边界按桶对齐，查询结果最多多统计一个桶的下发次数。
+ * 同时根据 agent 上报的任务完成情况统计任务耗时的 peak-EWMA。未完成任务数以各 agent 上报的为准，
+ * 加上本 broker 在各 agent 上报之后经该 agent 选中的次数；agent 未上报未完成任务数时按完成数扣减，不超过窗口内的下发次数。
  *
  * @author Brozen
  * @since 2022-12-21
  */
-public class SingletonWorkerStatisticsRepo extends Lockable<List<SingletonWorkerStatisticsRepo.WorkerDispatchRecord>> implements WorkerStatisticsRepository {
+public class SingletonWorkerStatisticsRepo implements WorkerStatisticsRepository {
 
     /**
-     * 最久统计多长时间的数据，默认 12H。
+     * 每个 Worker 的时间桶个数
      */
-    @Setter
-    private Duration maxStatisticDuration = Duration.ofHours(12);
+    private static final int BUCKETS = 64;
 
+    /**
+     * 桶中下发次数占用的位数，高位为桶的时间序号
+     */
+    private static final int COUNT_BITS = 24;
+
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    /**
+     * 每多少次下发清理一次长时间没有下发的 Worker
+     */
+    private static final int SWEEP_PERIOD = 1024;
+
+    /**
+     * 耗时 EWMA 的衰减时间常数
+     */
+    private static final double LATENCY_DECAY_MILLIS = 10000;
+
+    /**
+     * agent 上报的未完成任务数的有效期，agent 下线或心跳改发到其他 broker 后不再计入
+     */
+    private static final long REPORT_TTL_MILLIS = Duration.ofSeconds(AgentConstant.HEARTBEAT_TIMEOUT_SECOND).toMillis();
+
+    /**
+     * 单个桶的时长，最久统计 BUCKETS 个桶的数据，默认约 1H
+     */
+    private long bucketMillis = Duration.ofMinutes(1).toMillis();
 
-    public SingletonWorkerStatisticsRepo() {
-        super(new ArrayList<>());
+    /**
+     * 下发时不知道经哪个 agent 转发
+     */
+    private static final String UNKNOWN_AGENT = "";
+
+    private final Map<String, WorkerCounter> counters = new ConcurrentHashMap<>();
+
+    private final AtomicLong recordTimes = new AtomicLong();
+
+
+    /**
+     * 设置最久统计多长时间的数据，需要在记录下发前设置
+     */
+    public void setMaxStatisticDuration(Duration maxStatisticDuration) {
+        this.bucketMillis = Math.max(1000, (maxStatisticDuration.toMillis() + BUCKETS - 1) / BUCKETS);
     }
 
 
@@ -58,32 +101,76 @@ public class SingletonWorkerStatisticsRepo extends Lockable<List<SingletonWorker
      */
     @Override
     public void recordDispatched(Worker worker) {
-        runInWriteLock(records -> {
-            // 新增记录
-            records.add(new WorkerDispatchRecord(
-                    worker.getId(), Instant.now()
-            ));
-
-            // 同时检测头部 10 条记录是否过时，如过时需要移除
-            int maxDetectItems = 10;
-            Instant expiresLimit = Instant.now().plusSeconds(-maxStatisticDuration.getSeconds());
-            Iterator<WorkerDispatchRecord> iterator = records.iterator();
-            for (int i = 0; i < maxDetectItems; i++) {
-                if (!iterator.hasNext()) {
-                    break;
-                }
+        recordDispatched(null, worker);
+    }
 
-                WorkerDispatchRecord r = iterator.next();
-                if (r.dispatchAt.isBefore(expiresLimit)) {
-                    iterator.remove();
-                } else {
-                    break;
-                }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordDispatched(String agentId, Worker worker) {
+        long now = System.currentTimeMillis();
+        update(worker.getId(), counter -> counter.record(agentId, now));
+
+        if (recordTimes.incrementAndGet() % SWEEP_PERIOD == 0) {
+            long expiresLimit = now - bucketMillis * BUCKETS;
+            // 在 key 的锁内重新判断是否过期，避免删掉刚被更新的统计
+            for (String workerId : counters.keySet()) {
+                counters.computeIfPresent(workerId, (id, counter) -> counter.lastActiveAt() < expiresLimit ? null : counter);
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordCompleted(String workerId, int completed, long avgLatency, long maxLatency) {
+        if (completed <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        update(workerId, counter -> counter.complete(null, now, completed, avgLatency, maxLatency));
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordCompleted(String agentId, String workerId, int completed, long avgLatency, long maxLatency, Integer outstanding) {
+        long now = System.currentTimeMillis();
+        if (outstanding == null) {
+            if (completed > 0) {
+                update(workerId, counter -> counter.complete(agentId, now, completed, avgLatency, maxLatency));
+            }
+            return;
+        }
+        update(workerId, counter -> {
+            counter.report(agentId, now, outstanding);
+            if (completed > 0) {
+                counter.latency(now, avgLatency, maxLatency);
             }
         });
     }
 
 
+    /**
+     * 在 key 的锁内更新统计，和过期清理互斥，更新不会落到已被清理的统计上
+     */
+    private void update(String workerId, Consumer<WorkerCounter> action) {
+        counters.compute(workerId, (id, counter) -> {
+            if (counter == null) {
+                counter = new WorkerCounter();
+            }
+            action.accept(counter);
+            return counter;
+        });
+    }
+
+
     /**
      * {@inheritDoc}
      * @param workerIds Worker ID 集合
@@ -92,67 +179,168 @@ public class SingletonWorkerStatisticsRepo extends Lockable<List<SingletonWorker
      */
     @Override
     public List<WorkerLBStatistics> list(Set<String> workerIds, Instant limit) {
-        // 读取所有统计数据
-        Map<String, MutableWorkerLBStatistics> statistics = new HashMap<>();
-        runInReadLock(records -> {
-            for (int i = records.size() - 1; i >= 0; i--) {
-                WorkerDispatchRecord dispatchRecord = records.get(i);
-                if (workerIds.contains(dispatchRecord.workerId) && dispatchRecord.dispatchAt.isAfter(limit)) {
-                    MutableWorkerLBStatistics s = statistics.computeIfAbsent(
-                            dispatchRecord.workerId,
-                            MutableWorkerLBStatistics::new
-                    );
-                    s.statisticRecord(dispatchRecord);
-                }
-            }
+        long limitMillis = limit.toEpochMilli();
+        long now = System.currentTimeMillis();
+        long nowEpoch = now / bucketMillis;
+        long limitEpoch = limitMillis / bucketMillis;
 
-            for (String workerId : workerIds) {
-                statistics.computeIfAbsent(
-                        workerId,
-                        MutableWorkerLBStatistics::new
-                );
+        List<WorkerLBStatistics> statistics = new ArrayList<>(workerIds.size());
+        for (String workerId : workerIds) {
+            WorkerCounter counter = counters.get(workerId);
+            if (counter == null) {
+                statistics.add(new WorkerLBStatistics(workerId, null, 0, 0, 0));
+                continue;
             }
 
-        });
-
-        return statistics.values().stream()
-                .map(s -> new WorkerLBStatistics(s.workerId, s.lastDispatchTaskAt, s.dispatchTimes))
-                .collect(Collectors.toList());
+            long lastDispatchAt = counter.lastDispatchAt.get();
+            Instant lastDispatchTaskAt = lastDispatchAt > limitMillis ? Instant.ofEpochMilli(lastDispatchAt) : null;
+            int dispatchTimes = counter.count(limitEpoch, nowEpoch);
+            int outstanding = Math.min(counter.pending(), dispatchTimes) + counter.reported(now - REPORT_TTL_MILLIS);
+            statistics.add(new WorkerLBStatistics(workerId, lastDispatchTaskAt, dispatchTimes, outstanding, counter.latency));
+        }
+        return statistics;
     }
 
 
+    /**
+     * 单个 Worker 的下发统计
+     */
+    private class WorkerCounter {
+
+        /**
+         * 时间序号 << COUNT_BITS | 下发次数
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private final AtomicLong lastDispatchAt = new AtomicLong();
+
+        /**
+         * agentId -> 本 broker 经该 agent 选中、还未被该 agent 上报的未完成任务数覆盖的任务数。
+         * 不知道 agent 的下发记在 {@link #UNKNOWN_AGENT} 下，只按完成数扣减。
+         * 写入都在 update 的锁内，读取不加锁
+         */
+        private final Map<String, AtomicInteger> pendings = new ConcurrentHashMap<>();
+
+        /**
+         * agentId -> agent 上报的未完成任务数
+         */
+        private final Map<String, Report> reports = new ConcurrentHashMap<>();
+
+        private volatile long lastReportAt;
+
+        /**
+         * 任务耗时的 peak-EWMA，毫秒
+         */
+        private volatile double latency;
+
+        private long latencyAt;
+
+        void record(String agentId, long now) {
+            long epoch = now / bucketMillis;
+            int index = (int) (epoch % BUCKETS);
+            while (true) {
+                long value = buckets.get(index);
+                long next;
+                if (value >>> COUNT_BITS < epoch) {
+                    // 桶中是上一轮的数据，重新计数
+                    next = epoch << COUNT_BITS | 1;
+                } else {
+                    // 次数饱和后不再增加；时钟回拨时记到更新的桶中
+                    next = (value & COUNT_MASK) == COUNT_MASK ? value : value + 1;
+                }
+                if (next == value || buckets.compareAndSet(index, value, next)) {
+                    break;
+                }
+            }
+            lastDispatchAt.accumulateAndGet(now, Math::max);
+            pendings.computeIfAbsent(agentKey(agentId), k -> new AtomicInteger()).incrementAndGet();
+        }
 
-    public static class MutableWorkerLBStatistics {
-        private final String workerId;
-        private Instant lastDispatchTaskAt;
-        private int dispatchTimes;
+        void complete(String agentId, long now, int completed, long avgLatency, long maxLatency) {
+            // agent 没有经本 broker 选中的任务时，扣减不知道 agent 的下发
+            String key = pendings.containsKey(agentKey(agentId)) ? agentKey(agentId) : UNKNOWN_AGENT;
+            AtomicInteger pending = pendings.get(key);
+            if (pending != null && pending.addAndGet(-completed) <= 0) {
+                pendings.remove(key);
+            }
+            latency(now, avgLatency, maxLatency);
+        }
 
-        MutableWorkerLBStatistics(String workerId) {
-            this.workerId = workerId;
+        void report(String agentId, long now, int count) {
+            reports.put(agentId, new Report(count, now));
+            lastReportAt = now;
+            // 之前经该 agent 选中的任务已经计入上报的数量，其他 agent 的不受影响
+            pendings.remove(agentKey(agentId));
         }
 
-        void statisticRecord(WorkerDispatchRecord dispatchRecord) {
-            if (this.lastDispatchTaskAt == null || this.lastDispatchTaskAt.isBefore(dispatchRecord.dispatchAt)) {
-                this.lastDispatchTaskAt = dispatchRecord.dispatchAt;
+        int pending() {
+            int count = 0;
+            for (AtomicInteger pending : pendings.values()) {
+                count += Math.max(0, pending.get());
             }
+            return count;
+        }
 
-            this.dispatchTimes++;
+        private String agentKey(String agentId) {
+            return agentId == null ? UNKNOWN_AGENT : agentId;
         }
 
-    }
+        long lastActiveAt() {
+            return Math.max(lastDispatchAt.get(), lastReportAt);
+        }
+
+        int reported(long expiresLimit) {
+            int count = 0;
+            for (Map.Entry<String, Report> entry : reports.entrySet()) {
+                Report report = entry.getValue();
+                if (report.reportedAt < expiresLimit) {
+                    reports.remove(entry.getKey(), report);
+                } else {
+                    count += report.count;
+                }
+            }
+            return count;
+        }
 
+        void latency(long now, long avgLatency, long maxLatency) {
+            synchronized (this) {
+                if (maxLatency > latency) {
+                    // 耗时变大立即生效
+                    latency = maxLatency;
+                } else {
+                    double weight = Math.exp(-Math.max(now - latencyAt, 0) / LATENCY_DECAY_MILLIS);
+                    latency = latency * weight + avgLatency * (1 - weight);
+                }
+                latencyAt = now;
+            }
+        }
 
+        int count(long fromEpoch, long toEpoch) {
+            int count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                long value = buckets.get(i);
+                long epoch = value >>> COUNT_BITS;
+                if (epoch >= fromEpoch && epoch <= toEpoch) {
+                    count += (int) (value & COUNT_MASK);
+                }
+            }
+            return count;
+        }
+    }
 
-    @AllArgsConstructor
-    public static class WorkerDispatchRecord {
+    /**
+     * agent 上报的未完成任务数
+     */
+    private static class Report {
 
-        public final String workerId;
+        final int count;
 
-        /**
-         * 下发时间点
-         */
-        public final Instant dispatchAt;
+        final long reportedAt;
 
+        Report(int count, long reportedAt) {
+            this.count = count;
+            this.reportedAt = reportedAt;
+        }
     }
 
 }
@@ -49,6 +49,16 @@ public class WorkerLBStatistics implements LBServerStatistics {
      */
     private final int dispatchTimes;
 
+    /**
+     * 已下发还未完成的任务数
+     */
+    private final int outstanding;
+
+    /**
+     * 任务耗时的 peak-EWMA，毫秒
+     */
+    private final double latency;
+
 
     /**
      * {@inheritDoc}
@@ -79,4 +89,24 @@ public class WorkerLBStatistics implements LBServerStatistics {
         return dispatchTimes;
     }
 
+
+    /**
+     * {@inheritDoc}
+     * @return
+     */
+    @Override
+    public int getOutstanding() {
+        return outstanding;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * @return
+     */
+    @Override
+    public double getLatency() {
+        return latency;
+    }
+
 }
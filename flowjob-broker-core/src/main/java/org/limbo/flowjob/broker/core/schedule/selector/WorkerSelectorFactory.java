@@ -26,6 +26,7 @@ import org.limbo.flowjob.common.lb.strategies.AppointLBStrategy;
 import org.limbo.flowjob.common.lb.strategies.ConsistentHashLBStrategy;
 import org.limbo.flowjob.common.lb.strategies.LFULBStrategy;
 import org.limbo.flowjob.common.lb.strategies.LRULBStrategy;
+import org.limbo.flowjob.common.lb.strategies.PeakEwmaLBStrategy;
 import org.limbo.flowjob.common.lb.strategies.RandomLBStrategy;
 import org.limbo.flowjob.common.lb.strategies.RoundRobinLBStrategy;
 
@@ -43,8 +44,8 @@ import java.util.function.Supplier;
 public class WorkerSelectorFactory {
 
     /**
-     * 用于获取 LB 服务的统计信息，LRU、LFU 算法会用到。
-     * 如果确认不使用 LRU、LFU 算法，可以不设置此属性
+     * 用于获取 LB 服务的统计信息，LRU、LFU、最小负载 算法会用到。
+     * 如果确认不使用这些算法，可以不设置此属性
      */
     @Setter
     private LBServerStatisticsProvider lbServerStatisticsProvider = LBServerStatisticsProvider.EMPTY_PROVIDER;
@@ -58,6 +59,7 @@ public class WorkerSelectorFactory {
         selectors.put(LoadBalanceType.LEAST_RECENTLY_USED, () -> new LBStrategyWorkerSelector(new LRULBStrategy<>(this.lbServerStatisticsProvider)));
         selectors.put(LoadBalanceType.APPOINT, () -> new LBStrategyWorkerSelector(new AppointLBStrategy<>()));
         selectors.put(LoadBalanceType.CONSISTENT_HASH, () -> new LBStrategyWorkerSelector(new ConsistentHashLBStrategy<>()));
+        selectors.put(LoadBalanceType.LEAST_LOADED, () -> new LBStrategyWorkerSelector(new PeakEwmaLBStrategy<>(this.lbServerStatisticsProvider)));
     }
 
     /**
@@ -43,6 +43,45 @@ public interface WorkerStatisticsRepository extends LBServerStatisticsProvider {
     void recordDispatched(Worker worker);
 
 
+    /**
+     * 记录任务被下发，任务由 agent 转发给 worker，agent 上报未完成任务数时只抵消该 agent 的下发
+     *
+     * @param agentId 转发任务的 agent
+     * @param worker  接收任务的 worker
+     */
+    default void recordDispatched(String agentId, Worker worker) {
+        recordDispatched(worker);
+    }
+
+
+    /**
+     * 记录任务完成，用于统计未完成任务数和任务耗时
+     *
+     * @param workerId   执行任务的 worker
+     * @param completed  完成的任务数
+     * @param avgLatency 平均耗时，毫秒
+     * @param maxLatency 最大耗时，毫秒
+     */
+    default void recordCompleted(String workerId, int completed, long avgLatency, long maxLatency) {
+    }
+
+
+    /**
+     * 记录 agent 上报的任务完成情况和未完成任务数。
+     * 未完成任务数由 agent 统计，下发和反馈即使经过不同的 broker 也不会累积误差
+     *
+     * @param agentId     上报的 agent
+     * @param workerId    执行任务的 worker
+     * @param completed   完成的任务数
+     * @param avgLatency  平均耗时，毫秒
+     * @param maxLatency  最大耗时，毫秒
+     * @param outstanding 该 agent 下发给 worker 还未完成的任务数，为空表示 agent 未统计
+     */
+    default void recordCompleted(String agentId, String workerId, int completed, long avgLatency, long maxLatency, Integer outstanding) {
+        recordCompleted(workerId, completed, avgLatency, maxLatency);
+    }
+
+
     /**
      * {@inheritDoc}
      * @param serverIds 服务 ID 结合
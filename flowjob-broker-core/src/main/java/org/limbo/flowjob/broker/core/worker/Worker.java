@@ -130,6 +130,14 @@ public class Worker implements LBServer {
      */
     public void heartbeat(WorkerMetric metric) {
         this.metric = metric;
+        this.status = WorkerStatus.RUNNING;
+    }
+
+    /**
+     * 由 {@link WorkerRegistry} 根据心跳超时更新状态
+     */
+    void setStatus(WorkerStatus status) {
+        this.status = status;
     }
 
 
@@ -19,7 +19,6 @@
 package org.limbo.flowjob.broker.core.worker;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.collections4.CollectionUtils;
 import org.limbo.flowjob.broker.core.meta.info.JobInfo;
 import org.limbo.flowjob.broker.core.meta.job.JobInstance;
 import org.limbo.flowjob.broker.core.schedule.selector.WorkerSelectInvocation;
@@ -27,11 +26,11 @@ import org.limbo.flowjob.broker.core.schedule.selector.WorkerSelector;
 import org.limbo.flowjob.broker.core.schedule.selector.WorkerSelectorFactory;
 import org.limbo.flowjob.broker.core.schedule.selector.WorkerStatisticsRepository;
 import org.limbo.flowjob.broker.core.worker.dispatch.DispatchOption;
+import org.limbo.flowjob.broker.core.worker.dispatch.WorkerCatalog;
 import org.limbo.flowjob.broker.core.worker.dispatch.WorkerFilter;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * @author Devil
@@ -57,11 +56,8 @@ public class WorkerDomainService {
     public List<Worker> filterJobWorkers(JobInstance jobInstance, boolean filterExecutor, boolean filterTag, boolean filterResource, boolean lbSelect) {
         JobInfo jobInfo = jobInstance.getJobInfo();
 
-        List<Worker> workers = workerRegistry.all().stream()
-                .filter(Worker::isEnabled)
-                .collect(Collectors.toList());
-
-        if (CollectionUtils.isEmpty(workers)) {
+        WorkerCatalog catalog = workerRegistry.catalog();
+        if (catalog.size() == 0) {
             return Collections.emptyList();
         }
 
@@ -72,7 +68,7 @@ public class WorkerDomainService {
         }
 
         // 过滤
-        WorkerFilter workerFilter = new WorkerFilter(jobInfo.getExecutorName(), dispatchOption.getTagFilters(), workers);
+        WorkerFilter workerFilter = new WorkerFilter(jobInfo.getExecutorName(), dispatchOption.getTagFilters(), catalog);
         if (filterExecutor) {
             workerFilter.filterExecutor();
         }
@@ -90,14 +86,15 @@ public class WorkerDomainService {
             if (select == null) {
                 return Collections.emptyList();
             } else {
-                workerStatisticsRepository.recordDispatched(select);
+                workerStatisticsRepository.recordDispatched(jobInstance.getAgentId(), select);
                 return Collections.singletonList(select);
             }
         } else {
-            for (Worker worker : workerFilter.get()) {
-                workerStatisticsRepository.recordDispatched(worker);
+            List<Worker> workers = workerFilter.get();
+            for (Worker worker : workers) {
+                workerStatisticsRepository.recordDispatched(jobInstance.getAgentId(), worker);
             }
-            return workerFilter.get();
+            return workers;
         }
     }
 }
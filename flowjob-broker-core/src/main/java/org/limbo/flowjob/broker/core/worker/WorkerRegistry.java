@@ -20,7 +20,11 @@ package org.limbo.flowjob.broker.core.worker;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.collections4.ListUtils;
 import org.limbo.flowjob.api.constants.WorkerStatus;
+import org.limbo.flowjob.api.param.broker.WorkerResourceParam;
+import org.limbo.flowjob.broker.core.worker.dispatch.WorkerCatalog;
+import org.limbo.flowjob.broker.core.worker.metric.WorkerAvailableResource;
 import org.limbo.flowjob.broker.core.worker.metric.WorkerMetric;
 import org.limbo.flowjob.common.constants.WorkerConstant;
 import org.limbo.flowjob.common.utils.time.Formatters;
@@ -30,6 +34,8 @@ import org.limbo.flowjob.common.utils.time.TimeUtils;
 import java.net.URL;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -38,35 +44,191 @@ import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * worker 心跳先更新内存，指标定时批量落库；存活状态变化（RUNNING -> FUSING -> TERMINATED）根据内存中的心跳时间判断。
+ * 向其他 broker 发送心跳的 worker 通过定时扫描数据库同步到内存。
+ *
  * @author Devil
  * @since 2023/11/21
  */
 @Slf4j
 public class WorkerRegistry {
 
-    private static final Map<String, Worker> RUNNING_WORKER_MAP = new ConcurrentHashMap<>();
+    /**
+     * 指标落库间隔，毫秒，需要小于心跳超时时间，其他 broker 才能及时感知
+     */
+    private static final long FLUSH_INTERVAL = 1000;
+
+    /**
+     * 其他 broker 的心跳落库最多延迟的时间，扫描数据库和判断超时时需要留出余量
+     */
+    private static final long FLUSH_DELAY = FLUSH_INTERVAL * 2;
+
+    /**
+     * 未知的资源版本，客户端上报的版本从 1 开始
+     */
+    private static final long UNKNOWN_VERSION = 0L;
+
+    /**
+     * 每批落库的 worker 数量
+     */
+    private static final int FLUSH_BATCH_SIZE = 200;
 
     /**
      * 心跳超时时间，毫秒
      */
     private final Duration heartbeatTimeout = Duration.ofSeconds(WorkerConstant.HEARTBEAT_TIMEOUT_SECOND);
 
+    /**
+     * 心跳时间来自数据库的 worker 判断超时前额外等待的时间。库中的心跳时间在同步时最多已经过了一个心跳间隔加落库延迟，
+     * 同步间隔内不会再更新，因此需要留出 同步间隔 + 心跳间隔 + 落库延迟，心跳间隔与超时时间相同
+     */
+    private final Duration remoteDelay = heartbeatTimeout.multipliedBy(2).plusMillis(FLUSH_DELAY);
+
     private final WorkerRepository workerRepository;
 
+    private final Map<String, Worker> runningWorkers = new ConcurrentHashMap<>();
+
+    /**
+     * 心跳超时熔断中的 worker，再超时一个周期后终止
+     */
+    private final Map<String, Worker> fusingWorkers = new ConcurrentHashMap<>();
+
+    /**
+     * runningWorkers 中 worker 的索引，用于下发时过滤
+     */
+    private final WorkerCatalog catalog = new WorkerCatalog();
+
+    /**
+     * 最近一次心跳由本 broker 接收的 worker 及本 broker 持有的资源版本，其余 worker 的心跳时间来自数据库，存在落库延迟
+     */
+    private final Map<String, Long> localWorkers = new ConcurrentHashMap<>();
+
+    /**
+     * 等待指标落库的 worker，多次心跳只保留最新的
+     */
+    private final Map<String, Worker> dirtyWorkers = new ConcurrentHashMap<>();
+
+    /**
+     * 通过心跳恢复的 worker 及恢复前的状态，落库时更新为 RUNNING
+     */
+    private final Map<String, WorkerStatus> recoveredWorkers = new ConcurrentHashMap<>();
+
     public WorkerRegistry(WorkerRepository workerRepository) {
         this.workerRepository = workerRepository;
     }
 
     public void init() {
         new Timer().schedule(new WorkerOnlineCheckTask(), 0, heartbeatTimeout.toMillis());
-        new Timer().schedule(new WorkerFusingCheckTask(), 0, heartbeatTimeout.toMillis());
-        new Timer().schedule(new WorkerTerminatedCheckTask(), 0, heartbeatTimeout.toMillis());
+        new Timer().schedule(new WorkerLivenessCheckTask(), 0, FLUSH_INTERVAL);
+        new Timer().schedule(new WorkerMetricFlushTask(), FLUSH_INTERVAL, FLUSH_INTERVAL);
     }
 
     public Collection<Worker> all() {
-        return RUNNING_WORKER_MAP.values();
+        return runningWorkers.values();
+    }
+
+    /**
+     * 存活 worker 的索引
+     */
+    public WorkerCatalog catalog() {
+        return catalog;
+    }
+
+    /**
+     * worker 注册后直接放入内存
+     */
+    public void online(Worker worker) {
+        fusingWorkers.remove(worker.getId());
+        localWorkers.put(worker.getId(), UNKNOWN_VERSION);
+        runningWorkers.put(worker.getId(), worker);
+        catalog.put(worker);
+    }
+
+    /**
+     * worker 心跳，只更新内存，指标由 {@link WorkerMetricFlushTask} 批量落库
+     *
+     * @param workerId workerId
+     * @param resource 心跳上报的资源，只包含变化的字段
+     * @return worker，不存在时返回 null
+     */
+    public Worker heartbeat(String workerId, WorkerResourceParam resource) {
+        return heartbeat(workerId, resource, null, null);
+    }
+
+    /**
+     * worker 心跳，只更新内存，指标由 {@link WorkerMetricFlushTask} 批量落库
+     *
+     * @param workerId        workerId
+     * @param resource        心跳上报的资源，只包含变化的字段
+     * @param resourceVersion 本次上报的资源版本
+     * @param baseVersion     增量基于的资源版本，为空表示全量上报
+     * @return worker，不存在时返回 null
+     */
+    public Worker heartbeat(String workerId, WorkerResourceParam resource, Long resourceVersion, Long baseVersion) {
+        Worker worker = runningWorkers.get(workerId);
+        if (worker == null) {
+            worker = fusingWorkers.remove(workerId);
+        }
+        if (worker == null) {
+            // 第一次收到心跳或已经终止，从数据库加载
+            worker = workerRepository.get(workerId);
+            if (worker == null) {
+                return null;
+            }
+        }
+
+        WorkerMetric previous = worker.getMetric();
+        WorkerMetric metric = WorkerMetric.builder()
+                .availableResource(WorkerAvailableResource.merge(previous == null ? null : previous.getAvailableResource(), resource))
+                .lastHeartbeatAt(TimeUtils.currentLocalDateTime())
+                .build();
+
+        WorkerStatus before = worker.getStatus();
+        worker.heartbeat(metric);
+        if (before != WorkerStatus.RUNNING) {
+            recoveredWorkers.putIfAbsent(workerId, before);
+        }
+        localWorkers.put(workerId, nextVersion(localWorkers.get(workerId), resourceVersion, baseVersion));
+        runningWorkers.put(workerId, worker);
+        catalog.put(worker);
+        dirtyWorkers.put(workerId, worker);
+        return worker;
+    }
+
+    private static boolean expired(Worker worker, LocalDateTime deadline) {
+        WorkerMetric metric = worker.getMetric();
+        return metric == null || metric.getLastHeartbeatAt() == null || metric.getLastHeartbeatAt().isBefore(deadline);
+    }
+
+    /**
+     * 增量上报基于的版本与本 broker 持有的版本不一致时，未上报的字段可能是旧值，记为未知版本
+     */
+    private static long nextVersion(Long held, Long resourceVersion, Long baseVersion) {
+        if (resourceVersion == null) {
+            return UNKNOWN_VERSION;
+        }
+        return baseVersion == null || baseVersion.equals(held) ? resourceVersion : UNKNOWN_VERSION;
+    }
+
+    /**
+     * 本 broker 是否持有 worker 上报的最新资源，否则需要 worker 全量上报
+     *
+     * @param resourceVersion 心跳上报的资源版本，为空时不校验
+     */
+    public boolean isResourceSynced(String id, Long resourceVersion) {
+        return resourceVersion == null || resourceVersion.equals(localWorkers.get(id));
     }
 
+    /**
+     * 心跳时间来自数据库的 worker 多等待 remoteDelay 再判断超时，避免两次同步之间被误熔断
+     */
+    private boolean expired(Worker worker, LocalDateTime deadline, LocalDateTime remoteDeadline) {
+        return expired(worker, localWorkers.containsKey(worker.getId()) ? deadline : remoteDeadline);
+    }
+
+    /**
+     * 同步在其他 broker 上心跳的 worker
+     */
     private class WorkerOnlineCheckTask extends TimerTask {
 
         private static final String TASK_NAME = "[WorkerOnlineCheckTask]";
@@ -76,7 +238,8 @@ public class WorkerRegistry {
         @Override
         public void run() {
             try {
-                LocalDateTime startTime = lastCheckTime;
+                // 心跳时间早于上次扫描、但在上次扫描之后才落库的 worker 也需要扫到
+                LocalDateTime startTime = lastCheckTime.minus(FLUSH_DELAY, ChronoUnit.MILLIS);
                 LocalDateTime endTime = TimeUtils.currentLocalDateTime();
                 if (log.isDebugEnabled()) {
                     log.info("{} checkOnline start:{} end:{}", TASK_NAME, LocalTimeUtils.format(startTime, Formatters.YMD_HMS), LocalTimeUtils.format(endTime, Formatters.YMD_HMS));
@@ -84,9 +247,17 @@ public class WorkerRegistry {
                 List<Worker> workers = workerRepository.findByLastHeartbeatAtBetween(startTime, endTime);
                 if (CollectionUtils.isNotEmpty(workers)) {
                     for (Worker worker : workers) {
+                        // 本节点收到的心跳比库中新，保留内存中的数据
+                        Worker local = runningWorkers.get(worker.getId());
+                        if (local != null && !expired(local, worker.getMetric().getLastHeartbeatAt())) {
+                            continue;
+                        }
                         URL url = worker.getUrl();
                         WorkerMetric metric = worker.getMetric();
-                        Worker n = RUNNING_WORKER_MAP.put(worker.getId(), worker);
+                        localWorkers.remove(worker.getId());
+                        fusingWorkers.remove(worker.getId());
+                        Worker n = runningWorkers.put(worker.getId(), worker);
+                        catalog.put(worker);
                         if (n == null && log.isDebugEnabled()) {
                             log.debug("{} find online id: {}, host: {}, port: {} lastHeartbeat:{}", TASK_NAME, worker.getId(), url.getHost(), url.getPort(), LocalTimeUtils.format(metric.getLastHeartbeatAt(), Formatters.YMD_HMS));
                         }
@@ -100,72 +271,81 @@ public class WorkerRegistry {
 
     }
 
-    private class WorkerFusingCheckTask extends TimerTask {
-
-        private static final String TASK_NAME = "[WorkerFusingCheckTask]";
+    /**
+     * 根据内存中的心跳时间熔断、终止 worker，只在状态变化时更新数据库。
+     * 数据库按心跳时间条件更新，worker 在其他 broker 上仍有心跳时不会被熔断。
+     */
+    private class WorkerLivenessCheckTask extends TimerTask {
 
-        LocalDateTime lastCheckTime = TimeUtils.currentLocalDateTime().plusSeconds(-2 * heartbeatTimeout.getSeconds());
+        private static final String TASK_NAME = "[WorkerLivenessCheckTask]";
 
         @Override
         public void run() {
             try {
-                LocalDateTime startTime = lastCheckTime;
-                LocalDateTime endTime = TimeUtils.currentLocalDateTime().plusSeconds(-heartbeatTimeout.getSeconds());
-                if (log.isDebugEnabled()) {
-                    log.debug("{} check start:{} end:{}", TASK_NAME, LocalTimeUtils.format(startTime, Formatters.YMD_HMS), LocalTimeUtils.format(endTime, Formatters.YMD_HMS));
-                }
-                List<Worker> workers = workerRepository.findByLastHeartbeatAtBetween(startTime, endTime);
-                if (CollectionUtils.isNotEmpty(workers)) {
-                    for (Worker worker : workers) {
-                        WorkerMetric metric = worker.getMetric();
+                LocalDateTime now = TimeUtils.currentLocalDateTime();
+                LocalDateTime fusingDeadline = now.minus(heartbeatTimeout);
+                LocalDateTime terminatedDeadline = now.minus(heartbeatTimeout.multipliedBy(2));
+                LocalDateTime remoteFusingDeadline = fusingDeadline.minus(remoteDelay);
+                LocalDateTime remoteTerminatedDeadline = terminatedDeadline.minus(remoteDelay);
+
+                for (Worker worker : runningWorkers.values()) {
+                    if (expired(worker, fusingDeadline, remoteFusingDeadline) && runningWorkers.remove(worker.getId(), worker)) {
+                        catalog.remove(worker);
                         if (log.isDebugEnabled()) {
-                            log.debug("{} find id: {} lastHeartbeat:{}", TASK_NAME, worker.getId(), LocalTimeUtils.format(metric.getLastHeartbeatAt(), Formatters.YMD_HMS));
+                            log.debug("{} fusing id: {}", TASK_NAME, worker.getId());
                         }
-                        RUNNING_WORKER_MAP.remove(worker.getId());
-                        // 更新状态
-                        if (WorkerStatus.RUNNING == worker.getStatus()) {
-                            workerRepository.updateStatus(worker.getId(), WorkerStatus.RUNNING.status, WorkerStatus.FUSING.status);
+                        worker.setStatus(WorkerStatus.FUSING);
+                        fusingWorkers.put(worker.getId(), worker);
+                        workerRepository.updateStatusIfExpired(worker.getId(), WorkerStatus.RUNNING.status, WorkerStatus.FUSING.status, fusingDeadline);
+                    }
+                }
+
+                for (Worker worker : fusingWorkers.values()) {
+                    if (expired(worker, terminatedDeadline, remoteTerminatedDeadline) && fusingWorkers.remove(worker.getId(), worker)) {
+                        localWorkers.remove(worker.getId());
+                        if (log.isDebugEnabled()) {
+                            log.debug("{} terminated id: {}", TASK_NAME, worker.getId());
                         }
+                        worker.setStatus(WorkerStatus.TERMINATED);
+                        workerRepository.updateStatusIfExpired(worker.getId(), WorkerStatus.FUSING.status, WorkerStatus.TERMINATED.status, terminatedDeadline);
                     }
                 }
-                lastCheckTime = endTime;
             } catch (Exception e) {
                 log.error("{} check fail", TASK_NAME, e);
             }
         }
     }
 
-    private class WorkerTerminatedCheckTask extends TimerTask {
-
-        private static final String TASK_NAME = "[WorkerTerminatedCheckTask]";
+    /**
+     * 批量落库心跳指标
+     */
+    private class WorkerMetricFlushTask extends TimerTask {
 
-        LocalDateTime lastCheckTime = TimeUtils.currentLocalDateTime().plusSeconds(-3 * heartbeatTimeout.getSeconds());
+        private static final String TASK_NAME = "[WorkerMetricFlushTask]";
 
         @Override
         public void run() {
             try {
-                LocalDateTime startTime = lastCheckTime;
-                LocalDateTime endTime = TimeUtils.currentLocalDateTime().plusSeconds(-2 * heartbeatTimeout.getSeconds());
-                if (log.isDebugEnabled()) {
-                    log.debug("{} check start:{} end:{}", TASK_NAME, LocalTimeUtils.format(startTime, Formatters.YMD_HMS), LocalTimeUtils.format(endTime, Formatters.YMD_HMS));
+                List<Worker> workers = new ArrayList<>(dirtyWorkers.size());
+                for (String workerId : dirtyWorkers.keySet()) {
+                    Worker worker = dirtyWorkers.remove(workerId);
+                    if (worker != null) {
+                        workers.add(worker);
+                    }
                 }
-                List<Worker> workers = workerRepository.findByLastHeartbeatAtBetween(startTime, endTime);
-                if (CollectionUtils.isNotEmpty(workers)) {
-                    for (Worker worker : workers) {
-                        WorkerMetric metric = worker.getMetric();
-                        if (log.isDebugEnabled()) {
-                            log.debug("{} find id: {} lastHeartbeat:{}", TASK_NAME, worker.getId(), LocalTimeUtils.format(metric.getLastHeartbeatAt(), Formatters.YMD_HMS));
-                        }
-                        RUNNING_WORKER_MAP.remove(worker.getId());
-                        // 更新状态
-                        if (WorkerStatus.FUSING == worker.getStatus()) {
-                            workerRepository.updateStatus(worker.getId(), WorkerStatus.FUSING.status, WorkerStatus.TERMINATED.status);
-                        }
+                for (List<Worker> batch : ListUtils.partition(workers, FLUSH_BATCH_SIZE)) {
+                    workerRepository.saveMetrics(batch);
+                }
+
+                for (String workerId : recoveredWorkers.keySet()) {
+                    WorkerStatus before = recoveredWorkers.remove(workerId);
+                    if (before != null) {
+                        workerRepository.updateStatus(workerId, before.status, WorkerStatus.RUNNING.status);
                     }
                 }
-                lastCheckTime = endTime;
             } catch (Exception e) {
-                log.error("{} check fail", TASK_NAME, e);
+                // 未落库的指标在下次心跳时重新写入
+                log.error("{} flush fail", TASK_NAME, e);
             }
         }
     }
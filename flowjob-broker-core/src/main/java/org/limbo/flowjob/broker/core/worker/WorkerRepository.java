@@ -18,6 +18,7 @@ package org.limbo.flowjob.broker.core.worker;
 
 import javax.annotation.Nullable;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -39,6 +40,13 @@ public interface WorkerRepository {
      */
     void saveMetric(Worker worker);
 
+    /**
+     * 批量更新worker指标数据
+     *
+     * @param workers worker节点
+     */
+    void saveMetrics(Collection<Worker> workers);
+
 
     /**
      * 根据id查询worker
@@ -66,4 +74,12 @@ public interface WorkerRepository {
 
     boolean updateStatus(String workerId, Integer oldStatus, Integer newStatus);
 
+    /**
+     * 心跳超时时更新状态，库中心跳时间不早于 deadline 时不更新，避免其他 broker 上仍在心跳的 worker 被熔断
+     *
+     * @param deadline 心跳时间早于此时间才更新
+     * @return 是否更新成功
+     */
+    boolean updateStatusIfExpired(String workerId, Integer oldStatus, Integer newStatus, LocalDateTime deadline);
+
 }
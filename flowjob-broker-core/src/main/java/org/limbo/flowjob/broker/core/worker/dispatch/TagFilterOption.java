@@ -17,6 +17,8 @@
  */
 package org.limbo.flowjob.broker.core.worker.dispatch;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -45,6 +47,13 @@ import java.util.regex.Pattern;
 @Getter
 public class TagFilterOption {
 
+    /**
+     * 编译后的正则，多个任务使用相同的表达式时共享
+     */
+    private static final Cache<String, Pattern> PATTERNS = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .build();
+
     /**
      * 标签名
      */
@@ -65,6 +74,7 @@ public class TagFilterOption {
      * 过滤 Worker，判断是否符合条件。
      */
     public Predicate<Worker> asPredicate() {
+        Pattern pattern = this.condition == TagFilterCondition.MUST_MATCH_VALUE_REGEX ? pattern() : null;
         return worker -> {
             Map<String, List<String>> tags = worker.getTags();
 
@@ -83,7 +93,6 @@ public class TagFilterOption {
                     return CollectionUtils.isNotEmpty(values) && !values.contains(this.tagValue);
 
                 case MUST_MATCH_VALUE_REGEX:
-                    Pattern pattern = Pattern.compile(this.tagValue);
                     return CollectionUtils.isNotEmpty(values) && values.stream().anyMatch(s -> pattern.matcher(s).find());
 
                 case MATCH_HOST_PORT:
@@ -95,4 +104,16 @@ public class TagFilterOption {
         };
     }
 
+    /**
+     * 标签值对应的正则，编译结果会被缓存
+     */
+    public Pattern pattern() {
+        Pattern pattern = PATTERNS.getIfPresent(this.tagValue);
+        if (pattern == null) {
+            pattern = Pattern.compile(this.tagValue);
+            PATTERNS.put(this.tagValue, pattern);
+        }
+        return pattern;
+    }
+
 }
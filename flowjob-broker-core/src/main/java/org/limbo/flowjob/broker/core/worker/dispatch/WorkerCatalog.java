@@ -0,0 +1,441 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.worker.dispatch;
+
+import org.apache.commons.collections4.CollectionUtils;
+import org.limbo.flowjob.broker.core.worker.Worker;
+import org.limbo.flowjob.broker.core.worker.executor.WorkerExecutor;
+import org.limbo.flowjob.broker.core.worker.metric.WorkerAvailableResource;
+import org.limbo.flowjob.broker.core.worker.metric.WorkerMetric;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * 存活 worker 的索引目录，随注册、心跳、下线增量维护。
+ * 每个 worker 占用一个槽位，执行器、标签、地址、资源分别建立槽位的 {@link BitSet} 索引，
+ * 过滤时对 BitSet 求交集，只有最终命中的 worker 才会被访问。
+ *
+ * @author Brozen
+ * @since 2024-02-11
+ */
+public class WorkerCatalog {
+
+    /**
+     * CPU 按核数分桶，最后一个桶包含所有更大的值
+     */
+    private static final int CPU_BUCKETS = 65;
+
+    /**
+     * 内存按二进制位数分桶
+     */
+    private static final int RAM_BUCKETS = 65;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * workerId -> 槽位
+     */
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+
+    private Worker[] workers = new Worker[64];
+
+    private IndexEntry[] entries = new IndexEntry[64];
+
+    /**
+     * 已占用的槽位
+     */
+    private final BitSet occupied = new BitSet();
+
+    /**
+     * 执行器名 -> 槽位
+     */
+    private final Map<String, BitSet> executorIndex = new HashMap<>();
+
+    /**
+     * 标签名 -> 槽位，只包含标签值非空的
+     */
+    private final Map<String, BitSet> tagKeyIndex = new HashMap<>();
+
+    /**
+     * 标签名 -> 标签值 -> 槽位
+     */
+    private final Map<String, Map<String, BitSet>> tagValueIndex = new HashMap<>();
+
+    /**
+     * host:port -> 槽位
+     */
+    private final Map<String, BitSet> addressIndex = new HashMap<>();
+
+    /**
+     * 任务队列还能排队的槽位
+     */
+    private final BitSet queueAvailable = new BitSet();
+
+    private final BitSet[] cpuBuckets = newBuckets(CPU_BUCKETS);
+
+    private final BitSet[] ramBuckets = newBuckets(RAM_BUCKETS);
+
+    /**
+     * 新增或更新 worker 的索引，标签和执行器未变化时只更新资源索引
+     */
+    public void put(Worker worker) {
+        IndexEntry entry = new IndexEntry(worker);
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.get(worker.getId());
+            if (slot == null) {
+                slot = allocate();
+                slots.put(worker.getId(), slot);
+                occupied.set(slot);
+            }
+
+            IndexEntry old = entries[slot];
+            if (old == null || !old.sameLabels(entry)) {
+                if (old != null) {
+                    unindexLabels(slot, old);
+                }
+                indexLabels(slot, entry);
+            }
+            if (old != null) {
+                unindexResource(slot, old);
+            }
+            indexResource(slot, entry);
+
+            workers[slot] = worker;
+            entries[slot] = entry;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 移除 worker 的索引，槽位上已经是其他对象时不处理（期间被重新上线）
+     */
+    public void remove(Worker worker) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.get(worker.getId());
+            if (slot == null || workers[slot] != worker) {
+                return;
+            }
+            IndexEntry entry = entries[slot];
+            unindexLabels(slot, entry);
+            unindexResource(slot, entry);
+
+            slots.remove(worker.getId());
+            occupied.clear(slot);
+            workers[slot] = null;
+            entries[slot] = null;
+            freeSlots.push(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 索引中的 worker 数量
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按过滤条件查找启用的 worker
+     */
+    List<Worker> find(WorkerFilter filter) {
+        lock.readLock().lock();
+        try {
+            BitSet bits = (BitSet) occupied.clone();
+            if (filter.isFilterExecutor()) {
+                and(bits, executorIndex.get(filter.getExecutorName()));
+            }
+            if (filter.isFilterTags() && CollectionUtils.isNotEmpty(filter.getTagFilters())) {
+                for (TagFilterOption tagFilter : filter.getTagFilters()) {
+                    if (bits.isEmpty()) {
+                        break;
+                    }
+                    bits.and(tagBits(tagFilter));
+                }
+            }
+            if (filter.isFilterResources()) {
+                bits.and(queueAvailable);
+                if (filter.getCpuRequirement() != null) {
+                    bits.and(atLeast(cpuBuckets, cpuBucket(filter.getCpuRequirement())));
+                }
+                if (filter.getRamRequirement() != null) {
+                    bits.and(atLeast(ramBuckets, ramBucket(filter.getRamRequirement())));
+                }
+            }
+
+            if (bits.isEmpty()) {
+                return Collections.emptyList();
+            }
+            // 桶是粗粒度的，资源还需要按实际值判断
+            List<Worker> result = new ArrayList<>(bits.cardinality());
+            for (int slot = bits.nextSetBit(0); slot >= 0; slot = bits.nextSetBit(slot + 1)) {
+                Worker worker = workers[slot];
+                if (worker.isEnabled() && (!filter.isFilterResources() || filter.satisfyResources(worker))) {
+                    result.add(worker);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private BitSet tagBits(TagFilterOption option) {
+        String tagName = option.getTagName();
+        BitSet bits;
+        switch (option.getCondition()) {
+            case EXISTS:
+                return copy(tagKeyIndex.get(tagName));
+
+            case NOT_EXISTS:
+                bits = (BitSet) occupied.clone();
+                andNot(bits, tagKeyIndex.get(tagName));
+                return bits;
+
+            case MUST_MATCH_VALUE:
+                return copy(tagValueIndex.getOrDefault(tagName, Collections.emptyMap()).get(option.getTagValue()));
+
+            case MUST_NOT_MATCH_VALUE:
+                bits = copy(tagKeyIndex.get(tagName));
+                andNot(bits, tagValueIndex.getOrDefault(tagName, Collections.emptyMap()).get(option.getTagValue()));
+                return bits;
+
+            case MUST_MATCH_VALUE_REGEX:
+                // 只需要匹配不同的标签值
+                Pattern pattern = option.pattern();
+                bits = new BitSet();
+                for (Map.Entry<String, BitSet> valueEntry : tagValueIndex.getOrDefault(tagName, Collections.emptyMap()).entrySet()) {
+                    if (pattern.matcher(valueEntry.getKey()).find()) {
+                        bits.or(valueEntry.getValue());
+                    }
+                }
+                return bits;
+
+            case MATCH_HOST_PORT:
+                return copy(addressIndex.get(address(tagName, Integer.parseInt(option.getTagValue()))));
+
+            default:
+                return new BitSet();
+        }
+    }
+
+    private int allocate() {
+        Integer slot = freeSlots.poll();
+        if (slot != null) {
+            return slot;
+        }
+        slot = slots.size();
+        if (slot >= workers.length) {
+            workers = Arrays.copyOf(workers, workers.length * 2);
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+        return slot;
+    }
+
+    private void indexLabels(int slot, IndexEntry entry) {
+        for (String executor : entry.executors) {
+            executorIndex.computeIfAbsent(executor, k -> new BitSet()).set(slot);
+        }
+        for (Map.Entry<String, Set<String>> tag : entry.tags.entrySet()) {
+            tagKeyIndex.computeIfAbsent(tag.getKey(), k -> new BitSet()).set(slot);
+            Map<String, BitSet> values = tagValueIndex.computeIfAbsent(tag.getKey(), k -> new HashMap<>());
+            for (String value : tag.getValue()) {
+                values.computeIfAbsent(value, k -> new BitSet()).set(slot);
+            }
+        }
+        if (entry.address != null) {
+            addressIndex.computeIfAbsent(entry.address, k -> new BitSet()).set(slot);
+        }
+    }
+
+    private void unindexLabels(int slot, IndexEntry entry) {
+        for (String executor : entry.executors) {
+            clear(executorIndex, executor, slot);
+        }
+        for (Map.Entry<String, Set<String>> tag : entry.tags.entrySet()) {
+            clear(tagKeyIndex, tag.getKey(), slot);
+            Map<String, BitSet> values = tagValueIndex.get(tag.getKey());
+            if (values == null) {
+                continue;
+            }
+            for (String value : tag.getValue()) {
+                clear(values, value, slot);
+            }
+            if (values.isEmpty()) {
+                tagValueIndex.remove(tag.getKey());
+            }
+        }
+        if (entry.address != null) {
+            clear(addressIndex, entry.address, slot);
+        }
+    }
+
+    private void indexResource(int slot, IndexEntry entry) {
+        queueAvailable.set(slot, entry.queueAvailable);
+        cpuBuckets[entry.cpuBucket].set(slot);
+        ramBuckets[entry.ramBucket].set(slot);
+    }
+
+    private void unindexResource(int slot, IndexEntry entry) {
+        queueAvailable.clear(slot);
+        cpuBuckets[entry.cpuBucket].clear(slot);
+        ramBuckets[entry.ramBucket].clear(slot);
+    }
+
+    private static void clear(Map<String, BitSet> index, String key, int slot) {
+        BitSet bits = index.get(key);
+        if (bits == null) {
+            return;
+        }
+        bits.clear(slot);
+        if (bits.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static BitSet[] newBuckets(int size) {
+        BitSet[] buckets = new BitSet[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new BitSet();
+        }
+        return buckets;
+    }
+
+    /**
+     * 从 from 开始所有桶的并集
+     */
+    private static BitSet atLeast(BitSet[] buckets, int from) {
+        BitSet bits = new BitSet();
+        for (int i = from; i < buckets.length; i++) {
+            bits.or(buckets[i]);
+        }
+        return bits;
+    }
+
+    private static int cpuBucket(float cpu) {
+        if (cpu <= 0) {
+            return 0;
+        }
+        return (int) Math.min(cpu, CPU_BUCKETS - 1);
+    }
+
+    private static int ramBucket(long ram) {
+        return ram <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(ram);
+    }
+
+    private static String address(String host, int port) {
+        return host + ":" + port;
+    }
+
+    private static BitSet copy(BitSet bits) {
+        return bits == null ? new BitSet() : (BitSet) bits.clone();
+    }
+
+    private static void and(BitSet bits, BitSet other) {
+        if (other == null) {
+            bits.clear();
+        } else {
+            bits.and(other);
+        }
+    }
+
+    private static void andNot(BitSet bits, BitSet other) {
+        if (other != null) {
+            bits.andNot(other);
+        }
+    }
+
+    /**
+     * worker 被索引的内容，用于更新时移除旧索引
+     */
+    private static class IndexEntry {
+
+        final Set<String> executors = new HashSet<>();
+
+        final Map<String, Set<String>> tags = new HashMap<>();
+
+        final String address;
+
+        final boolean queueAvailable;
+
+        final int cpuBucket;
+
+        final int ramBucket;
+
+        IndexEntry(Worker worker) {
+            if (worker.getExecutors() != null) {
+                for (WorkerExecutor executor : worker.getExecutors()) {
+                    executors.add(executor.getName());
+                }
+            }
+            if (worker.getTags() != null) {
+                for (Map.Entry<String, List<String>> tag : worker.getTags().entrySet()) {
+                    if (CollectionUtils.isEmpty(tag.getValue())) {
+                        continue;
+                    }
+                    Set<String> values = new HashSet<>(tag.getValue());
+                    values.remove(null);
+                    tags.put(tag.getKey(), values);
+                }
+            }
+
+            URL url = worker.getUrl();
+            this.address = url == null ? null : address(url.getHost(), url.getPort());
+
+            WorkerMetric metric = worker.getMetric();
+            WorkerAvailableResource resource = metric == null ? null : metric.getAvailableResource();
+            this.queueAvailable = resource != null && resource.getAvailableQueueLimit() > 0;
+            this.cpuBucket = resource == null ? 0 : cpuBucket(resource.getAvailableCpu());
+            this.ramBucket = resource == null ? 0 : ramBucket(resource.getAvailableRam());
+        }
+
+        boolean sameLabels(IndexEntry other) {
+            return executors.equals(other.executors)
+                    && tags.equals(other.tags)
+                    && Objects.equals(address, other.address);
+        }
+    }
+
+}
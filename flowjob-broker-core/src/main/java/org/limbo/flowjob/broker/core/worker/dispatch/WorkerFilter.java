@@ -18,49 +18,47 @@
 
 package org.limbo.flowjob.broker.core.worker.dispatch;
 
-import org.apache.commons.collections4.CollectionUtils;
+import lombok.AccessLevel;
+import lombok.Getter;
 import org.limbo.flowjob.broker.core.worker.Worker;
-import org.limbo.flowjob.broker.core.worker.executor.WorkerExecutor;
 import org.limbo.flowjob.broker.core.worker.metric.WorkerAvailableResource;
 
-import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
- * 基于配置过滤出合适的worker
+ * 基于配置过滤出合适的worker，过滤条件在 {@link WorkerCatalog} 的索引上求交集
  */
+@Getter(AccessLevel.PACKAGE)
 public class WorkerFilter {
 
-    private String executorName;
-    private List<TagFilterOption> tagFilters;
+    private final String executorName;
+    private final List<TagFilterOption> tagFilters;
+    private final WorkerCatalog catalog;
+
+    private boolean filterExecutor;
+    private boolean filterTags;
+    private boolean filterResources;
+    private Float cpuRequirement;
+    private Long ramRequirement;
+
+    /**
+     * 过滤结果，条件变化时重新计算
+     */
+    @Getter(AccessLevel.NONE)
     private List<Worker> workers;
 
-    public WorkerFilter(String executorName, List<TagFilterOption> tagFilters, List<Worker> workers) {
+    public WorkerFilter(String executorName, List<TagFilterOption> tagFilters, WorkerCatalog catalog) {
         this.executorName = executorName;
         this.tagFilters = tagFilters;
-        this.workers = CollectionUtils.isEmpty(workers) ? Collections.emptyList() : workers;
+        this.catalog = catalog;
     }
 
     /**
      * 基于执行器选择
      */
     public WorkerFilter filterExecutor() {
-        this.workers = workers.stream()
-                .filter(worker -> {
-                    List<WorkerExecutor> executors = worker.getExecutors();
-                    if (CollectionUtils.isEmpty(executors)) {
-                        return false;
-                    }
-                    // 判断是否有对应的执行器
-                    for (WorkerExecutor executor : executors) {
-                        if (executor.getName().equals(executorName)) {
-                            return true;
-                        }
-                    }
-                    return false;
-                })
-                .collect(Collectors.toList());
+        this.filterExecutor = true;
+        this.workers = null;
         return this;
     }
 
@@ -69,12 +67,8 @@ public class WorkerFilter {
      * 基于标签选择
      */
     public WorkerFilter filterTags() {
-        if (CollectionUtils.isEmpty(tagFilters)) {
-            return this;
-        }
-        for (TagFilterOption tagFilter : tagFilters) {
-            this.workers = workers.stream().filter(tagFilter.asPredicate()).collect(Collectors.toList());
-        }
+        this.filterTags = true;
+        this.workers = null;
         return this;
     }
 
@@ -82,26 +76,40 @@ public class WorkerFilter {
      * 基于资源过滤
      */
     public WorkerFilter filterResources(Float cpuRequirement, Long ramRequirement) {
-        this.workers = workers.stream().filter(worker -> {
-            WorkerAvailableResource availableResource = worker.getMetric().getAvailableResource();
-            if (availableResource.getAvailableQueueLimit() <= 0) {
-                return false;
-            }
-            if (cpuRequirement != null && availableResource.getAvailableCpu() < cpuRequirement) {
-                return false;
-            }
-            if (ramRequirement != null && availableResource.getAvailableRam() < ramRequirement) {
-                return false;
-            }
-            return true;
-        }).collect(Collectors.toList());
+        this.filterResources = true;
+        this.cpuRequirement = cpuRequirement;
+        this.ramRequirement = ramRequirement;
+        this.workers = null;
         return this;
     }
 
+    /**
+     * 资源是否满足要求，索引按桶过滤后再按实际值判断
+     */
+    boolean satisfyResources(Worker worker) {
+        if (worker.getMetric() == null || worker.getMetric().getAvailableResource() == null) {
+            return false;
+        }
+        WorkerAvailableResource availableResource = worker.getMetric().getAvailableResource();
+        if (availableResource.getAvailableQueueLimit() <= 0) {
+            return false;
+        }
+        if (cpuRequirement != null && availableResource.getAvailableCpu() < cpuRequirement) {
+            return false;
+        }
+        if (ramRequirement != null && availableResource.getAvailableRam() < ramRequirement) {
+            return false;
+        }
+        return true;
+    }
+
     /**
      * 获取worker
      */
     public List<Worker> get() {
+        if (workers == null) {
+            workers = catalog.find(this);
+        }
         return workers;
     }
 
@@ -64,4 +64,25 @@ public class WorkerAvailableResource {
         return new WorkerAvailableResource(resource.getAvailableCpu(), resource.getAvailableRAM(), resource.getAvailableQueueLimit());
     }
 
+    /**
+     * 合并增量上报的资源，上报中为空的字段沿用之前的值
+     *
+     * @param previous 之前的资源，可能为空
+     * @param delta    增量上报的资源，可能为空
+     * @return 合并后的资源值对象
+     */
+    public static WorkerAvailableResource merge(WorkerAvailableResource previous, WorkerResourceParam delta) {
+        float cpu = previous == null ? 0 : previous.availableCpu;
+        long ram = previous == null ? 0 : previous.availableRam;
+        int queueLimit = previous == null ? 0 : previous.availableQueueLimit;
+        if (delta == null) {
+            return new WorkerAvailableResource(cpu, ram, queueLimit);
+        }
+        return new WorkerAvailableResource(
+                delta.getAvailableCpu() == null ? cpu : delta.getAvailableCpu(),
+                delta.getAvailableRAM() == null ? ram : delta.getAvailableRAM(),
+                delta.getAvailableQueueLimit() == null ? queueLimit : delta.getAvailableQueueLimit()
+        );
+    }
+
 }
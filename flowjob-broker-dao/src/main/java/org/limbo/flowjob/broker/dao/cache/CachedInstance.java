@@ -0,0 +1,52 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.limbo.flowjob.broker.core.meta.info.WorkflowJobInfo;
+import org.limbo.flowjob.common.utils.attribute.Attributes;
+import org.limbo.flowjob.common.utils.dag.DAG;
+
+/**
+ * 实例创建后不再变化的部分，使用方不能修改其中的对象
+ *
+ * @author Brozen
+ * @since 2024-02-09
+ */
+@Getter
+@AllArgsConstructor
+public class CachedInstance {
+
+    /**
+     * 实例参数
+     */
+    private final Attributes attributes;
+
+    /**
+     * plan 实例对应的版本，延迟实例为空
+     */
+    private final String planInfoId;
+
+    /**
+     * 延迟实例的任务，plan 实例为空，从 {@link CachedPlanInfo} 获取
+     */
+    private final DAG<WorkflowJobInfo> dag;
+
+}
@@ -0,0 +1,91 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.cache;
+
+import lombok.Getter;
+import org.limbo.flowjob.api.constants.InstanceType;
+import org.limbo.flowjob.api.constants.TriggerType;
+import org.limbo.flowjob.broker.core.meta.info.WorkflowJobInfo;
+import org.limbo.flowjob.broker.core.schedule.ScheduleOption;
+import org.limbo.flowjob.broker.dao.converter.DomainConverter;
+import org.limbo.flowjob.broker.dao.entity.PlanInfoEntity;
+import org.limbo.flowjob.common.utils.dag.DAG;
+import org.limbo.flowjob.common.utils.json.JacksonUtils;
+
+import java.util.Collections;
+
+/**
+ * 解析后的 plan 版本信息，版本写入后不再修改，所以可以在多个实例间共享，使用方不能修改其中的对象
+ *
+ * @author Brozen
+ * @since 2024-02-09
+ */
+@Getter
+public class CachedPlanInfo {
+
+    private final String planInfoId;
+
+    private final String planId;
+
+    private final InstanceType type;
+
+    private final TriggerType triggerType;
+
+    private final ScheduleOption scheduleOption;
+
+    private final DAG<WorkflowJobInfo> dag;
+
+    /**
+     * 单任务时的任务信息
+     */
+    private final WorkflowJobInfo standaloneJob;
+
+    /**
+     * 缓存权重，jobInfo 的长度
+     */
+    private final int weight;
+
+    private CachedPlanInfo(PlanInfoEntity entity) {
+        this.planInfoId = entity.getPlanInfoId();
+        this.planId = entity.getPlanId();
+        this.type = InstanceType.parse(entity.getPlanType());
+        this.triggerType = TriggerType.parse(entity.getTriggerType());
+        this.scheduleOption = DomainConverter.toScheduleOption(entity);
+        if (InstanceType.STANDALONE == type) {
+            this.standaloneJob = JacksonUtils.parseObject(entity.getJobInfo(), WorkflowJobInfo.class);
+            this.dag = new DAG<>(Collections.singletonList(standaloneJob));
+        } else {
+            this.standaloneJob = null;
+            this.dag = DomainConverter.toJobDag(entity.getJobInfo());
+        }
+        this.weight = entity.getJobInfo() == null ? 1 : Math.max(entity.getJobInfo().length(), 1);
+    }
+
+    public static CachedPlanInfo of(PlanInfoEntity entity) {
+        return new CachedPlanInfo(entity);
+    }
+
+    /**
+     * 获取任务信息
+     */
+    public WorkflowJobInfo getJob(String jobId) {
+        return InstanceType.STANDALONE == type ? standaloneJob : dag.getNode(jobId);
+    }
+
+}
@@ -0,0 +1,256 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.limbo.flowjob.api.constants.MsgConstants;
+import org.limbo.flowjob.broker.core.exceptions.VerifyException;
+import org.limbo.flowjob.broker.dao.converter.DomainConverter;
+import org.limbo.flowjob.broker.dao.entity.DelayInstanceEntity;
+import org.limbo.flowjob.broker.dao.entity.PlanInfoEntity;
+import org.limbo.flowjob.broker.dao.entity.PlanInstanceEntity;
+import org.limbo.flowjob.broker.dao.repositories.DelayInstanceEntityRepo;
+import org.limbo.flowjob.broker.dao.repositories.PlanInfoEntityRepo;
+import org.limbo.flowjob.broker.dao.repositories.PlanInstanceEntityRepo;
+import org.limbo.flowjob.common.utils.attribute.Attributes;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * plan 版本以及实例不变部分的缓存
+ * plan 版本（flowjob_plan_info）写入后不再修改，解析后的 DAG 按 planInfoId 缓存，按 jobInfo 大小计算权重淘汰；
+ * 实例的参数和版本在创建后也不再修改，按实例 id 缓存，避免每次组装 JobInstance 都查询实例和版本并重新解析。
+ * 命中率等统计定期输出到日志，用于评估缓存大小是否合适。
+ *
+ * @author Brozen
+ * @since 2024-02-09
+ */
+@Slf4j
+@Component
+public class PlanInfoCache implements InitializingBean, DisposableBean {
+
+    /**
+     * plan 版本缓存的最大权重，按 jobInfo 字符数计算
+     */
+    private static final long MAX_PLAN_INFO_WEIGHT = 64L * 1024 * 1024;
+
+    /**
+     * 实例缓存的最大数量
+     */
+    private static final long MAX_INSTANCES = 100000;
+
+    /**
+     * 实例缓存的过期时间，实例结束后基本不会再访问
+     */
+    private static final long INSTANCE_EXPIRE_MINUTES = 60;
+
+    /**
+     * 输出统计日志的间隔
+     */
+    private static final long STATS_LOG_MINUTES = 5;
+
+    @Setter(onMethod_ = @Inject)
+    private PlanInfoEntityRepo planInfoEntityRepo;
+
+    @Setter(onMethod_ = @Inject)
+    private PlanInstanceEntityRepo planInstanceEntityRepo;
+
+    @Setter(onMethod_ = @Inject)
+    private DelayInstanceEntityRepo delayInstanceEntityRepo;
+
+    private final Cache<String, CachedPlanInfo> planInfos = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_PLAN_INFO_WEIGHT)
+            .weigher((String k, CachedPlanInfo v) -> v.getWeight())
+            .recordStats()
+            .build();
+
+    private final Cache<String, CachedInstance> planInstances = newInstanceCache();
+
+    private final Cache<String, CachedInstance> delayInstances = newInstanceCache();
+
+    private final Timer statsTimer = new Timer("PlanInfoCacheStats", true);
+
+    @Override
+    public void afterPropertiesSet() {
+        long period = TimeUnit.MINUTES.toMillis(STATS_LOG_MINUTES);
+        statsTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                logStats();
+            }
+        }, period, period);
+    }
+
+    @Override
+    public void destroy() {
+        statsTimer.cancel();
+    }
+
+    /**
+     * 获取 plan 版本，不存在时抛出 {@link VerifyException}
+     */
+    public CachedPlanInfo getPlanInfo(String planInfoId) {
+        CachedPlanInfo planInfo = planInfos.getIfPresent(planInfoId);
+        if (planInfo != null) {
+            return planInfo;
+        }
+        PlanInfoEntity entity = planInfoEntityRepo.findById(planInfoId)
+                .orElseThrow(VerifyException.supplier(MsgConstants.CANT_FIND_PLAN_INFO + planInfoId));
+        return put(entity);
+    }
+
+    /**
+     * 批量获取 plan 版本，只查询缓存中没有的，不存在的版本不会出现在结果中
+     */
+    public Map<String, CachedPlanInfo> getPlanInfos(Collection<String> planInfoIds) {
+        Map<String, CachedPlanInfo> result = new HashMap<>(planInfos.getAllPresent(planInfoIds));
+        Set<String> missing = new HashSet<>(planInfoIds);
+        missing.removeAll(result.keySet());
+        if (CollectionUtils.isNotEmpty(missing)) {
+            for (PlanInfoEntity entity : planInfoEntityRepo.findAllById(missing)) {
+                result.put(entity.getPlanInfoId(), put(entity));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取 plan 实例的不变部分，不存在时抛出 {@link VerifyException}
+     */
+    public CachedInstance getPlanInstance(String planInstanceId) {
+        CachedInstance instance = planInstances.getIfPresent(planInstanceId);
+        if (instance != null) {
+            return instance;
+        }
+        PlanInstanceEntity entity = planInstanceEntityRepo.findById(planInstanceId)
+                .orElseThrow(VerifyException.supplier(MsgConstants.CANT_FIND_PLAN_INSTANCE + planInstanceId));
+        return put(entity);
+    }
+
+    /**
+     * 批量获取 plan 实例的不变部分，不存在的实例不会出现在结果中
+     */
+    public Map<String, CachedInstance> getPlanInstances(Collection<String> planInstanceIds) {
+        Map<String, CachedInstance> result = new HashMap<>(planInstances.getAllPresent(planInstanceIds));
+        Set<String> missing = new HashSet<>(planInstanceIds);
+        missing.removeAll(result.keySet());
+        if (CollectionUtils.isNotEmpty(missing)) {
+            for (PlanInstanceEntity entity : planInstanceEntityRepo.findAllById(missing)) {
+                result.put(entity.getPlanInstanceId(), put(entity));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取延迟实例的不变部分，不存在时抛出 {@link VerifyException}
+     */
+    public CachedInstance getDelayInstance(String instanceId) {
+        CachedInstance instance = delayInstances.getIfPresent(instanceId);
+        if (instance != null) {
+            return instance;
+        }
+        DelayInstanceEntity entity = delayInstanceEntityRepo.findById(instanceId)
+                .orElseThrow(VerifyException.supplier(MsgConstants.CANT_FIND_DELAY_INSTANCE + instanceId));
+        return put(entity);
+    }
+
+    /**
+     * 批量获取延迟实例的不变部分，不存在的实例不会出现在结果中
+     */
+    public Map<String, CachedInstance> getDelayInstances(Collection<String> instanceIds) {
+        Map<String, CachedInstance> result = new HashMap<>(delayInstances.getAllPresent(instanceIds));
+        Set<String> missing = new HashSet<>(instanceIds);
+        missing.removeAll(result.keySet());
+        if (CollectionUtils.isNotEmpty(missing)) {
+            for (DelayInstanceEntity entity : delayInstanceEntityRepo.findAllById(missing)) {
+                result.put(entity.getInstanceId(), put(entity));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return plan 版本缓存的统计，包含命中率
+     */
+    public CacheStats planInfoStats() {
+        return planInfos.stats();
+    }
+
+    /**
+     * @return 实例缓存的统计，包含命中率
+     */
+    public CacheStats instanceStats() {
+        return planInstances.stats().plus(delayInstances.stats());
+    }
+
+    /**
+     * 输出缓存统计，命中率为启动以来的累计值
+     */
+    public void logStats() {
+        CacheStats planInfoStats = planInfoStats();
+        CacheStats instanceStats = instanceStats();
+        log.info("[PlanInfoCache] planInfo size={} hitRate={} evictions={}; instance size={} hitRate={} evictions={}",
+                planInfos.size(), String.format("%.3f", planInfoStats.hitRate()), planInfoStats.evictionCount(),
+                planInstances.size() + delayInstances.size(), String.format("%.3f", instanceStats.hitRate()), instanceStats.evictionCount());
+    }
+
+    private CachedPlanInfo put(PlanInfoEntity entity) {
+        CachedPlanInfo planInfo = CachedPlanInfo.of(entity);
+        planInfos.put(planInfo.getPlanInfoId(), planInfo);
+        return planInfo;
+    }
+
+    private CachedInstance put(PlanInstanceEntity entity) {
+        CachedInstance instance = new CachedInstance(new Attributes(entity.getAttributes()), entity.getPlanInfoId(), null);
+        planInstances.put(entity.getPlanInstanceId(), instance);
+        return instance;
+    }
+
+    private CachedInstance put(DelayInstanceEntity entity) {
+        CachedInstance instance = new CachedInstance(new Attributes(entity.getAttributes()), null, DomainConverter.toJobDag(entity.getJobInfo()));
+        delayInstances.put(entity.getInstanceId(), instance);
+        return instance;
+    }
+
+    private static Cache<String, CachedInstance> newInstanceCache() {
+        return CacheBuilder.newBuilder()
+                .maximumSize(MAX_INSTANCES)
+                .expireAfterAccess(INSTANCE_EXPIRE_MINUTES, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+    }
+
+}
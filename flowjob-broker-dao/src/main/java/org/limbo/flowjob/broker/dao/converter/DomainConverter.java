@@ -24,6 +24,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.limbo.flowjob.api.constants.AgentStatus;
 import org.limbo.flowjob.api.constants.ScheduleType;
 import org.limbo.flowjob.broker.core.agent.ScheduleAgent;
+import org.limbo.flowjob.broker.core.cluster.Buckets;
 import org.limbo.flowjob.broker.core.meta.info.WorkflowJobInfo;
 import org.limbo.flowjob.broker.core.meta.job.JobInstance;
 import org.limbo.flowjob.broker.core.schedule.ScheduleOption;
@@ -36,6 +37,7 @@ import org.limbo.flowjob.common.utils.time.TimeUtils;
 
 import java.net.URL;
 import java.time.Duration;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -59,6 +61,36 @@ public class DomainConverter {
         );
     }
 
+    /**
+     * 位图转为十六进制字符串，每个字节两位，低位字节在前
+     */
+    public static String toCompletedJobs(BitSet bits) {
+        if (bits == null) {
+            return null;
+        }
+        byte[] bytes = bits.toByteArray();
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param hex {@link #toCompletedJobs(BitSet)} 的结果
+     * @return 为 null 表示没有记录
+     */
+    public static BitSet toCompletedJobs(String hex) {
+        if (hex == null) {
+            return null;
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((Character.digit(hex.charAt(i * 2), 16) << 4) | Character.digit(hex.charAt(i * 2 + 1), 16));
+        }
+        return BitSet.valueOf(bytes);
+    }
+
     /**
      * @param dag 节点关系
      * @return job dag
@@ -76,6 +108,7 @@ public class DomainConverter {
         entity.setJobInstanceId(jobInstance.getId());
         entity.setAgentId(jobInstance.getAgentId());
         entity.setBrokerUrl(jobInstance.getBrokerUrl() == null ? "" : jobInstance.getBrokerUrl().toString());
+        entity.setBucket(Buckets.of(jobInstance.getId()));
         entity.setRetryTimes(jobInstance.getRetryTimes());
         entity.setInstanceId(jobInstance.getInstanceId());
         entity.setInstanceType(jobInstance.getInstanceType().type);
@@ -85,6 +85,11 @@ public class DelayInstanceEntity extends BaseEntity {
      */
     private LocalDateTime feedbackAt;
 
+    /**
+     * 已完成的 job，按 DAG 节点序号记录的位图，十六进制存储
+     */
+    private String completedJobs;
+
     @Override
     public Object getUid() {
         return instanceId;
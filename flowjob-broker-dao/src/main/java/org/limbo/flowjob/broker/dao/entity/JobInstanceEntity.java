@@ -41,6 +41,11 @@ public class JobInstanceEntity extends BaseEntity {
      */
     private String brokerUrl;
 
+    /**
+     * 所属的桶 {@link org.limbo.flowjob.broker.core.cluster.Buckets}
+     */
+    private Integer bucket;
+
     private String instanceId;
 
     private Integer instanceType;
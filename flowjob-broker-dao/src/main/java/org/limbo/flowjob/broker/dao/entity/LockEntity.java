@@ -62,6 +62,11 @@ public class LockEntity extends BaseEntity {
      */
     private LocalDateTime expireAt;
 
+    /**
+     * fencing token，每次重新获取递增
+     */
+    private Long token;
+
 
     @Override
     public Object getUid() {
@@ -40,6 +40,11 @@ public class PlanEntity extends BaseEntity {
      */
     private String brokerUrl;
 
+    /**
+     * 所属的桶 {@link org.limbo.flowjob.broker.core.cluster.Buckets}
+     */
+    private Integer bucket;
+
     /**
      * 所属应用
      */
@@ -45,4 +45,10 @@ public interface AgentEntityRepo extends JpaRepository<AgentEntity, String>, Jpa
     @Modifying(clearAutomatically = true)
     @Query(value = "update AgentEntity set status = :newStatus where agentId = :agentId and status = :oldStatus ")
     int updateStatus(@Param("agentId") String agentId, @Param("oldStatus") Integer oldStatus, @Param("newStatus") Integer newStatus);
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "update AgentEntity set status = :newStatus where agentId = :agentId and status = :oldStatus " +
+            "and (lastHeartbeatAt is null or lastHeartbeatAt < :deadline)")
+    int updateStatusIfExpired(@Param("agentId") String agentId, @Param("oldStatus") Integer oldStatus,
+                              @Param("newStatus") Integer newStatus, @Param("deadline") LocalDateTime deadline);
 }
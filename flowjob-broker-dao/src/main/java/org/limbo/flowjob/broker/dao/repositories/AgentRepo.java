@@ -29,8 +29,11 @@ import org.springframework.stereotype.Repository;
 import javax.inject.Inject;
 import javax.transaction.Transactional;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -67,4 +70,29 @@ public class AgentRepo implements AgentRepository {
         return agentEntityRepo.updateStatus(agentId, oldStatus, newStatus) > 0;
     }
 
+    @Override
+    @Transactional
+    public boolean updateStatusIfExpired(String agentId, Integer oldStatus, Integer newStatus, LocalDateTime deadline) {
+        return agentEntityRepo.updateStatusIfExpired(agentId, oldStatus, newStatus, deadline) > 0;
+    }
+
+    @Override
+    @Transactional
+    public void saveHeartbeats(Collection<ScheduleAgent> agents) {
+        if (CollectionUtils.isEmpty(agents)) {
+            return;
+        }
+        Map<String, ScheduleAgent> agentMap = new HashMap<>();
+        for (ScheduleAgent agent : agents) {
+            agentMap.put(agent.getId(), agent);
+        }
+        // 在持久化上下文中直接修改，flush 时批量更新
+        for (AgentEntity entity : agentEntityRepo.findAllById(agentMap.keySet())) {
+            ScheduleAgent agent = agentMap.get(entity.getAgentId());
+            entity.setAvailableQueueLimit(agent.getAvailableQueueLimit());
+            entity.setLastHeartbeatAt(agent.getLastHeartbeatAt());
+        }
+        agentEntityRepo.flush();
+    }
+
 }
@@ -19,6 +19,7 @@
 package org.limbo.flowjob.broker.dao.repositories;
 
 import org.limbo.flowjob.broker.dao.entity.BrokerEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 import java.time.LocalDateTime;
@@ -36,4 +37,6 @@ public interface BrokerEntityRepo extends JpaRepository<BrokerEntity, String> {
     List<BrokerEntity> findByLastHeartbeatBetween(LocalDateTime startTime, LocalDateTime endTime);
 
     List<BrokerEntity> findByOnlineTimeBetween(LocalDateTime startTime, LocalDateTime endTime);
+
+    List<BrokerEntity> findByLastHeartbeatAfter(LocalDateTime time, Pageable pageable);
 }
@@ -0,0 +1,47 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.repositories;
+
+import org.limbo.flowjob.broker.dao.entity.BucketEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+
+/**
+ * @author Brozen
+ * @since 2024-02-06
+ */
+public interface BucketEntityRepo extends JpaRepository<BucketEntity, Long> {
+
+    /**
+     * 切换桶归属，租约 token 变化说明已有其它节点接管，更新不生效
+     */
+    @Modifying(clearAutomatically = true)
+    @Query(value = "update BucketEntity set brokerUrl = :newBrokerUrl where bucket in :buckets and brokerUrl = :oldBrokerUrl " +
+            "and exists (select l.id from LockEntity l where l.name = :leaseName and l.token = :token)")
+    int transfer(@Param("buckets") Collection<Integer> buckets,
+                 @Param("oldBrokerUrl") String oldBrokerUrl,
+                 @Param("newBrokerUrl") String newBrokerUrl,
+                 @Param("leaseName") String leaseName,
+                 @Param("token") Long token);
+
+}
@@ -0,0 +1,85 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.repositories;
+
+import lombok.Setter;
+import org.limbo.flowjob.broker.core.cluster.BucketRepository;
+import org.limbo.flowjob.broker.core.meta.lock.Lease;
+import org.limbo.flowjob.broker.dao.converter.DomainConverter;
+import org.limbo.flowjob.broker.dao.entity.BucketEntity;
+import org.springframework.stereotype.Repository;
+
+import javax.inject.Inject;
+import javax.transaction.Transactional;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Brozen
+ * @since 2024-02-06
+ */
+@Repository
+public class BucketRepo implements BucketRepository {
+
+    @Setter(onMethod_ = @Inject)
+    private BucketEntityRepo bucketEntityRepo;
+
+    @Setter(onMethod_ = @Inject)
+    private LockEntityRepo lockEntityRepo;
+
+    @Override
+    public Map<Integer, URL> findAll() {
+        Map<Integer, URL> owners = new HashMap<>();
+        for (BucketEntity entity : bucketEntityRepo.findAll()) {
+            owners.put(entity.getBucket(), DomainConverter.brokerUrl(entity.getBrokerUrl()));
+        }
+        return owners;
+    }
+
+    @Override
+    @Transactional
+    public int create(Map<Integer, URL> buckets, Lease lease) {
+        // 锁住租约记录后再写入，token 变化说明已有其它节点接管，不再写入
+        if (lockEntityRepo.lockByToken(lease.getName(), lease.getToken()) == null) {
+            return 0;
+        }
+        List<BucketEntity> entities = new ArrayList<>();
+        for (Map.Entry<Integer, URL> entry : buckets.entrySet()) {
+            BucketEntity entity = new BucketEntity();
+            entity.setBucket(entry.getKey());
+            entity.setBrokerUrl(entry.getValue() == null ? "" : entry.getValue().toString());
+            entities.add(entity);
+        }
+        bucketEntityRepo.saveAll(entities);
+        return entities.size();
+    }
+
+    @Override
+    @Transactional
+    public int transfer(Collection<Integer> buckets, URL from, URL to, Lease lease) {
+        String fromStr = from == null ? "" : from.toString();
+        String toStr = to == null ? "" : to.toString();
+        return bucketEntityRepo.transfer(buckets, fromStr, toStr, lease.getName(), lease.getToken());
+    }
+
+}
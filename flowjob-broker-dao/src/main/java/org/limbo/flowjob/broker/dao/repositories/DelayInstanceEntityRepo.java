@@ -39,6 +39,10 @@ public interface DelayInstanceEntityRepo extends JpaRepository<DelayInstanceEnti
 
     DelayInstanceEntity findByBizTypeAndBizId(String bizType, String bizId);
 
+    @Modifying(clearAutomatically = true)
+    @Query(value = "update DelayInstanceEntity set completedJobs = :completedJobs where instanceId = :instanceId")
+    int updateCompletedJobs(@Param("instanceId") String instanceId, @Param("completedJobs") String completedJobs);
+
     @Modifying(clearAutomatically = true)
     @Query(value = "update DelayInstanceEntity set status = " + ConstantsPool.INSTANCE_EXECUTING + ", startAt = :startAt " +
             " where instanceId = :instanceId and status = " + ConstantsPool.INSTANCE_SCHEDULING)
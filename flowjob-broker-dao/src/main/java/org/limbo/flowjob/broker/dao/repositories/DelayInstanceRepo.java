@@ -33,6 +33,7 @@ import org.springframework.stereotype.Repository;
 import javax.inject.Inject;
 import javax.transaction.Transactional;
 import java.time.LocalDateTime;
+import java.util.BitSet;
 
 /**
  * @author Devil
@@ -86,9 +87,16 @@ public class DelayInstanceRepo implements DelayInstanceRepository {
         instanceEntity.setTriggerAt(instance.getTriggerAt());
         instanceEntity.setStartAt(instance.getStartAt());
         instanceEntity.setFeedbackAt(instance.getFeedbackAt());
+        instanceEntity.setCompletedJobs(DomainConverter.toCompletedJobs(instance.getCompletedJobs()));
         delayInstanceEntityRepo.saveAndFlush(instanceEntity);
     }
 
+    @Override
+    @Transactional
+    public boolean updateCompletedJobs(String instanceId, BitSet completedJobs) {
+        return delayInstanceEntityRepo.updateCompletedJobs(instanceId, DomainConverter.toCompletedJobs(completedJobs)) > 0;
+    }
+
     @Override
     @Transactional
     public boolean executing(String instanceId, LocalDateTime startAt) {
@@ -128,6 +136,7 @@ public class DelayInstanceRepo implements DelayInstanceRepository {
                 .triggerAt(instanceEntity.getTriggerAt())
                 .startAt(instanceEntity.getStartAt())
                 .feedbackAt(instanceEntity.getFeedbackAt())
+                .completedJobs(DomainConverter.toCompletedJobs(instanceEntity.getCompletedJobs()))
                 .build();
     }
 }
@@ -37,7 +37,7 @@ import java.util.List;
 public interface JobInstanceEntityRepo extends JpaRepository<JobInstanceEntity, String>, JpaSpecificationExecutor<JobInstanceEntity> {
 
     @Query(value = "select * from flowjob_job_instance" +
-            " where broker_url = :brokerUrl and status = " + ConstantsPool.JOB_EXECUTING +
+            " where bucket in (select bucket from flowjob_bucket where broker_url = :brokerUrl) and status = " + ConstantsPool.JOB_EXECUTING +
             " and last_report_at >= :lastReportAtStart and last_report_at <= :lastReportAtEnd and job_instance_id > :startId" +
             " order by job_instance_id LIMIT :limit", nativeQuery = true)
     List<JobInstanceEntity> findByExecuteCheck(@Param("brokerUrl") String brokerUrl,
@@ -47,7 +47,7 @@ public interface JobInstanceEntityRepo extends JpaRepository<JobInstanceEntity,
                                                @Param("limit") Integer limit);
 
     @Query(value = "select * from flowjob_job_instance" +
-            " where broker_url = :brokerUrl and  status = " + ConstantsPool.JOB_SCHEDULING +
+            " where bucket in (select bucket from flowjob_bucket where broker_url = :brokerUrl) and status = " + ConstantsPool.JOB_SCHEDULING +
             " and last_report_at <= :lastReportAt and trigger_at <= :triggerAt and job_instance_id > :startId " +
             " order by job_instance_id LIMIT :limit", nativeQuery = true)
     List<JobInstanceEntity> findInSchedule(@Param("brokerUrl") String brokerUrl,
@@ -56,6 +56,16 @@ public interface JobInstanceEntityRepo extends JpaRepository<JobInstanceEntity,
                                            @Param("startId") String startId,
                                            @Param("limit") Integer limit);
 
+    @Query(value = "select * from flowjob_job_instance" +
+            " where bucket in (select bucket from flowjob_bucket where broker_url = :brokerUrl) and status = " + ConstantsPool.JOB_SCHEDULING +
+            " and trigger_at > :triggerAtStart and trigger_at <= :triggerAtEnd and job_instance_id > :startId " +
+            " order by job_instance_id LIMIT :limit", nativeQuery = true)
+    List<JobInstanceEntity> findInTriggerWindow(@Param("brokerUrl") String brokerUrl,
+                                                @Param("triggerAtStart") LocalDateTime triggerAtStart,
+                                                @Param("triggerAtEnd") LocalDateTime triggerAtEnd,
+                                                @Param("startId") String startId,
+                                                @Param("limit") Integer limit);
+
     @Query(value = "select * from flowjob_job_instance where instance_id = :instanceId and  job_id = :jobId order by trigger_at desc limit 1", nativeQuery = true)
     JobInstanceEntity findByLatest(@Param("instanceId") String instanceId, @Param("jobId") String jobId);
 
@@ -87,11 +97,4 @@ public interface JobInstanceEntityRepo extends JpaRepository<JobInstanceEntity,
              @Param("endAt") LocalDateTime endAt,
              @Param("errorMsg") String errorMsg);
 
-    @Query(value = "select * from flowjob_job_instance where broker_url not in :brokerUrls limit :limit ", nativeQuery = true)
-    List<JobInstanceEntity> findNotInBrokers(@Param("brokerUrls") List<String> brokerUrls, @Param("limit") Integer limit);
-
-    @Modifying(clearAutomatically = true)
-    @Query(value = "update JobInstanceEntity set brokerUrl = :newBrokerUrl where jobInstanceId = :jobInstanceId and brokerUrl = :oldBrokerUrl ")
-    int updateBroker(@Param("jobInstanceId") String jobInstanceId, @Param("oldBrokerUrl") String oldBrokerUrl, @Param("newBrokerUrl") String newBrokerUrl);
-
 }
@@ -22,30 +22,27 @@ import lombok.Setter;
 import org.apache.commons.collections4.CollectionUtils;
 import org.limbo.flowjob.api.constants.InstanceType;
 import org.limbo.flowjob.api.constants.JobStatus;
-import org.limbo.flowjob.api.constants.MsgConstants;
-import org.limbo.flowjob.broker.core.exceptions.VerifyException;
 import org.limbo.flowjob.broker.core.meta.info.WorkflowJobInfo;
 import org.limbo.flowjob.broker.core.meta.job.JobInstance;
 import org.limbo.flowjob.broker.core.meta.job.JobInstanceRepository;
+import org.limbo.flowjob.broker.dao.cache.CachedInstance;
+import org.limbo.flowjob.broker.dao.cache.CachedPlanInfo;
+import org.limbo.flowjob.broker.dao.cache.PlanInfoCache;
 import org.limbo.flowjob.broker.dao.converter.DomainConverter;
-import org.limbo.flowjob.broker.dao.entity.DelayInstanceEntity;
 import org.limbo.flowjob.broker.dao.entity.JobInstanceEntity;
 import org.limbo.flowjob.broker.dao.entity.PlanEntity;
-import org.limbo.flowjob.broker.dao.entity.PlanInfoEntity;
-import org.limbo.flowjob.broker.dao.entity.PlanInstanceEntity;
 import org.limbo.flowjob.common.utils.attribute.Attributes;
-import org.limbo.flowjob.common.utils.dag.DAG;
-import org.limbo.flowjob.common.utils.json.JacksonUtils;
 import org.limbo.flowjob.common.utils.time.TimeUtils;
 import org.springframework.stereotype.Repository;
 
 import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import javax.transaction.Transactional;
 import java.net.URL;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -63,13 +60,10 @@ public class JobInstanceRepo implements JobInstanceRepository {
     private JobInstanceEntityRepo jobInstanceEntityRepo;
 
     @Setter(onMethod_ = @Inject)
-    private PlanInstanceEntityRepo planInstanceEntityRepo;
+    private PlanInfoCache planInfoCache;
 
-    @Setter(onMethod_ = @Inject)
-    private PlanInfoEntityRepo planInfoEntityRepo;
-
-    @Setter(onMethod_ = @Inject)
-    private DelayInstanceEntityRepo delayInstanceEntityRepo;
+    @PersistenceContext
+    private EntityManager entityManager;
 
     @Override
     public JobInstance get(String id) {
@@ -97,10 +91,11 @@ public class JobInstanceRepo implements JobInstanceRepository {
 
         // 如果是 plan instance 的检测，那么 job instance 已经创建，则无需再度创建
 
-        // 保存 jobInstance
-        List<JobInstanceEntity> jobInstanceEntities = jobInstances.stream().map(DomainConverter::toJobInstanceEntity).collect(Collectors.toList());
-        jobInstanceEntityRepo.saveAll(jobInstanceEntities);
-        jobInstanceEntityRepo.flush();
+        // 保存 jobInstance，都是新建的实例，直接 persist，避免 save 对指定了 ID 的实体逐条 select 后 merge
+        for (JobInstance jobInstance : jobInstances) {
+            entityManager.persist(DomainConverter.toJobInstanceEntity(jobInstance));
+        }
+        entityManager.flush();
     }
 
     @Override
@@ -156,25 +151,12 @@ public class JobInstanceRepo implements JobInstanceRepository {
     }
 
     @Override
-    public Map<String, URL> findNotInBrokers(List<URL> brokerUrls, int limit) {
-        List<String> urls = brokerUrls.stream().map(URL::toString).collect(Collectors.toList());
-        List<JobInstanceEntity> entities = jobInstanceEntityRepo.findNotInBrokers(urls, limit);
-        if (CollectionUtils.isEmpty(entities)) {
-            return Collections.emptyMap();
-        }
-        Map<String, URL> map = new HashMap<>();
-        for (JobInstanceEntity entity : entities) {
-            map.put(entity.getJobInstanceId(), DomainConverter.brokerUrl(entity.getBrokerUrl()));
+    public List<JobInstance> findInTriggerWindow(URL brokerUrl, LocalDateTime triggerAtStart, LocalDateTime triggerAtEnd, String startId, Integer limit) {
+        List<JobInstanceEntity> jobInstanceEntities = jobInstanceEntityRepo.findInTriggerWindow(brokerUrl.toString(), triggerAtStart, triggerAtEnd, startId, limit);
+        if (CollectionUtils.isEmpty(jobInstanceEntities)) {
+            return Collections.emptyList();
         }
-        return map;
-    }
-
-    @Override
-    @Transactional
-    public boolean updateBroker(String id, URL oldBrokerUrl, URL newBrokerUrl) {
-        String oldStr = oldBrokerUrl == null ? "" : oldBrokerUrl.toString();
-        String newStr = newBrokerUrl == null ? "" : newBrokerUrl.toString();
-        return jobInstanceEntityRepo.updateBroker(id, oldStr, newStr) > 0;
+        return assemble(jobInstanceEntities);
     }
 
     private List<JobInstance> assemble(List<JobInstanceEntity> entities) {
@@ -189,16 +171,14 @@ public class JobInstanceRepo implements JobInstanceRepository {
             planTypeEntities.addAll(typeGroup.get(InstanceType.WORKFLOW.type));
         }
         if (CollectionUtils.isNotEmpty(planTypeEntities)) {
-            List<String> instanceIds = planTypeEntities.stream().map(JobInstanceEntity::getInstanceId).collect(Collectors.toList());
-            List<PlanInstanceEntity> planInstanceEntities = planInstanceEntityRepo.findAllById(instanceIds);
-            Map<String, PlanInstanceEntity> planInstanceEntityMap = planInstanceEntities.stream().collect(Collectors.toMap(PlanInstanceEntity::getPlanInstanceId, e -> e));
-            Set<String> planInfoIds = planInstanceEntities.stream().map(PlanInstanceEntity::getPlanInfoId).collect(Collectors.toSet());
-            List<PlanInfoEntity> planInfoEntities = planInfoEntityRepo.findAllById(planInfoIds);
-            Map<String, PlanInfoEntity> planInfoEntityMap = planInfoEntities.stream().collect(Collectors.toMap(PlanInfoEntity::getPlanInfoId, e -> e));
+            Set<String> instanceIds = planTypeEntities.stream().map(JobInstanceEntity::getInstanceId).collect(Collectors.toSet());
+            Map<String, CachedInstance> instanceMap = planInfoCache.getPlanInstances(instanceIds);
+            Set<String> planInfoIds = instanceMap.values().stream().map(CachedInstance::getPlanInfoId).collect(Collectors.toSet());
+            Map<String, CachedPlanInfo> planInfoMap = planInfoCache.getPlanInfos(planInfoIds);
             list.addAll(planTypeEntities.stream().map(e -> {
-                PlanInstanceEntity planInstanceEntity = planInstanceEntityMap.get(e.getInstanceId());
-                PlanInfoEntity planInfoEntity = planInfoEntityMap.get(planInstanceEntity.getPlanInfoId());
-                return assemble(e, planInstanceEntity.getAttributes(), planInfoEntity.getJobInfo());
+                CachedInstance instance = instanceMap.get(e.getInstanceId());
+                CachedPlanInfo planInfo = planInfoMap.get(instance.getPlanInfoId());
+                return assemble(e, instance.getAttributes(), planInfo.getJob(e.getJobId()));
             }).collect(Collectors.toList()));
         }
         // delay
@@ -207,12 +187,11 @@ public class JobInstanceRepo implements JobInstanceRepository {
             delayTypeEntities.addAll(typeGroup.get(InstanceType.DELAY_STANDALONE.type));
         }
         if (CollectionUtils.isNotEmpty(delayTypeEntities)) {
-            List<String> instanceIds = delayTypeEntities.stream().map(JobInstanceEntity::getInstanceId).collect(Collectors.toList());
-            List<DelayInstanceEntity> delayInstanceEntities = delayInstanceEntityRepo.findAllById(instanceIds);
-            Map<String, DelayInstanceEntity> map = delayInstanceEntities.stream().collect(Collectors.toMap(DelayInstanceEntity::getInstanceId, v -> v));
+            Set<String> instanceIds = delayTypeEntities.stream().map(JobInstanceEntity::getInstanceId).collect(Collectors.toSet());
+            Map<String, CachedInstance> instanceMap = planInfoCache.getDelayInstances(instanceIds);
             list.addAll(delayTypeEntities.stream().map(e -> {
-                DelayInstanceEntity delayInstanceEntity = map.get(e.getInstanceId());
-                return assemble(e, delayInstanceEntity.getAttributes(), delayInstanceEntity.getJobInfo());
+                CachedInstance instance = instanceMap.get(e.getInstanceId());
+                return assemble(e, instance.getAttributes(), instance.getDag().getNode(e.getJobId()));
             }).collect(Collectors.toList()));
         }
 
@@ -222,31 +201,29 @@ public class JobInstanceRepo implements JobInstanceRepository {
     private JobInstance assemble(JobInstanceEntity entity) {
         InstanceType instanceType = InstanceType.parse(entity.getInstanceType());
         if (InstanceType.STANDALONE == instanceType || InstanceType.WORKFLOW == instanceType) {
-            PlanInstanceEntity planInstanceEntity = planInstanceEntityRepo.findById(entity.getInstanceId()).orElseThrow(VerifyException.supplier(MsgConstants.CANT_FIND_PLAN_INSTANCE + entity.getInstanceId()));
-            PlanInfoEntity planInfoEntity = planInfoEntityRepo.findById(planInstanceEntity.getPlanInfoId()).orElseThrow(VerifyException.supplier(MsgConstants.CANT_FIND_PLAN_INFO + planInstanceEntity.getPlanInfoId()));
-            return assemble(entity, planInstanceEntity.getAttributes(), planInfoEntity.getJobInfo());
+            CachedInstance instance = planInfoCache.getPlanInstance(entity.getInstanceId());
+            CachedPlanInfo planInfo = planInfoCache.getPlanInfo(instance.getPlanInfoId());
+            return assemble(entity, instance.getAttributes(), planInfo.getJob(entity.getJobId()));
         } else if (InstanceType.DELAY_STANDALONE == instanceType) {
-            DelayInstanceEntity delayInstanceEntity = delayInstanceEntityRepo.findById(entity.getInstanceId()).orElseThrow(VerifyException.supplier(MsgConstants.CANT_FIND_DELAY_INSTANCE + entity.getInstanceId()));
-            return assemble(entity, delayInstanceEntity.getAttributes(), delayInstanceEntity.getJobInfo());
+            CachedInstance instance = planInfoCache.getDelayInstance(entity.getInstanceId());
+            return assemble(entity, instance.getAttributes(), instance.getDag().getNode(entity.getJobId()));
         } else {
             return null;
         }
     }
 
-    private JobInstance assemble(JobInstanceEntity entity, String instanceAttributes, String jobInfoJson) {
+    /**
+     * @param instanceAttributes 缓存中的实例参数，只读
+     * @param jobInfo            缓存中的任务信息，只读
+     */
+    private JobInstance assemble(JobInstanceEntity entity, Attributes instanceAttributes, WorkflowJobInfo jobInfo) {
         InstanceType instanceType = InstanceType.parse(entity.getInstanceType());
-        WorkflowJobInfo jobInfo;
-        if (InstanceType.STANDALONE == instanceType) {
-            jobInfo = JacksonUtils.parseObject(jobInfoJson, WorkflowJobInfo.class);
-        } else if (InstanceType.WORKFLOW == instanceType || InstanceType.DELAY_STANDALONE == instanceType) {
-            DAG<WorkflowJobInfo> dag = DomainConverter.toJobDag(jobInfoJson);
-            jobInfo = dag.getNode(entity.getJobId());
-        } else {
-            throw new IllegalArgumentException("Illegal InstanceType id:" + entity.getJobInstanceId());
+        if (jobInfo == null) {
+            throw new IllegalArgumentException("Can't find job " + entity.getJobId() + " of JobInstance id:" + entity.getJobInstanceId());
         }
 
         Attributes attributes = new Attributes();
-        attributes.put(new Attributes(instanceAttributes));
+        attributes.put(instanceAttributes);
         attributes.put(jobInfo.getAttributes());
         return JobInstance.builder()
                 .id(entity.getJobInstanceId())
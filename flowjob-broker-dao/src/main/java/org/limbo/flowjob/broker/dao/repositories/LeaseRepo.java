@@ -0,0 +1,73 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.repositories;
+
+import lombok.Setter;
+import org.limbo.flowjob.broker.core.meta.lock.LeaseRepository;
+import org.limbo.flowjob.broker.dao.entity.LockEntity;
+import org.springframework.stereotype.Repository;
+
+import javax.inject.Inject;
+import javax.transaction.Transactional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 flowjob_lock 表的租约，到期时间统一使用数据库时间
+ *
+ * @author Brozen
+ * @since 2024-02-07
+ */
+@Repository
+public class LeaseRepo implements LeaseRepository {
+
+    @Setter(onMethod_ = @Inject)
+    private LockEntityRepo lockEntityRepo;
+
+    @Override
+    @Transactional
+    public Long acquire(String name, String owner, long duration) {
+        long durationMicros = TimeUnit.MILLISECONDS.toMicros(duration);
+        // 一条 update 完成比较和抢占，token + 1，到期时间由数据库计算
+        int updated = lockEntityRepo.acquire(name, owner, durationMicros);
+        if (updated == 1) {
+            // 更新后本事务持有行锁，读到的就是本次抢占得到的 token
+            LockEntity lock = lockEntityRepo.findByName(name);
+            return lock.getToken();
+        }
+
+        // 未更新说明已被其它节点持有，或者是首次使用，只有首次使用时插入记录，token 从 1 开始
+        if (lockEntityRepo.existsByName(name)) {
+            return null;
+        }
+        return lockEntityRepo.create(name, owner, durationMicros) == 1 ? 1L : null;
+    }
+
+    @Override
+    @Transactional
+    public boolean renew(String name, String owner, long token, long duration) {
+        return lockEntityRepo.renew(name, owner, token, TimeUnit.MILLISECONDS.toMicros(duration)) > 0;
+    }
+
+    @Override
+    @Transactional
+    public void release(String name, String owner, long token) {
+        lockEntityRepo.release(name, owner, token);
+    }
+
+}
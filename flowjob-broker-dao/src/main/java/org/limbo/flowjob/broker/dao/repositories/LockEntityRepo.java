@@ -20,6 +20,12 @@ package org.limbo.flowjob.broker.dao.repositories;
 
 import org.limbo.flowjob.broker.dao.entity.LockEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import javax.persistence.LockModeType;
 
 /**
  * @author Devil
@@ -29,5 +35,45 @@ public interface LockEntityRepo extends JpaRepository<LockEntity, String> {
 
     LockEntity findByName(String name);
 
-    int deleteByName(String name);
+    boolean existsByName(String name);
+
+    /**
+     * 加写锁查询 token 未变化的锁，事务提交前其它节点无法抢占，用于以租约为条件写入
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query(value = "select l from LockEntity l where l.name = :name and l.token = :token")
+    LockEntity lockByToken(@Param("name") String name, @Param("token") Long token);
+
+    /**
+     * 抢占已过期或自己持有的锁，token 递增
+     * 过期判断和到期时间都使用数据库时间，避免各节点时钟不一致时提前抢占其它节点仍在续期的锁
+     */
+    @Modifying(clearAutomatically = true)
+    @Query(value = "update flowjob_lock set owner = :owner, token = token + 1, expire_at = NOW(6) + INTERVAL :duration MICROSECOND " +
+            "where name = :name and (expire_at < NOW(6) or owner = :owner)", nativeQuery = true)
+    int acquire(@Param("name") String name,
+                @Param("owner") String owner,
+                @Param("duration") long durationMicros);
+
+    /**
+     * 锁不存在时创建，并发创建时只有一个成功
+     */
+    @Modifying(clearAutomatically = true)
+    @Query(value = "insert ignore into flowjob_lock(name, owner, token, expire_at) " +
+            "values (:name, :owner, 1, NOW(6) + INTERVAL :duration MICROSECOND)", nativeQuery = true)
+    int create(@Param("name") String name, @Param("owner") String owner, @Param("duration") long durationMicros);
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "update flowjob_lock set expire_at = NOW(6) + INTERVAL :duration MICROSECOND " +
+            "where name = :name and owner = :owner and token = :token and expire_at >= NOW(6)", nativeQuery = true)
+    int renew(@Param("name") String name,
+              @Param("owner") String owner,
+              @Param("token") Long token,
+              @Param("duration") long durationMicros);
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "update flowjob_lock set expire_at = NOW(6) where name = :name and owner = :owner and token = :token", nativeQuery = true)
+    int release(@Param("name") String name,
+                @Param("owner") String owner,
+                @Param("token") Long token);
 }
@@ -0,0 +1,46 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.repositories;
+
+import org.limbo.flowjob.broker.dao.entity.PlanChangeEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * @author Brozen
+ * @since 2024-02-08
+ */
+public interface PlanChangeEntityRepo extends JpaRepository<PlanChangeEntity, Long> {
+
+    @Query(value = "select * from flowjob_plan_change where id > :seq order by id limit :limit", nativeQuery = true)
+    List<PlanChangeEntity> findAfter(@Param("seq") Long seq, @Param("limit") Integer limit);
+
+    @Query(value = "select coalesce(max(id), 0) from flowjob_plan_change", nativeQuery = true)
+    Long findMaxId();
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "delete from flowjob_plan_change where id <= :seq and created_at < :before order by id limit :limit", nativeQuery = true)
+    int deleteBefore(@Param("seq") Long seq, @Param("before") LocalDateTime before, @Param("limit") Integer limit);
+
+}
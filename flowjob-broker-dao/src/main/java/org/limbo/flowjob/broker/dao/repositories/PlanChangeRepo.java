@@ -0,0 +1,77 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.repositories;
+
+import lombok.Setter;
+import org.limbo.flowjob.broker.core.meta.info.PlanChange;
+import org.limbo.flowjob.broker.core.meta.info.PlanChangeRepository;
+import org.limbo.flowjob.broker.dao.entity.PlanChangeEntity;
+import org.springframework.stereotype.Repository;
+
+import javax.inject.Inject;
+import javax.transaction.Transactional;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * @author Brozen
+ * @since 2024-02-08
+ */
+@Repository
+public class PlanChangeRepo implements PlanChangeRepository {
+
+    @Setter(onMethod_ = @Inject)
+    private PlanChangeEntityRepo planChangeEntityRepo;
+
+    @Override
+    public void record(String planId) {
+        PlanChangeEntity entity = new PlanChangeEntity();
+        entity.setPlanId(planId);
+        planChangeEntityRepo.saveAndFlush(entity);
+    }
+
+    @Override
+    public List<PlanChange> findAfter(long seq, int limit) {
+        return planChangeEntityRepo.findAfter(seq, limit).stream()
+                .map(entity -> new PlanChange(entity.getId(), entity.getPlanId()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<PlanChange> findBySeqs(Collection<Long> seqs) {
+        return planChangeEntityRepo.findAllById(seqs).stream()
+                .map(entity -> new PlanChange(entity.getId(), entity.getPlanId()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public long maxSeq() {
+        Long max = planChangeEntityRepo.findMaxId();
+        return max == null ? 0 : max;
+    }
+
+    @Override
+    @Transactional
+    public int deleteBefore(long seq, LocalDateTime before, int limit) {
+        return planChangeEntityRepo.deleteBefore(seq, before, limit);
+    }
+
+}
@@ -26,6 +26,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 
@@ -38,21 +39,14 @@ public interface PlanEntityRepo extends JpaRepository<PlanEntity, String>, JpaSp
     @Query(value = "select * from flowjob_plan where plan_id = :planId for update", nativeQuery = true)
     PlanEntity selectForUpdate(@Param("planId") String planId);
 
+    @Query(value = "select * from flowjob_plan where plan_id in :planIds and is_deleted = false order by plan_id for update", nativeQuery = true)
+    List<PlanEntity> selectForUpdate(@Param("planIds") List<String> planIds);
+
     @Query(value = "select * from flowjob_plan where plan_id in :planIds and is_enabled = true and is_deleted = false", nativeQuery = true)
     List<PlanEntity> loadPlans(@Param("planIds") List<String> planIds);
 
-    @Query(value = "select * from flowjob_plan where broker_url not in :brokerUrls and is_enabled = true and is_deleted = false limit :limit ", nativeQuery = true)
-    List<PlanEntity> findNotInBrokers(@Param("brokerUrls") List<String> brokerUrls, @Param("limit") Integer limit);
-
-    @Modifying(clearAutomatically = true)
-    @Query(value = "update PlanEntity set brokerUrl = :newBrokerUrl where planId = :planId and brokerUrl = :oldBrokerUrl ")
-    int updateBroker(@Param("planId") String planId, @Param("oldBrokerUrl") String oldBrokerUrl, @Param("newBrokerUrl") String newBrokerUrl);
-
-    /**
-     * 修改过的plan
-     */
-    @Query(value = "select * from flowjob_plan where broker_url = :brokerUrl and updated_at >= :updatedAt and is_enabled = true and is_deleted = false", nativeQuery = true)
-    List<PlanEntity> loadUpdatedPlans(@Param("brokerUrl") String brokerUrl, @Param("updatedAt") LocalDateTime updatedAt);
+    @Query(value = "select * from flowjob_plan where bucket in :buckets and is_enabled = true and is_deleted = false", nativeQuery = true)
+    List<PlanEntity> loadPlansInBuckets(@Param("buckets") Collection<Integer> buckets);
 
     @Modifying(clearAutomatically = true)
     @Query(value = "update PlanEntity set currentVersion = :newCurrentVersion, recentlyVersion = :newRecentlyVersion, name = :name, brokerUrl = :brokerUrl " +
@@ -27,6 +27,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -45,11 +46,29 @@ public interface PlanInstanceEntityRepo extends JpaRepository<PlanInstanceEntity
             "order by trigger_at desc limit 1", nativeQuery = true)
     PlanInstanceEntity findLatelyTrigger(@Param("planId") String planId, @Param("planInfoId") String planInfoId, @Param("scheduleType") Integer scheduleType, @Param("triggerType") Integer triggerType);
 
+    @Query(value = "select * from flowjob_plan_instance p " +
+            "where p.plan_id in :planIds and p.plan_info_id in :planInfoIds and p.schedule_type in :scheduleTypes and p.trigger_type = :triggerType " +
+            "and p.trigger_at = (select max(i.trigger_at) from flowjob_plan_instance i " +
+            "where i.plan_id = p.plan_id and i.plan_info_id = p.plan_info_id and i.schedule_type = p.schedule_type and i.trigger_type = :triggerType)", nativeQuery = true)
+    List<PlanInstanceEntity> findLatelyTriggers(@Param("planIds") Collection<String> planIds, @Param("planInfoIds") Collection<String> planInfoIds,
+                                                @Param("scheduleTypes") Collection<Integer> scheduleTypes, @Param("triggerType") Integer triggerType);
+
     @Query(value = "select * from flowjob_plan_instance " +
             "where plan_id = :planId and schedule_type = :scheduleType and trigger_type = :triggerType and plan_info_id =:planInfoId " +
             "order by feedback_at desc limit 1", nativeQuery = true)
     PlanInstanceEntity findLatelyFeedback(@Param("planId") String planId, @Param("planInfoId") String planInfoId, @Param("scheduleType") Integer scheduleType, @Param("triggerType") Integer triggerType);
 
+    @Query(value = "select * from flowjob_plan_instance p " +
+            "where p.plan_id in :planIds and p.plan_info_id in :planInfoIds and p.schedule_type in :scheduleTypes and p.trigger_type = :triggerType " +
+            "and p.feedback_at = (select max(i.feedback_at) from flowjob_plan_instance i " +
+            "where i.plan_id = p.plan_id and i.plan_info_id = p.plan_info_id and i.schedule_type = p.schedule_type and i.trigger_type = :triggerType)", nativeQuery = true)
+    List<PlanInstanceEntity> findLatelyFeedbacks(@Param("planIds") Collection<String> planIds, @Param("planInfoIds") Collection<String> planInfoIds,
+                                                 @Param("scheduleTypes") Collection<Integer> scheduleTypes, @Param("triggerType") Integer triggerType);
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "update PlanInstanceEntity set completedJobs = :completedJobs where planInstanceId = :planInstanceId")
+    int updateCompletedJobs(@Param("planInstanceId") String planInstanceId, @Param("completedJobs") String completedJobs);
+
     @Modifying(clearAutomatically = true)
     @Query(value = "update PlanInstanceEntity set status = " + ConstantsPool.INSTANCE_EXECUTING + ", startAt = :startAt " +
             " where planInstanceId = :planInstanceId and status = " + ConstantsPool.INSTANCE_SCHEDULING)
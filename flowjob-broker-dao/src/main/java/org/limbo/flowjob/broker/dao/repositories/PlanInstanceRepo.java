@@ -19,26 +19,35 @@
 package org.limbo.flowjob.broker.dao.repositories;
 
 import lombok.Setter;
-import org.limbo.flowjob.api.constants.InstanceType;
+import org.apache.commons.collections4.CollectionUtils;
 import org.limbo.flowjob.api.constants.InstanceStatus;
 import org.limbo.flowjob.api.constants.ScheduleType;
 import org.limbo.flowjob.api.constants.TriggerType;
+import org.limbo.flowjob.broker.core.meta.info.Plan;
 import org.limbo.flowjob.broker.core.meta.instance.PlanInstance;
 import org.limbo.flowjob.broker.core.meta.instance.PlanInstanceRepository;
-import org.limbo.flowjob.broker.core.meta.info.WorkflowJobInfo;
-import org.limbo.flowjob.broker.core.schedule.ScheduleOption;
+import org.limbo.flowjob.broker.dao.cache.CachedPlanInfo;
+import org.limbo.flowjob.broker.dao.cache.PlanInfoCache;
 import org.limbo.flowjob.broker.dao.converter.DomainConverter;
-import org.limbo.flowjob.broker.dao.entity.PlanInfoEntity;
 import org.limbo.flowjob.broker.dao.entity.PlanInstanceEntity;
 import org.limbo.flowjob.common.utils.attribute.Attributes;
-import org.limbo.flowjob.common.utils.dag.DAG;
-import org.limbo.flowjob.common.utils.json.JacksonUtils;
 import org.springframework.stereotype.Repository;
 
 import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import javax.transaction.Transactional;
 import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * @author Devil
@@ -51,7 +60,10 @@ public class PlanInstanceRepo implements PlanInstanceRepository {
     private PlanInstanceEntityRepo planInstanceEntityRepo;
 
     @Setter(onMethod_ = @Inject)
-    private PlanInfoEntityRepo planInfoEntityRepo;
+    private PlanInfoCache planInfoCache;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
     @Override
     public PlanInstance get(String id) {
@@ -78,48 +90,94 @@ public class PlanInstanceRepo implements PlanInstanceRepository {
         return assemble(planInstanceEntity);
     }
 
+    @Override
+    public Map<String, PlanInstance> getLatelyTriggers(Collection<Plan> plans, TriggerType triggerType) {
+        if (CollectionUtils.isEmpty(plans)) {
+            return Collections.emptyMap();
+        }
+        // version -> plan，查询结果需要与 plan 的 planId、调度方式都匹配
+        Map<String, Plan> versionPlans = new HashMap<>();
+        Set<Integer> scheduleTypes = new HashSet<>();
+        for (Plan plan : plans) {
+            versionPlans.put(plan.getVersion(), plan);
+            scheduleTypes.add(plan.getScheduleOption().getScheduleType().type);
+        }
+        Set<String> planIds = versionPlans.values().stream().map(Plan::getId).collect(Collectors.toSet());
+        List<PlanInstanceEntity> entities = planInstanceEntityRepo.findLatelyTriggers(planIds, versionPlans.keySet(), scheduleTypes, triggerType.type);
+        Map<String, PlanInstance> map = new HashMap<>();
+        for (PlanInstanceEntity entity : entities) {
+            Plan plan = versionPlans.get(entity.getPlanInfoId());
+            if (plan == null || !plan.getId().equals(entity.getPlanId())
+                    || !Objects.equals(plan.getScheduleOption().getScheduleType().type, entity.getScheduleType())) {
+                continue;
+            }
+            map.put(entity.getPlanInfoId(), PlanInstance.builder()
+                    .id(entity.getPlanInstanceId())
+                    .planId(entity.getPlanId())
+                    .version(entity.getPlanInfoId())
+                    .status(InstanceStatus.parse(entity.getStatus()))
+                    .triggerType(TriggerType.parse(entity.getTriggerType()))
+                    .scheduleType(ScheduleType.parse(entity.getScheduleType()))
+                    .attributes(new Attributes(entity.getAttributes()))
+                    .triggerAt(entity.getTriggerAt())
+                    .startAt(entity.getStartAt())
+                    .feedbackAt(entity.getFeedbackAt())
+                    .build());
+        }
+        return map;
+    }
+
     private PlanInstance assemble(PlanInstanceEntity planInstanceEntity) {
         if (planInstanceEntity == null) {
             return null;
         }
-        PlanInfoEntity planInfoEntity = planInfoEntityRepo.findById(planInstanceEntity.getPlanInfoId()).orElse(null);
-        if (planInfoEntity == null) {
+        CachedPlanInfo planInfo = planInfoCache.getPlanInfos(Collections.singletonList(planInstanceEntity.getPlanInfoId()))
+                .get(planInstanceEntity.getPlanInfoId());
+        if (planInfo == null) {
             return PlanInstance.builder()
                     .id(planInstanceEntity.getPlanInstanceId())
                     .build();
         }
 
-        InstanceType instanceType = InstanceType.parse(planInfoEntity.getPlanType());
         InstanceStatus status = InstanceStatus.parse(planInstanceEntity.getStatus());
 
-        ScheduleOption scheduleOption = DomainConverter.toScheduleOption(planInfoEntity);
-        DAG<WorkflowJobInfo> dag;
-        if (InstanceType.STANDALONE == instanceType) {
-            WorkflowJobInfo jobInfo = JacksonUtils.parseObject(planInfoEntity.getJobInfo(), WorkflowJobInfo.class);
-            dag = new DAG<>(Collections.singletonList(jobInfo));
-        } else {
-            dag = DomainConverter.toJobDag(planInfoEntity.getJobInfo());
-        }
-
         return PlanInstance.builder()
                 .id(planInstanceEntity.getPlanInstanceId())
                 .planId(planInstanceEntity.getPlanId())
                 .version(planInstanceEntity.getPlanInfoId())
                 .status(status)
-                .type(instanceType)
+                .type(planInfo.getType())
                 .triggerType(TriggerType.parse(planInstanceEntity.getTriggerType()))
-                .scheduleType(scheduleOption.getScheduleType())
-                .dag(dag)
+                .scheduleType(planInfo.getScheduleOption().getScheduleType())
+                .dag(planInfo.getDag())
                 .attributes(new Attributes(planInstanceEntity.getAttributes()))
                 .triggerAt(planInstanceEntity.getTriggerAt())
                 .startAt(planInstanceEntity.getStartAt())
                 .feedbackAt(planInstanceEntity.getFeedbackAt())
+                .completedJobs(DomainConverter.toCompletedJobs(planInstanceEntity.getCompletedJobs()))
                 .build();
     }
 
     @Override
     @Transactional
     public void save(PlanInstance instance) {
+        planInstanceEntityRepo.saveAndFlush(toEntity(instance));
+    }
+
+    @Override
+    @Transactional
+    public void saveAll(List<PlanInstance> instances) {
+        if (CollectionUtils.isEmpty(instances)) {
+            return;
+        }
+        // 都是新建的实例，直接 persist，避免 save 对指定了 ID 的实体逐条 select 后 merge
+        for (PlanInstance instance : instances) {
+            entityManager.persist(toEntity(instance));
+        }
+        entityManager.flush();
+    }
+
+    private PlanInstanceEntity toEntity(PlanInstance instance) {
         PlanInstanceEntity planInstanceEntity = new PlanInstanceEntity();
         planInstanceEntity.setPlanInstanceId(instance.getId());
         planInstanceEntity.setPlanId(instance.getPlanId());
@@ -131,7 +189,14 @@ public class PlanInstanceRepo implements PlanInstanceRepository {
         planInstanceEntity.setTriggerAt(instance.getTriggerAt());
         planInstanceEntity.setStartAt(instance.getStartAt());
         planInstanceEntity.setFeedbackAt(instance.getFeedbackAt());
-        planInstanceEntityRepo.saveAndFlush(planInstanceEntity);
+        planInstanceEntity.setCompletedJobs(DomainConverter.toCompletedJobs(instance.getCompletedJobs()));
+        return planInstanceEntity;
+    }
+
+    @Override
+    @Transactional
+    public boolean updateCompletedJobs(String instanceId, BitSet completedJobs) {
+        return planInstanceEntityRepo.updateCompletedJobs(instanceId, DomainConverter.toCompletedJobs(completedJobs)) > 0;
     }
 
     @Override
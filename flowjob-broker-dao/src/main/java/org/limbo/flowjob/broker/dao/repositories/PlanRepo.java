@@ -20,33 +20,32 @@ package org.limbo.flowjob.broker.dao.repositories;
 
 import lombok.Setter;
 import org.apache.commons.collections4.CollectionUtils;
-import org.limbo.flowjob.api.constants.InstanceType;
 import org.limbo.flowjob.api.constants.MsgConstants;
 import org.limbo.flowjob.api.constants.TriggerType;
 import org.limbo.flowjob.broker.core.exceptions.VerifyException;
 import org.limbo.flowjob.broker.core.meta.info.Plan;
 import org.limbo.flowjob.broker.core.meta.info.PlanRepository;
-import org.limbo.flowjob.broker.core.meta.info.WorkflowJobInfo;
 import org.limbo.flowjob.broker.core.schedule.ScheduleOption;
+import org.limbo.flowjob.broker.dao.cache.CachedPlanInfo;
+import org.limbo.flowjob.broker.dao.cache.PlanInfoCache;
 import org.limbo.flowjob.broker.dao.converter.DomainConverter;
 import org.limbo.flowjob.broker.dao.entity.PlanEntity;
-import org.limbo.flowjob.broker.dao.entity.PlanInfoEntity;
 import org.limbo.flowjob.broker.dao.entity.PlanInstanceEntity;
-import org.limbo.flowjob.common.utils.dag.DAG;
-import org.limbo.flowjob.common.utils.json.JacksonUtils;
 import org.springframework.stereotype.Repository;
 
 import javax.inject.Inject;
 import javax.transaction.Transactional;
-import java.net.URL;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -60,7 +59,7 @@ public class PlanRepo implements PlanRepository {
     private PlanEntityRepo planEntityRepo;
 
     @Setter(onMethod_ = @Inject)
-    private PlanInfoEntityRepo planInfoEntityRepo;
+    private PlanInfoCache planInfoCache;
 
     @Setter(onMethod_ = @Inject)
     private PlanInstanceEntityRepo planInstanceEntityRepo;
@@ -68,97 +67,126 @@ public class PlanRepo implements PlanRepository {
     @Override
     public Plan get(String id) {
         PlanEntity planEntity = planEntityRepo.findById(id).orElseThrow(VerifyException.supplier(MsgConstants.CANT_FIND_PLAN + id));
-        PlanInfoEntity planInfoEntity = planInfoEntityRepo.findById(planEntity.getCurrentVersion())
-                .orElseThrow(VerifyException.supplier(MsgConstants.CANT_FIND_PLAN_INFO + planEntity.getCurrentVersion()));
-        return assemble(planEntity, planInfoEntity);
+        return assemble(planEntity, planInfoCache.getPlanInfo(planEntity.getCurrentVersion()));
     }
 
     @Override
     @Transactional
     public Plan lockAndGet(String id) {
         PlanEntity planEntity = planEntityRepo.selectForUpdate(id);
-        PlanInfoEntity planInfoEntity = planInfoEntityRepo.findById(planEntity.getCurrentVersion())
-                .orElseThrow(VerifyException.supplier(MsgConstants.CANT_FIND_PLAN_INFO + planEntity.getCurrentVersion()));
-        return assemble(planEntity, planInfoEntity);
+        return assemble(planEntity, planInfoCache.getPlanInfo(planEntity.getCurrentVersion()));
+    }
+
+    @Override
+    @Transactional
+    public Map<String, String> lockAndGetEnabledVersions(List<String> ids) {
+        if (CollectionUtils.isEmpty(ids)) {
+            return Collections.emptyMap();
+        }
+        List<PlanEntity> planEntities = planEntityRepo.selectForUpdate(ids);
+        Map<String, String> versions = new HashMap<>();
+        for (PlanEntity planEntity : planEntities) {
+            if (planEntity.isEnabled()) {
+                versions.put(planEntity.getPlanId(), planEntity.getCurrentVersion());
+            }
+        }
+        return versions;
     }
 
     @Override
     public Plan getByVersion(String id, String version) {
         PlanEntity planEntity = planEntityRepo.findById(id).orElseThrow(VerifyException.supplier(MsgConstants.CANT_FIND_PLAN + id));
-        PlanInfoEntity planInfoEntity = planInfoEntityRepo.findById(version)
-                .orElseThrow(VerifyException.supplier(MsgConstants.CANT_FIND_PLAN_INFO + planEntity.getCurrentVersion()));
-        if (!Objects.equals(planInfoEntity.getPlanId(), planEntity.getPlanId())) {
+        CachedPlanInfo planInfo = planInfoCache.getPlanInfo(version);
+        if (!Objects.equals(planInfo.getPlanId(), planEntity.getPlanId())) {
             throw new IllegalArgumentException("plan:" + id + " version:" + version + " not match");
         }
-        return assemble(planEntity, planInfoEntity);
+        return assemble(planEntity, planInfo);
     }
 
-    @Override
-    public List<Plan> loadUpdatedPlans(URL brokerUrl, LocalDateTime updatedAt) {
-        List<PlanEntity> planEntities = planEntityRepo.loadUpdatedPlans(brokerUrl.toString(), updatedAt);
+    private List<Plan> assemble(List<PlanEntity> planEntities) {
         if (CollectionUtils.isEmpty(planEntities)) {
             return Collections.emptyList();
         }
-        List<String> versions = planEntities.stream().map(PlanEntity::getCurrentVersion).collect(Collectors.toList());
-        List<PlanInfoEntity> planInfoEntities = planInfoEntityRepo.findAllById(versions);
-        Map<String, PlanInfoEntity> planInfoEntityMap = planInfoEntities.stream().collect(Collectors.toMap(PlanInfoEntity::getPlanInfoId, p -> p));
+        Set<String> versions = planEntities.stream().map(PlanEntity::getCurrentVersion).collect(Collectors.toSet());
+        Map<String, CachedPlanInfo> planInfoMap = planInfoCache.getPlanInfos(versions);
+
+        // 按触发方式分组，每组批量查询最近一次调度和最近一次结束的 planInstance
+        Map<TriggerType, List<CachedPlanInfo>> triggerTypePlanInfos = planInfoMap.values().stream()
+                .collect(Collectors.groupingBy(CachedPlanInfo::getTriggerType));
+        Map<String, LocalDateTime> latelyTriggers = new HashMap<>();
+        Map<String, LocalDateTime> latelyFeedbacks = new HashMap<>();
+        for (Map.Entry<TriggerType, List<CachedPlanInfo>> entry : triggerTypePlanInfos.entrySet()) {
+            Set<String> planIds = new HashSet<>();
+            Set<String> planInfoIds = new HashSet<>();
+            Set<Integer> scheduleTypes = new HashSet<>();
+            for (CachedPlanInfo planInfo : entry.getValue()) {
+                planIds.add(planInfo.getPlanId());
+                planInfoIds.add(planInfo.getPlanInfoId());
+                scheduleTypes.add(planInfo.getScheduleOption().getScheduleType().type);
+            }
+            Integer triggerType = entry.getKey().type;
+            for (PlanInstanceEntity entity : planInstanceEntityRepo.findLatelyTriggers(planIds, planInfoIds, scheduleTypes, triggerType)) {
+                if (matches(planInfoMap.get(entity.getPlanInfoId()), entity) && entity.getTriggerAt() != null) {
+                    latelyTriggers.merge(entity.getPlanInfoId(), entity.getTriggerAt(), (o, n) -> o.isAfter(n) ? o : n);
+                }
+            }
+            for (PlanInstanceEntity entity : planInstanceEntityRepo.findLatelyFeedbacks(planIds, planInfoIds, scheduleTypes, triggerType)) {
+                if (matches(planInfoMap.get(entity.getPlanInfoId()), entity) && entity.getFeedbackAt() != null) {
+                    latelyFeedbacks.merge(entity.getPlanInfoId(), entity.getFeedbackAt(), (o, n) -> o.isAfter(n) ? o : n);
+                }
+            }
+        }
+
         List<Plan> list = new ArrayList<>();
         for (PlanEntity planEntity : planEntities) {
-            list.add(assemble(planEntity, planInfoEntityMap.get(planEntity.getCurrentVersion())));
+            String version = planEntity.getCurrentVersion();
+            list.add(assemble(planEntity, planInfoMap.get(version), latelyTriggers.get(version), latelyFeedbacks.get(version)));
         }
         return list;
     }
 
-    @Override
-    public Map<String, URL> findNotInBrokers(List<URL> brokerUrls, int limit) {
-        List<String> urls = brokerUrls.stream().map(URL::toString).collect(Collectors.toList());
-        List<PlanEntity> planEntities = planEntityRepo.findNotInBrokers(urls, limit);
-        if (CollectionUtils.isEmpty(planEntities)) {
-            return Collections.emptyMap();
-        }
-        Map<String, URL> map = new HashMap<>();
-        for (PlanEntity planEntity : planEntities) {
-            map.put(planEntity.getPlanId(), DomainConverter.brokerUrl(planEntity.getBrokerUrl()));
-        }
-        return map;
+    /**
+     * 查询结果需要与 plan 的 planId、调度方式都匹配
+     */
+    private boolean matches(CachedPlanInfo planInfo, PlanInstanceEntity entity) {
+        return planInfo != null && planInfo.getPlanId().equals(entity.getPlanId())
+                && Objects.equals(planInfo.getScheduleOption().getScheduleType().type, entity.getScheduleType());
     }
 
     @Override
-    @Transactional
-    public boolean updateBroker(String id, URL oldBrokerUrl, URL newBrokerUrl) {
-        String oldStr = oldBrokerUrl == null ? "" : oldBrokerUrl.toString();
-        String newStr = newBrokerUrl == null ? "" : newBrokerUrl.toString();
-        return planEntityRepo.updateBroker(id, oldStr, newStr) > 0;
+    public List<Plan> loadPlansInBuckets(Collection<Integer> buckets) {
+        if (CollectionUtils.isEmpty(buckets)) {
+            return Collections.emptyList();
+        }
+        return assemble(planEntityRepo.loadPlansInBuckets(buckets));
     }
 
-    private Plan assemble(PlanEntity planEntity, PlanInfoEntity planInfoEntity) {
-        InstanceType instanceType = InstanceType.parse(planInfoEntity.getPlanType());
-        TriggerType triggerType = TriggerType.parse(planInfoEntity.getTriggerType());
+    private Plan assemble(PlanEntity planEntity, CachedPlanInfo planInfo) {
+        TriggerType triggerType = planInfo.getTriggerType();
 
         // 获取最近一次调度的planInstance和最近一次结束的planInstance
-        ScheduleOption scheduleOption = DomainConverter.toScheduleOption(planInfoEntity);
+        ScheduleOption scheduleOption = planInfo.getScheduleOption();
 
         PlanInstanceEntity latelyTrigger = planInstanceEntityRepo.findLatelyTrigger(planEntity.getPlanId(), planEntity.getCurrentVersion(), scheduleOption.getScheduleType().type, triggerType.type);
         PlanInstanceEntity latelyFeedback = planInstanceEntityRepo.findLatelyFeedback(planEntity.getPlanId(), planEntity.getCurrentVersion(), scheduleOption.getScheduleType().type, triggerType.type);
 
-        LocalDateTime latelyTriggerAt = latelyTrigger == null || latelyTrigger.getTriggerAt() == null ? null : latelyTrigger.getTriggerAt().truncatedTo(ChronoUnit.SECONDS);
-        LocalDateTime latelyFeedbackAt = latelyFeedback == null || latelyFeedback.getFeedbackAt() == null ? null : latelyFeedback.getFeedbackAt().truncatedTo(ChronoUnit.SECONDS);
+        return assemble(planEntity, planInfo,
+                latelyTrigger == null ? null : latelyTrigger.getTriggerAt(),
+                latelyFeedback == null ? null : latelyFeedback.getFeedbackAt()
+        );
+    }
 
-        DAG<WorkflowJobInfo> dag;
-        if (InstanceType.STANDALONE == instanceType) {
-            WorkflowJobInfo jobInfo = JacksonUtils.parseObject(planInfoEntity.getJobInfo(), WorkflowJobInfo.class);
-            dag = new DAG<>(Collections.singletonList(jobInfo));
-        } else {
-            dag = DomainConverter.toJobDag(planInfoEntity.getJobInfo());
-        }
+    private Plan assemble(PlanEntity planEntity, CachedPlanInfo planInfo, LocalDateTime triggerAt, LocalDateTime feedbackAt) {
+        LocalDateTime latelyTriggerAt = triggerAt == null ? null : triggerAt.truncatedTo(ChronoUnit.SECONDS);
+        LocalDateTime latelyFeedbackAt = feedbackAt == null ? null : feedbackAt.truncatedTo(ChronoUnit.SECONDS);
 
         return Plan.builder()
-                .id(planInfoEntity.getPlanId())
-                .version(planInfoEntity.getPlanInfoId())
-                .type(instanceType)
-                .triggerType(triggerType)
-                .scheduleOption(scheduleOption)
-                .dag(dag)
+                .id(planInfo.getPlanId())
+                .version(planInfo.getPlanInfoId())
+                .type(planInfo.getType())
+                .triggerType(planInfo.getTriggerType())
+                .scheduleOption(planInfo.getScheduleOption())
+                .dag(planInfo.getDag())
                 .latelyTriggerAt(latelyTriggerAt)
                 .latelyFeedbackAt(latelyFeedbackAt)
                 .brokerUrl(DomainConverter.brokerUrl(planEntity.getBrokerUrl()))
@@ -25,6 +25,7 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -48,6 +49,12 @@ public interface WorkerEntityRepo extends JpaRepository<WorkerEntity, String>, J
     @Query(value = "update WorkerEntity set status = :newStatus where workerId = :workerId and status = :oldStatus ")
     int updateStatus(@Param("workerId") String workerId, @Param("oldStatus") Integer oldStatus, @Param("newStatus") Integer newStatus);
 
+    @Modifying(clearAutomatically = true)
+    @Query(value = "update WorkerEntity set status = :newStatus where workerId = :workerId and status = :oldStatus " +
+            "and not exists (select m.workerId from WorkerMetricEntity m where m.workerId = :workerId and m.lastHeartbeatAt >= :deadline)")
+    int updateStatusIfExpired(@Param("workerId") String workerId, @Param("oldStatus") Integer oldStatus,
+                              @Param("newStatus") Integer newStatus, @Param("deadline") LocalDateTime deadline);
+
     @Modifying(clearAutomatically = true)
     @Query(value = "update WorkerEntity set enabled = :newValue where workerId = :workerId and enabled = :oldValue")
     int updateEnable(@Param("workerId") String workerId, @Param("oldValue") boolean oldValue, @Param("newValue") boolean newValue);
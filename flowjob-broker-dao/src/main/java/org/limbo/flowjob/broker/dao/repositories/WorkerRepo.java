@@ -39,7 +39,9 @@ import javax.inject.Inject;
 import javax.transaction.Transactional;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -128,6 +130,36 @@ public class WorkerRepo implements WorkerRepository {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * 已存在的指标加载到持久化上下文中直接修改，flush 时批量更新
+     *
+     * @param workers worker节点
+     */
+    @Override
+    @Transactional
+    public void saveMetrics(Collection<Worker> workers) {
+        if (CollectionUtils.isEmpty(workers)) {
+            return;
+        }
+        Map<String, WorkerMetricEntity> metrics = new HashMap<>();
+        for (Worker worker : workers) {
+            metrics.put(worker.getId(), WorkerEntityConverter.toMetricEntity(worker.getId(), worker.getMetric()));
+        }
+        for (WorkerMetricEntity entity : metricEntityRepo.findAllById(metrics.keySet())) {
+            WorkerMetricEntity metric = metrics.remove(entity.getWorkerId());
+            entity.setAvailableCpu(metric.getAvailableCpu());
+            entity.setAvailableRam(metric.getAvailableRam());
+            entity.setAvailableQueueLimit(metric.getAvailableQueueLimit());
+            entity.setLastHeartbeatAt(metric.getLastHeartbeatAt());
+        }
+        if (!metrics.isEmpty()) {
+            metricEntityRepo.saveAll(metrics.values());
+        }
+        metricEntityRepo.flush();
+    }
+
+
     /**
      * {@inheritDoc}
      *
@@ -222,4 +254,10 @@ public class WorkerRepo implements WorkerRepository {
         return workerEntityRepo.updateStatus(workerId, oldStatus, newStatus) > 0;
     }
 
+    @Override
+    @Transactional
+    public boolean updateStatusIfExpired(String workerId, Integer oldStatus, Integer newStatus, LocalDateTime deadline) {
+        return workerEntityRepo.updateStatusIfExpired(workerId, oldStatus, newStatus, deadline) > 0;
+    }
+
 }
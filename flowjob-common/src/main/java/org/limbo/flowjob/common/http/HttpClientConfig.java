@@ -0,0 +1,126 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.http;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+/**
+ * 进程内共享的 HTTP 客户端配置，见 {@link HttpClientRegistry}
+ *
+ * @author Brozen
+ * @since 2024-02-22
+ */
+@Data
+public class HttpClientConfig {
+
+    /**
+     * 连接池中保持的最大空闲连接数，默认 32
+     */
+    private int maxIdleConnections = 32;
+
+    /**
+     * 空闲连接保持时长，默认 5 分钟
+     */
+    private Duration keepAlive = Duration.ofMinutes(5);
+
+    /**
+     * 同时进行中的最大请求数，仅限制异步请求，默认 256
+     */
+    private int maxRequests = 256;
+
+    /**
+     * 每个节点同时进行中的最大请求数，仅限制异步请求，默认 64
+     */
+    private int maxRequestsPerHost = 64;
+
+    /**
+     * 每个 RPC 客户端等待响应的异步请求数上限，超出时异步请求直接失败，默认 1024
+     */
+    private int maxPendingRequests = 1024;
+
+    /**
+     * 连接超时时间，默认 10 秒
+     */
+    private Duration connectTimeout = Duration.ofSeconds(10);
+
+    /**
+     * 读超时时间，默认 10 秒
+     */
+    private Duration readTimeout = Duration.ofSeconds(10);
+
+    /**
+     * 写超时时间，默认 10 秒
+     */
+    private Duration writeTimeout = Duration.ofSeconds(10);
+
+    /**
+     * 与 agent、worker 内嵌 RPC 服务通信时是否使用 h2c（明文 HTTP/2，prior knowledge），默认 false。
+     * 开启后同一节点的并发请求复用一个连接；需要先升级所有 agent、worker，内嵌服务同时支持 HTTP/1.1 和 h2c。
+     */
+    private boolean h2c = false;
+
+    /**
+     * 与 agent、worker 内嵌 RPC 服务通信时是否使用二进制 RPC 协议，默认 false，优先于 h2c。
+     * 内嵌服务在同一端口上同时支持 HTTP 和二进制协议，节点地址无需变化；需要先升级所有 agent、worker。
+     */
+    private boolean tcp = false;
+
+    /**
+     * 负载均衡时单个节点连续失败多少次后摘除，默认 5
+     */
+    private int failureThreshold = 5;
+
+    /**
+     * 节点首次被摘除的时长，连续摘除时翻倍，默认 5 秒
+     */
+    private Duration ejectionTime = Duration.ofSeconds(5);
+
+    /**
+     * 节点被摘除的最长时长，默认 1 分钟
+     */
+    private Duration maxEjectionTime = Duration.ofMinutes(1);
+
+    /**
+     * 节点平均耗时超过其他节点中位数的多少倍时作为慢节点摘除，0 表示不按耗时摘除，默认 3
+     */
+    private double outlierLatencyFactor = 3.0;
+
+    /**
+     * 按耗时摘除的最低耗时，平均耗时低于此值的节点不会被摘除，默认 500 毫秒
+     */
+    private Duration outlierMinLatency = Duration.ofMillis(500);
+
+    /**
+     * 重试请求数占请求数的比例上限，默认 0.2
+     */
+    private double retryBudgetRatio = 0.2;
+
+    /**
+     * 超出重试比例后每秒仍允许的重试次数，默认 10
+     */
+    private int retryBudgetMinPerSecond = 10;
+
+    /**
+     * 幂等请求（GET 请求、心跳）在此时间内未返回时向另一个节点发送对冲请求，先返回的结果生效。为空表示不发送，默认为空
+     */
+    private Duration hedgeDelay = null;
+
+}
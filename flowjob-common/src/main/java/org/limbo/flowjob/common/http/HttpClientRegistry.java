@@ -0,0 +1,128 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.http;
+
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内共享的 OkHttp 客户端。
+ * 所有 RPC 客户端都从这里获取 {@link OkHttpClient}，需要添加拦截器时通过 {@link OkHttpClient#newBuilder()} 派生，
+ * 派生的客户端与共享客户端使用同一个连接池和调度器，避免每个 RPC 客户端各自维护连接。
+ *
+ * @author Brozen
+ * @since 2024-02-22
+ */
+@Slf4j
+public class HttpClientRegistry {
+
+    private static volatile HttpClientConfig config = new HttpClientConfig();
+
+    private static volatile OkHttpClient http1;
+
+    private static volatile OkHttpClient h2c;
+
+    /**
+     * 更新配置，需要在创建 RPC 客户端前调用，已创建的客户端仍可使用。
+     * 被替换的客户端会关闭连接池中的空闲连接，调度器的线程空闲后自行退出
+     */
+    public static synchronized void configure(HttpClientConfig config) {
+        if (config == null) {
+            return;
+        }
+        OkHttpClient replaced = http1;
+        HttpClientRegistry.config = config;
+        http1 = null;
+        h2c = null;
+        // h2c 客户端由 http1 客户端派生，共用同一个连接池
+        if (replaced != null) {
+            log.info("[HttpClientRegistry] shared client replaced, evict idle connections");
+            replaced.connectionPool().evictAll();
+        }
+    }
+
+    /**
+     * @return 当前配置
+     */
+    public static HttpClientConfig config() {
+        return config;
+    }
+
+    /**
+     * 与 broker 通信的客户端，使用 HTTP/1.1
+     */
+    public static OkHttpClient client() {
+        OkHttpClient client = http1;
+        if (client == null) {
+            synchronized (HttpClientRegistry.class) {
+                client = http1;
+                if (client == null) {
+                    client = build(config);
+                    http1 = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * 与 agent、worker 内嵌 RPC 服务通信的客户端，配置开启 h2c 时使用 h2c
+     */
+    public static OkHttpClient embedClient() {
+        if (!config.isH2c()) {
+            return client();
+        }
+
+        OkHttpClient client = h2c;
+        if (client == null) {
+            synchronized (HttpClientRegistry.class) {
+                client = h2c;
+                if (client == null) {
+                    client = client().newBuilder()
+                            .protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE))
+                            .build();
+                    h2c = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    private static OkHttpClient build(HttpClientConfig config) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+
+        log.info("[HttpClientRegistry] create shared client config={}", config);
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(config.getMaxIdleConnections(), config.getKeepAlive().toMillis(), TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .connectTimeout(config.getConnectTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .readTimeout(config.getReadTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .writeTimeout(config.getWriteTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+}
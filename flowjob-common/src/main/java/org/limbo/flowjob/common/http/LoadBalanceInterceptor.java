@@ -18,26 +18,53 @@
 
 package org.limbo.flowjob.common.http;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import org.apache.commons.collections4.CollectionUtils;
+import org.limbo.flowjob.common.lb.CircuitBreaker;
 import org.limbo.flowjob.common.lb.LBServer;
 import org.limbo.flowjob.common.lb.LBServerRepository;
 import org.limbo.flowjob.common.lb.LBStrategy;
-import org.limbo.flowjob.common.rpc.RPCInvocation;
+import org.limbo.flowjob.common.lb.RetryBudget;
 import org.limbo.flowjob.common.lb.strategies.RoundRobinLBStrategy;
+import org.limbo.flowjob.common.rpc.RPCInvocation;
+import org.limbo.flowjob.common.thread.NamedThreadFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * 负载均衡拦截器，按策略选择节点并改写请求地址。
+ * 每个节点有一个 {@link CircuitBreaker}，连续失败或平均耗时明显高于其他节点时暂时摘除；
+ * 失败后换节点重试，重试受 {@link RetryBudget} 限制；幂等请求可配置对冲，见 {@link HttpClientConfig#getHedgeDelay()}。
+ *
  * @author Devil
  * @since 2022/10/24
  */
@@ -45,6 +72,27 @@ import java.util.stream.Collectors;
 @Accessors(fluent = true)
 public class LoadBalanceInterceptor<S extends LBServer> implements Interceptor {
 
+    /**
+     * 同时执行的对冲请求数，满了之后不再对冲
+     */
+    private static final int MAX_HEDGE_REQUESTS = 64;
+
+    /**
+     * 检查外部调用是否取消的间隔，毫秒
+     */
+    private static final long CANCEL_CHECK_MILLIS = 50;
+
+    /**
+     * 检查对冲中的外部调用是否取消，只做检查，不执行请求
+     */
+    private static final ScheduledThreadPoolExecutor CANCEL_CHECKER = new ScheduledThreadPoolExecutor(1, NamedThreadFactory.newInstance("FlowJobHedgeCancel"));
+
+    static {
+        CANCEL_CHECKER.setKeepAliveTime(60, TimeUnit.SECONDS);
+        CANCEL_CHECKER.allowCoreThreadTimeOut(true);
+        CANCEL_CHECKER.setRemoveOnCancelPolicy(true);
+    }
+
     /**
      * 被负载的服务列表
      */
@@ -60,9 +108,55 @@ public class LoadBalanceInterceptor<S extends LBServer> implements Interceptor {
      */
     private volatile int retryCount = 5;
 
+    /**
+     * 节点的熔断器，节点下线一段时间后自动清理
+     */
+    private final Cache<String, CircuitBreaker> breakers = CacheBuilder.newBuilder()
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 带有 {@link Affinity} 标记的请求上次成功发往的节点
+     */
+    private final Cache<String, String> affinities = CacheBuilder.newBuilder()
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    private final RetryBudget retryBudget;
+
+    private final int failureThreshold;
+
+    private final long ejectionMillis;
+
+    private final long maxEjectionMillis;
+
+    private final double outlierLatencyFactor;
+
+    private final long outlierMinLatencyMillis;
+
+    /**
+     * 对冲延迟，0 表示不对冲
+     */
+    private final long hedgeDelayMillis;
+
+    /**
+     * 发送对冲请求的客户端，由拦截器所在的客户端派生，使用独立的调度器异步执行，见 {@link #attach(OkHttpClient)}
+     */
+    private volatile OkHttpClient hedgeClient;
+
     public LoadBalanceInterceptor(LBServerRepository<S> repository, LBStrategy<S> strategy) {
         this.repository = repository;
         updateLBStrategy(strategy);
+
+        HttpClientConfig config = HttpClientRegistry.config();
+        this.retryBudget = new RetryBudget(config.getRetryBudgetRatio(), config.getRetryBudgetMinPerSecond());
+        this.failureThreshold = config.getFailureThreshold();
+        this.ejectionMillis = config.getEjectionTime().toMillis();
+        this.maxEjectionMillis = config.getMaxEjectionTime().toMillis();
+        this.outlierLatencyFactor = config.getOutlierLatencyFactor();
+        this.outlierMinLatencyMillis = config.getOutlierMinLatency().toMillis();
+        Duration hedgeDelay = config.getHedgeDelay();
+        this.hedgeDelayMillis = hedgeDelay == null ? 0 : Math.max(hedgeDelay.toMillis(), 1);
     }
 
     public LoadBalanceInterceptor(int retryCount, LBServerRepository<S> repository, LBStrategy<S> strategy) {
@@ -70,38 +164,295 @@ public class LoadBalanceInterceptor<S extends LBServer> implements Interceptor {
         this.retryCount = retryCount;
     }
 
+    /**
+     * 绑定拦截器所在的客户端。对冲请求由它派生的客户端发送，沿用其协议、连接池、超时配置以及本拦截器之后的拦截器；
+     * 未绑定时不对冲
+     *
+     * @param client 已添加本拦截器的客户端
+     */
+    public void attach(OkHttpClient client) {
+        // 外部的异步调用在调度器线程中等待对冲结果，对冲请求使用独立的调度器，避免占满同一个调度器的并发数后互相等待
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_HEDGE_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(client.dispatcher().getMaxRequestsPerHost());
+
+        OkHttpClient.Builder builder = client.newBuilder().dispatcher(dispatcher);
+        List<Interceptor> interceptors = builder.interceptors();
+        // 对冲请求已经选好节点，只经过本拦截器之后的拦截器
+        int index = interceptors.indexOf(this);
+        if (index >= 0) {
+            interceptors.subList(0, index + 1).clear();
+        }
+        this.hedgeClient = builder.build();
+    }
+
+    /**
+     * 没有可用节点或重试用尽时抛出 {@link IOException}，同步调用方得到 RpcException，异步调用的回调也能正常触发
+     */
     @Override
-    public Response intercept(Chain chain) {
+    public Response intercept(Chain chain) throws IOException {
         Request originalRequest = chain.request();
-        HttpUrl oldUrl = originalRequest.url();
+        String path = originalRequest.url().url().getPath(); // http://host:port/path
 
         List<S> servers = repository.listAliveServers();
         if (CollectionUtils.isEmpty(servers)) {
-            throw new IllegalStateException("No alive servers!");
+            throw new IOException("No alive servers!");
         }
+
+        retryBudget.onRequest();
+        boolean hedge = hedgeDelayMillis > 0 && hedgeClient != null && isIdempotent(originalRequest);
+        Affinity affinity = originalRequest.tag(Affinity.class);
+        Set<String> tried = new HashSet<>();
+        IOException failure = null;
         for (int i = 1; i <= retryCount; i++) {
-            String path = oldUrl.url().getPath(); // http://host:port/path
-            Optional<S> optional = strategy.select(servers, new RPCInvocation(path, new HashMap<>()));
-            if (!optional.isPresent()) {
+            long now = System.currentTimeMillis();
+            if (i > 1 && !retryBudget.tryRetry(now)) {
+                log.warn("Retry budget exhausted, stop retry path={}", path);
+                break;
+            }
+
+            S select = select(servers, tried, path, affinity, now);
+            if (select == null) {
                 log.warn("No available alive servers after " + i + " tries from load balancer");
-                throw new IllegalStateException("Can't get alive server by path=" + path);
+                break;
             }
-            S select = optional.get();
-            HttpUrl baseURL = HttpUrl.get(select.getUrl());
-            HttpUrl newHttpUrl = oldUrl.newBuilder()
-                    .scheme(baseURL.scheme())
-                    .host(baseURL.host())
-                    .port(baseURL.port())
-                    .build();
+            tried.add(select.getServerId());
+
+            Request request = rewrite(originalRequest, select);
             try {
-                return chain.proceed(originalRequest.newBuilder().url(newHttpUrl).build());
+                return hedge ? hedge(chain, request, select, servers, tried, path) : proceed(chain, request, select, servers);
             } catch (IOException e) {
-                log.warn("try {} times... address {} connect fail, try connect new node", i, newHttpUrl, e);
-                servers = servers.stream().filter(s -> !s.getServerId().equals(select.getServerId())).collect(Collectors.toList());
+                failure = e;
+                if (chain.call().isCanceled()) {
+                    throw e;
+                }
+                log.warn("try {} times... address {} connect fail, try connect new node", i, request.url(), e);
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        throw new IOException("Can't get available server by path=" + path);
+    }
+
+    /**
+     * 从未尝试过且未被摘除的节点中选择，有 affinity 时优先选择上次成功的节点。
+     * 超过一半的节点被摘除时进入恐慌模式，忽略熔断器在所有未尝试的节点中选择，
+     * 避免只有一个节点或大部分节点同时故障时在摘除期间拒绝所有请求
+     */
+    private S select(List<S> servers, Set<String> tried, String path, Affinity affinity, long now) {
+        boolean panic = isPanic(servers, now);
+        List<S> candidates = new ArrayList<>(servers.size());
+        for (S server : servers) {
+            if (!tried.contains(server.getServerId()) && (panic || breaker(server).isAvailable(now))) {
+                candidates.add(server);
+            }
+        }
+
+        String preferred = affinity == null ? null : affinities.getIfPresent(affinity.getKey());
+        if (preferred != null) {
+            for (S server : candidates) {
+                if (server.getServerId().equals(preferred)) {
+                    if (panic || breaker(server).tryAcquire(now)) {
+                        return server;
+                    }
+                    candidates.remove(server);
+                    break;
+                }
+            }
+        }
+
+        while (!candidates.isEmpty()) {
+            Optional<S> optional = strategy.select(candidates, new RPCInvocation(path, new HashMap<>()));
+            if (!optional.isPresent()) {
+                return null;
+            }
+            S select = optional.get();
+            if (panic || breaker(select).tryAcquire(now)) {
+                return select;
+            }
+            // 探测名额已被其他请求占用
+            candidates.remove(select);
+        }
+        return null;
+    }
+
+    /**
+     * 可用节点不足一半时进入恐慌模式
+     */
+    private boolean isPanic(List<S> servers, long now) {
+        int available = 0;
+        for (S server : servers) {
+            if (breaker(server).isAvailable(now)) {
+                available++;
+            }
+        }
+        boolean panic = available * 2 < servers.size();
+        if (panic && log.isDebugEnabled()) {
+            log.debug("Only {} of {} servers available, ignore circuit breakers", available, servers.size());
+        }
+        return panic;
+    }
+
+    private Request rewrite(Request request, S server) {
+        HttpUrl baseURL = HttpUrl.get(server.getUrl());
+        HttpUrl newHttpUrl = request.url().newBuilder()
+                .scheme(baseURL.scheme())
+                .host(baseURL.host())
+                .port(baseURL.port())
+                .build();
+        return request.newBuilder().url(newHttpUrl).build();
+    }
+
+    private Response proceed(Chain chain, Request request, S server, List<S> servers) throws IOException {
+        CircuitBreaker breaker = breaker(server);
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            if (!chain.call().isCanceled()) {
+                breaker.onFailure(System.currentTimeMillis());
+            }
+            throw e;
+        }
+        record(breaker, response, start, servers);
+        rememberAffinity(request, response, server);
+        return response;
+    }
+
+    /**
+     * 先向选中的节点发送请求，hedgeDelay 内未返回时再向另一个节点发送，请求都异步执行，先返回的响应生效，另一个请求被取消。
+     * 外部调用被取消时同样取消所有请求
+     */
+    private Response hedge(Chain chain, Request request, S primary, List<S> servers, Set<String> tried, String path) throws IOException {
+        OkHttpClient client = hedgeClient(chain);
+        if (client.dispatcher().runningCallsCount() >= MAX_HEDGE_REQUESTS) {
+            return proceed(chain, request, primary, servers);
+        }
+
+        HedgedCall hedged = new HedgedCall(client, servers);
+        ScheduledFuture<?> cancelCheck = CANCEL_CHECKER.scheduleWithFixedDelay(() -> {
+            if (chain.call().isCanceled()) {
+                hedged.cancel();
+            }
+        }, CANCEL_CHECK_MILLIS, CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            hedged.start(request, primary);
+            try {
+                return hedged.result.get(hedgeDelayMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ignored) {
+                // 未在对冲延迟内返回，向另一个节点发送
+            }
+
+            long now = System.currentTimeMillis();
+            S second = retryBudget.tryRetry(now) ? select(servers, tried, path, request.tag(Affinity.class), now) : null;
+            if (second != null) {
+                tried.add(second.getServerId());
+                hedged.start(rewrite(request, second), second);
+            }
+            return hedged.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            hedged.cancel();
+            // 已返回的响应不会再被读取，需要关闭
+            hedged.result.thenAccept(Response::close);
+            throw new InterruptedIOException("Hedged request interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            cancelCheck.cancel(false);
+        }
+    }
+
+    /**
+     * 对冲请求使用外部调用的超时配置
+     */
+    private OkHttpClient hedgeClient(Chain chain) {
+        OkHttpClient client = hedgeClient;
+        if (client.connectTimeoutMillis() == chain.connectTimeoutMillis()
+                && client.readTimeoutMillis() == chain.readTimeoutMillis()
+                && client.writeTimeoutMillis() == chain.writeTimeoutMillis()) {
+            return client;
+        }
+        return client.newBuilder()
+                .connectTimeout(chain.connectTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .readTimeout(chain.readTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .writeTimeout(chain.writeTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 记录调用结果，5xx 视为节点故障，但响应已返回，不再重试
+     */
+    private void record(CircuitBreaker breaker, Response response, long startNanos, List<S> servers) {
+        long now = System.currentTimeMillis();
+        if (response.code() >= 500) {
+            breaker.onFailure(now);
+            return;
+        }
+        breaker.onSuccess(now, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        ejectIfSlow(breaker, servers, now);
+    }
+
+    /**
+     * 平均耗时超过其他节点中位数 outlierLatencyFactor 倍的节点作为慢节点摘除。
+     * 至少 3 个节点有耗时数据时才判断，且最多摘除一半节点，避免整体变慢时把所有节点都摘除。
+     */
+    private void ejectIfSlow(CircuitBreaker breaker, List<S> servers, long now) {
+        if (outlierLatencyFactor <= 0 || servers.size() < 3) {
+            return;
+        }
+
+        double latency = breaker.latency();
+        if (latency < outlierMinLatencyMillis) {
+            return;
+        }
+
+        double[] others = new double[servers.size()];
+        int count = 0;
+        int opened = 0;
+        for (S server : servers) {
+            CircuitBreaker other = breakers.getIfPresent(server.getServerId());
+            if (other == null || other == breaker) {
+                continue;
+            }
+            if (other.state() != CircuitBreaker.State.CLOSED) {
+                opened++;
+            } else if (other.latency() > 0) {
+                others[count++] = other.latency();
             }
+        }
+        if (count < 2 || (opened + 1) * 2 > servers.size()) {
+            return;
+        }
+
+        Arrays.sort(others, 0, count);
+        double median = count % 2 == 1 ? others[count / 2] : (others[count / 2 - 1] + others[count / 2]) / 2;
+        if (latency > outlierLatencyFactor * median) {
+            breaker.eject(now, String.format("latency %.1fms, median of others %.1fms", latency, median));
+        }
+    }
 
+    private void rememberAffinity(Request request, Response response, S server) {
+        Affinity affinity = request.tag(Affinity.class);
+        if (affinity != null && response.code() < 500) {
+            affinities.put(affinity.getKey(), server.getServerId());
         }
-        throw new IllegalStateException("try " + retryCount + " times... but also fail, throw to out");
+    }
+
+    private CircuitBreaker breaker(S server) {
+        return breakers.asMap().computeIfAbsent(server.getServerId(),
+                id -> new CircuitBreaker(id, failureThreshold, ejectionMillis, maxEjectionMillis));
+    }
+
+    /**
+     * GET 请求和带有 {@link Idempotent} 标记的请求可以重复发送
+     */
+    private boolean isIdempotent(Request request) {
+        return "GET".equals(request.method()) || request.tag(Idempotent.class) != null;
     }
 
     /**
@@ -116,5 +467,110 @@ public class LoadBalanceInterceptor<S extends LBServer> implements Interceptor {
         this.strategy = strategy;
     }
 
+    /**
+     * 请求标记，表示请求可以重复发送，见 {@link Request.Builder#tag(Class, Object)}
+     */
+    public static final class Idempotent {
+
+        public static final Idempotent INSTANCE = new Idempotent();
+
+        private Idempotent() {
+        }
+    }
+
+    /**
+     * 请求标记，相同 key 的请求尽量发往上次成功处理的节点，节点被摘除或请求失败时再按策略选择。
+     * 用于心跳等在 broker 上保存了上下文的请求，见 {@link Request.Builder#tag(Class, Object)}
+     */
+    public static final class Affinity {
+
+        private final String key;
+
+        public Affinity(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * 一次对冲请求，各节点的请求由拦截器所在客户端派生的客户端异步执行，先返回的响应完成结果并取消其他请求
+     */
+    private class HedgedCall {
+
+        private final OkHttpClient client;
+
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+
+        private final List<Call> calls = new CopyOnWriteArrayList<>();
+
+        private final AtomicReference<Call> winner = new AtomicReference<>();
+
+        private final AtomicInteger running = new AtomicInteger();
+
+        private final List<S> servers;
+
+        HedgedCall(OkHttpClient client, List<S> servers) {
+            this.client = client;
+            this.servers = servers;
+        }
+
+        void start(Request request, S server) {
+            Call call = client.newCall(request);
+            calls.add(call);
+            running.incrementAndGet();
+
+            CircuitBreaker breaker = breaker(server);
+            long start = System.nanoTime();
+            call.enqueue(new Callback() {
+                @Override
+                public void onResponse(Call call, Response response) {
+                    record(breaker, response, start, servers);
+                    if (winner.compareAndSet(null, call) && result.complete(response)) {
+                        rememberAffinity(call.request(), response, server);
+                        cancelLosers();
+                    } else {
+                        response.close();
+                    }
+                }
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    if (!call.isCanceled()) {
+                        breaker.onFailure(System.currentTimeMillis());
+                    }
+                    // 所有请求都失败才算失败
+                    if (running.decrementAndGet() == 0) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+
+            // 已经有结果时不再需要新的请求
+            if (result.isDone()) {
+                cancelLosers();
+            }
+        }
+
+        /**
+         * 外部调用取消，取消所有未返回的请求
+         */
+        void cancel() {
+            if (result.completeExceptionally(new IOException("Canceled"))) {
+                cancelLosers();
+            }
+        }
+
+        private void cancelLosers() {
+            Call win = winner.get();
+            for (Call call : calls) {
+                if (call != win) {
+                    call.cancel();
+                }
+            }
+        }
+    }
 
 }
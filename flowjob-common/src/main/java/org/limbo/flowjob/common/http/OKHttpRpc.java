@@ -22,6 +22,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.net.HttpHeaders;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -33,10 +34,16 @@ import org.limbo.flowjob.common.exception.RpcException;
 import org.limbo.flowjob.common.lb.LBServer;
 import org.limbo.flowjob.common.lb.LBServerRepository;
 import org.limbo.flowjob.common.lb.LBStrategy;
+import org.limbo.flowjob.common.rpc.RpcTransport;
+import org.limbo.flowjob.common.rpc.tcp.TcpRpcTransport;
 import org.limbo.flowjob.common.utils.json.JacksonUtils;
 
 import java.io.IOException;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * @author Devil
@@ -47,45 +54,49 @@ public class OKHttpRpc<S extends LBServer> {
 
     private final OkHttpClient client;
 
+    /**
+     * 使用二进制 RPC 协议时不为空，见 {@link HttpClientConfig#isTcp()}
+     */
+    private final RpcTransport transport;
+
+    /**
+     * 限制等待响应的异步请求数，见 {@link HttpClientConfig#getMaxPendingRequests()}
+     */
+    private final Semaphore pendingPermits;
+
     // application/json; charset=utf-8
     private static final String JSON_UTF_8 = com.google.common.net.MediaType.JSON_UTF_8.toString();
 
     private static final MediaType MEDIA_TYPE = MediaType.parse(JSON_UTF_8);
 
     public OKHttpRpc(LBServerRepository<S> repository, LBStrategy<S> strategy) {
-        OkHttpClient.Builder builder = new OkHttpClient.Builder();
+        this(repository, strategy, false);
+    }
+
+    /**
+     * @param embed 是否与 agent、worker 的内嵌 RPC 服务通信，是则按配置使用 h2c 或二进制 RPC 协议
+     */
+    public OKHttpRpc(LBServerRepository<S> repository, LBStrategy<S> strategy, boolean embed) {
+        // 派生的客户端与共享客户端使用同一个连接池和调度器
+        OkHttpClient shared = embed ? HttpClientRegistry.embedClient() : HttpClientRegistry.client();
         if (repository != null) {
-            builder.addInterceptor(new LoadBalanceInterceptor<>(repository, strategy));
+            LoadBalanceInterceptor<S> interceptor = new LoadBalanceInterceptor<>(repository, strategy);
+            this.client = shared.newBuilder()
+                    .addInterceptor(interceptor)
+                    .build();
+            interceptor.attach(this.client);
+        } else {
+            this.client = shared;
         }
-        this.client = builder.build();
+        this.transport = embed && HttpClientRegistry.config().isTcp() ? TcpRpcTransport.shared() : null;
+        this.pendingPermits = new Semaphore(HttpClientRegistry.config().getMaxPendingRequests());
     }
 
     protected ResponseBody executeGet(String url) {
-        Request request = new Request.Builder()
-                .url(url)
-                .header(HttpHeaders.CONTENT_TYPE, JSON_UTF_8)
-                .get()
-                .build();
-        Call call = client.newCall(request);
         if (log.isDebugEnabled()) {
             log.debug("call api {}", logRequest(url));
         }
-
-        try {
-            // HTTP 响应状态异常
-            Response response = call.execute();
-            if (!response.isSuccessful()) {
-                throw new RpcException("Api access failed; " + logRequest(url) + " code=" + response.code());
-            }
-
-            // 无响应 body 是异常
-            if (response.body() == null) {
-                throw new RpcException("Api response empty body " + logRequest(url));
-            }
-            return response.body();
-        } catch (IOException e) {
-            throw new RpcException("Api access failed " + logRequest(url), e);
-        }
+        return execute(getRequest(url), logRequest(url));
     }
 
     /**
@@ -96,36 +107,51 @@ public class OKHttpRpc<S extends LBServer> {
         if (param != null) {
             json = JacksonUtils.toJSONString(param);
         }
-        RequestBody body = RequestBody.create(MEDIA_TYPE, json);
-
-        Request request = new Request.Builder()
-                .url(url)
-                .header(HttpHeaders.CONTENT_TYPE, JSON_UTF_8)
-                .post(body)
-                .build();
-        Call call = client.newCall(request);
 
         if (log.isDebugEnabled()) {
             log.debug("call api {}", logRequest(url, json));
         }
+        return execute(postRequest(url, json), logRequest(url, json));
+    }
 
+    private ResponseBody execute(Request request, String logRequest) {
+        Call call = client.newCall(request);
         try {
             // HTTP 响应状态异常
             Response response = call.execute();
             if (!response.isSuccessful()) {
-                throw new RpcException("Api access failed; " + logRequest(url, json) + " code=" + response.code());
+                // 未读取 body 的响应需要关闭，否则连接无法回到连接池
+                response.close();
+                throw new RpcException("Api access failed; " + logRequest + " code=" + response.code());
             }
 
             // 无响应 body 是异常
             if (response.body() == null) {
-                throw new RpcException("Api response empty body " + logRequest(url, json));
+                response.close();
+                throw new RpcException("Api response empty body " + logRequest);
             }
             return response.body();
         } catch (IOException e) {
-            throw new RpcException("Api access failed " + logRequest(url, json), e);
+            throw new RpcException("Api access failed " + logRequest, e);
         }
     }
 
+    private Request getRequest(String url) {
+        return new Request.Builder()
+                .url(url)
+                .header(HttpHeaders.CONTENT_TYPE, JSON_UTF_8)
+                .get()
+                .build();
+    }
+
+    private Request postRequest(String url, String json) {
+        return new Request.Builder()
+                .url(url)
+                .header(HttpHeaders.CONTENT_TYPE, JSON_UTF_8)
+                .post(RequestBody.create(MEDIA_TYPE, json))
+                .build();
+    }
+
     protected String logRequest(String url) {
         return String.format("request[url=%s]", url);
     }
@@ -140,6 +166,13 @@ public class OKHttpRpc<S extends LBServer> {
     protected <T> ResponseDTO<T> executePost(String url, Object param, TypeReference<ResponseDTO<T>> reference) {
         Objects.requireNonNull(reference);
 
+        if (transport != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("call api {}", logRequest(url, JacksonUtils.toJSONString(param)));
+            }
+            return JacksonUtils.parseObject(transport.postParam(url, param), reference);
+        }
+
         ResponseBody responseBody = executePost(url, param);
         try {
             return JacksonUtils.parseObject(responseBody.string(), reference);
@@ -148,6 +181,45 @@ public class OKHttpRpc<S extends LBServer> {
         }
     }
 
+    /**
+     * 执行可以重复发送的请求。配置了 {@link HttpClientConfig#getHedgeDelay()} 时，负载均衡会向另一个节点发送对冲请求
+     */
+    protected <T> ResponseDTO<T> executeIdempotentPost(String url, Object param, TypeReference<ResponseDTO<T>> reference) {
+        return executeStickyPost(url, param, reference, null, true);
+    }
+
+    /**
+     * 执行请求，相同 affinity 的请求尽量发往上次成功处理的节点，如增量上报的心跳
+     *
+     * @param affinity   为空时按负载均衡策略选择节点
+     * @param idempotent 是否可以重复发送，见 {@link #executeIdempotentPost(String, Object, TypeReference)}
+     */
+    protected <T> ResponseDTO<T> executeStickyPost(String url, Object param, TypeReference<ResponseDTO<T>> reference,
+                                                   String affinity, boolean idempotent) {
+        Objects.requireNonNull(reference);
+        if (transport != null) {
+            return executePost(url, param, reference);
+        }
+
+        String json = param == null ? "" : JacksonUtils.toJSONString(param);
+        if (log.isDebugEnabled()) {
+            log.debug("call api {}", logRequest(url, json));
+        }
+        Request.Builder builder = postRequest(url, json).newBuilder();
+        if (idempotent) {
+            builder.tag(LoadBalanceInterceptor.Idempotent.class, LoadBalanceInterceptor.Idempotent.INSTANCE);
+        }
+        if (affinity != null) {
+            builder.tag(LoadBalanceInterceptor.Affinity.class, new LoadBalanceInterceptor.Affinity(affinity));
+        }
+        ResponseBody responseBody = execute(builder.build(), logRequest(url, json));
+        try {
+            return JacksonUtils.parseObject(responseBody.string(), reference);
+        } catch (IOException e) {
+            throw new RpcException("Api access failed " + logRequest(url, json), e);
+        }
+    }
+
     /**
      * 通过 OkHttp 执行请求，并获取响应
      */
@@ -162,4 +234,121 @@ public class OKHttpRpc<S extends LBServer> {
         }
     }
 
+    /**
+     * 异步执行请求，不阻塞调用线程
+     */
+    protected <T> CompletableFuture<ResponseDTO<T>> executePostAsync(String url, Object param, TypeReference<ResponseDTO<T>> reference) {
+        return executePostAsync(url, param, reference, Function.identity());
+    }
+
+    /**
+     * 异步执行请求，不阻塞调用线程。handler 在响应线程中处理响应，抛出的异常会使返回的 future 异常结束。
+     * 等待响应的请求数超过 {@link HttpClientConfig#getMaxPendingRequests()} 时直接失败；取消返回的 future 会取消请求。
+     */
+    protected <T, R> CompletableFuture<R> executePostAsync(String url, Object param, TypeReference<ResponseDTO<T>> reference,
+                                                            Function<ResponseDTO<T>, R> handler) {
+        if (transport != null) {
+            // 参数由 transport 编码，仅在 debug 时转为 JSON 打印
+            if (log.isDebugEnabled()) {
+                log.debug("call api async {}", logRequest(url, JacksonUtils.toJSONString(param)));
+            }
+            return executeAsync(() -> transport.postParamAsync(url, param), logRequest(url), reference, handler);
+        }
+
+        String json = param == null ? "" : JacksonUtils.toJSONString(param);
+        if (log.isDebugEnabled()) {
+            log.debug("call api async {}", logRequest(url, json));
+        }
+
+        String logRequest = logRequest(url, json);
+        return executeAsync(() -> enqueue(client.newCall(postRequest(url, json)), logRequest), logRequest, reference, handler);
+    }
+
+    /**
+     * 异步执行请求，不阻塞调用线程，见 {@link #executePostAsync(String, Object, TypeReference, Function)}
+     */
+    protected <T, R> CompletableFuture<R> executeGetAsync(String url, TypeReference<ResponseDTO<T>> reference,
+                                                           Function<ResponseDTO<T>, R> handler) {
+        if (log.isDebugEnabled()) {
+            log.debug("call api async {}", logRequest(url));
+        }
+
+        String logRequest = logRequest(url);
+        return executeAsync(() -> enqueue(client.newCall(getRequest(url)), logRequest), logRequest, reference, handler);
+    }
+
+    private <T, R> CompletableFuture<R> executeAsync(Supplier<CompletableFuture<String>> sender, String logRequest,
+                                                      TypeReference<ResponseDTO<T>> reference, Function<ResponseDTO<T>, R> handler) {
+        Objects.requireNonNull(reference);
+        CompletableFuture<R> future = new CompletableFuture<>();
+        if (!pendingPermits.tryAcquire()) {
+            future.completeExceptionally(new RpcException("Too many pending requests " + logRequest));
+            return future;
+        }
+
+        CompletableFuture<String> sent;
+        try {
+            sent = sender.get();
+        } catch (RuntimeException e) {
+            pendingPermits.release();
+            future.completeExceptionally(new RpcException("Api access failed " + logRequest, e));
+            return future;
+        }
+
+        sent.whenComplete((body, e) -> {
+            if (e != null) {
+                future.completeExceptionally(e instanceof RpcException ? e : new RpcException("Api access failed " + logRequest, e));
+                return;
+            }
+            try {
+                future.complete(handler.apply(JacksonUtils.parseObject(body, reference)));
+            } catch (Exception ex) {
+                future.completeExceptionally(ex);
+            }
+        });
+        future.whenComplete((r, e) -> {
+            pendingPermits.release();
+            if (future.isCancelled()) {
+                sent.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 通过 OkHttp 调度器异步执行请求，取消返回的 future 会取消请求
+     */
+    private CompletableFuture<String> enqueue(Call call, String logRequest) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        future.whenComplete((r, e) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(new RpcException("Api access failed " + logRequest, e));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    ResponseBody body = r.body();
+                    if (!r.isSuccessful()) {
+                        future.completeExceptionally(new RpcException("Api access failed; " + logRequest + " code=" + r.code()));
+                    } else if (body == null) {
+                        future.completeExceptionally(new RpcException("Api response empty body " + logRequest));
+                    } else {
+                        future.complete(body.string());
+                    }
+                } catch (IOException e) {
+                    future.completeExceptionally(new RpcException("Api access failed " + logRequest, e));
+                }
+            }
+        });
+        return future;
+    }
+
 }
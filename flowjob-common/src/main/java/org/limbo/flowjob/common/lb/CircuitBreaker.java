@@ -0,0 +1,192 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.lb;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 单个服务的熔断器。
+ * CLOSED：正常放行，连续失败达到阈值或被判定为慢节点时摘除，转为 OPEN；
+ * OPEN：摘除期间不再选择该服务，摘除时长从 ejectionMillis 开始随连续摘除次数翻倍，最长 maxEjectionMillis；
+ * HALF_OPEN：摘除到期后只放行一个探测请求，成功则恢复 CLOSED，失败则再次摘除。
+ * 调用方在大部分服务被摘除时可以忽略熔断器继续发送请求，被摘除的服务调用成功时同样恢复 CLOSED。
+ *
+ * @author Brozen
+ * @since 2024-03-02
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 耗时 EWMA 的平滑系数
+     */
+    private static final double ALPHA = 0.3;
+
+    private final String serverId;
+
+    /**
+     * 连续失败多少次后摘除
+     */
+    private final int failureThreshold;
+
+    private final long ejectionMillis;
+
+    private final long maxEjectionMillis;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    /**
+     * 连续摘除次数，恢复后稳定运行超过 maxEjectionMillis 才清零，避免反复摘除的服务每次只摘除最短时间
+     */
+    private int ejections;
+
+    /**
+     * OPEN 状态的结束时间
+     */
+    private long openUntil;
+
+    /**
+     * HALF_OPEN 状态探测请求的发出时间，探测请求超过 maxEjectionMillis 未返回时允许重新探测
+     */
+    private long probeAt;
+
+    /**
+     * 最近一次恢复 CLOSED 的时间
+     */
+    private long closedAt;
+
+    /**
+     * 耗时的指数加权移动平均，毫秒，0 表示还没有数据
+     */
+    private double latency;
+
+    public CircuitBreaker(String serverId, int failureThreshold, long ejectionMillis, long maxEjectionMillis) {
+        this.serverId = serverId;
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.ejectionMillis = Math.max(ejectionMillis, 1);
+        this.maxEjectionMillis = Math.max(maxEjectionMillis, this.ejectionMillis);
+    }
+
+    /**
+     * 是否可以选择该服务，不改变状态
+     *
+     * @param now 当前时间戳，毫秒
+     */
+    public synchronized boolean isAvailable(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return now >= openUntil;
+            default:
+                return now - probeAt >= maxEjectionMillis;
+        }
+    }
+
+    /**
+     * 选中该服务后获取放行许可。摘除到期时转为 HALF_OPEN 并占用唯一的探测名额。
+     *
+     * @param now 当前时间戳，毫秒
+     * @return 是否放行
+     */
+    public synchronized boolean tryAcquire(long now) {
+        if (!isAvailable(now)) {
+            return false;
+        }
+        if (state != State.CLOSED) {
+            state = State.HALF_OPEN;
+            probeAt = now;
+        }
+        return true;
+    }
+
+    /**
+     * 记录一次成功调用
+     *
+     * @param now           当前时间戳，毫秒
+     * @param latencyMillis 调用耗时，毫秒
+     */
+    public synchronized void onSuccess(long now, long latencyMillis) {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            closedAt = now;
+            // 恢复后重新统计耗时，避免摘除前的慢请求导致再次被摘除
+            latency = latencyMillis;
+            log.info("[CircuitBreaker] server {} recovered", serverId);
+            return;
+        }
+
+        latency = latency <= 0 ? latencyMillis : ALPHA * latencyMillis + (1 - ALPHA) * latency;
+        if (ejections > 0 && now - closedAt >= maxEjectionMillis) {
+            ejections = 0;
+        }
+    }
+
+    /**
+     * 记录一次失败调用
+     *
+     * @param now 当前时间戳，毫秒
+     */
+    public synchronized void onFailure(long now) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            open(now, "consecutive failures " + consecutiveFailures);
+        }
+    }
+
+    /**
+     * 主动摘除，仅对 CLOSED 状态生效
+     *
+     * @param now    当前时间戳，毫秒
+     * @param reason 摘除原因
+     */
+    public synchronized void eject(long now, String reason) {
+        if (state == State.CLOSED) {
+            open(now, reason);
+        }
+    }
+
+    private void open(long now, String reason) {
+        ejections++;
+        long duration = Math.min(ejectionMillis << Math.min(ejections - 1, 16), maxEjectionMillis);
+        state = State.OPEN;
+        openUntil = now + duration;
+        consecutiveFailures = 0;
+        log.warn("[CircuitBreaker] eject server {} for {}ms, reason: {}", serverId, duration, reason);
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    /**
+     * @return 耗时的指数加权移动平均，毫秒，0 表示还没有数据
+     */
+    public synchronized double latency() {
+        return latency;
+    }
+
+}
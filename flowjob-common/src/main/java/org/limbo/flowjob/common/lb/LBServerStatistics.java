@@ -41,4 +41,18 @@ public interface LBServerStatistics {
      */
     int getAccessTimes();
 
+    /**
+     * 已下发还未完成的请求数，不支持时返回 0
+     */
+    default int getOutstanding() {
+        return 0;
+    }
+
+    /**
+     * 请求耗时的 peak-EWMA，毫秒，没有数据时返回 0
+     */
+    default double getLatency() {
+        return 0;
+    }
+
 }
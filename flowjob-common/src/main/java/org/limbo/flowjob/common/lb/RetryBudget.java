@@ -0,0 +1,82 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.lb;
+
+/**
+ * 重试预算，限制重试占请求量的比例，避免下游整体故障时重试把请求量放大数倍。
+ * 每个请求存入 ratio 个令牌，每次重试消耗一个；令牌不足时每秒仍保底允许 minPerSecond 次重试。
+ *
+ * @author Brozen
+ * @since 2024-03-02
+ */
+public class RetryBudget {
+
+    private final double ratio;
+
+    private final int minPerSecond;
+
+    /**
+     * 令牌上限，避免长时间无故障后积攒的令牌被一次性用完
+     */
+    private final double maxTokens;
+
+    private double tokens;
+
+    private long second;
+
+    private int reserved;
+
+    public RetryBudget(double ratio, int minPerSecond) {
+        this.ratio = Math.max(ratio, 0);
+        this.minPerSecond = Math.max(minPerSecond, 0);
+        this.maxTokens = Math.max(this.ratio * 100, 1);
+    }
+
+    /**
+     * 记录一次请求
+     */
+    public synchronized void onRequest() {
+        tokens = Math.min(tokens + ratio, maxTokens);
+    }
+
+    /**
+     * 尝试获取一次重试机会
+     *
+     * @param now 当前时间戳，毫秒
+     * @return 是否允许重试
+     */
+    public synchronized boolean tryRetry(long now) {
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+
+        long current = now / 1000;
+        if (current != second) {
+            second = current;
+            reserved = 0;
+        }
+        if (reserved < minPerSecond) {
+            reserved++;
+            return true;
+        }
+        return false;
+    }
+
+}
@@ -18,21 +18,30 @@
 
 package org.limbo.flowjob.common.lb.strategies;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.limbo.flowjob.common.lb.AbstractLBStrategy;
 import org.limbo.flowjob.common.lb.Invocation;
 import org.limbo.flowjob.common.lb.LBServer;
-import org.limbo.flowjob.common.utils.MD5Utils;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * 基于 Maglev 查找表的一致性哈希。
+ * 每个服务按自己的排列依次抢占查找表中的槽位，选择时只需一次取模定位槽位，复杂度 O(1)；
+ * 服务增减时只有少量槽位易主，大部分参数仍路由到原来的服务。
+ *
  * @author Brozen
  * @since 2022-09-02
  */
@@ -45,16 +54,34 @@ public class ConsistentHashLBStrategy<S extends LBServer> extends AbstractLBStra
     public static final String HASH_PARAM_NAME = "consistentHash.hashParamName";
 
     /**
-     * 一致性哈希算法中，计算 LBServer 虚拟节点时的分片数量。默认 64。
+     * 查找表大小，均为质数，相邻两档约为 2 倍
+     */
+    private static final int[] TABLE_SIZES = {257, 521, 1031, 2053, 4099, 8209, 16411, 32771, 65537};
+
+    /**
+     * 最多缓存的查找表个数，超出后淘汰最久未使用的
+     */
+    private static final int MAX_CACHED_TABLES = 256;
+
+    private static final HashFunction OFFSET_HASH = Hashing.murmur3_128(0);
+
+    private static final HashFunction SKIP_HASH = Hashing.murmur3_128(1);
+
+    private static final HashFunction KEY_HASH = Hashing.murmur3_128(2);
+
+    /**
+     * 平均每个服务在查找表中占据的槽位数，越大分布越均匀，查找表也越大。默认 64。
      */
     @Setter
     private int replicas = 64;
 
-
     /**
-     * 存储 url 对应的 一致性hash选择器
+     * 存储 targetId 对应的查找表
      */
-    private final ConcurrentHashMap<String, ConsistentHashSelector<S>> selectors = new ConcurrentHashMap<>();
+    private final Cache<String, MaglevTable> tables = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_TABLES)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
 
 
     /**
@@ -66,72 +93,214 @@ public class ConsistentHashLBStrategy<S extends LBServer> extends AbstractLBStra
     @Override
     protected Optional<S> doSelect(List<S> servers, Invocation invocation) {
         String targetId = invocation.getInvokeTargetId();
-        ConsistentHashSelector<S> selector = selectors.get(targetId);
-        int serversHashcode = servers.hashCode();
-        if (selector == null || selector.serversHashCode != serversHashcode) {
-            selector = new ConsistentHashSelector<>(servers, serversHashcode);
-            this.selectors.putIfAbsent(targetId, selector);
+        long hash = hash(invocation);
+
+        MaglevTable table = tables.getIfPresent(targetId);
+        int position = table == null ? -1 : table.lookup(hash, servers);
+        if (position < 0) {
+            // 服务成员变化，重建查找表
+            table = rebuild(targetId, servers, table);
+            position = table.lookup(hash, servers);
         }
+        return position < 0 ? Optional.empty() : Optional.of(servers.get(position));
+    }
 
-        return selector.select(invocation);
+
+    private MaglevTable rebuild(String targetId, List<S> servers, MaglevTable previous) {
+        String[] serverIds = servers.stream()
+                .map(LBServer::getServerId)
+                .distinct()
+                .sorted()
+                .toArray(String[]::new);
+
+        // 服务数量变化不大时沿用之前的表大小，避免换表导致所有槽位重新分配
+        int expected = Math.max(serverIds.length * replicas, 1);
+        int size = previous != null && previous.size() * 2 >= expected && previous.size() <= expected * 4L
+                ? previous.size()
+                : tableSize(expected);
+
+        MaglevTable table = new MaglevTable(serverIds, size);
+        tables.put(targetId, table);
+        return table;
     }
 
 
     /**
-     * 一致性哈希选择器，将一组服务传递给此选择器，选择器将为每个服务生成 {@link ConsistentHashLBStrategy#replicas} 个虚拟节点。
-     * 选择时，根据 {@link Invocation#hashCode()} 选择一个虚拟节点。
+     * 基于配置的 hash 参数名称，从参数里获取对应参数计算 hash；未配置时使用 {@link Invocation#hashCode()}
      */
-    class ConsistentHashSelector<SERVER extends LBServer> {
+    private long hash(Invocation invocation) {
+        Map<String, String> parameters = invocation.getLBParameters();
+        String paramName = parameters.get(HASH_PARAM_NAME);
+        String hashParam = StringUtils.isNotBlank(paramName) ? parameters.get(paramName) : null;
+        return hashParam == null
+                ? KEY_HASH.hashInt(invocation.hashCode()).asLong()
+                : KEY_HASH.hashString(hashParam, StandardCharsets.UTF_8).asLong();
+    }
 
-        private final TreeMap<Long, SERVER> virtualServers;
 
-        private final int serversHashCode;
+    private static int tableSize(int expected) {
+        for (int size : TABLE_SIZES) {
+            if (size >= expected) {
+                return size;
+            }
+        }
+        return TABLE_SIZES[TABLE_SIZES.length - 1];
+    }
+
+
+    /**
+     * Maglev 查找表，槽位中存储服务在 serverIds 中的下标。serverIds 按字典序排列，相同服务列表在所有节点上生成相同的表。
+     * 另外绑定最近一次传入的服务列表，记录每个服务在其中的下标：同一个列表对象再次传入时直接查表，
+     * 传入新的列表对象时遍历一次校验成员并重新记录下标，成员变化时由调用方重建查找表。
+     */
+    static class MaglevTable {
+
+        private final String[] serverIds;
+
+        /**
+         * serverId -> 在 serverIds 中的下标
+         */
+        private final Map<String, Integer> idIndexes;
+
+        private final int[] slots;
+
+        private volatile Binding binding = Binding.NONE;
+
+        MaglevTable(String[] serverIds, int size) {
+            this.serverIds = serverIds;
+            this.slots = new int[size];
+            this.idIndexes = new HashMap<>(serverIds.length * 2);
+            for (int i = 0; i < serverIds.length; i++) {
+                idIndexes.put(serverIds[i], i);
+            }
+            populate();
+        }
+
+        /**
+         * 每个服务的排列为 (offset + j * skip) mod size，size 为质数保证排列覆盖所有槽位。
+         * 各服务轮流按自己的排列取下一个空槽位，直到填满。
+         */
+        private void populate() {
+            int size = slots.length;
+            int n = serverIds.length;
+            if (n == 0) {
+                return;
+            }
 
-        public ConsistentHashSelector(List<SERVER> servers, int serversHashCode) {
-            this.virtualServers = new TreeMap<>();
-            this.serversHashCode = serversHashCode;
+            int[] cursors = new int[n];
+            int[] skips = new int[n];
+            for (int i = 0; i < n; i++) {
+                cursors[i] = (int) Math.floorMod(OFFSET_HASH.hashString(serverIds[i], StandardCharsets.UTF_8).asLong(), (long) size);
+                skips[i] = (int) Math.floorMod(SKIP_HASH.hashString(serverIds[i], StandardCharsets.UTF_8).asLong(), (long) size - 1) + 1;
+            }
 
-            for (SERVER server : servers) {
-                // MD5 签名结果，每 32 位作为一组计算 slot，32 位对应 4 个字节，因此除以 4
-                String sid = server.getServerId();
-                for (int i = 0; i < replicas / 4; i++) {
-                    byte[] digest = MD5Utils.bytes(sid + i);
-                    for (int j = 0; j < 4; j++) {
-                        long slot = hash(digest, j);
-                        this.virtualServers.put(slot, server);
+            Arrays.fill(slots, -1);
+            int filled = 0;
+            while (true) {
+                for (int i = 0; i < n; i++) {
+                    int slot = cursors[i];
+                    while (slots[slot] >= 0) {
+                        slot = next(slot, skips[i], size);
+                    }
+                    slots[slot] = i;
+                    cursors[i] = next(slot, skips[i], size);
+                    if (++filled == size) {
+                        return;
                     }
                 }
             }
         }
 
+        private static int next(int slot, int skip, int size) {
+            int next = slot + skip;
+            return next >= size ? next - size : next;
+        }
+
+        int size() {
+            return slots.length;
+        }
 
         /**
-         * 选择一个服务，根据入参 Invocation 的 hashcode 计算。
+         * @return 命中的服务在 servers 中的下标，服务成员与查找表不一致时返回 -1
          */
-        public Optional<SERVER> select(Invocation invocation) {
-            Map<String, String> parameters = invocation.getLBParameters();
-            String paramName = parameters.get(HASH_PARAM_NAME);
-            // 基于配置的hash 参数名称 从参数里面获取对应参数
-            Object hashObj = StringUtils.isNotBlank(paramName) ? parameters.get(paramName) : null;
-            hashObj = hashObj == null ? invocation : hashObj;
-
-            long hashcode = hashObj.hashCode();
-            Map.Entry<Long, SERVER> entry = virtualServers.ceilingEntry(hashcode);
-            if (entry == null) {
-                entry = virtualServers.firstEntry();
+        <S extends LBServer> int lookup(long hash, List<S> servers) {
+            if (serverIds.length == 0) {
+                return -1;
+            }
+            int index = slots[(int) Math.floorMod(hash, (long) slots.length)];
+            Binding bound = binding;
+            if (bound.servers != servers || bound.size != servers.size()) {
+                bound = bind(servers);
+                if (bound == null) {
+                    return -1;
+                }
+            }
+
+            int position = bound.positions[index];
+            if (matches(servers, position, serverIds[index])) {
+                return position;
             }
 
-            return Optional.ofNullable(entry.getValue());
+            // 列表对象被原地修改过
+            bound = bind(servers);
+            if (bound == null) {
+                return -1;
+            }
+            position = bound.positions[index];
+            return matches(servers, position, serverIds[index]) ? position : -1;
         }
 
+        /**
+         * 校验 servers 与查找表的成员一致，并记录每个服务在 servers 中的下标
+         * @return 成员不一致时返回 null
+         */
+        private <S extends LBServer> Binding bind(List<S> servers) {
+            int[] positions = new int[serverIds.length];
+            Arrays.fill(positions, -1);
+            int matched = 0;
+            for (int i = 0; i < servers.size(); i++) {
+                Integer index = idIndexes.get(servers.get(i).getServerId());
+                if (index == null) {
+                    return null;
+                }
+                if (positions[index] < 0) {
+                    matched++;
+                }
+                positions[index] = i;
+            }
+            if (matched != serverIds.length) {
+                return null;
+            }
+
+            Binding bound = new Binding(servers, positions);
+            this.binding = bound;
+            return bound;
+        }
+
+        private static <S extends LBServer> boolean matches(List<S> servers, int position, String serverId) {
+            return position >= 0 && position < servers.size() && servers.get(position).getServerId().equals(serverId);
+        }
+
+    }
+
+
+    /**
+     * 查找表绑定的服务列表，及 serverIds 中的下标 -> 在服务列表中的下标
+     */
+    private static class Binding {
+
+        static final Binding NONE = new Binding(null, new int[0]);
+
+        final List<?> servers;
+
+        final int size;
 
+        final int[] positions;
 
-        private long hash(byte[] digest, int number) {
-            return (((long) (digest[3 + number * 4] & 0xFF) << 24)
-                    | ((long) (digest[2 + number * 4] & 0xFF) << 16)
-                    | ((long) (digest[1 + number * 4] & 0xFF) << 8)
-                    | (digest[number * 4] & 0xFF))
-                    & 0xFFFFFFFFL;
+        Binding(List<?> servers, int[] positions) {
+            this.servers = servers;
+            this.size = servers == null ? -1 : servers.size();
+            this.positions = positions;
         }
 
     }
@@ -0,0 +1,146 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.lb.strategies;
+
+import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.common.lb.AbstractLBStrategy;
+import org.limbo.flowjob.common.lb.Invocation;
+import org.limbo.flowjob.common.lb.LBServer;
+import org.limbo.flowjob.common.lb.LBServerStatistics;
+import org.limbo.flowjob.common.lb.LBServerStatisticsProvider;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Power of two choices + peak-EWMA。
+ * 随机选取两个服务，负载 = 耗时的 peak-EWMA * (未完成请求数 + 1)，选择负载较小的一个。
+ * 只比较两个随机服务，避免所有请求都集中到同一个 "最空闲" 的服务上。
+ * 还没有耗时数据的服务按另一个候选的耗时估算，两个都没有时使用默认耗时，新服务不会被无限期冷落。
+ *
+ * @author Brozen
+ * @since 2024-02-11
+ */
+@Slf4j
+public class PeakEwmaLBStrategy<S extends LBServer> extends AbstractLBStrategy<S> {
+
+    /**
+     * 用于查询服务统计数据
+     */
+    private final LBServerStatisticsProvider statisticsProvider;
+
+    /**
+     * 查询多久的统计数据
+     */
+    private Duration interval;
+
+    /**
+     * 候选服务都没有耗时数据时使用的耗时，毫秒
+     */
+    private double defaultLatency = 1000;
+
+
+    public PeakEwmaLBStrategy(LBServerStatisticsProvider statisticsProvider) {
+        this.statisticsProvider = Objects.requireNonNull(statisticsProvider);
+        this.interval = Duration.ofMinutes(10);
+    }
+
+
+    /**
+     * @param interval 不可为空，不可为 0 或负值。
+     */
+    public void setInterval(Duration interval) {
+        if (interval.toMillis() <= 0) {
+            this.interval = Duration.ofMinutes(10);
+        } else {
+            this.interval = interval;
+        }
+    }
+
+
+    /**
+     * @param defaultLatency 候选服务都没有耗时数据时使用的耗时，不可为 0 或负值。
+     */
+    public void setDefaultLatency(Duration defaultLatency) {
+        if (defaultLatency.toMillis() > 0) {
+            this.defaultLatency = defaultLatency.toMillis();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * @param servers 被负载的服务列表，可以保证非空。
+     * @param invocation 本次调用的上下文信息
+     * @return
+     */
+    @Override
+    protected Optional<S> doSelect(List<S> servers, Invocation invocation) {
+        int size = servers.size();
+        if (size == 1) {
+            return Optional.of(servers.get(0));
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(size);
+        int j = random.nextInt(size - 1);
+        if (j >= i) {
+            j++;
+        }
+        S first = servers.get(i);
+        S second = servers.get(j);
+
+        Set<String> serverIds = new HashSet<>();
+        serverIds.add(first.getServerId());
+        serverIds.add(second.getServerId());
+        Map<String, LBServerStatistics> statistics = new HashMap<>();
+        for (LBServerStatistics s : statisticsProvider.getStatistics(serverIds, this.interval)) {
+            statistics.put(s.getServerId(), s);
+        }
+
+        LBServerStatistics firstStatistics = statistics.get(first.getServerId());
+        LBServerStatistics secondStatistics = statistics.get(second.getServerId());
+        double firstLoad = load(firstStatistics, estimate(secondStatistics));
+        double secondLoad = load(secondStatistics, estimate(firstStatistics));
+        return Optional.of(secondLoad < firstLoad ? second : first);
+    }
+
+
+    /**
+     * 没有耗时数据的服务按另一个候选的耗时估算
+     */
+    private double estimate(LBServerStatistics other) {
+        return other != null && other.getLatency() > 0 ? other.getLatency() : defaultLatency;
+    }
+
+
+    private double load(LBServerStatistics statistics, double estimate) {
+        double latency = statistics == null || statistics.getLatency() <= 0 ? estimate : statistics.getLatency();
+        int outstanding = statistics == null ? 0 : statistics.getOutstanding();
+        return latency * (outstanding + 1);
+    }
+
+}
@@ -18,6 +18,9 @@
 
 package org.limbo.flowjob.common.lb.strategies;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.limbo.flowjob.common.lb.AbstractLBStrategy;
 import org.limbo.flowjob.common.lb.Invocation;
@@ -26,13 +29,15 @@ import org.limbo.flowjob.common.lb.LBServer;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /**
- * FIX 如果多次进入，server 列表不同，且权重并未改变，会根据 indexers 记录的权重变化来选择下一个节点。
+ * 平滑加权轮询。
+ * 每个 targetId 按服务列表生成一份快照，快照中预先计算好一整轮的平滑加权选择序列，
+ * 选择时只需对计数器做一次原子自增并取模，并发调用下也能保证按权重平滑分布，且不产生额外对象。
+ * 服务列表变化或权重过期时重新生成快照。
  *
  * @author Brozen
  * @since 2022-09-02
@@ -41,24 +46,42 @@ import java.util.stream.Collectors;
 public class RoundRobinLBStrategy<S extends LBServer> extends AbstractLBStrategy<S> {
 
     /**
-     * 用于计算权重的函数，如果不考虑权重，仅轮训，则为所有服务返回权重 1 即可。
+     * 一轮选择序列的最大长度，权重总和超出时按比例缩小权重
+     */
+    private static final int MAX_SCHEDULE_LENGTH = 1024;
+
+    /**
+     * 最多缓存的快照个数，超出后淘汰最久未使用的
+     */
+    private static final int MAX_CACHED_SNAPSHOTS = 1024;
+
+    /**
+     * 用于计算权重的函数，如果不考虑权重，仅轮训，则为 null。
      */
     private final Function<List<S>, Map<String, Integer>> weightSupplier;
 
     /**
-     * 记录轮询索引
+     * 权重的有效期，毫秒，超过后重新从 weightSupplier 获取。默认 1s。
+     */
+    @Setter
+    private long weightRefreshInterval = 1000;
+
+    /**
+     * 记录每个 targetId 的轮询快照
      */
-    private final ConcurrentHashMap<String, Map<String, RoundRobinIndexer>> indexers;
+    private final Cache<String, Snapshot> snapshots = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_SNAPSHOTS)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
 
 
     public RoundRobinLBStrategy() {
-        this(s -> s.stream().collect(Collectors.toMap(LBServer::getServerId, a -> 1)));
+        this(null);
     }
 
 
     public RoundRobinLBStrategy(Function<List<S>, Map<String, Integer>> weightSupplier) {
         this.weightSupplier = weightSupplier;
-        this.indexers = new ConcurrentHashMap<>();
     }
 
 
@@ -70,64 +93,127 @@ public class RoundRobinLBStrategy<S extends LBServer> extends AbstractLBStrategy
      */
     @Override
     protected Optional<S> doSelect(List<S> servers, Invocation invocation) {
-
         String targetId = invocation.getInvokeTargetId();
-        Map<String, RoundRobinIndexer> indexerMap = this.indexers.computeIfAbsent(targetId, k -> new ConcurrentHashMap<>());
-
+        long signature = signature(servers);
         long now = System.currentTimeMillis();
-        Map<String, Integer> weights = weightSupplier.apply(servers);
 
-        long maxWeight = Long.MIN_VALUE;
-        long allWeight = 0;
-        S selected = null;
-        RoundRobinIndexer selectedIndexer = null;
+        Snapshot snapshot = snapshots.getIfPresent(targetId);
+        while (isStale(snapshot, signature, servers.size(), now)) {
+            // 并发刷新时只有一个快照生效，其余线程使用生效的快照，保证计数不重复
+            Snapshot refreshed = new Snapshot(signature, servers.size(), schedule(servers), now, snapshot);
+            boolean replaced = snapshot == null
+                    ? snapshots.asMap().putIfAbsent(targetId, refreshed) == null
+                    : snapshots.asMap().replace(targetId, snapshot, refreshed);
+            snapshot = replaced ? refreshed : snapshots.getIfPresent(targetId);
+        }
+
+        return Optional.of(servers.get(snapshot.next()));
+    }
+
+
+    private boolean isStale(Snapshot snapshot, long signature, int size, long now) {
+        return snapshot == null || snapshot.signature != signature || snapshot.size != size
+                || (weightSupplier != null && now - snapshot.createdAt > weightRefreshInterval);
+    }
+
+
+    /**
+     * 服务列表的签名，与顺序相关，快照中的下标与服务列表中的下标一一对应
+     */
+    private long signature(List<S> servers) {
+        long signature = 1;
         for (S server : servers) {
-            int weight = Math.max(weights.getOrDefault(server.getServerId(), 0), 0);
-            RoundRobinIndexer indexer = indexerMap.computeIfAbsent(server.getServerId(), sid -> new RoundRobinIndexer(weight));
+            signature = signature * 31 + server.getServerId().hashCode();
+        }
+        return signature;
+    }
 
-            if (indexer.weight != weight) {
-                indexer.weight = weight;
-            }
 
-            long curr = indexer.stepForward();
-            if (curr > maxWeight) {
-                maxWeight = curr;
-                selected = server;
-                selectedIndexer = indexer;
-            }
+    /**
+     * 按平滑加权轮询算法生成一整轮的选择序列，每轮中每个服务被选中的次数等于其权重。
+     * 不考虑权重或所有权重相同时返回 null，直接按下标轮询。
+     */
+    private int[] schedule(List<S> servers) {
+        if (weightSupplier == null) {
+            return null;
+        }
 
-            indexer.updatedAt = now;
-            allWeight += weight;
+        Map<String, Integer> weightMap = weightSupplier.apply(servers);
+        int n = servers.size();
+        int[] weights = new int[n];
+        long total = 0;
+        boolean equal = true;
+        for (int i = 0; i < n; i++) {
+            Integer weight = weightMap.get(servers.get(i).getServerId());
+            weights[i] = weight == null ? 0 : Math.max(weight, 0);
+            total += weights[i];
+            equal &= weights[i] == weights[0];
+        }
+        // 权重全部为 0 时也退化为普通轮询
+        if (equal || total == 0) {
+            return null;
         }
 
-        if (selected != null) {
-            selectedIndexer.reset(allWeight);
-            return Optional.of(selected);
+        if (total > MAX_SCHEDULE_LENGTH) {
+            long origin = total;
+            total = 0;
+            for (int i = 0; i < n; i++) {
+                if (weights[i] > 0) {
+                    weights[i] = (int) Math.max(1, (long) weights[i] * MAX_SCHEDULE_LENGTH / origin);
+                }
+                total += weights[i];
+            }
         }
 
-        return Optional.of(servers.get(0));
+        int[] schedule = new int[(int) total];
+        long[] current = new long[n];
+        for (int k = 0; k < schedule.length; k++) {
+            int best = 0;
+            for (int i = 0; i < n; i++) {
+                current[i] += weights[i];
+                if (current[i] > current[best]) {
+                    best = i;
+                }
+            }
+            current[best] -= total;
+            schedule[k] = best;
+        }
+        return schedule;
     }
 
 
+    /**
+     * 服务列表的轮询快照
+     */
+    static class Snapshot {
 
-    static class RoundRobinIndexer {
+        final long signature;
 
-        int weight;
+        final int size;
 
-        AtomicLong current = new AtomicLong(0);
+        /**
+         * 一轮的选择序列，为 null 时按下标轮询
+         */
+        final int[] schedule;
 
-        long updatedAt = 0;
+        final long createdAt;
 
-        public RoundRobinIndexer(int weight) {
-            this.weight = weight;
-        }
+        final AtomicLong counter;
 
-        long stepForward() {
-            return current.addAndGet(weight);
+        Snapshot(long signature, int size, int[] schedule, long createdAt, Snapshot previous) {
+            this.signature = signature;
+            this.size = size;
+            this.schedule = schedule;
+            this.createdAt = createdAt;
+            // 与之前的快照共用计数器，避免每次刷新都从第一个服务开始，也不会与仍在使用旧快照的线程重复计数
+            this.counter = previous == null ? new AtomicLong() : previous.counter;
         }
 
-        void reset(long step) {
-            current.addAndGet(-step);
+        int next() {
+            long count = counter.getAndIncrement();
+            return schedule == null
+                    ? (int) Math.floorMod(count, (long) size)
+                    : schedule[(int) Math.floorMod(count, (long) schedule.length)];
         }
 
     }
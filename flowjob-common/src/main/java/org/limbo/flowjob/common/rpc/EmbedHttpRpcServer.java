@@ -19,19 +19,42 @@
 package org.limbo.flowjob.common.rpc;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AsciiString;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.common.rpc.tcp.RpcFrame;
+import org.limbo.flowjob.common.rpc.tcp.RpcFrameDecoder;
+import org.limbo.flowjob.common.rpc.tcp.RpcFrameEncoder;
+import org.limbo.flowjob.common.rpc.tcp.TcpRpcServerHandler;
 
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -50,6 +73,8 @@ public class EmbedHttpRpcServer implements EmbedRpcServer {
 
     private static final int QUEUE_SIZE = 2000;
 
+    private static final int MAX_THREADS = 200;
+
     private int port;
 
     private IHttpHandlerProcessor bizProcess;
@@ -65,40 +90,41 @@ public class EmbedHttpRpcServer implements EmbedRpcServer {
 
     public void start() {
         thread = new Thread(() -> {
-            EventLoopGroup bossGroup = new NioEventLoopGroup();
-            EventLoopGroup workerGroup = new NioEventLoopGroup();
+            // Linux 下存在 native 库时使用 epoll，否则使用 NIO
+            boolean epoll = Epoll.isAvailable();
+            EventLoopGroup bossGroup = epoll ? new EpollEventLoopGroup(1) : new NioEventLoopGroup(1);
+            EventLoopGroup workerGroup = epoll ? new EpollEventLoopGroup() : new NioEventLoopGroup();
+            // 有界队列，队列满时拒绝，由 handler 响应 503
             ThreadPoolExecutor serverThreadPool = new ThreadPoolExecutor(
-                    0,
-                    200,
+                    MAX_THREADS,
+                    MAX_THREADS,
                     60L,
                     TimeUnit.SECONDS,
                     new LinkedBlockingQueue<>(QUEUE_SIZE),
                     r -> new Thread(r, "Flowjob-RpcServer-ThreadPool-" + r.hashCode()),
-                    (r, executor) -> {
-                        throw new RuntimeException("Http Server ThreadPool is EXHAUSTED!");
-                    });
-
+                    new ThreadPoolExecutor.AbortPolicy());
+            serverThreadPool.allowCoreThreadTimeOut(true);
 
             try {
                 ServerBootstrap bootstrap = new ServerBootstrap();
                 bootstrap.group(bossGroup, workerGroup)
-                        .channel(NioServerSocketChannel.class)
+                        .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
                         .childHandler(new ChannelInitializer<SocketChannel>() {
                             @Override
                             public void initChannel(SocketChannel channel) {
                                 channel.pipeline()
                                         .addLast(new IdleStateHandler(0, 0, 60, TimeUnit.SECONDS))
-                                        .addLast(new HttpServerCodec())
-                                        .addLast(new HttpObjectAggregator(MAX_CONTENT_LENGTH))
-                                        .addLast(new EmbedHttpServerHandler(serverThreadPool, bizProcess));
+                                        .addLast(new ProtocolDetector(serverThreadPool));
                             }
                         })
-                        .childOption(ChannelOption.SO_KEEPALIVE, true);
+                        .childOption(ChannelOption.SO_KEEPALIVE, true)
+                        .childOption(ChannelOption.TCP_NODELAY, true)
+                        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
 
                 ChannelFuture future = bootstrap.bind(port).sync();
 
                 status.compareAndSet(RpcServerStatus.INITIALIZING, RpcServerStatus.RUNNING);
-                log.info("Flowjob EmbedRpcServer start success, port = {}", port);
+                log.info("Flowjob EmbedRpcServer start success, port = {} epoll = {}", port, epoll);
 
                 // 绑定监听关闭状态 -- 阻塞
                 future.channel().closeFuture().sync();
@@ -123,6 +149,83 @@ public class EmbedHttpRpcServer implements EmbedRpcServer {
         thread.start();
     }
 
+    /**
+     * 同时支持 HTTP/1.1 和 h2c：以 HTTP/2 连接前言开头（prior knowledge）或通过 Upgrade 头升级的连接使用 HTTP/2，
+     * 每个 stream 转换为 HTTP/1.1 请求后交给 {@link EmbedHttpServerHandler} 处理；其余连接按 HTTP/1.1 处理。
+     */
+    private ChannelHandler h2cOrHttp1(ThreadPoolExecutor serverThreadPool) {
+        ChannelInitializer<Channel> streamInitializer = new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel stream) {
+                stream.pipeline()
+                        .addLast(new Http2StreamFrameToHttpObjectCodec(true))
+                        .addLast(new HttpObjectAggregator(MAX_CONTENT_LENGTH))
+                        .addLast(new EmbedHttpServerHandler(serverThreadPool, bizProcess));
+            }
+        };
+
+        // 切换到 HTTP/2 后移除父连接上处理 HTTP/1.1 的 handler，否则 stream 的响应无法写出
+        ChannelInitializer<Channel> http1Remover = new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel channel) {
+                ChannelPipeline pipeline = channel.pipeline();
+                pipeline.remove(HttpObjectAggregator.class);
+                pipeline.remove(EmbedHttpServerHandler.class);
+            }
+        };
+
+        HttpServerCodec sourceCodec = new HttpServerCodec();
+        HttpServerUpgradeHandler upgradeHandler = new HttpServerUpgradeHandler(sourceCodec, protocol -> {
+            if (AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)) {
+                return new Http2ServerUpgradeCodec(Http2FrameCodecBuilder.forServer().build(), new Http2MultiplexHandler(streamInitializer), http1Remover);
+            }
+            return null;
+        }, MAX_CONTENT_LENGTH);
+
+        ChannelInitializer<Channel> priorKnowledgeInitializer = new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel channel) {
+                channel.pipeline()
+                        .addLast(Http2FrameCodecBuilder.forServer().build())
+                        .addLast(new Http2MultiplexHandler(streamInitializer))
+                        .addLast(http1Remover);
+            }
+        };
+        return new CleartextHttp2ServerUpgradeHandler(sourceCodec, upgradeHandler, priorKnowledgeInitializer);
+    }
+
+    /**
+     * 根据连接的前两个字节判断协议：{@link RpcFrame#MAGIC} 开头的使用二进制 RPC 协议，否则按 HTTP 处理。
+     * 判断完成后替换为对应协议的 handler，已读取的字节交给后续 handler。
+     */
+    private class ProtocolDetector extends ByteToMessageDecoder {
+
+        private final ThreadPoolExecutor serverThreadPool;
+
+        ProtocolDetector(ThreadPoolExecutor serverThreadPool) {
+            this.serverThreadPool = serverThreadPool;
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            if (in.readableBytes() < 2) {
+                return;
+            }
+
+            ChannelPipeline pipeline = ctx.pipeline();
+            if (in.getUnsignedShort(in.readerIndex()) == RpcFrame.MAGIC) {
+                pipeline.addLast(new RpcFrameDecoder(MAX_CONTENT_LENGTH))
+                        .addLast(RpcFrameEncoder.INSTANCE)
+                        .addLast(new TcpRpcServerHandler(serverThreadPool, bizProcess));
+            } else {
+                pipeline.addLast(h2cOrHttp1(serverThreadPool))
+                        .addLast(new HttpObjectAggregator(MAX_CONTENT_LENGTH))
+                        .addLast(new EmbedHttpServerHandler(serverThreadPool, bizProcess));
+            }
+            pipeline.remove(this);
+        }
+    }
+
     public void stop() {
         status.compareAndSet(RpcServerStatus.RUNNING, RpcServerStatus.TERMINATING);
 
@@ -15,9 +15,11 @@
  *  * limitations under the License.
  *
  */
-
 package org.limbo.flowjob.common.rpc;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -31,14 +33,21 @@ import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.timeout.IdleStateEvent;
-import io.netty.util.CharsetUtil;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 
 @Slf4j
 public class EmbedHttpServerHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
 
+    /**
+     * 业务线程池已满时，建议客户端重试的间隔，秒
+     */
+    static final int RETRY_AFTER_SECONDS = 1;
+
     private final ThreadPoolExecutor serverThreadPool;
 
     private final IHttpHandlerProcessor bizProcess;
@@ -50,32 +59,54 @@ public class EmbedHttpServerHandler extends SimpleChannelInboundHandler<FullHttp
 
     @Override
     protected void channelRead0(final ChannelHandlerContext ctx, FullHttpRequest msg) {
-
-        // 最开始放到线程池中获取，导致异步执行前资源释放导致获取的时候抛出异常
-        String requestData = msg.content().toString(CharsetUtil.UTF_8);
         String uri = msg.uri();
         HttpMethod httpMethod = msg.method();
         boolean keepAlive = HttpUtil.isKeepAlive(msg);
 
-        serverThreadPool.execute(() -> {
-            try {
-                String response = bizProcess.process(httpMethod, uri, requestData);
-                returnResponse(ctx, keepAlive, response);
-            } catch (Exception e) {
-                log.error("Get Request Error method={} url={} param={}", httpMethod, uri, requestData, e);
-                throw new RuntimeException(e);
+        // 处理器直接从请求体解析，处理完成前不能释放；channelRead0 返回后 msg 会被释放一次，这里多持有一次
+        ByteBuf content = msg.content().retain();
+        CompletableFuture<String> future;
+        try {
+            future = bizProcess.processAsync(httpMethod, uri, new ByteBufInputStream(content), serverThreadPool);
+        } catch (Exception e) {
+            content.release();
+            returnError(ctx, keepAlive, httpMethod, uri, e);
+            return;
+        }
+
+        future.whenComplete((response, e) -> {
+            content.release();
+            if (e == null) {
+                ctx.writeAndFlush(newResponse(keepAlive, HttpResponseStatus.OK, ByteBufUtil.writeUtf8(ctx.alloc(), response == null ? "" : response)));
+            } else {
+                returnError(ctx, keepAlive, httpMethod, uri, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
             }
         });
     }
 
-    private void returnResponse(ChannelHandlerContext ctx, boolean keepAlive, String responseJson) {
-        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.copiedBuffer(responseJson, CharsetUtil.UTF_8));
+    /**
+     * 业务线程池已满时响应 503，其余异常响应 500
+     */
+    private void returnError(ChannelHandlerContext ctx, boolean keepAlive, HttpMethod httpMethod, String uri, Throwable e) {
+        if (e instanceof RejectedExecutionException) {
+            log.warn("Flowjob Rpc server is busy, reject method={} url={} queued={}", httpMethod, uri, serverThreadPool.getQueue().size());
+            FullHttpResponse response = newResponse(keepAlive, HttpResponseStatus.SERVICE_UNAVAILABLE, Unpooled.EMPTY_BUFFER);
+            response.headers().set(HttpHeaderNames.RETRY_AFTER, RETRY_AFTER_SECONDS);
+            ctx.writeAndFlush(response);
+        } else {
+            log.error("Get Request Error method={} url={}", httpMethod, uri, e);
+            ctx.writeAndFlush(newResponse(keepAlive, HttpResponseStatus.INTERNAL_SERVER_ERROR, Unpooled.EMPTY_BUFFER));
+        }
+    }
+
+    private FullHttpResponse newResponse(boolean keepAlive, HttpResponseStatus status, ByteBuf content) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
         response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json;charset=UTF-8");
-        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
         if (keepAlive) {
             response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
         }
-        ctx.writeAndFlush(response);
+        return response;
     }
 
     @Override
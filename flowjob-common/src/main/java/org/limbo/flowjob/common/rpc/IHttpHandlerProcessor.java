@@ -15,10 +15,19 @@
  *  * limitations under the License.
  *
  */
-
 package org.limbo.flowjob.common.rpc;
 
+import com.google.common.io.ByteStreams;
 import io.netty.handler.codec.http.HttpMethod;
+import org.limbo.flowjob.common.utils.json.JacksonUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * @author Devil
@@ -27,4 +36,37 @@ import io.netty.handler.codec.http.HttpMethod;
 public interface IHttpHandlerProcessor {
 
     String process(HttpMethod httpMethod, String uri, String data);
+
+    /**
+     * 异步处理请求，内嵌 RPC 服务通过此方法调用处理器。默认在 executor 中读取请求体后调用 {@link #process}，
+     * 实现类可以覆盖此方法直接从 data 解析请求，或在其他线程中完成返回的 future，避免长时间占用 executor。
+     *
+     * @param data     请求体，在返回的 future 完成前有效
+     * @param executor 内嵌服务的业务线程池，已满时提交任务抛出 {@link java.util.concurrent.RejectedExecutionException}，
+     *                 此异常无需处理，内嵌服务会响应 503
+     * @return 响应 JSON
+     */
+    default CompletableFuture<String> processAsync(HttpMethod httpMethod, String uri, InputStream data, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return process(httpMethod, uri, new String(ByteStreams.toByteArray(data), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * 处理已解码的请求参数，二进制协议中以 {@link org.limbo.flowjob.common.rpc.tcp.RpcParamCodec} 编码的请求通过此方法调用处理器。
+     * 默认将参数转为 JSON 后调用 {@link #processAsync(HttpMethod, String, InputStream, Executor)}，
+     * 实现类可以覆盖此方法直接使用参数，省去 JSON 的序列化和解析。
+     *
+     * @param param 已解码的请求参数
+     * @return 响应 JSON
+     */
+    default CompletableFuture<String> processParamAsync(HttpMethod httpMethod, String uri, Object param, Executor executor) {
+        byte[] json = JacksonUtils.toJSONString(param).getBytes(StandardCharsets.UTF_8);
+        return processAsync(httpMethod, uri, new ByteArrayInputStream(json), executor);
+    }
+
 }
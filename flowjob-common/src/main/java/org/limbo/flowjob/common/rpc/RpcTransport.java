@@ -0,0 +1,90 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.rpc;
+
+import org.limbo.flowjob.common.exception.RpcException;
+import org.limbo.flowjob.common.utils.json.JacksonUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * RPC 传输层，负责将请求发送到指定地址并取回响应，响应为 JSON，请求参数的编码由实现决定。
+ * 默认通过 HTTP 传输，与 agent、worker 内嵌 RPC 服务通信时可以替换为其他实现。
+ *
+ * @author Brozen
+ * @since 2024-02-23
+ */
+public interface RpcTransport {
+
+    /**
+     * 发送请求并等待响应，失败时抛出 {@link RpcException}
+     *
+     * @param url  请求地址，如 http://127.0.0.1:9877/api/v1/rpc/task
+     * @param body 请求 JSON
+     * @return 响应 JSON
+     */
+    default String post(String url, String body) {
+        return await(url, postAsync(url, body));
+    }
+
+    /**
+     * 发送请求参数并等待响应，失败时抛出 {@link RpcException}
+     *
+     * @param url   请求地址
+     * @param param 请求参数，由实现决定编码方式
+     * @return 响应 JSON
+     */
+    default String postParam(String url, Object param) {
+        return await(url, postParamAsync(url, param));
+    }
+
+    static String await(String url, CompletableFuture<String> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RpcException ? (RpcException) cause : new RpcException("Api access failed " + url, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RpcException("Api access interrupted " + url, e);
+        }
+    }
+
+    /**
+     * 异步发送请求，不阻塞调用线程。超时或失败时 future 以 {@link RpcException} 结束，取消 future 后不再等待响应。
+     *
+     * @param url  请求地址，如 http://127.0.0.1:9877/api/v1/rpc/task
+     * @param body 请求 JSON
+     * @return 响应 JSON
+     */
+    CompletableFuture<String> postAsync(String url, String body);
+
+    /**
+     * 异步发送请求参数，默认转为 JSON 后调用 {@link #postAsync(String, String)}，实现可以为特定参数使用更紧凑的编码
+     *
+     * @param url   请求地址
+     * @param param 请求参数，为 null 时请求体为空
+     * @return 响应 JSON
+     */
+    default CompletableFuture<String> postParamAsync(String url, Object param) {
+        return postAsync(url, param == null ? "" : JacksonUtils.toJSONString(param));
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.rpc.tcp;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二进制 RPC 协议的帧，格式如下（大端序）：
+ * <pre>
+ * | magic(2) | length(4) | type(1) | codec(1) | requestId(8) | pathLength(2) | path | body |
+ * </pre>
+ * length 为 length 字段之后的字节数；同一连接上的请求通过 requestId 区分，可以连续发送，无需等待响应。
+ *
+ * @author Brozen
+ * @since 2024-02-23
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class RpcFrame {
+
+    /**
+     * 帧开头的魔数，不是 ASCII 字符，内嵌服务据此与 HTTP 请求区分
+     */
+    public static final int MAGIC = 0xF10B;
+
+    public static final byte TYPE_REQUEST = 0;
+
+    public static final byte TYPE_RESPONSE = 1;
+
+    /**
+     * 服务端处理失败，body 为错误信息
+     */
+    public static final byte TYPE_ERROR = 2;
+
+    /**
+     * body 为 UTF-8 编码的 JSON
+     */
+    public static final byte CODEC_JSON = 0;
+
+    /**
+     * body 为 {@link RpcParamCodec} 编码的参数，仅用于请求帧
+     */
+    public static final byte CODEC_BINARY = 1;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final byte type;
+
+    private final byte codec;
+
+    private final long requestId;
+
+    /**
+     * 请求路径，响应帧为空字符串
+     */
+    private final String path;
+
+    /**
+     * 原始字节，按 codec 解析，编解码帧时不做转换
+     */
+    @ToString.Exclude
+    private final byte[] body;
+
+    public static RpcFrame request(long requestId, String path, String body) {
+        return new RpcFrame(TYPE_REQUEST, CODEC_JSON, requestId, path, utf8(body));
+    }
+
+    public static RpcFrame request(long requestId, String path, byte codec, byte[] body) {
+        return new RpcFrame(TYPE_REQUEST, codec, requestId, path, body);
+    }
+
+    public static RpcFrame response(long requestId, String body) {
+        return new RpcFrame(TYPE_RESPONSE, CODEC_JSON, requestId, "", utf8(body));
+    }
+
+    public static RpcFrame error(long requestId, String message) {
+        return new RpcFrame(TYPE_ERROR, CODEC_JSON, requestId, "", utf8(message));
+    }
+
+    /**
+     * 按 UTF-8 读取 body，用于 JSON 和错误信息
+     */
+    public String bodyString() {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null ? EMPTY : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
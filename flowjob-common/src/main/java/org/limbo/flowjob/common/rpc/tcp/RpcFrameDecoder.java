@@ -0,0 +1,76 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.rpc.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 按 length 字段拆分并解码 {@link RpcFrame}。
+ * 每一帧都校验 {@link RpcFrame#MAGIC}，数据流错位时直接失败并由处理器关闭连接，不会按错误的 length 继续读取
+ *
+ * @author Brozen
+ * @since 2024-02-23
+ */
+public class RpcFrameDecoder extends LengthFieldBasedFrameDecoder {
+
+    /**
+     * magic + length
+     */
+    private static final int HEADER_LENGTH = 6;
+
+    public RpcFrameDecoder(int maxFrameLength) {
+        super(maxFrameLength, 2, 4, 0, HEADER_LENGTH);
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        if (in.readableBytes() >= 2) {
+            int magic = in.getUnsignedShort(in.readerIndex());
+            if (magic != RpcFrame.MAGIC) {
+                // 丢弃剩余数据，避免关闭连接前重复解码
+                in.skipBytes(in.readableBytes());
+                throw new CorruptedFrameException("Invalid magic " + Integer.toHexString(magic));
+            }
+        }
+
+        ByteBuf buf = (ByteBuf) super.decode(ctx, in);
+        if (buf == null) {
+            return null;
+        }
+
+        try {
+            byte type = buf.readByte();
+            byte codec = buf.readByte();
+            long requestId = buf.readLong();
+            int pathLength = buf.readUnsignedShort();
+            String path = buf.readCharSequence(pathLength, StandardCharsets.UTF_8).toString();
+            byte[] body = new byte[buf.readableBytes()];
+            buf.readBytes(body);
+            return new RpcFrame(type, codec, requestId, path, body);
+        } finally {
+            buf.release();
+        }
+    }
+
+}
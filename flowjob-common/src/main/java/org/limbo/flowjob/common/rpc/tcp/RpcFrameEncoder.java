@@ -0,0 +1,56 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.rpc.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+/**
+ * 编码 {@link RpcFrame}，无状态，可在多个连接间共享
+ *
+ * @author Brozen
+ * @since 2024-02-23
+ */
+@ChannelHandler.Sharable
+public class RpcFrameEncoder extends MessageToByteEncoder<RpcFrame> {
+
+    public static final RpcFrameEncoder INSTANCE = new RpcFrameEncoder();
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, RpcFrame frame, ByteBuf out) {
+        out.writeShort(RpcFrame.MAGIC);
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        out.writeByte(frame.getType());
+        out.writeByte(frame.getCodec());
+        out.writeLong(frame.getRequestId());
+
+        int pathLengthIndex = out.writerIndex();
+        out.writeShort(0);
+        int pathLength = ByteBufUtil.writeUtf8(out, frame.getPath());
+        out.setShort(pathLengthIndex, pathLength);
+
+        out.writeBytes(frame.getBody());
+        out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+    }
+
+}
@@ -0,0 +1,464 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+
+package org.limbo.flowjob.common.rpc.tcp;
+
+import org.limbo.flowjob.api.constants.ExecuteResult;
+import org.limbo.flowjob.api.param.agent.TaskFeedbackParam;
+import org.limbo.flowjob.api.param.broker.AgentHeartbeatParam;
+import org.limbo.flowjob.api.param.broker.AgentResourceParam;
+import org.limbo.flowjob.api.param.broker.JobFeedbackParam;
+import org.limbo.flowjob.api.param.broker.WorkerHeartbeatParam;
+import org.limbo.flowjob.api.param.broker.WorkerLatencyParam;
+import org.limbo.flowjob.api.param.broker.WorkerResourceParam;
+import org.limbo.flowjob.api.param.worker.TaskSubmitParam;
+import org.limbo.flowjob.common.utils.json.JacksonUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 高频 RPC 参数的二进制编码，用于 {@link RpcFrame#CODEC_BINARY} 帧，避免 JSON 的字段名和文本数字开销。
+ * body 首字节为参数类型，之后按字段顺序写入，可为空的字段先写一个字节标记是否存在。
+ * 上下文、属性等 Map 中的值按类型标记写入，不支持的类型以 JSON 写入，解码结果与 JSON 反序列化得到的类型一致。
+ * 调整字段时需要同时修改编码和解码，并更换类型编号，避免新旧版本节点互相误解析。
+ *
+ * @author Brozen
+ * @since 2024-02-23
+ */
+public final class RpcParamCodec {
+
+    private static final byte TYPE_TASK_SUBMIT = 1;
+
+    private static final byte TYPE_TASK_FEEDBACK = 2;
+
+    private static final byte TYPE_JOB_FEEDBACK = 3;
+
+    private static final byte TYPE_WORKER_HEARTBEAT = 4;
+
+    private static final byte TYPE_AGENT_HEARTBEAT = 5;
+
+    private static final byte VALUE_NULL = 0;
+
+    private static final byte VALUE_STRING = 1;
+
+    private static final byte VALUE_INT = 2;
+
+    private static final byte VALUE_LONG = 3;
+
+    private static final byte VALUE_DOUBLE = 4;
+
+    private static final byte VALUE_BOOLEAN = 5;
+
+    private static final byte VALUE_LIST = 6;
+
+    private static final byte VALUE_MAP = 7;
+
+    private static final byte VALUE_JSON = 8;
+
+    private RpcParamCodec() {
+    }
+
+    /**
+     * 参数是否可以二进制编码，不支持的参数仍使用 JSON
+     */
+    public static boolean supports(Object param) {
+        return param instanceof TaskSubmitParam
+                || param instanceof TaskFeedbackParam
+                || param instanceof JobFeedbackParam
+                || param instanceof WorkerHeartbeatParam
+                || param instanceof AgentHeartbeatParam;
+    }
+
+    public static byte[] encode(Object param) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            if (param instanceof TaskSubmitParam) {
+                out.writeByte(TYPE_TASK_SUBMIT);
+                writeTaskSubmit(out, (TaskSubmitParam) param);
+            } else if (param instanceof TaskFeedbackParam) {
+                out.writeByte(TYPE_TASK_FEEDBACK);
+                writeTaskFeedback(out, (TaskFeedbackParam) param);
+            } else if (param instanceof JobFeedbackParam) {
+                out.writeByte(TYPE_JOB_FEEDBACK);
+                writeJobFeedback(out, (JobFeedbackParam) param);
+            } else if (param instanceof WorkerHeartbeatParam) {
+                out.writeByte(TYPE_WORKER_HEARTBEAT);
+                writeWorkerHeartbeat(out, (WorkerHeartbeatParam) param);
+            } else if (param instanceof AgentHeartbeatParam) {
+                out.writeByte(TYPE_AGENT_HEARTBEAT);
+                writeAgentHeartbeat(out, (AgentHeartbeatParam) param);
+            } else {
+                throw new IllegalArgumentException("Unsupported param " + (param == null ? null : param.getClass().getName()));
+            }
+        } catch (IOException e) {
+            // 写入内存不会出现 IO 异常
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Object decode(byte[] body) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        try {
+            byte type = in.readByte();
+            switch (type) {
+                case TYPE_TASK_SUBMIT:
+                    return readTaskSubmit(in);
+                case TYPE_TASK_FEEDBACK:
+                    return readTaskFeedback(in);
+                case TYPE_JOB_FEEDBACK:
+                    return readJobFeedback(in);
+                case TYPE_WORKER_HEARTBEAT:
+                    return readWorkerHeartbeat(in);
+                case TYPE_AGENT_HEARTBEAT:
+                    return readAgentHeartbeat(in);
+                default:
+                    throw new IllegalArgumentException("Unsupported param type " + type);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid binary param", e);
+        }
+    }
+
+    private static void writeTaskSubmit(DataOutput out, TaskSubmitParam param) throws IOException {
+        writeString(out, param.getJobId());
+        writeString(out, param.getTaskId());
+        writeString(out, param.getAgentRpcUrl() == null ? null : param.getAgentRpcUrl().toString());
+        writeInteger(out, param.getType());
+        writeString(out, param.getExecutorName());
+        writeValue(out, param.getContext());
+        writeValue(out, param.getAttributes());
+        writeValue(out, param.getTaskAttributes());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static TaskSubmitParam readTaskSubmit(DataInput in) throws IOException {
+        TaskSubmitParam param = new TaskSubmitParam();
+        param.setJobId(readString(in));
+        param.setTaskId(readString(in));
+        String agentRpcUrl = readString(in);
+        param.setAgentRpcUrl(agentRpcUrl == null ? null : new URL(agentRpcUrl));
+        param.setType(readInteger(in));
+        param.setExecutorName(readString(in));
+        param.setContext((Map<String, Object>) readValue(in));
+        param.setAttributes((Map<String, Object>) readValue(in));
+        param.setTaskAttributes(readValue(in));
+        return param;
+    }
+
+    private static void writeTaskFeedback(DataOutput out, TaskFeedbackParam param) throws IOException {
+        writeString(out, param.getJobId());
+        writeString(out, param.getTaskId());
+        writeResult(out, param.getResult());
+        writeString(out, param.getErrorMsg());
+        writeString(out, param.getErrorStackTrace());
+        writeValue(out, param.getContext());
+        writeString(out, param.getResultData());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static TaskFeedbackParam readTaskFeedback(DataInput in) throws IOException {
+        TaskFeedbackParam param = new TaskFeedbackParam();
+        param.setJobId(readString(in));
+        param.setTaskId(readString(in));
+        param.setResult(readResult(in));
+        param.setErrorMsg(readString(in));
+        param.setErrorStackTrace(readString(in));
+        Map<String, Object> context = (Map<String, Object>) readValue(in);
+        // 与 JSON 一致，字段不存在时保留默认值
+        if (context != null) {
+            param.setContext(context);
+        }
+        param.setResultData(readString(in));
+        return param;
+    }
+
+    private static void writeJobFeedback(DataOutput out, JobFeedbackParam param) throws IOException {
+        writeResult(out, param.getResult());
+        writeString(out, param.getErrorMsg());
+        writeValue(out, param.getContext());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JobFeedbackParam readJobFeedback(DataInput in) throws IOException {
+        JobFeedbackParam param = new JobFeedbackParam();
+        param.setResult(readResult(in));
+        param.setErrorMsg(readString(in));
+        Map<String, Object> context = (Map<String, Object>) readValue(in);
+        if (context != null) {
+            param.setContext(context);
+        }
+        return param;
+    }
+
+    private static void writeWorkerHeartbeat(DataOutput out, WorkerHeartbeatParam param) throws IOException {
+        WorkerResourceParam resource = param.getAvailableResource();
+        out.writeBoolean(resource != null);
+        if (resource != null) {
+            out.writeBoolean(resource.getAvailableCpu() != null);
+            if (resource.getAvailableCpu() != null) {
+                out.writeFloat(resource.getAvailableCpu());
+            }
+            writeLong(out, resource.getAvailableRAM());
+            writeInteger(out, resource.getAvailableQueueLimit());
+        }
+        writeLong(out, param.getTopologyVersion());
+        writeLong(out, param.getResourceVersion());
+        writeLong(out, param.getBaseVersion());
+    }
+
+    private static WorkerHeartbeatParam readWorkerHeartbeat(DataInput in) throws IOException {
+        WorkerHeartbeatParam param = new WorkerHeartbeatParam();
+        if (in.readBoolean()) {
+            WorkerResourceParam resource = new WorkerResourceParam();
+            resource.setAvailableCpu(in.readBoolean() ? in.readFloat() : null);
+            resource.setAvailableRAM(readLong(in));
+            resource.setAvailableQueueLimit(readInteger(in));
+            param.setAvailableResource(resource);
+        }
+        param.setTopologyVersion(readLong(in));
+        param.setResourceVersion(readLong(in));
+        param.setBaseVersion(readLong(in));
+        return param;
+    }
+
+    private static void writeAgentHeartbeat(DataOutput out, AgentHeartbeatParam param) throws IOException {
+        AgentResourceParam resource = param.getAvailableResource();
+        out.writeBoolean(resource != null);
+        if (resource != null) {
+            writeInteger(out, resource.getAvailableQueueLimit());
+        }
+        writeLong(out, param.getTopologyVersion());
+        writeLong(out, param.getResourceVersion());
+        writeLong(out, param.getBaseVersion());
+
+        List<WorkerLatencyParam> latencies = param.getWorkerLatencies();
+        out.writeInt(latencies == null ? -1 : latencies.size());
+        if (latencies != null) {
+            for (WorkerLatencyParam latency : latencies) {
+                writeString(out, latency.getWorkerId());
+                out.writeInt(latency.getCompleted());
+                out.writeLong(latency.getAvgLatency());
+                out.writeLong(latency.getMaxLatency());
+                writeInteger(out, latency.getOutstanding());
+            }
+        }
+    }
+
+    private static AgentHeartbeatParam readAgentHeartbeat(DataInput in) throws IOException {
+        AgentHeartbeatParam param = new AgentHeartbeatParam();
+        if (in.readBoolean()) {
+            AgentResourceParam resource = new AgentResourceParam();
+            resource.setAvailableQueueLimit(readInteger(in));
+            param.setAvailableResource(resource);
+        }
+        param.setTopologyVersion(readLong(in));
+        param.setResourceVersion(readLong(in));
+        param.setBaseVersion(readLong(in));
+
+        int size = in.readInt();
+        if (size >= 0) {
+            List<WorkerLatencyParam> latencies = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                WorkerLatencyParam latency = new WorkerLatencyParam();
+                latency.setWorkerId(readString(in));
+                latency.setCompleted(in.readInt());
+                latency.setAvgLatency(in.readLong());
+                latency.setMaxLatency(in.readLong());
+                latency.setOutstanding(readInteger(in));
+                latencies.add(latency);
+            }
+            param.setWorkerLatencies(latencies);
+        }
+        return param;
+    }
+
+    private static void writeResult(DataOutput out, ExecuteResult result) throws IOException {
+        out.writeByte(result == null ? -1 : result.result);
+    }
+
+    private static ExecuteResult readResult(DataInput in) throws IOException {
+        byte result = in.readByte();
+        return result < 0 ? null : ExecuteResult.parse(result);
+    }
+
+    /**
+     * 长度为 -1 表示 null，不使用 {@link DataOutput#writeUTF}，避免 64KB 的长度限制
+     */
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInteger(DataOutput out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInteger(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeLong(DataOutput out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    /**
+     * 写入 JSON 兼容的值，整数按 JSON 解析的规则区分 int、long，浮点数统一为 double；
+     * 与 JSON 序列化一致，Map 中值为 null 的条目不写入
+     */
+    private static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(VALUE_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(VALUE_INT);
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            long l = (Long) value;
+            if (l == (int) l) {
+                out.writeByte(VALUE_INT);
+                out.writeInt((int) l);
+            } else {
+                out.writeByte(VALUE_LONG);
+                out.writeLong(l);
+            }
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(VALUE_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(VALUE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Collection) {
+            Collection<?> list = (Collection<?>) value;
+            out.writeByte(VALUE_LIST);
+            out.writeInt(list.size());
+            for (Object item : list) {
+                writeValue(out, item);
+            }
+        } else if (value instanceof Map && allStringKeys((Map<?, ?>) value)) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            int size = 0;
+            for (Object item : map.values()) {
+                if (item != null) {
+                    size++;
+                }
+            }
+            out.writeByte(VALUE_MAP);
+            out.writeInt(size);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                writeString(out, (String) entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            out.writeByte(VALUE_JSON);
+            writeString(out, JacksonUtils.toJSONString(value));
+        }
+    }
+
+    private static boolean allStringKeys(Map<?, ?> map) {
+        for (Object key : map.keySet()) {
+            if (!(key instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object readValue(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                return readString(in);
+            case VALUE_INT:
+                return in.readInt();
+            case VALUE_LONG:
+                return in.readLong();
+            case VALUE_DOUBLE:
+                return in.readDouble();
+            case VALUE_BOOLEAN:
+                return in.readBoolean();
+            case VALUE_LIST:
+                int size = in.readInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            case VALUE_MAP:
+                int entries = in.readInt();
+                Map<String, Object> map = new LinkedHashMap<>(Math.max(16, entries * 4 / 3 + 1));
+                for (int i = 0; i < entries; i++) {
+                    map.put(readString(in), readValue(in));
+                }
+                return map;
+            case VALUE_JSON:
+                return JacksonUtils.parseObject(readString(in), Object.class);
+            default:
+                throw new IllegalArgumentException("Unsupported value type " + type);
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.rpc.tcp;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.timeout.IdleStateEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.common.rpc.IHttpHandlerProcessor;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 处理二进制 RPC 请求帧，请求按 POST 交给 {@link IHttpHandlerProcessor#processAsync}，与 HTTP 请求的处理逻辑一致；
+ * 二进制编码的参数解码后交给 {@link IHttpHandlerProcessor#processParamAsync}。
+ * 同一连接上的请求并发处理，响应按完成顺序写回，由 requestId 对应到请求。
+ *
+ * @author Brozen
+ * @since 2024-02-23
+ */
+@Slf4j
+public class TcpRpcServerHandler extends SimpleChannelInboundHandler<RpcFrame> {
+
+    private final ThreadPoolExecutor serverThreadPool;
+
+    private final IHttpHandlerProcessor bizProcess;
+
+    public TcpRpcServerHandler(ThreadPoolExecutor serverThreadPool, IHttpHandlerProcessor bizProcess) {
+        this.serverThreadPool = serverThreadPool;
+        this.bizProcess = bizProcess;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, RpcFrame frame) {
+        if (frame.getType() != RpcFrame.TYPE_REQUEST) {
+            log.warn("Flowjob Rpc server ignore frame {}", frame);
+            return;
+        }
+
+        long requestId = frame.getRequestId();
+        CompletableFuture<String> future;
+        try {
+            if (frame.getCodec() == RpcFrame.CODEC_BINARY) {
+                Object param = RpcParamCodec.decode(frame.getBody());
+                future = bizProcess.processParamAsync(HttpMethod.POST, frame.getPath(), param, serverThreadPool);
+            } else {
+                InputStream data = new ByteArrayInputStream(frame.getBody());
+                future = bizProcess.processAsync(HttpMethod.POST, frame.getPath(), data, serverThreadPool);
+            }
+        } catch (Exception e) {
+            returnError(ctx, frame, e);
+            return;
+        }
+
+        future.whenComplete((response, e) -> {
+            if (e == null) {
+                ctx.writeAndFlush(RpcFrame.response(requestId, response));
+            } else {
+                returnError(ctx, frame, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+    }
+
+    private void returnError(ChannelHandlerContext ctx, RpcFrame frame, Throwable e) {
+        if (e instanceof RejectedExecutionException) {
+            // 线程池已满，直接返回错误，调用方可以重试其他节点
+            log.warn("Flowjob Rpc server is busy, reject path={} queued={}", frame.getPath(), serverThreadPool.getQueue().size());
+            ctx.writeAndFlush(RpcFrame.error(frame.getRequestId(), "server busy"));
+        } else {
+            log.error("Get Request Error path={}", frame.getPath(), e);
+            ctx.writeAndFlush(RpcFrame.error(frame.getRequestId(), e.getMessage()));
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.error("Flowjob Rpc server caught exception", cause);
+        ctx.close();
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            ctx.channel().close();
+            log.debug("Flowjob Rpc server close an idle channel.");
+        } else {
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+
+}
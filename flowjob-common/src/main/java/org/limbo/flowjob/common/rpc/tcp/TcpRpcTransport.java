@@ -0,0 +1,255 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.rpc.tcp;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.common.exception.RpcException;
+import org.limbo.flowjob.common.http.HttpClientConfig;
+import org.limbo.flowjob.common.http.HttpClientRegistry;
+import org.limbo.flowjob.common.rpc.RpcTransport;
+
+import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 {@link RpcFrame} 的二进制 RPC 客户端。每个节点只建立一个长连接，请求无需等待前一个响应即可发出，
+ * 通过 requestId 匹配响应；连接和等待响应都不占用调用线程，超时由连接所在的 EventLoop 触发。服务端为 {@link org.limbo.flowjob.common.rpc.EmbedHttpRpcServer}，
+ * 与 HTTP 共用端口，因此仍然使用节点注册的 http 地址。
+ *
+ * @author Brozen
+ * @since 2024-02-23
+ */
+@Slf4j
+public class TcpRpcTransport implements RpcTransport {
+
+    private static final int MAX_FRAME_LENGTH = 5 * 1024 * 1024;
+
+    private static volatile TcpRpcTransport shared;
+
+    private final EventLoopGroup group;
+
+    private final Bootstrap bootstrap;
+
+    private final long readTimeoutMillis;
+
+    /**
+     * host:port -> 连接
+     */
+    private final Map<String, ChannelFuture> connections = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestIds = new AtomicLong();
+
+    public TcpRpcTransport(HttpClientConfig config) {
+        this.readTimeoutMillis = config.getReadTimeout().toMillis();
+        this.group = new NioEventLoopGroup(0, new DefaultThreadFactory("FlowjobTcpRpcClient", true));
+        this.bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) config.getConnectTimeout().toMillis())
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        channel.pipeline()
+                                .addLast(new RpcFrameDecoder(MAX_FRAME_LENGTH))
+                                .addLast(RpcFrameEncoder.INSTANCE)
+                                .addLast(new ResponseHandler());
+                    }
+                });
+    }
+
+    /**
+     * 进程内共享的实例，按 {@link HttpClientRegistry#config()} 创建
+     */
+    public static TcpRpcTransport shared() {
+        if (shared == null) {
+            synchronized (TcpRpcTransport.class) {
+                if (shared == null) {
+                    shared = new TcpRpcTransport(HttpClientRegistry.config());
+                }
+            }
+        }
+        return shared;
+    }
+
+    @Override
+    public CompletableFuture<String> postAsync(String url, String body) {
+        return postAsync(url, RpcFrame.CODEC_JSON, body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * {@link RpcParamCodec} 支持的参数以二进制编码发送，其他参数仍为 JSON
+     */
+    @Override
+    public CompletableFuture<String> postParamAsync(String url, Object param) {
+        if (!RpcParamCodec.supports(param)) {
+            return RpcTransport.super.postParamAsync(url, param);
+        }
+        byte[] body;
+        try {
+            body = RpcParamCodec.encode(param);
+        } catch (RuntimeException e) {
+            CompletableFuture<String> result = new CompletableFuture<>();
+            result.completeExceptionally(new RpcException("Encode param failed " + url, e));
+            return result;
+        }
+        return postAsync(url, RpcFrame.CODEC_BINARY, body);
+    }
+
+    private CompletableFuture<String> postAsync(String url, byte codec, byte[] body) {
+        URI uri = URI.create(url);
+        String path = uri.getRawQuery() == null ? uri.getRawPath() : uri.getRawPath() + "?" + uri.getRawQuery();
+        String address = uri.getHost() + ":" + (uri.getPort() < 0 ? 80 : uri.getPort());
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        ChannelFuture connect = connect(uri.getHost(), uri.getPort() < 0 ? 80 : uri.getPort());
+        connect.addListener(f -> {
+            if (f.isSuccess()) {
+                send(connect.channel(), url, path, codec, body, result);
+            } else {
+                connections.remove(address, connect);
+                result.completeExceptionally(new RpcException("Connect failed " + address, f.cause()));
+            }
+        });
+        return result;
+    }
+
+    private ChannelFuture connect(String host, int port) {
+        return connections.computeIfAbsent(host + ":" + port, k -> {
+            ChannelFuture connect = bootstrap.connect(host, port);
+            connect.channel().closeFuture().addListener(f -> connections.remove(k, connect));
+            return connect;
+        });
+    }
+
+    private void send(Channel channel, String url, String path, byte codec, byte[] body, CompletableFuture<String> result) {
+        ResponseHandler handler = channel.pipeline().get(ResponseHandler.class);
+        if (handler == null) {
+            result.completeExceptionally(new RpcException("Api access failed " + url, new ClosedChannelException()));
+            return;
+        }
+        if (result.isDone()) {
+            // 连接建立前已被取消
+            return;
+        }
+
+        long requestId = requestIds.incrementAndGet();
+        CompletableFuture<RpcFrame> response = handler.register(requestId);
+        ScheduledFuture<?> timeout = channel.eventLoop().schedule(
+                () -> handler.fail(requestId, new TimeoutException("Api access timeout " + url)),
+                readTimeoutMillis, TimeUnit.MILLISECONDS
+        );
+        response.whenComplete((frame, e) -> {
+            timeout.cancel(false);
+            if (e != null) {
+                result.completeExceptionally(new RpcException("Api access failed " + url, e));
+            } else if (frame.getType() == RpcFrame.TYPE_ERROR) {
+                result.completeExceptionally(new RpcException("Api access failed " + url + " error=" + frame.bodyString()));
+            } else {
+                result.complete(frame.bodyString());
+            }
+        });
+        // 调用方取消后不再等待响应
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                handler.fail(requestId, new CancellationException());
+            }
+        });
+
+        channel.writeAndFlush(RpcFrame.request(requestId, path, codec, body)).addListener(f -> {
+            if (!f.isSuccess()) {
+                handler.fail(requestId, f.cause());
+            }
+        });
+    }
+
+    /**
+     * 关闭所有连接，关闭后不可再使用
+     */
+    public void close() {
+        group.shutdownGracefully();
+    }
+
+    /**
+     * 按 requestId 完成等待中的请求，连接断开时所有等待中的请求失败
+     */
+    private static class ResponseHandler extends SimpleChannelInboundHandler<RpcFrame> {
+
+        private final Map<Long, CompletableFuture<RpcFrame>> pending = new ConcurrentHashMap<>();
+
+        CompletableFuture<RpcFrame> register(long requestId) {
+            CompletableFuture<RpcFrame> future = new CompletableFuture<>();
+            pending.put(requestId, future);
+            return future;
+        }
+
+        void fail(long requestId, Throwable cause) {
+            CompletableFuture<RpcFrame> future = pending.remove(requestId);
+            if (future != null) {
+                future.completeExceptionally(cause);
+            }
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, RpcFrame frame) {
+            CompletableFuture<RpcFrame> future = pending.remove(frame.getRequestId());
+            if (future != null) {
+                future.complete(frame);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            ClosedChannelException cause = new ClosedChannelException();
+            for (Long requestId : pending.keySet()) {
+                fail(requestId, cause);
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.error("Flowjob Rpc client caught exception", cause);
+            ctx.close();
+        }
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.thread;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按 key 分片的有序执行器，由 N 个单线程通道组成。
+ * 相同 key 的任务总是落在同一个通道上，保证按提交顺序执行；不同 key 之间互不阻塞。
+ * 通道队列有界，队列满时任务进入该通道的溢出队列，由通道线程在执行完任务后按顺序搬回，提交线程永远不会被阻塞，并记录溢出次数。
+ * 溢出队列同样有界，溢出队列也满时拒绝任务并抛出 {@link RejectedExecutionException}，记录拒绝次数，由调用方决定重试或丢弃。
+ *
+ * @author Brozen
+ * @since 2024-02-03
+ */
+@Slf4j
+public class OrderedLaneExecutor {
+
+    /**
+     * 未指定溢出队列大小时，溢出队列为通道队列的倍数
+     */
+    private static final int DEFAULT_SPILL_FACTOR = 16;
+
+    private final Lane[] lanes;
+
+    /**
+     * 提交的任务数
+     */
+    private final LongAdder submitted = new LongAdder();
+
+    /**
+     * 通道队列满导致任务进入溢出队列的次数
+     */
+    private final LongAdder overflow = new LongAdder();
+
+    /**
+     * 溢出队列满导致任务被拒绝的次数
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * 每个通道溢出队列的大小
+     */
+    private final int spillSize;
+
+    /**
+     * 溢出队列大小为通道队列的 {@value #DEFAULT_SPILL_FACTOR} 倍
+     *
+     * @param name      线程名前缀
+     * @param laneCount 通道数量
+     * @param queueSize 每个通道的队列大小
+     */
+    public OrderedLaneExecutor(String name, int laneCount, int queueSize) {
+        this(name, laneCount, queueSize, queueSize * DEFAULT_SPILL_FACTOR);
+    }
+
+    /**
+     * @param name      线程名前缀
+     * @param laneCount 通道数量
+     * @param queueSize 每个通道的队列大小
+     * @param spillSize 每个通道溢出队列的大小
+     */
+    public OrderedLaneExecutor(String name, int laneCount, int queueSize, int spillSize) {
+        if (laneCount <= 0 || queueSize <= 0 || spillSize <= 0) {
+            throw new IllegalArgumentException("laneCount, queueSize and spillSize must be positive");
+        }
+        this.spillSize = spillSize;
+        NamedThreadFactory threadFactory = NamedThreadFactory.newInstance(name);
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy()));
+        }
+    }
+
+    /**
+     * 提交任务，不会阻塞调用线程。通道队列满时放入溢出队列，仍然保证相同 key 按提交顺序执行
+     *
+     * @param key  分片 key，相同 key 的任务有序执行
+     * @param task 任务
+     * @throws RejectedExecutionException 通道已停止，或者通道队列和溢出队列都已满
+     */
+    public void execute(String key, Runnable task) {
+        submitted.increment();
+        lanes[laneOf(key)].execute(task);
+    }
+
+    /**
+     * @return key 所在的通道下标，下标相同的 key 在同一个通道中按提交顺序执行
+     */
+    public int laneOf(String key) {
+        return Math.floorMod(key.hashCode(), lanes.length);
+    }
+
+    /**
+     * @return 通道数量
+     */
+    public int laneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * @return 提交的任务总数
+     */
+    public long submittedCount() {
+        return submitted.sum();
+    }
+
+    /**
+     * @return 通道队列满而进入溢出队列的总次数
+     */
+    public long overflowCount() {
+        return overflow.sum();
+    }
+
+    /**
+     * @return 溢出队列满而被拒绝的总次数
+     */
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return 所有通道排队中的任务数，包含溢出队列
+     */
+    public int queuedCount() {
+        int count = 0;
+        for (Lane lane : lanes) {
+            count += lane.queued();
+        }
+        return count;
+    }
+
+    /**
+     * @return 是否已经停止
+     */
+    public boolean isShutdown() {
+        return lanes[0].executor.isShutdown();
+    }
+
+    /**
+     * 停止所有通道，已提交的任务（包括溢出队列中的）会继续执行完，之后提交的任务抛出 {@link RejectedExecutionException}
+     */
+    public void shutdown() {
+        for (Lane lane : lanes) {
+            lane.executor.shutdown();
+        }
+    }
+
+    /**
+     * 等待所有通道中已提交的任务执行完成
+     *
+     * @return 超时前是否全部完成
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Lane lane : lanes) {
+            if (!lane.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 单个通道。溢出队列不为空时，新任务也进入溢出队列，保证顺序；
+     * 通道线程每执行完一个任务，将溢出队列中的任务按顺序搬到通道队列中
+     */
+    private class Lane {
+
+        private final ThreadPoolExecutor executor;
+
+        /**
+         * 溢出队列，最多 spillSize 个任务，通过 Lane 的锁访问
+         */
+        private final Queue<Runnable> spill = new ArrayDeque<>();
+
+        Lane(ThreadPoolExecutor executor) {
+            this.executor = executor;
+        }
+
+        synchronized void execute(Runnable task) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("lane is shutdown");
+            }
+
+            LaneTask laneTask = new LaneTask(task);
+            if (spill.isEmpty()) {
+                try {
+                    executor.execute(laneTask);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    if (executor.isShutdown()) {
+                        throw e;
+                    }
+                }
+            }
+
+            if (spill.size() >= spillSize) {
+                rejected.increment();
+                throw new RejectedExecutionException("lane spill queue is full, size=" + spill.size());
+            }
+            spill.add(laneTask);
+            overflow.increment();
+            if (log.isDebugEnabled()) {
+                log.debug("[OrderedLaneExecutor] lane queue is full, spill={} overflow={}", spill.size(), overflow.sum());
+            }
+        }
+
+        /**
+         * 在通道线程中调用。队列满说明通道线程已启动，直接放入队列即可；
+         * 停止后线程会继续消费队列直到为空，搬入的任务仍会被执行
+         */
+        synchronized void drain() {
+            Runnable task;
+            while ((task = spill.peek()) != null && executor.getQueue().offer(task)) {
+                spill.poll();
+            }
+        }
+
+        synchronized int queued() {
+            return executor.getQueue().size() + spill.size();
+        }
+
+        private class LaneTask implements Runnable {
+
+            private final Runnable task;
+
+            LaneTask(Runnable task) {
+                this.task = task;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    drain();
+                }
+            }
+        }
+
+    }
+
+}
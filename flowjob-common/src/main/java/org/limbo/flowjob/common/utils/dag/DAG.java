@@ -30,6 +30,7 @@ import org.limbo.flowjob.common.utils.json.JacksonUtils;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -80,6 +81,11 @@ public class DAG<T extends DAGNode> implements Serializable {
      */
     private Map<String, T> nodes;
 
+    /**
+     * 节点 id -> 按 id 排序后的序号，相同的节点列表在任何节点上解析都得到相同的序号
+     */
+    private Map<String, Integer> indexes;
+
     public DAG(List<T> nodeList) {
         if (CollectionUtils.isEmpty(nodeList)) {
             return;
@@ -88,6 +94,7 @@ public class DAG<T extends DAGNode> implements Serializable {
         this.nodes = new HashMap<>();
         this.origins = new HashSet<>();
         this.lasts = new HashSet<>();
+        this.indexes = new HashMap<>();
 
         init(nodeList);
     }
@@ -99,6 +106,11 @@ public class DAG<T extends DAGNode> implements Serializable {
     private void init(List<T> nodeList) {
         // 数据初始化
         nodeList.forEach(node -> nodes.put(node.getId(), node));
+        List<String> sortedIds = new ArrayList<>(nodes.keySet());
+        sortedIds.sort(Comparator.nullsFirst(Comparator.naturalOrder()));
+        for (int i = 0; i < sortedIds.size(); i++) {
+            indexes.put(sortedIds.get(i), i);
+        }
         nodeList.forEach(node -> {
             if (CollectionUtils.isEmpty(node.getChildrenIds())) {
                 return;
@@ -148,6 +160,16 @@ public class DAG<T extends DAGNode> implements Serializable {
         return nodes.get(id);
     }
 
+    /**
+     * 获取节点序号，范围 [0, 节点数)，可用于按位记录节点状态
+     *
+     * @return 节点不存在返回 -1
+     */
+    public int indexOf(String id) {
+        Integer index = indexes == null ? null : indexes.get(id);
+        return index == null ? -1 : index;
+    }
+
 
     /**
      * 获取叶子节点 也就是最后执行的节点
@@ -19,6 +19,7 @@
 package org.limbo.flowjob.common.utils.json;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
@@ -27,6 +28,7 @@ import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.apache.commons.lang3.StringUtils;
 import org.limbo.flowjob.common.utils.time.Formatters;
 
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.time.LocalDateTime;
 import java.util.Objects;
@@ -145,4 +147,20 @@ public class JacksonUtils {
     }
 
 
+    /**
+     * 从输入流解析JSON为指定类型，无需先读取为字符串；输入流为空时返回 null，解析完成后关闭输入流。
+     */
+    public static <T> T parseObject(InputStream json, Class<T> type) {
+        Objects.requireNonNull(type);
+        try (JsonParser parser = mapper.getFactory().createParser(json)) {
+            if (parser.nextToken() == null) {
+                return null;
+            }
+            return mapper.readValue(parser, type);
+        } catch (Exception e) {
+            throw new IllegalStateException("Jackson反序列化失败！type=" + type.getName(), e);
+        }
+    }
+
+
 }
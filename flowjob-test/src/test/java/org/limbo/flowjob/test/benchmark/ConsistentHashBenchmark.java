@@ -0,0 +1,117 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.benchmark;
+
+import org.limbo.flowjob.common.lb.strategies.ConsistentHashLBStrategy;
+import org.limbo.flowjob.common.rpc.RPCInvocation;
+import org.limbo.flowjob.test.lb.IntegerLBServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 一致性哈希选择延迟。服务列表不变时只查表，不随服务数量增长；
+ * 每次传入新的列表对象时额外遍历一次校验成员。
+ *
+ * @author Brozen
+ * @since 2024-03-10
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConsistentHashBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int serverCount;
+
+    private ConsistentHashLBStrategy<IntegerLBServer> strategy;
+
+    private List<IntegerLBServer> servers;
+
+    private RPCInvocation[] invocations;
+
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        strategy = new ConsistentHashLBStrategy<>();
+        servers = IntStream.range(0, serverCount)
+                .mapToObj(IntegerLBServer::new)
+                .collect(Collectors.toList());
+        invocations = new RPCInvocation[1024];
+        for (int i = 0; i < invocations.length; i++) {
+            Map<String, String> params = new HashMap<>();
+            params.put(ConsistentHashLBStrategy.HASH_PARAM_NAME, "key");
+            params.put("key", "job-" + i);
+            invocations[i] = new RPCInvocation("benchmark", params);
+        }
+        strategy.select(servers, invocations[0]);
+    }
+
+    /**
+     * 同一个服务列表对象重复选择
+     */
+    @Benchmark
+    public Optional<IntegerLBServer> selectStable() {
+        return strategy.select(servers, nextInvocation());
+    }
+
+    /**
+     * 成员不变，每次传入新的列表对象，与调用方每次过滤生成列表的场景一致
+     */
+    @Benchmark
+    public Optional<IntegerLBServer> selectCopied() {
+        return strategy.select(new ArrayList<>(servers), nextInvocation());
+    }
+
+    private RPCInvocation nextInvocation() {
+        return invocations[cursor++ & (invocations.length - 1)];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ConsistentHashBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.benchmark;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.limbo.flowjob.common.http.HttpClientConfig;
+import org.limbo.flowjob.common.http.HttpClientRegistry;
+import org.limbo.flowjob.common.rpc.EmbedHttpRpcServer;
+import org.limbo.flowjob.common.rpc.tcp.TcpRpcTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内嵌 RPC 服务上 HTTP/1.1 与二进制 TCP 协议的吞吐量对比，多线程并发回显小报文，结果单位为 msgs/s
+ *
+ * @author Brozen
+ * @since 2024-03-10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RpcTransportBenchmark {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private static final String BODY = "{\"jobId\":\"job\",\"taskId\":\"task\",\"result\":1}";
+
+    private EmbedHttpRpcServer server;
+
+    private String url;
+
+    private OkHttpClient http;
+
+    private TcpRpcTransport tcp;
+
+    @Setup
+    public void setup() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new EmbedHttpRpcServer(port, (method, uri, data) -> data);
+        server.start();
+        url = "http://127.0.0.1:" + port + "/api/v1/echo";
+        http = HttpClientRegistry.client();
+        tcp = new TcpRpcTransport(new HttpClientConfig());
+
+        // 服务异步启动，等待端口可用
+        for (int i = 0; i < 50; i++) {
+            try {
+                tcp.post(url, BODY);
+                return;
+            } catch (Exception e) {
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        tcp.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public String http() throws IOException {
+        Request request = new Request.Builder().url(url).post(RequestBody.create(JSON, BODY)).build();
+        try (Response response = http.newCall(request).execute()) {
+            return response.body().string();
+        }
+    }
+
+    @Benchmark
+    public String tcp() {
+        return tcp.post(url, BODY);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RpcTransportBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+
+}
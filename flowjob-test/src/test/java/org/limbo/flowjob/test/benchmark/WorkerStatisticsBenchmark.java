@@ -0,0 +1,114 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.benchmark;
+
+import org.limbo.flowjob.broker.core.schedule.selector.SingletonWorkerStatisticsRepo;
+import org.limbo.flowjob.broker.core.schedule.selector.WorkerLBStatistics;
+import org.limbo.flowjob.broker.core.worker.Worker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker 统计的记录与查询开销。记录为 O(1)，查询只与 Worker 数和 agent 数有关，与历史下发次数无关；
+ * 多线程并发记录下发，同时有 agent 上报未完成任务数。
+ *
+ * @author Brozen
+ * @since 2024-03-10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WorkerStatisticsBenchmark {
+
+    private static final int AGENTS = 8;
+
+    @Param({"10", "100", "1000"})
+    private int workerCount;
+
+    private SingletonWorkerStatisticsRepo repo;
+
+    private Worker[] workers;
+
+    private Set<String> workerIds;
+
+    @Setup
+    public void setup() {
+        repo = new SingletonWorkerStatisticsRepo();
+        workers = new Worker[workerCount];
+        workerIds = new HashSet<>();
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = Worker.builder().id("w" + i).build();
+            workerIds.add(workers[i].getId());
+        }
+        // 预先积累大量历史下发
+        for (int i = 0; i < 1000000; i++) {
+            repo.recordDispatched("a" + (i % AGENTS), workers[i % workerCount]);
+        }
+    }
+
+    @Benchmark
+    public void recordDispatched() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        repo.recordDispatched("a" + random.nextInt(AGENTS), workers[random.nextInt(workerCount)]);
+    }
+
+    @Benchmark
+    public void reportOutstanding() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        repo.recordCompleted("a" + random.nextInt(AGENTS), workers[random.nextInt(workerCount)].getId(), 1, 10, 20, random.nextInt(8));
+    }
+
+    @Benchmark
+    public List<WorkerLBStatistics> list() {
+        return repo.list(workerIds, Instant.now().minus(Duration.ofMinutes(1)));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(WorkerStatisticsBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+
+}
@@ -0,0 +1,248 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.core.cluster;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.api.constants.AgentStatus;
+import org.limbo.flowjob.broker.core.agent.AgentRegistry;
+import org.limbo.flowjob.broker.core.agent.AgentRepository;
+import org.limbo.flowjob.broker.core.agent.ScheduleAgent;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * 两个 broker 共享数据库，agent 只向其中一个发送心跳
+ *
+ * @author Brozen
+ * @since 2024-03-03
+ */
+class AgentRegistryTest {
+
+    private static final String AGENT_ID = "registry-agent";
+
+    @Test
+    void testRemoteBrokerNotFuseLiveAgent() throws Exception {
+        SharedAgentRepository db = new SharedAgentRepository();
+        db.rows.put(AGENT_ID, new Row(AgentStatus.RUNNING, TimeUtils.currentLocalDateTime()));
+
+        AgentRegistry owner = new AgentRegistry(db);
+        AgentRegistry remote = new AgentRegistry(db);
+        owner.init();
+        remote.init();
+
+        // 心跳只发到 owner，remote 只能通过扫描数据库感知
+        long liveUntil = System.currentTimeMillis() + 8000;
+        while (System.currentTimeMillis() < liveUntil) {
+            owner.heartbeat(AGENT_ID, 10);
+            Thread.sleep(500);
+        }
+        Assertions.assertTrue(db.transitions.isEmpty(), "transitions " + db.transitions);
+        Assertions.assertEquals(AgentStatus.RUNNING, db.rows.get(AGENT_ID).status);
+        Assertions.assertTrue(remote.all().stream().anyMatch(a -> AGENT_ID.equals(a.getId())));
+
+        // 停止心跳后依然会被熔断、终止
+        long deadline = System.currentTimeMillis() + 12000;
+        while (db.rows.get(AGENT_ID).status != AgentStatus.TERMINATED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(200);
+        }
+        Assertions.assertEquals(AgentStatus.TERMINATED, db.rows.get(AGENT_ID).status);
+    }
+
+    @Test
+    void testRemoteBrokerKeepAgentBetweenSyncs() throws Exception {
+        SharedAgentRepository db = new SharedAgentRepository();
+        db.rows.put(AGENT_ID, new Row(AgentStatus.RUNNING, TimeUtils.currentLocalDateTime()));
+
+        AgentRegistry owner = new AgentRegistry(db);
+        AgentRegistry remote = new AgentRegistry(db);
+        owner.init();
+        remote.init();
+
+        // 按 agent 的实际心跳间隔发送，remote 同步到的心跳时间可能已经接近一个心跳间隔加落库延迟
+        long nextHeartbeat = 0;
+        long liveUntil = System.currentTimeMillis() + 12000;
+        Thread.sleep(500);
+        while (System.currentTimeMillis() < liveUntil) {
+            if (System.currentTimeMillis() >= nextHeartbeat) {
+                owner.heartbeat(AGENT_ID, 10);
+                nextHeartbeat = System.currentTimeMillis() + 3000;
+            }
+            Assertions.assertTrue(remote.all().stream().anyMatch(a -> AGENT_ID.equals(a.getId())), "remote lost agent");
+            Thread.sleep(200);
+        }
+    }
+
+    @Test
+    void testRemoteSyncKeepInstanceAndCredits() throws Exception {
+        SharedAgentRepository db = new SharedAgentRepository();
+        db.rows.put(AGENT_ID, new Row(AgentStatus.RUNNING, TimeUtils.currentLocalDateTime()));
+
+        AgentRegistry remote = new AgentRegistry(db);
+        remote.init();
+        Thread.sleep(500);
+        ScheduleAgent synced = remote.all().stream().filter(a -> AGENT_ID.equals(a.getId())).findFirst().orElse(null);
+        Assertions.assertNotNull(synced);
+        Assertions.assertTrue(synced.tryAcquireCredit());
+        Assertions.assertEquals(9, synced.getCredits());
+
+        // 库中心跳更新后，同步到原对象上，已下发未响应的作业继续占用额度
+        LocalDateTime heartbeatAt = TimeUtils.currentLocalDateTime();
+        db.rows.get(AGENT_ID).lastHeartbeatAt = heartbeatAt;
+        Thread.sleep(3500);
+        ScheduleAgent resynced = remote.all().stream().filter(a -> AGENT_ID.equals(a.getId())).findFirst().orElse(null);
+        Assertions.assertSame(synced, resynced);
+        Assertions.assertEquals(heartbeatAt, resynced.getLastHeartbeatAt());
+        Assertions.assertEquals(9, resynced.getCredits());
+    }
+
+    @Test
+    void testFlushRestoreOnlyRecovered() throws Exception {
+        SharedAgentRepository db = new SharedAgentRepository();
+        db.rows.put(AGENT_ID, new Row(AgentStatus.TERMINATED, TimeUtils.currentLocalDateTime()));
+        AgentRegistry owner = new AgentRegistry(db);
+        owner.init();
+
+        // 从库中加载的已终止 agent 通过心跳恢复
+        owner.heartbeat(AGENT_ID, 10);
+        Thread.sleep(2500);
+        Assertions.assertEquals(AgentStatus.RUNNING, db.rows.get(AGENT_ID).status);
+
+        // 其他 broker 终止后，内存中仍为运行中的 agent 落库心跳不覆盖状态
+        db.rows.get(AGENT_ID).status = AgentStatus.TERMINATED;
+        owner.heartbeat(AGENT_ID, 10);
+        Thread.sleep(2500);
+        Assertions.assertEquals(AgentStatus.TERMINATED, db.rows.get(AGENT_ID).status);
+    }
+
+    @Test
+    void testDeltaBaseVersion() {
+        SharedAgentRepository db = new SharedAgentRepository();
+        db.rows.put(AGENT_ID, new Row(AgentStatus.RUNNING, TimeUtils.currentLocalDateTime()));
+        AgentRegistry a = new AgentRegistry(db);
+        AgentRegistry b = new AgentRegistry(db);
+
+        a.heartbeat(AGENT_ID, 5, 1L, null);
+        Assertions.assertTrue(a.isResourceSynced(AGENT_ID, 1L));
+        a.heartbeat(AGENT_ID, null, 2L, 1L);
+        Assertions.assertTrue(a.isResourceSynced(AGENT_ID, 2L));
+
+        // 增量基于 a 收到的资源，b 没有该版本，需要全量上报
+        b.heartbeat(AGENT_ID, null, 3L, 2L);
+        Assertions.assertFalse(b.isResourceSynced(AGENT_ID, 3L));
+        b.heartbeat(AGENT_ID, 5, 4L, null);
+        Assertions.assertTrue(b.isResourceSynced(AGENT_ID, 4L));
+
+        // a 错过了版本 3、4，之后的增量同样需要全量上报
+        a.heartbeat(AGENT_ID, null, 5L, 4L);
+        Assertions.assertFalse(a.isResourceSynced(AGENT_ID, 5L));
+    }
+
+    private static class Row {
+
+        volatile AgentStatus status;
+
+        volatile LocalDateTime lastHeartbeatAt;
+
+        Row(AgentStatus status, LocalDateTime lastHeartbeatAt) {
+            this.status = status;
+            this.lastHeartbeatAt = lastHeartbeatAt;
+        }
+    }
+
+    /**
+     * 模拟数据库，每次查询返回新的对象
+     */
+    private static class SharedAgentRepository implements AgentRepository {
+
+        final Map<String, Row> rows = new ConcurrentHashMap<>();
+
+        final List<String> transitions = new CopyOnWriteArrayList<>();
+
+        @Override
+        public ScheduleAgent get(String id) {
+            Row row = rows.get(id);
+            return row == null ? null : toAgent(id, row);
+        }
+
+        @Override
+        public List<ScheduleAgent> findByLastHeartbeatAtBetween(LocalDateTime startTime, LocalDateTime endTime) {
+            return rows.entrySet().stream()
+                    .filter(e -> !e.getValue().lastHeartbeatAt.isBefore(startTime) && !e.getValue().lastHeartbeatAt.isAfter(endTime))
+                    .map(e -> toAgent(e.getKey(), e.getValue()))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public synchronized boolean updateStatus(String agentId, Integer oldStatus, Integer newStatus) {
+            Row row = rows.get(agentId);
+            if (row == null || !row.status.is(oldStatus)) {
+                return false;
+            }
+            row.status = AgentStatus.parse(newStatus);
+            return true;
+        }
+
+        @Override
+        public synchronized boolean updateStatusIfExpired(String agentId, Integer oldStatus, Integer newStatus, LocalDateTime deadline) {
+            Row row = rows.get(agentId);
+            if (row == null || !row.lastHeartbeatAt.isBefore(deadline)) {
+                return false;
+            }
+            boolean updated = updateStatus(agentId, oldStatus, newStatus);
+            if (updated && AgentStatus.RUNNING.is(oldStatus)) {
+                transitions.add(oldStatus + "->" + newStatus + " at " + TimeUtils.currentLocalDateTime());
+            }
+            return updated;
+        }
+
+        @Override
+        public synchronized void saveHeartbeats(Collection<ScheduleAgent> agents) {
+            for (ScheduleAgent agent : agents) {
+                Row row = rows.get(agent.getId());
+                row.lastHeartbeatAt = agent.getLastHeartbeatAt();
+            }
+        }
+
+        private ScheduleAgent toAgent(String id, Row row) {
+            try {
+                return ScheduleAgent.builder()
+                        .id(id)
+                        .rpcBaseUrl(new URL("http://127.0.0.1:8081"))
+                        .availableQueueLimit(10)
+                        .enabled(true)
+                        .status(row.status)
+                        .lastHeartbeatAt(row.lastHeartbeatAt)
+                        .build();
+            } catch (MalformedURLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.core.cluster;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.core.cluster.NodeEvent;
+import org.limbo.flowjob.broker.core.cluster.gossip.GossipMember;
+import org.limbo.flowjob.broker.core.cluster.gossip.GossipMessage;
+import org.limbo.flowjob.broker.core.cluster.gossip.GossipNodeRegistry;
+import org.limbo.flowjob.broker.core.cluster.gossip.SeedRepository;
+import org.limbo.flowjob.common.utils.json.JacksonUtils;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 同一个 JVM 中启动多个 gossip 节点
+ *
+ * @author Brozen
+ * @since 2024-02-10
+ */
+class GossipNodeRegistryTest {
+
+    private static final int SIZE = 3;
+
+    @Test
+    void testJoinAndLeave() throws Exception {
+        List<URL> seeds = new CopyOnWriteArrayList<>();
+        SeedRepository seedRepository = new SeedRepository() {
+            @Override
+            public void register(String name, URL url) {
+                seeds.add(url);
+            }
+
+            @Override
+            public List<URL> seeds() {
+                return seeds;
+            }
+
+            @Override
+            public void unregister(URL url) {
+                seeds.remove(url);
+            }
+        };
+
+        List<URL> urls = new ArrayList<>();
+        List<GossipNodeRegistry> registries = new ArrayList<>();
+        Map<URL, Set<String>> views = new ConcurrentHashMap<>();
+        for (int i = 0; i < SIZE; i++) {
+            URL url = new URL("http", "127.0.0.1", freePort(), "");
+            Set<String> view = ConcurrentHashMap.newKeySet();
+            GossipNodeRegistry registry = new GossipNodeRegistry(seedRepository, 100, 300);
+            registry.register("broker-" + i, url);
+            registry.subscribe(event -> {
+                if (event.getType() == NodeEvent.Type.ONLINE) {
+                    view.add(event.getUrl().toString());
+                } else {
+                    view.remove(event.getUrl().toString());
+                }
+            });
+            urls.add(url);
+            registries.add(registry);
+            views.put(url, view);
+        }
+
+        try {
+            // 所有节点互相发现
+            waitUntil(() -> views.values().stream().allMatch(view -> view.size() == SIZE - 1));
+
+            // 一个节点下线，其他节点感知
+            URL left = urls.get(0);
+            registries.get(0).shutdown();
+            waitUntil(() -> urls.stream().skip(1).allMatch(url -> !views.get(url).contains(left.toString())));
+            // 下线的节点不再作为种子
+            Assertions.assertFalse(seeds.contains(left));
+        } finally {
+            for (int i = 1; i < SIZE; i++) {
+                registries.get(i).shutdown();
+            }
+        }
+    }
+
+    @Test
+    void testSuspectToDead() throws Exception {
+        SeedRepository seedRepository = new SeedRepository() {
+            @Override
+            public void register(String name, URL url) {
+            }
+
+            @Override
+            public List<URL> seeds() {
+                return Collections.emptyList();
+            }
+        };
+
+        URL url = new URL("http", "127.0.0.1", freePort(), "");
+        Map<NodeEvent.Type, Long> events = new ConcurrentHashMap<>();
+        GossipNodeRegistry registry = new GossipNodeRegistry(seedRepository, 100, 300);
+        registry.register("broker-0", url);
+        registry.subscribe(event -> events.put(event.getType(), System.currentTimeMillis()));
+
+        // 成员宣告上线后不再响应任何探测，模拟进程崩溃，没有主动下线消息
+        try (DatagramSocket crashed = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"))) {
+            URL crashedUrl = new URL("http", "127.0.0.1", crashed.getLocalPort(), "");
+            GossipMessage message = GossipMessage.of(GossipMessage.Type.PING, 1);
+            message.getUpdates().add(new GossipMember("broker-crashed", crashedUrl.toString(), 1, GossipMember.Status.ALIVE));
+            byte[] bytes = JacksonUtils.toJSONString(message).getBytes(StandardCharsets.UTF_8);
+            crashed.send(new DatagramPacket(bytes, bytes.length, InetAddress.getByName(url.getHost()), url.getPort()));
+
+            waitUntil(() -> events.containsKey(NodeEvent.Type.ONLINE));
+            // 探测超时先标记为怀疑，怀疑超时后才判定下线
+            waitUntil(() -> events.containsKey(NodeEvent.Type.OFFLINE));
+            long elapsed = events.get(NodeEvent.Type.OFFLINE) - events.get(NodeEvent.Type.ONLINE);
+            Assertions.assertTrue(elapsed >= 300, "offline before suspect timeout: " + elapsed);
+        } finally {
+            registry.shutdown();
+        }
+    }
+
+    private static int freePort() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "timeout");
+            Thread.sleep(50);
+        }
+    }
+
+}
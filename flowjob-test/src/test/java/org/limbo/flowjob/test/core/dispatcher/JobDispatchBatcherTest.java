@@ -0,0 +1,315 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.core.dispatcher;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.api.constants.Protocol;
+import org.limbo.flowjob.api.dto.PageDTO;
+import org.limbo.flowjob.api.dto.agent.JobBatchReceiveDTO;
+import org.limbo.flowjob.api.dto.agent.JobReceiveDTO;
+import org.limbo.flowjob.api.dto.console.TaskDTO;
+import org.limbo.flowjob.api.param.console.TaskQueryParam;
+import org.limbo.flowjob.broker.core.agent.AgentRegistry;
+import org.limbo.flowjob.broker.core.agent.AgentRepository;
+import org.limbo.flowjob.broker.core.agent.ScheduleAgent;
+import org.limbo.flowjob.broker.core.agent.rpc.AgentRpc;
+import org.limbo.flowjob.broker.core.cluster.Buckets;
+import org.limbo.flowjob.broker.core.cluster.Node;
+import org.limbo.flowjob.broker.core.cluster.NodeManger;
+import org.limbo.flowjob.broker.core.meta.job.JobInstance;
+import org.limbo.flowjob.broker.core.meta.processor.JobDispatchBatcher;
+
+import java.net.URL;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * @author Brozen
+ * @since 2024-02-21
+ */
+class JobDispatchBatcherTest {
+
+    @Test
+    void testBatchPerAgent() throws InterruptedException {
+        FakeAgentRpc accepting = new FakeAgentRpc(true);
+        FakeAgentRpc rejecting = new FakeAgentRpc(false);
+        Map<String, ScheduleAgent> agents = new ConcurrentHashMap<>();
+        agents.put("batcher-a1", ScheduleAgent.builder().id("batcher-a1").availableQueueLimit(1000).enabled(true).rpc(accepting).build());
+        agents.put("batcher-a2", ScheduleAgent.builder().id("batcher-a2").availableQueueLimit(1000).enabled(true).rpc(rejecting).build());
+        AgentRegistry registry = new AgentRegistry(new StubAgentRepository(agents));
+        registry.heartbeat("batcher-a1", null);
+        registry.heartbeat("batcher-a2", null);
+
+        JobDispatchBatcher batcher = new JobDispatchBatcher(20, 100);
+        int jobs = 500;
+        for (int i = 0; i < jobs; i++) {
+            batcher.dispatch(JobInstance.builder().id("job-" + i).build(), registry);
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (accepting.accepted.size() < jobs && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        batcher.shutdown();
+
+        // 被拒绝的作业换到另一个 agent 重新下发，最终全部被接收，且按批次合并发送
+        Assertions.assertEquals(jobs, accepting.accepted.size());
+        Assertions.assertTrue(accepting.calls.get() < jobs / 10, "calls " + accepting.calls.get());
+        Assertions.assertTrue(rejecting.calls.get() > 0);
+    }
+
+    @Test
+    void testStarvedJobsDispatchedOnGrant() throws InterruptedException {
+        FakeAgentRpc rpc = new FakeAgentRpc(true);
+        Map<String, ScheduleAgent> agents = new ConcurrentHashMap<>();
+        agents.put("starved-a1", ScheduleAgent.builder().id("starved-a1").availableQueueLimit(0).enabled(true).rpc(rpc).build());
+        AgentRegistry registry = new AgentRegistry(new StubAgentRepository(agents));
+        registry.heartbeat("starved-a1", 0);
+
+        JobDispatchBatcher batcher = new JobDispatchBatcher(20, 100);
+        int jobs = 10;
+        for (int i = 0; i < jobs; i++) {
+            batcher.dispatch(JobInstance.builder().id("starved-job-" + i).build(), registry);
+        }
+        Thread.sleep(200);
+        Assertions.assertEquals(0, rpc.calls.get());
+
+        // 等待中的作业被状态检测重复下发时跳过
+        batcher.dispatch(JobInstance.builder().id("starved-job-0").build(), registry);
+
+        // 心跳授予额度后立即下发，不等待状态检测
+        registry.heartbeat("starved-a1", 100);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (rpc.accepted.size() < jobs && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        batcher.shutdown();
+
+        Assertions.assertEquals(jobs, rpc.accepted.size());
+        Assertions.assertEquals(jobs, rpc.dispatched.get());
+    }
+
+    @Test
+    void testRetryAfterAttemptsExhausted() throws InterruptedException {
+        FakeAgentRpc rpc = new FakeAgentRpc(true, 2);
+        Map<String, ScheduleAgent> agents = new ConcurrentHashMap<>();
+        agents.put("retry-a1", ScheduleAgent.builder().id("retry-a1").availableQueueLimit(100).enabled(true).rpc(rpc).build());
+        AgentRegistry registry = new AgentRegistry(new StubAgentRepository(agents));
+        registry.heartbeat("retry-a1", null);
+
+        JobDispatchBatcher batcher = new JobDispatchBatcher(20, 100);
+        batcher.dispatch(JobInstance.builder().id("retry-job").build(), registry);
+
+        // 唯一的 agent 拒绝后作业退避重试，而不是只打印日志
+        long deadline = System.currentTimeMillis() + 4000;
+        while (rpc.accepted.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        batcher.shutdown();
+
+        Assertions.assertTrue(rpc.accepted.contains("retry-job"));
+        Assertions.assertEquals(3, rpc.calls.get());
+    }
+
+    @Test
+    void testWaitingJobsDroppedOnBucketRevoked() throws Exception {
+        FakeAgentRpc rpc = new FakeAgentRpc(true);
+        Map<String, ScheduleAgent> agents = new ConcurrentHashMap<>();
+        agents.put("revoked-a1", ScheduleAgent.builder().id("revoked-a1").availableQueueLimit(0).enabled(true).rpc(rpc).build());
+        AgentRegistry registry = new AgentRegistry(new StubAgentRepository(agents));
+        registry.heartbeat("revoked-a1", 0);
+
+        URL self = new URL("http://127.0.0.1:9001");
+        URL other = new URL("http://127.0.0.1:9002");
+        Node selfNode = new Node("self", self);
+        Node otherNode = new Node("other", other);
+        NodeManger nodeManger = new NodeManger();
+        nodeManger.online(selfNode);
+        nodeManger.online(otherNode);
+        try {
+            nodeManger.updateBuckets(allBuckets(self));
+            JobDispatchBatcher batcher = new JobDispatchBatcher(20, 100, nodeManger, self);
+            int jobs = 10;
+            for (int i = 0; i < jobs; i++) {
+                batcher.dispatch(JobInstance.builder().id("revoked-job-" + i).build(), registry);
+            }
+            Thread.sleep(200);
+
+            // 桶转移到其他节点后，等待中的作业被丢弃，授予额度后也不再由本节点下发
+            nodeManger.updateBuckets(allBuckets(other));
+            Thread.sleep(200);
+            registry.heartbeat("revoked-a1", 100);
+            Thread.sleep(500);
+            Assertions.assertEquals(0, rpc.calls.get());
+
+            // 桶转移回来后，状态检测的重新下发不会被之前的等待记录跳过
+            nodeManger.updateBuckets(allBuckets(self));
+            batcher.dispatch(JobInstance.builder().id("revoked-job-0").build(), registry);
+            long deadline = System.currentTimeMillis() + 2000;
+            while (rpc.accepted.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            batcher.shutdown();
+            Assertions.assertEquals(Collections.singleton("revoked-job-0"), rpc.accepted);
+        } finally {
+            nodeManger.offline(selfNode);
+            nodeManger.offline(otherNode);
+        }
+    }
+
+    private Map<Integer, URL> allBuckets(URL owner) {
+        Map<Integer, URL> owners = new HashMap<>();
+        for (int bucket = 0; bucket < Buckets.COUNT; bucket++) {
+            owners.put(bucket, owner);
+        }
+        return owners;
+    }
+
+    private static class FakeAgentRpc implements AgentRpc {
+
+        final boolean accept;
+
+        /**
+         * 接收前先拒绝的次数，拒绝时不返回可排队数
+         */
+        final AtomicInteger rejectFirst;
+
+        final Set<String> accepted = ConcurrentHashMap.newKeySet();
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        /**
+         * 发送的作业数
+         */
+        final AtomicInteger dispatched = new AtomicInteger();
+
+        FakeAgentRpc(boolean accept) {
+            this(accept, 0);
+        }
+
+        FakeAgentRpc(boolean accept, int rejectFirst) {
+            this.accept = accept;
+            this.rejectFirst = new AtomicInteger(rejectFirst);
+        }
+
+        @Override
+        public JobReceiveDTO dispatch(JobInstance instance) {
+            calls.incrementAndGet();
+            dispatched.incrementAndGet();
+            JobReceiveDTO result = new JobReceiveDTO();
+            if (rejectFirst.getAndDecrement() > 0) {
+                result.setAccepted(false);
+                return result;
+            }
+            result.setAccepted(accept);
+            if (accept) {
+                accepted.add(instance.getId());
+            } else {
+                result.setAvailableQueueLimit(0);
+            }
+            return result;
+        }
+
+        @Override
+        public JobBatchReceiveDTO batchDispatch(List<JobInstance> instances) {
+            calls.incrementAndGet();
+            dispatched.addAndGet(instances.size());
+            List<String> ids = instances.stream().map(JobInstance::getId).collect(Collectors.toList());
+            JobBatchReceiveDTO result = new JobBatchReceiveDTO();
+            if (accept) {
+                accepted.addAll(ids);
+                result.setAcceptedJobInstanceIds(ids);
+                result.setRejectedJobInstanceIds(Collections.emptyList());
+            } else {
+                result.setAcceptedJobInstanceIds(Collections.emptyList());
+                result.setRejectedJobInstanceIds(ids);
+                result.setAvailableQueueLimit(0);
+            }
+            return result;
+        }
+
+        @Override
+        public PageDTO<TaskDTO> page(TaskQueryParam param) {
+            return null;
+        }
+
+        @Override
+        public String id() {
+            return "fake";
+        }
+
+        @Override
+        public Protocol protocol() {
+            return Protocol.HTTP;
+        }
+
+        @Override
+        public String host() {
+            return "localhost";
+        }
+
+        @Override
+        public Integer port() {
+            return 0;
+        }
+    }
+
+    private static class StubAgentRepository implements AgentRepository {
+
+        final Map<String, ScheduleAgent> agents;
+
+        StubAgentRepository(Map<String, ScheduleAgent> agents) {
+            this.agents = agents;
+        }
+
+        @Override
+        public ScheduleAgent get(String id) {
+            return agents.get(id);
+        }
+
+        @Override
+        public List<ScheduleAgent> findByLastHeartbeatAtBetween(LocalDateTime startTime, LocalDateTime endTime) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean updateStatus(String agentId, Integer oldStatus, Integer newStatus) {
+            return true;
+        }
+
+        @Override
+        public boolean updateStatusIfExpired(String agentId, Integer oldStatus, Integer newStatus, LocalDateTime deadline) {
+            return true;
+        }
+
+        @Override
+        public void saveHeartbeats(Collection<ScheduleAgent> agents) {
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.core.dispatcher;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.core.agent.AgentRegistry;
+import org.limbo.flowjob.broker.core.agent.ScheduleAgent;
+import org.limbo.flowjob.broker.core.meta.processor.JobDispatchSelect;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Brozen
+ * @since 2024-02-20
+ */
+class JobDispatchSelectTest {
+
+    private ScheduleAgent agent(String id, int queueLimit) {
+        return ScheduleAgent.builder().id(id).availableQueueLimit(queueLimit).enabled(true).build();
+    }
+
+    @Test
+    void testCreditsNeverOverrun() throws InterruptedException {
+        List<ScheduleAgent> agents = Arrays.asList(agent("a1", 100), agent("a2", 300), agent("a3", 0));
+
+        // 并发选择的次数超出总额度，每个 agent 被选中的次数恰好等于其额度
+        Map<String, AtomicInteger> selected = new ConcurrentHashMap<>();
+        AtomicInteger rejected = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 100; i++) {
+                    ScheduleAgent agent = JobDispatchSelect.select(agents);
+                    if (agent == null) {
+                        rejected.incrementAndGet();
+                    } else {
+                        selected.computeIfAbsent(agent.getId(), k -> new AtomicInteger()).incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(100, selected.get("a1").get());
+        Assertions.assertEquals(300, selected.get("a2").get());
+        Assertions.assertNull(selected.get("a3"));
+        Assertions.assertEquals(400, rejected.get());
+        Assertions.assertNull(JobDispatchSelect.select(agents));
+    }
+
+    @Test
+    void testCreditsReplenish() {
+        ScheduleAgent agent = agent("a1", 2);
+        List<ScheduleAgent> agents = Arrays.asList(agent);
+        Assertions.assertNotNull(JobDispatchSelect.select(agents));
+        Assertions.assertNotNull(JobDispatchSelect.select(agents));
+        Assertions.assertNull(JobDispatchSelect.select(agents));
+
+        // 下发失败归还额度
+        agent.releaseCredit();
+        Assertions.assertEquals(1, agent.getCredits());
+
+        // 下发响应授予额度，扣除仍未响应的作业
+        agent.grantCredits(5);
+        Assertions.assertEquals(4, agent.getCredits());
+        agent.completeDispatch();
+        agent.grantCredits(5);
+        Assertions.assertEquals(5, agent.getCredits());
+
+        // 心跳未上报可排队数时保留已扣减的额度
+        Assertions.assertNotNull(JobDispatchSelect.select(agents));
+        agent.heartbeat(null, TimeUtils.currentLocalDateTime());
+        Assertions.assertEquals(4, agent.getCredits());
+    }
+
+    @Test
+    void testCreditsSplitByBrokers() {
+        ScheduleAgent agent = agent("a1", 10);
+        AgentRegistry registry = new AgentRegistry(null, () -> 3);
+        registry.grantCredits(agent, 10);
+        Assertions.assertEquals(4, agent.getCredits());
+
+        // 已下发未响应的作业继续占用本 broker 的份额
+        Assertions.assertNotNull(JobDispatchSelect.select(Arrays.asList(agent)));
+        registry.grantCredits(agent, 9);
+        Assertions.assertEquals(2, agent.getCredits());
+
+        registry.grantCredits(agent, 0);
+        Assertions.assertEquals(0, agent.getCredits());
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.core.dispatcher;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.api.constants.TagFilterCondition;
+import org.limbo.flowjob.api.constants.WorkerStatus;
+import org.limbo.flowjob.broker.core.worker.Worker;
+import org.limbo.flowjob.broker.core.worker.dispatch.TagFilterOption;
+import org.limbo.flowjob.broker.core.worker.dispatch.WorkerCatalog;
+import org.limbo.flowjob.broker.core.worker.dispatch.WorkerFilter;
+import org.limbo.flowjob.broker.core.worker.executor.WorkerExecutor;
+import org.limbo.flowjob.broker.core.worker.metric.WorkerAvailableResource;
+import org.limbo.flowjob.broker.core.worker.metric.WorkerMetric;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * @author Brozen
+ * @since 2024-02-11
+ */
+class WorkerCatalogTest {
+
+    @Test
+    void testFilter() throws MalformedURLException {
+        Random random = new Random(42);
+        WorkerCatalog catalog = new WorkerCatalog();
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Worker worker = worker("w" + i, 9000 + i, "executor-" + random.nextInt(5),
+                    Collections.singletonMap("zone", Collections.singletonList("zone-" + random.nextInt(3))),
+                    random.nextInt(16), (long) random.nextInt(1 << 16), random.nextInt(3));
+            workers.add(worker);
+            catalog.put(worker);
+        }
+
+        List<TagFilterOption> tagFilters = Arrays.asList(
+                new TagFilterOption("zone", "zone-[01]", TagFilterCondition.MUST_MATCH_VALUE_REGEX),
+                new TagFilterOption("zone", "zone-1", TagFilterCondition.MUST_NOT_MATCH_VALUE)
+        );
+        Set<String> expected = workers.stream()
+                .filter(w -> w.getExecutors().get(0).getName().equals("executor-2"))
+                .filter(tagFilters.get(0).asPredicate().and(tagFilters.get(1).asPredicate()))
+                .filter(w -> w.getMetric().getAvailableResource().getAvailableQueueLimit() > 0)
+                .filter(w -> w.getMetric().getAvailableResource().getAvailableCpu() >= 4.5f)
+                .filter(w -> w.getMetric().getAvailableResource().getAvailableRam() >= 1000)
+                .map(Worker::getId)
+                .collect(Collectors.toSet());
+
+        List<Worker> found = new WorkerFilter("executor-2", tagFilters, catalog)
+                .filterExecutor()
+                .filterTags()
+                .filterResources(4.5f, 1000L)
+                .get();
+        Assertions.assertFalse(expected.isEmpty());
+        Assertions.assertEquals(expected, found.stream().map(Worker::getId).collect(Collectors.toSet()));
+    }
+
+    @Test
+    void testUpdateAndRemove() throws MalformedURLException {
+        WorkerCatalog catalog = new WorkerCatalog();
+        Worker w1 = worker("w1", 9001, "hello", Collections.emptyMap(), 4, 1024, 10);
+        Worker w2 = worker("w2", 9002, "hello", Collections.emptyMap(), 4, 1024, 10);
+        catalog.put(w1);
+        catalog.put(w2);
+
+        TagFilterOption hostPort = new TagFilterOption("127.0.0.1", "9002", TagFilterCondition.MATCH_HOST_PORT);
+        Assertions.assertEquals(Collections.singletonList(w2),
+                new WorkerFilter("hello", Collections.singletonList(hostPort), catalog).filterTags().get());
+
+        // 队列满后不能下发
+        w1.setMetric(new WorkerMetric(new WorkerAvailableResource(4, 1024, 0), TimeUtils.currentLocalDateTime()));
+        catalog.put(w1);
+        Assertions.assertEquals(Collections.singletonList(w2),
+                new WorkerFilter("hello", null, catalog).filterExecutor().filterResources(null, null).get());
+
+        // 槽位复用后索引正确
+        catalog.remove(w2);
+        Worker w3 = worker("w3", 9003, "other", Collections.emptyMap(), 4, 1024, 10);
+        catalog.put(w3);
+        Assertions.assertEquals(2, catalog.size());
+        Assertions.assertEquals(Collections.singletonList(w1),
+                new WorkerFilter("hello", null, catalog).filterExecutor().get());
+        Assertions.assertEquals(Collections.singletonList(w3),
+                new WorkerFilter("other", null, catalog).filterExecutor().get());
+    }
+
+    private Worker worker(String id, int port, String executor, Map<String, List<String>> tags,
+                          float cpu, long ram, int queueLimit) throws MalformedURLException {
+        return Worker.builder()
+                .id(id)
+                .name(id)
+                .url(new URL("http://127.0.0.1:" + port))
+                .status(WorkerStatus.RUNNING)
+                .enabled(true)
+                .executors(Collections.singletonList(WorkerExecutor.builder().name(executor).build()))
+                .tags(new HashMap<>(tags))
+                .metric(new WorkerMetric(new WorkerAvailableResource(cpu, ram, queueLimit), TimeUtils.currentLocalDateTime()))
+                .build();
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.core.dispatcher;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.core.schedule.selector.SingletonWorkerStatisticsRepo;
+import org.limbo.flowjob.broker.core.schedule.selector.WorkerLBStatistics;
+import org.limbo.flowjob.broker.core.worker.Worker;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * @author Brozen
+ * @since 2024-02-11
+ */
+class WorkerStatisticsRepoTest {
+
+    @Test
+    void testConcurrentRecord() throws InterruptedException {
+        SingletonWorkerStatisticsRepo repo = new SingletonWorkerStatisticsRepo();
+        int workerCount = 8;
+        int times = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < times; i++) {
+                    repo.recordDispatched(Worker.builder().id("w" + (i % workerCount)).build());
+                }
+            });
+        }
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        Set<String> workerIds = new HashSet<>();
+        for (int i = 0; i < workerCount; i++) {
+            workerIds.add("w" + i);
+        }
+        workerIds.add("none");
+
+        Map<String, WorkerLBStatistics> statistics = repo.list(workerIds, Instant.now().minus(Duration.ofMinutes(10))).stream()
+                .collect(Collectors.toMap(WorkerLBStatistics::getWorkerId, Function.identity()));
+        Assertions.assertEquals(workerIds.size(), statistics.size());
+        for (int i = 0; i < workerCount; i++) {
+            WorkerLBStatistics s = statistics.get("w" + i);
+            Assertions.assertEquals(8 * times / workerCount, s.getDispatchTimes());
+            Assertions.assertNotNull(s.getLastDispatchTaskAt());
+        }
+        Assertions.assertEquals(0, statistics.get("none").getDispatchTimes());
+        Assertions.assertNull(statistics.get("none").getLastDispatchTaskAt());
+    }
+
+    @Test
+    void testWindow() {
+        SingletonWorkerStatisticsRepo repo = new SingletonWorkerStatisticsRepo();
+        repo.recordDispatched(Worker.builder().id("w").build());
+
+        Set<String> workerIds = new HashSet<>();
+        workerIds.add("w");
+        // 查询时间点在下发之后，不应统计到
+        List<WorkerLBStatistics> statistics = repo.list(workerIds, Instant.now().plus(Duration.ofMinutes(2)));
+        Assertions.assertEquals(0, statistics.get(0).getDispatchTimes());
+        Assertions.assertNull(statistics.get(0).getLastDispatchTaskAt());
+    }
+
+    @Test
+    void testOutstandingReportedByAgent() {
+        // 两个 broker：任务在 b1 选中，完成情况随心跳发往 b2
+        SingletonWorkerStatisticsRepo b1 = new SingletonWorkerStatisticsRepo();
+        SingletonWorkerStatisticsRepo b2 = new SingletonWorkerStatisticsRepo();
+        Worker worker = Worker.builder().id("w").build();
+        Set<String> workerIds = new HashSet<>();
+        workerIds.add("w");
+        Instant limit = Instant.now().minus(Duration.ofMinutes(1));
+
+        for (int i = 0; i < 3; i++) {
+            b1.recordDispatched(worker);
+        }
+        Assertions.assertEquals(3, b1.list(workerIds, limit).get(0).getOutstanding());
+
+        // agent 上报两个 agent 各自未完成的任务数，b2 以上报为准
+        b2.recordCompleted("a1", "w", 1, 10, 20, 2);
+        b2.recordCompleted("a2", "w", 0, 0, 0, 1);
+        Assertions.assertEquals(3, b2.list(workerIds, limit).get(0).getOutstanding());
+
+        // 全部完成后未完成数归零，不会一直保留
+        b2.recordCompleted("a1", "w", 2, 10, 20, 0);
+        b2.recordCompleted("a2", "w", 1, 10, 20, 0);
+        Assertions.assertEquals(0, b2.list(workerIds, limit).get(0).getOutstanding());
+
+        // b2 上报后选中的任务在下次上报前计入
+        b2.recordDispatched("a1", worker);
+        Assertions.assertEquals(1, b2.list(workerIds, limit).get(0).getOutstanding());
+        b2.recordCompleted("a1", "w", 0, 0, 0, 1);
+        Assertions.assertEquals(1, b2.list(workerIds, limit).get(0).getOutstanding());
+    }
+
+    @Test
+    void testOutstandingReportedByOtherAgent() {
+        SingletonWorkerStatisticsRepo repo = new SingletonWorkerStatisticsRepo();
+        Worker worker = Worker.builder().id("w").build();
+        Set<String> workerIds = new HashSet<>();
+        workerIds.add("w");
+        Instant limit = Instant.now().minus(Duration.ofMinutes(1));
+
+        for (int i = 0; i < 3; i++) {
+            repo.recordDispatched("a1", worker);
+        }
+        repo.recordDispatched("a2", worker);
+
+        // a2 的上报只覆盖经 a2 选中的任务，a1 的 3 个仍然计入
+        repo.recordCompleted("a2", "w", 0, 0, 0, 1);
+        Assertions.assertEquals(4, repo.list(workerIds, limit).get(0).getOutstanding());
+
+        repo.recordCompleted("a1", "w", 0, 0, 0, 3);
+        Assertions.assertEquals(4, repo.list(workerIds, limit).get(0).getOutstanding());
+        repo.recordCompleted("a1", "w", 3, 10, 20, 0);
+        Assertions.assertEquals(1, repo.list(workerIds, limit).get(0).getOutstanding());
+    }
+
+}
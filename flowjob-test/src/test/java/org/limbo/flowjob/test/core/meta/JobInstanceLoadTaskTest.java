@@ -0,0 +1,187 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+
+
+package org.limbo.flowjob.test.core.meta;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.api.constants.JobStatus;
+import org.limbo.flowjob.broker.core.agent.AgentRegistry;
+import org.limbo.flowjob.broker.core.cluster.Broker;
+import org.limbo.flowjob.broker.core.cluster.NodeManger;
+import org.limbo.flowjob.broker.core.meta.job.JobInstance;
+import org.limbo.flowjob.broker.core.meta.job.JobInstanceRepository;
+import org.limbo.flowjob.broker.core.meta.processor.JobDispatchBatcher;
+import org.limbo.flowjob.broker.core.meta.task.JobInstanceLoadTask;
+import org.limbo.flowjob.broker.core.meta.task.JobInstanceTask;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTask;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+import org.mockito.Mockito;
+
+import java.net.URL;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * JobInstance 按时间窗口预加载：窗口之间不重复、不遗漏，接管新桶时重新加载，超出预加载范围的交给下次加载
+ *
+ * @author Brozen
+ * @since 2024-02-08
+ */
+class JobInstanceLoadTaskTest {
+
+    /**
+     * 模拟数据库中绑定到当前 broker 的 JobInstance
+     */
+    private final List<JobInstance> rows = new CopyOnWriteArrayList<>();
+
+    private final List<String> scheduled = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger seq = new AtomicInteger();
+
+    private Set<Integer> ownedBuckets;
+
+    private JobInstanceLoadTask task;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ownedBuckets = new HashSet<>();
+        ownedBuckets.add(1);
+
+        JobInstanceRepository repository = Mockito.mock(JobInstanceRepository.class);
+        Mockito.when(repository.findInTriggerWindow(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.anyInt()))
+                .thenAnswer(m -> {
+                    LocalDateTime start = m.getArgument(1);
+                    LocalDateTime end = m.getArgument(2);
+                    String startId = m.getArgument(3);
+                    int limit = m.getArgument(4);
+                    return rows.stream()
+                            .filter(row -> row.getTriggerAt().isAfter(start) && !row.getTriggerAt().isAfter(end))
+                            .filter(row -> row.getId().compareTo(startId) > 0)
+                            .sorted((a, b) -> a.getId().compareTo(b.getId()))
+                            .limit(limit)
+                            .collect(Collectors.toList());
+                });
+
+        MetaTaskScheduler scheduler = Mockito.mock(MetaTaskScheduler.class);
+        Mockito.doAnswer(m -> scheduled.add(((MetaTask) m.getArgument(0)).getMetaId()))
+                .when(scheduler).schedule(Mockito.any());
+
+        URL url = new URL("http://127.0.0.1:8080");
+        Broker broker = Mockito.mock(Broker.class);
+        Mockito.when(broker.getRpcBaseURL()).thenReturn(url);
+        NodeManger nodeManger = Mockito.mock(NodeManger.class);
+        Mockito.when(nodeManger.alive(url.toString())).thenReturn(true);
+        Mockito.when(nodeManger.ownedBuckets(url.toString())).thenAnswer(m -> new HashSet<>(ownedBuckets));
+
+        task = new JobInstanceLoadTask(scheduler, broker, nodeManger, Mockito.mock(AgentRegistry.class),
+                Mockito.mock(JobDispatchBatcher.class), repository);
+    }
+
+    @Test
+    void testNoRefetchNoSkip() throws Exception {
+        String near = row(1000);
+        String bucketEdge = row(JobInstanceLoadTask.BUCKET);
+        String far = row(JobInstanceLoadTask.LOOK_AHEAD - 1000);
+        String outside = row(JobInstanceLoadTask.LOOK_AHEAD + 300);
+        task.load();
+        Assertions.assertEquals(3, scheduled.size());
+        Assertions.assertTrue(scheduled.contains(near));
+        Assertions.assertTrue(scheduled.contains(bucketEdge));
+        Assertions.assertTrue(scheduled.contains(far));
+
+        // 已加载的窗口不会重复扫描
+        task.load();
+        Assertions.assertEquals(3, scheduled.size());
+
+        // 窗口向前推进后，上次范围外的被加载且只加载一次
+        Thread.sleep(500);
+        task.load();
+        task.load();
+        Assertions.assertEquals(4, scheduled.size());
+        Assertions.assertTrue(scheduled.contains(outside));
+    }
+
+    @Test
+    void testPagination() {
+        int count = 250;
+        for (int i = 0; i < count; i++) {
+            row(5000);
+        }
+        task.load();
+        Assertions.assertEquals(count, scheduled.size());
+        Assertions.assertEquals(count, new HashSet<>(scheduled).size());
+    }
+
+    @Test
+    void testReloadWhenBucketsGrow() {
+        row(5000);
+        task.load();
+        Assertions.assertEquals(1, scheduled.size());
+
+        // 其他 broker 的桶转移过来，数据出现在已加载过的窗口中
+        String takenOver = row(20000);
+        task.load();
+        Assertions.assertFalse(scheduled.contains(takenOver));
+
+        ownedBuckets.add(2);
+        task.load();
+        Assertions.assertTrue(scheduled.contains(takenOver));
+
+        // 桶减少不需要重新加载
+        int size = scheduled.size();
+        ownedBuckets.remove(1);
+        task.load();
+        Assertions.assertEquals(size, scheduled.size());
+    }
+
+    @Test
+    void testLookAheadHandoff() {
+        AgentRegistry agentRegistry = Mockito.mock(AgentRegistry.class);
+        JobDispatchBatcher dispatchBatcher = Mockito.mock(JobDispatchBatcher.class);
+        Assertions.assertTrue(new JobInstanceTask(instance("past", -1000), agentRegistry, dispatchBatcher).verify());
+        Assertions.assertTrue(new JobInstanceTask(instance("inside", JobInstanceLoadTask.LOOK_AHEAD - 1000), agentRegistry, dispatchBatcher).verify());
+        // 超出预加载范围的不放入时间轮，由后续的窗口加载
+        Assertions.assertFalse(new JobInstanceTask(instance("outside", JobInstanceLoadTask.LOOK_AHEAD + 5000), agentRegistry, dispatchBatcher).verify());
+    }
+
+    private String row(long delay) {
+        String id = String.format("job-%05d", seq.incrementAndGet());
+        rows.add(instance(id, delay));
+        return id;
+    }
+
+    private JobInstance instance(String id, long delay) {
+        return JobInstance.builder()
+                .id(id)
+                .status(JobStatus.SCHEDULING)
+                .triggerAt(TimeUtils.currentLocalDateTime().plus(delay, ChronoUnit.MILLIS))
+                .build();
+    }
+
+}
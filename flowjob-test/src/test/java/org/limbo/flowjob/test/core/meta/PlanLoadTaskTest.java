@@ -0,0 +1,280 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+
+package org.limbo.flowjob.test.core.meta;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.api.constants.ScheduleType;
+import org.limbo.flowjob.api.constants.TriggerType;
+import org.limbo.flowjob.broker.core.cluster.Broker;
+import org.limbo.flowjob.broker.core.cluster.Buckets;
+import org.limbo.flowjob.broker.core.cluster.NodeManger;
+import org.limbo.flowjob.broker.core.meta.info.Plan;
+import org.limbo.flowjob.broker.core.meta.info.PlanCache;
+import org.limbo.flowjob.broker.core.meta.info.PlanChange;
+import org.limbo.flowjob.broker.core.meta.info.PlanChangeRepository;
+import org.limbo.flowjob.broker.core.meta.info.PlanRepository;
+import org.limbo.flowjob.broker.core.meta.processor.PlanInstanceProcessor;
+import org.limbo.flowjob.broker.core.meta.task.PlanLoadTask;
+import org.limbo.flowjob.broker.core.schedule.ScheduleOption;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTask;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+import org.mockito.Mockito;
+
+import java.net.URL;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * plan 变更记录驱动的缓存刷新：按序应用、空洞等待、晚提交的变更以及桶的重新获得
+ *
+ * @author Brozen
+ * @since 2024-02-08
+ */
+class PlanLoadTaskTest {
+
+    private static final String P1 = "plan-1";
+
+    private static final String P2 = "plan-2";
+
+    /**
+     * 模拟数据库中 plan 的版本
+     */
+    private final Map<String, String> versions = new ConcurrentHashMap<>();
+
+    private final FakePlanChangeRepository changes = new FakePlanChangeRepository();
+
+    private final List<String> scheduled = new CopyOnWriteArrayList<>();
+
+    private Set<Integer> ownedBuckets;
+
+    private PlanCache planCache;
+
+    private PlanRepository planRepository;
+
+    private PlanLoadTask task;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Assertions.assertNotEquals(Buckets.of(P1), Buckets.of(P2));
+        versions.put(P1, "v1");
+        versions.put(P2, "v1");
+        ownedBuckets = new HashSet<>();
+        ownedBuckets.add(Buckets.of(P1));
+        ownedBuckets.add(Buckets.of(P2));
+
+        planRepository = Mockito.mock(PlanRepository.class);
+        Mockito.when(planRepository.get(Mockito.anyString())).thenAnswer(m -> plan(m.getArgument(0)));
+        Mockito.when(planRepository.loadPlansInBuckets(Mockito.any())).thenAnswer(m -> {
+            Collection<Integer> buckets = m.getArgument(0);
+            return versions.keySet().stream()
+                    .filter(id -> buckets.contains(Buckets.of(id)))
+                    .map(this::plan)
+                    .collect(Collectors.toList());
+        });
+        planCache = new PlanCache(planRepository);
+
+        MetaTaskScheduler scheduler = Mockito.mock(MetaTaskScheduler.class);
+        Mockito.doAnswer(m -> scheduled.add(((MetaTask) m.getArgument(0)).getMetaId()))
+                .when(scheduler).schedule(Mockito.any());
+
+        URL url = new URL("http://127.0.0.1:8080");
+        Broker broker = Mockito.mock(Broker.class);
+        Mockito.when(broker.getRpcBaseURL()).thenReturn(url);
+        NodeManger nodeManger = Mockito.mock(NodeManger.class);
+        Mockito.when(nodeManger.alive(url.toString())).thenReturn(true);
+        Mockito.when(nodeManger.ownedBuckets(url.toString())).thenAnswer(m -> new HashSet<>(ownedBuckets));
+
+        task = new PlanLoadTask(scheduler, planRepository, changes, planCache,
+                Mockito.mock(PlanInstanceProcessor.class), broker, nodeManger);
+        task.load();
+        assertVersion(P1, "v1");
+        assertVersion(P2, "v1");
+    }
+
+    @Test
+    void testApplyInOrder() {
+        change(P1, "v2");
+        task.load();
+        assertVersion(P1, "v2");
+        Assertions.assertTrue(scheduled.contains(P1 + "-v2"));
+
+        // 已经应用过的变更不会重复加载
+        Mockito.clearInvocations(planRepository);
+        task.load();
+        Mockito.verify(planRepository, Mockito.never()).get(Mockito.anyString());
+    }
+
+    @Test
+    void testGapWait() {
+        long gap = changes.reserve();
+        change(P2, "v2");
+        task.load();
+        assertVersion(P2, "v2");
+
+        // 空洞序号在等待时间内提交，无视已应用的更大序号重新加载
+        versions.put(P1, "v3");
+        changes.commit(gap, P1);
+        task.load();
+        assertVersion(P1, "v3");
+    }
+
+    @Test
+    void testLateCommit() throws Exception {
+        long gap = changes.reserve();
+        change(P2, "v2");
+        task.load();
+        assertVersion(P2, "v2");
+
+        // 空洞等待超时后游标前进，序号转为迟到序号继续查询
+        Thread.sleep(PlanLoadTask.GAP_TIMEOUT + 100);
+        task.load();
+
+        versions.put(P1, "v4");
+        changes.commit(gap, P1);
+        task.load();
+        assertVersion(P1, "v4");
+        Assertions.assertTrue(scheduled.contains(P1 + "-v4"));
+    }
+
+    @Test
+    void testBucketReacquire() {
+        ownedBuckets.remove(Buckets.of(P1));
+        task.load();
+        Assertions.assertNull(planCache.getIfPresent(P1));
+
+        // 不持有期间的变更不维护，重新获得桶时全量加载
+        change(P1, "v5");
+        task.load();
+        Assertions.assertNull(planCache.getIfPresent(P1));
+
+        ownedBuckets.add(Buckets.of(P1));
+        task.load();
+        assertVersion(P1, "v5");
+        Assertions.assertTrue(scheduled.contains(P1 + "-v5"));
+    }
+
+    @Test
+    void testBucketRevokedEvictCache() {
+        ownedBuckets.remove(Buckets.of(P1));
+        task.load();
+        Assertions.assertEquals(1, planCache.size());
+
+        // 其它节点负责的 plan 按需加载，不会计入当前节点负责的 plan
+        Assertions.assertNotNull(planCache.get(P1));
+        Assertions.assertNull(planCache.getIfPresent(P1));
+        Assertions.assertEquals(1, planCache.size());
+
+        // 重新获得桶时转为当前节点负责
+        ownedBuckets.add(Buckets.of(P1));
+        task.load();
+        assertVersion(P1, "v1");
+        Assertions.assertEquals(2, planCache.size());
+    }
+
+    private void change(String planId, String version) {
+        versions.put(planId, version);
+        changes.commit(changes.reserve(), planId);
+    }
+
+    private void assertVersion(String planId, String version) {
+        Plan plan = planCache.getIfPresent(planId);
+        Assertions.assertNotNull(plan);
+        Assertions.assertEquals(version, plan.getVersion());
+    }
+
+    private Plan plan(String planId) {
+        String version = versions.get(planId);
+        if (version == null) {
+            return null;
+        }
+        LocalDateTime startAt = TimeUtils.currentLocalDateTime().plusDays(1);
+        return Plan.builder()
+                .id(planId)
+                .version(version)
+                .triggerType(TriggerType.SCHEDULE)
+                .scheduleOption(new ScheduleOption(ScheduleType.FIXED_RATE, startAt, null, null, Duration.ofHours(1), null, null))
+                .enabled(true)
+                .build();
+    }
+
+    /**
+     * 序号先分配后提交，未提交的序号查询不到
+     */
+    private static class FakePlanChangeRepository implements PlanChangeRepository {
+
+        private final TreeMap<Long, PlanChange> committed = new TreeMap<>();
+
+        private long seq = 0;
+
+        long reserve() {
+            return ++seq;
+        }
+
+        synchronized void commit(long seq, String planId) {
+            committed.put(seq, new PlanChange(seq, planId));
+        }
+
+        @Override
+        public void record(String planId) {
+            commit(reserve(), planId);
+        }
+
+        @Override
+        public synchronized List<PlanChange> findAfter(long seq, int limit) {
+            return committed.tailMap(seq, false).values().stream().limit(limit).collect(Collectors.toList());
+        }
+
+        @Override
+        public synchronized List<PlanChange> findBySeqs(Collection<Long> seqs) {
+            List<PlanChange> found = new ArrayList<>();
+            for (Long s : seqs) {
+                PlanChange change = committed.get(s);
+                if (change != null) {
+                    found.add(change);
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public synchronized long maxSeq() {
+            return committed.isEmpty() ? 0 : committed.lastKey();
+        }
+
+        @Override
+        public int deleteBefore(long seq, LocalDateTime before, int limit) {
+            return 0;
+        }
+    }
+
+}
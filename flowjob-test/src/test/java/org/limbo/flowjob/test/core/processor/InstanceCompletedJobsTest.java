@@ -0,0 +1,233 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+
+package org.limbo.flowjob.test.core.processor;
+
+import com.google.common.collect.Sets;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.api.constants.InstanceType;
+import org.limbo.flowjob.api.constants.JobStatus;
+import org.limbo.flowjob.broker.core.cluster.Node;
+import org.limbo.flowjob.broker.core.cluster.NodeManger;
+import org.limbo.flowjob.broker.core.meta.IDGenerator;
+import org.limbo.flowjob.broker.core.meta.info.WorkflowJobInfo;
+import org.limbo.flowjob.broker.core.meta.instance.Instance;
+import org.limbo.flowjob.broker.core.meta.instance.PlanInstance;
+import org.limbo.flowjob.broker.core.meta.job.JobInstance;
+import org.limbo.flowjob.broker.core.meta.job.JobInstanceRepository;
+import org.limbo.flowjob.broker.core.meta.processor.InstanceProcessor;
+import org.limbo.flowjob.broker.core.meta.processor.ScheduleContext;
+import org.limbo.flowjob.broker.dao.converter.DomainConverter;
+import org.limbo.flowjob.common.utils.attribute.Attributes;
+import org.limbo.flowjob.common.utils.dag.DAG;
+import org.mockito.Mockito;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 实例 job 完成位图：存储格式、DAG 下发判断以及没有位图时的逐个查询
+ *
+ * @author Devil
+ * @since 2024/2/26
+ */
+class InstanceCompletedJobsTest {
+
+    private JobInstanceRepository jobInstanceRepository;
+
+    private TestProcessor processor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        NodeManger nodeManger = Mockito.mock(NodeManger.class);
+        Node node = new Node("n", new URL("http://127.0.0.1:8080"));
+        Mockito.when(nodeManger.elect(Mockito.anyString())).thenReturn(node);
+
+        AtomicInteger ids = new AtomicInteger();
+        IDGenerator idGenerator = Mockito.mock(IDGenerator.class);
+        Mockito.when(idGenerator.generateId(Mockito.any())).thenAnswer(m -> "job-instance-" + ids.incrementAndGet());
+
+        jobInstanceRepository = Mockito.mock(JobInstanceRepository.class);
+        processor = new TestProcessor(nodeManger, idGenerator, jobInstanceRepository);
+    }
+
+    @Test
+    void testHexRoundTrip() {
+        Assertions.assertNull(DomainConverter.toCompletedJobs((BitSet) null));
+        Assertions.assertNull(DomainConverter.toCompletedJobs((String) null));
+
+        BitSet empty = new BitSet();
+        Assertions.assertEquals("", DomainConverter.toCompletedJobs(empty));
+        Assertions.assertEquals(empty, DomainConverter.toCompletedJobs(""));
+
+        BitSet bits = new BitSet();
+        bits.set(0);
+        bits.set(3);
+        bits.set(9);
+        bits.set(63);
+        bits.set(64);
+        String hex = DomainConverter.toCompletedJobs(bits);
+        Assertions.assertEquals("0902000000000080" + "01", hex);
+        Assertions.assertEquals(bits, DomainConverter.toCompletedJobs(hex));
+    }
+
+    @Test
+    void testHexLimit() {
+        // completed_jobs 为 varchar(2048)，位图最多记录 2048 * 4 个 job
+        BitSet bits = new BitSet();
+        bits.set(2048 * 4 - 1);
+        String hex = DomainConverter.toCompletedJobs(bits);
+        Assertions.assertEquals(2048, hex.length());
+        Assertions.assertEquals(bits, DomainConverter.toCompletedJobs(hex));
+
+        bits.set(2048 * 4);
+        Assertions.assertTrue(DomainConverter.toCompletedJobs(bits).length() > 2048);
+    }
+
+    @Test
+    void testBitmapReadiness() {
+        // a,b -> c -> d
+        PlanInstance instance = instance(new BitSet());
+        DAG<WorkflowJobInfo> dag = instance.getDag();
+
+        ScheduleContext ctx = processor.complete(instance, "a");
+        Assertions.assertTrue(scheduledJobs(ctx).isEmpty());
+        Assertions.assertTrue(instance.getCompletedJobs().get(dag.indexOf("a")));
+
+        ctx = processor.complete(instance, "b");
+        Assertions.assertEquals(Collections.singletonList("c"), scheduledJobs(ctx));
+
+        ctx = processor.complete(instance, "c");
+        Assertions.assertEquals(Collections.singletonList("d"), scheduledJobs(ctx));
+        Assertions.assertTrue(processor.completedInstances.isEmpty());
+
+        processor.complete(instance, "d");
+        Assertions.assertEquals(Collections.singletonList(instance.getId()), processor.completedInstances);
+        Assertions.assertEquals(4, processor.updatedCompletedJobs.size());
+        Assertions.assertEquals(4, instance.getCompletedJobs().cardinality());
+
+        Mockito.verify(jobInstanceRepository, Mockito.never()).getLatest(Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    void testNullBitmapFallback() {
+        PlanInstance instance = instance(null);
+        Mockito.when(jobInstanceRepository.getLatest(instance.getId(), "a")).thenReturn(jobInstance(instance, "a", JobStatus.SUCCEED));
+        Mockito.when(jobInstanceRepository.getLatest(instance.getId(), "b")).thenReturn(jobInstance(instance, "b", JobStatus.EXECUTING));
+
+        ScheduleContext ctx = processor.complete(instance, "a");
+        Assertions.assertTrue(scheduledJobs(ctx).isEmpty());
+
+        Mockito.when(jobInstanceRepository.getLatest(instance.getId(), "b")).thenReturn(jobInstance(instance, "b", JobStatus.SUCCEED));
+        ctx = processor.complete(instance, "b");
+        Assertions.assertEquals(Collections.singletonList("c"), scheduledJobs(ctx));
+
+        Assertions.assertTrue(processor.updatedCompletedJobs.isEmpty());
+        Assertions.assertNull(instance.getCompletedJobs());
+        Mockito.verify(jobInstanceRepository, Mockito.atLeastOnce()).getLatest(instance.getId(), "a");
+    }
+
+    private PlanInstance instance(BitSet completedJobs) {
+        List<WorkflowJobInfo> jobInfos = new ArrayList<>();
+        jobInfos.add(job("a", Sets.newHashSet("c")));
+        jobInfos.add(job("b", Sets.newHashSet("c")));
+        jobInfos.add(job("c", Sets.newHashSet("d")));
+        jobInfos.add(job("d", Sets.newHashSet()));
+        return PlanInstance.builder()
+                .id("instance-1")
+                .type(InstanceType.WORKFLOW)
+                .attributes(new Attributes())
+                .dag(new DAG<>(jobInfos))
+                .completedJobs(completedJobs)
+                .build();
+    }
+
+    private WorkflowJobInfo job(String id, Set<String> childrenIds) {
+        WorkflowJobInfo jobInfo = new WorkflowJobInfo();
+        jobInfo.setId(id);
+        jobInfo.setChildrenIds(childrenIds);
+        return jobInfo;
+    }
+
+    private JobInstance jobInstance(Instance instance, String jobId, JobStatus status) {
+        return JobInstance.builder()
+                .id(instance.getId() + "-" + jobId)
+                .instanceId(instance.getId())
+                .jobInfo(instance.getDag().getNode(jobId))
+                .status(status)
+                .context(new Attributes())
+                .build();
+    }
+
+    private List<String> scheduledJobs(ScheduleContext ctx) {
+        if (ctx.getWaitScheduleJobs() == null) {
+            return Collections.emptyList();
+        }
+        return ctx.getWaitScheduleJobs().stream()
+                .map(jobInstance -> jobInstance.getJobInfo().getId())
+                .collect(Collectors.toList());
+    }
+
+    private class TestProcessor extends InstanceProcessor {
+
+        private final List<String> completedInstances = new ArrayList<>();
+
+        private final List<BitSet> updatedCompletedJobs = new ArrayList<>();
+
+        TestProcessor(NodeManger nodeManger, IDGenerator idGenerator, JobInstanceRepository jobInstanceRepository) {
+            super(null, nodeManger, idGenerator, null, null, jobInstanceRepository, null);
+        }
+
+        ScheduleContext complete(Instance instance, String jobId) {
+            return handleJobComplete(instance, jobInstance(instance, jobId, JobStatus.SUCCEED), new ScheduleContext());
+        }
+
+        @Override
+        protected boolean instanceExecuting(String instanceId) {
+            return true;
+        }
+
+        @Override
+        protected void handlerInstanceComplete(String instanceId, boolean success, ScheduleContext scheduleContext) {
+            completedInstances.add(instanceId);
+        }
+
+        @Override
+        protected Instance lockAndGet(String instanceId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void updateCompletedJobs(String instanceId, BitSet completedJobs) {
+            updatedCompletedJobs.add((BitSet) completedJobs.clone());
+        }
+
+        @Override
+        protected void asyncSchedule(ScheduleContext scheduleContext) {
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+
+
+package org.limbo.flowjob.test.core.processor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.api.constants.InstanceType;
+import org.limbo.flowjob.api.constants.ScheduleType;
+import org.limbo.flowjob.api.constants.TriggerType;
+import org.limbo.flowjob.broker.core.agent.AgentRegistry;
+import org.limbo.flowjob.broker.core.cluster.Node;
+import org.limbo.flowjob.broker.core.cluster.NodeManger;
+import org.limbo.flowjob.broker.core.meta.IDGenerator;
+import org.limbo.flowjob.broker.core.meta.info.Plan;
+import org.limbo.flowjob.broker.core.meta.info.PlanCache;
+import org.limbo.flowjob.broker.core.meta.info.PlanRepository;
+import org.limbo.flowjob.broker.core.meta.info.WorkflowJobInfo;
+import org.limbo.flowjob.broker.core.meta.instance.PlanInstance;
+import org.limbo.flowjob.broker.core.meta.instance.PlanInstanceRepository;
+import org.limbo.flowjob.broker.core.meta.job.JobInstanceRepository;
+import org.limbo.flowjob.broker.core.meta.processor.JobDispatchBatcher;
+import org.limbo.flowjob.broker.core.meta.processor.PlanInstanceProcessor;
+import org.limbo.flowjob.broker.core.meta.processor.PlanTrigger;
+import org.limbo.flowjob.broker.core.meta.processor.PlanTriggerBatcher;
+import org.limbo.flowjob.broker.core.schedule.ScheduleOption;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
+import org.limbo.flowjob.broker.core.service.TransactionService;
+import org.limbo.flowjob.common.utils.dag.DAG;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.net.URL;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 定时触发批量调度：一批中部分 plan 校验失败，以及整批事务失败后退化为逐个调度
+ *
+ * @author Brozen
+ * @since 2024-02-08
+ */
+class PlanInstanceProcessorTest {
+
+    private static final String OK = "plan-ok";
+
+    private static final String DISABLED = "plan-disabled";
+
+    private static final String CHANGED = "plan-changed";
+
+    /**
+     * 模拟数据库中启用的 plan 及其当前版本
+     */
+    private final Map<String, String> enabledVersions = new HashMap<>();
+
+    /**
+     * 校验失败回调的 planId
+     */
+    private final List<String> verifyFails = new CopyOnWriteArrayList<>();
+
+    /**
+     * 为 true 时第一次事务失败
+     */
+    private final AtomicBoolean failBatch = new AtomicBoolean(false);
+
+    private PlanRepository planRepository;
+
+    private PlanInstanceRepository planInstanceRepository;
+
+    private JobInstanceRepository jobInstanceRepository;
+
+    private MetaTaskScheduler metaTaskScheduler;
+
+    private PlanInstanceProcessor processor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // 三个 plan 落在同一个 flush 通道，保证在同一批中处理
+        int lane = Math.floorMod(OK.hashCode(), PlanTriggerBatcher.DEFAULT_FLUSH_LANES);
+        Assertions.assertEquals(lane, Math.floorMod(DISABLED.hashCode(), PlanTriggerBatcher.DEFAULT_FLUSH_LANES));
+        Assertions.assertEquals(lane, Math.floorMod(CHANGED.hashCode(), PlanTriggerBatcher.DEFAULT_FLUSH_LANES));
+
+        enabledVersions.put(OK, "v1");
+        enabledVersions.put(CHANGED, "v2");
+
+        NodeManger nodeManger = Mockito.mock(NodeManger.class);
+        Mockito.when(nodeManger.elect(Mockito.anyString())).thenReturn(new Node("n", new URL("http://127.0.0.1:8080")));
+
+        AtomicInteger ids = new AtomicInteger();
+        IDGenerator idGenerator = Mockito.mock(IDGenerator.class);
+        Mockito.when(idGenerator.generateId(Mockito.any())).thenAnswer(m -> "id-" + ids.incrementAndGet());
+
+        TransactionService transactionService = Mockito.mock(TransactionService.class);
+        Mockito.when(transactionService.transactional(Mockito.any())).thenAnswer(m -> {
+            if (failBatch.compareAndSet(true, false)) {
+                throw new IllegalStateException("batch transaction fail");
+            }
+            return ((Supplier<?>) m.getArgument(0)).get();
+        });
+
+        planRepository = Mockito.mock(PlanRepository.class);
+        Mockito.when(planRepository.lockAndGetEnabledVersions(Mockito.any())).thenAnswer(m -> {
+            Map<String, String> versions = new HashMap<>();
+            for (String planId : (List<String>) m.getArgument(0)) {
+                if (enabledVersions.containsKey(planId)) {
+                    versions.put(planId, enabledVersions.get(planId));
+                }
+            }
+            return versions;
+        });
+        Mockito.when(planRepository.lockAndGet(Mockito.anyString())).thenAnswer(m -> {
+            String planId = m.getArgument(0);
+            String version = enabledVersions.get(planId);
+            return version == null ? plan(planId, "v1", false) : plan(planId, version, true);
+        });
+
+        planInstanceRepository = Mockito.mock(PlanInstanceRepository.class);
+        Mockito.when(planInstanceRepository.getLatelyTriggers(Mockito.any(), Mockito.any())).thenAnswer(m -> new HashMap<>());
+
+        jobInstanceRepository = Mockito.mock(JobInstanceRepository.class);
+        metaTaskScheduler = Mockito.mock(MetaTaskScheduler.class);
+
+        processor = new PlanInstanceProcessor(metaTaskScheduler, idGenerator, nodeManger, Mockito.mock(AgentRegistry.class),
+                planRepository, Mockito.mock(PlanCache.class), transactionService, planInstanceRepository, jobInstanceRepository,
+                Mockito.mock(JobDispatchBatcher.class), 100, 200);
+    }
+
+    @AfterEach
+    void tearDown() {
+        processor.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testMixedBatch() throws Exception {
+        CountDownLatch failed = new CountDownLatch(2);
+        trigger(OK, "v1", failed);
+        trigger(DISABLED, "v1", failed);
+        trigger(CHANGED, "v1", failed);
+        Assertions.assertTrue(failed.await(2, TimeUnit.SECONDS));
+
+        // 校验失败的 plan 不影响同一批中的其它 plan
+        Assertions.assertTrue(verifyFails.contains(DISABLED));
+        Assertions.assertTrue(verifyFails.contains(CHANGED));
+        Assertions.assertFalse(verifyFails.contains(OK));
+
+        ArgumentCaptor<List<PlanInstance>> captor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(planInstanceRepository).saveAll(captor.capture());
+        Assertions.assertEquals(1, captor.getValue().size());
+        Assertions.assertEquals(OK, captor.getValue().get(0).getPlanId());
+        Mockito.verify(jobInstanceRepository).saveAll(Mockito.argThat(jobs -> jobs.size() == 1));
+        Mockito.verify(metaTaskScheduler).schedule(Mockito.any());
+
+        // 一个事务处理整批
+        Mockito.verify(planRepository).lockAndGetEnabledVersions(Mockito.any());
+        Mockito.verify(planRepository, Mockito.never()).lockAndGet(Mockito.anyString());
+    }
+
+    @Test
+    void testFallbackWhenBatchFail() throws Exception {
+        failBatch.set(true);
+        CountDownLatch failed = new CountDownLatch(1);
+        trigger(OK, "v1", failed);
+        trigger(CHANGED, "v1", failed);
+        Assertions.assertTrue(failed.await(2, TimeUnit.SECONDS));
+        Assertions.assertEquals(Collections.singletonList(CHANGED), verifyFails);
+
+        // 整批失败后逐个调度，校验失败的仍然回调
+        Mockito.verify(planRepository, Mockito.timeout(2000)).lockAndGet(OK);
+        Mockito.verify(planRepository).lockAndGet(CHANGED);
+        Mockito.verify(planInstanceRepository, Mockito.timeout(2000)).save(Mockito.argThat(instance -> OK.equals(instance.getPlanId())));
+        Mockito.verify(planInstanceRepository, Mockito.never()).saveAll(Mockito.any());
+        Mockito.verify(jobInstanceRepository, Mockito.timeout(2000)).saveAll(Mockito.argThat(jobs -> jobs.size() == 1));
+        Mockito.verify(metaTaskScheduler, Mockito.timeout(2000)).schedule(Mockito.any());
+    }
+
+    private void trigger(String planId, String version, CountDownLatch failed) {
+        LocalDateTime triggerAt = TimeUtils.currentLocalDateTime();
+        processor.scheduleInBatch(new PlanTrigger(plan(planId, version, true), triggerAt, e -> {
+            verifyFails.add(planId);
+            failed.countDown();
+        }));
+    }
+
+    private Plan plan(String planId, String version, boolean enabled) {
+        WorkflowJobInfo jobInfo = new WorkflowJobInfo();
+        jobInfo.setId("a");
+        return Plan.builder()
+                .id(planId)
+                .version(version)
+                .type(InstanceType.WORKFLOW)
+                .triggerType(TriggerType.SCHEDULE)
+                .scheduleOption(new ScheduleOption(ScheduleType.FIXED_RATE, TimeUtils.currentLocalDateTime(), null, null, Duration.ofHours(1), null, null))
+                .dag(new DAG<>(Collections.singletonList(jobInfo)))
+                .enabled(enabled)
+                .build();
+    }
+
+}
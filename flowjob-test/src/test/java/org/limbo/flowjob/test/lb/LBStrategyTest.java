@@ -19,13 +19,30 @@
 package org.limbo.flowjob.test.lb;
 
 import com.google.common.collect.Maps;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import org.limbo.flowjob.broker.core.schedule.selector.WorkerLBStatistics;
+import org.limbo.flowjob.common.lb.LBServerStatisticsProvider;
+import org.limbo.flowjob.common.lb.strategies.ConsistentHashLBStrategy;
+import org.limbo.flowjob.common.lb.strategies.PeakEwmaLBStrategy;
 import org.limbo.flowjob.common.rpc.RPCInvocation;
 import org.limbo.flowjob.common.lb.strategies.RoundRobinLBStrategy;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -76,5 +93,163 @@ class LBStrategyTest {
     }
 
 
+    @Test
+    void testWeightedRoundRobinConcurrent() throws InterruptedException {
+        RoundRobinLBStrategy<IntegerLBServer> strategy = new RoundRobinLBStrategy<>(
+                servers -> servers.stream()
+                        .collect(Collectors.toMap(
+                                IntegerLBServer::getServerId,
+                                s -> (s.getValue() + 1) % 7 == 0 ? 9 : 1
+                        ))
+        );
+        strategy.setWeightRefreshInterval(Long.MAX_VALUE);
+
+        // 一轮权重总和为 18，并发选择整数轮后每个服务被选中的次数严格等于 权重 * 轮数
+        int rounds = 500;
+        Map<String, AtomicInteger> selected = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 18 * rounds / 4; i++) {
+                    strategy.select(servers, new RPCInvocation("test", Maps.newHashMap()))
+                            .ifPresent(server -> selected.computeIfAbsent(server.getServerId(), k -> new AtomicInteger()).incrementAndGet());
+                }
+            });
+        }
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        for (IntegerLBServer server : servers) {
+            int weight = (server.getValue() + 1) % 7 == 0 ? 9 : 1;
+            Assertions.assertEquals(weight * rounds, selected.get(server.getServerId()).get());
+        }
+    }
+
+
+    @Test
+    void testPeakEwma() {
+        // 0 号服务耗时远高于其他服务，且有未完成的请求
+        LBServerStatisticsProvider provider = (serverIds, interval) -> serverIds.stream()
+                .map(id -> new WorkerLBStatistics(id, Instant.now(), 10, "0".equals(id) ? 5 : 1, "0".equals(id) ? 1000 : 10))
+                .collect(Collectors.toList());
+        PeakEwmaLBStrategy<IntegerLBServer> strategy = new PeakEwmaLBStrategy<>(provider);
+
+        Map<String, Integer> selected = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            strategy.select(servers, new RPCInvocation("test", Maps.newHashMap()))
+                    .ifPresent(server -> selected.merge(server.getServerId(), 1, Integer::sum));
+        }
+        // 两个候选一定不同，负载最高的服务不会被选中，其余服务比较均衡
+        Assertions.assertNull(selected.get("0"));
+        Assertions.assertEquals(servers.size() - 1, selected.size());
+    }
+
+
+    @Test
+    void testPeakEwmaColdStart() {
+        // 0 号服务刚上线还没有耗时数据，但已有未完成的请求；其他服务积压更多
+        LBServerStatisticsProvider provider = (serverIds, interval) -> serverIds.stream()
+                .map(id -> new WorkerLBStatistics(id, Instant.now(), 10, "0".equals(id) ? 2 : 10, "0".equals(id) ? 0 : 10))
+                .collect(Collectors.toList());
+        PeakEwmaLBStrategy<IntegerLBServer> strategy = new PeakEwmaLBStrategy<>(provider);
+
+        Map<String, Integer> selected = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            strategy.select(servers, new RPCInvocation("test", Maps.newHashMap()))
+                    .ifPresent(server -> selected.merge(server.getServerId(), 1, Integer::sum));
+        }
+        // 按另一个候选的耗时估算，0 号服务负载更低，被抽中时一定被选中
+        Assertions.assertTrue(selected.getOrDefault("0", 0) > 100, "selected " + selected);
+    }
+
+
+    @Test
+    void testConsistentHash() {
+        ConsistentHashLBStrategy<IntegerLBServer> strategy = new ConsistentHashLBStrategy<>();
+        int keys = 10000;
+        Map<String, String> routes = new HashMap<>();
+        Map<String, Integer> selected = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            String key = "job-" + i;
+            strategy.select(servers, hashInvocation(key)).ifPresent(server -> {
+                routes.put(key, server.getServerId());
+                selected.merge(server.getServerId(), 1, Integer::sum);
+            });
+        }
+        // 分布均匀，每个服务偏离平均值不超过 20%
+        Assertions.assertEquals(servers.size(), selected.size());
+        int avg = keys / servers.size();
+        selected.values().forEach(count -> Assertions.assertTrue(Math.abs(count - avg) < avg * 0.2, "count " + count));
+
+        // 下线一个服务，只有少量原本不属于它的参数改变路由
+        List<IntegerLBServer> remains = servers.subList(1, servers.size());
+        int moved = 0;
+        for (int i = 0; i < keys; i++) {
+            String key = "job-" + i;
+            String before = routes.get(key);
+            String after = strategy.select(remains, hashInvocation(key)).map(IntegerLBServer::getServerId).orElse(null);
+            Assertions.assertNotEquals("0", after);
+            if (!"0".equals(before) && !before.equals(after)) {
+                moved++;
+            }
+        }
+        Assertions.assertTrue(moved < keys * 0.05, "moved " + moved);
+    }
+
+
+    @Test
+    void testConsistentHashReordered() {
+        ConsistentHashLBStrategy<IntegerLBServer> strategy = new ConsistentHashLBStrategy<>();
+        int keys = 1000;
+        Map<String, String> routes = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            String key = "job-" + i;
+            routes.put(key, strategy.select(servers, hashInvocation(key)).map(IntegerLBServer::getServerId).orElse(null));
+        }
+
+        // 服务列表顺序变化不影响路由
+        List<IntegerLBServer> reversed = new ArrayList<>(servers);
+        Collections.reverse(reversed);
+        for (int i = 0; i < keys; i++) {
+            String key = "job-" + i;
+            Assertions.assertEquals(routes.get(key), strategy.select(reversed, hashInvocation(key)).map(IntegerLBServer::getServerId).orElse(null));
+        }
+    }
+
+
+    @Test
+    void testConsistentHashMembershipChanged() {
+        ConsistentHashLBStrategy<IntegerLBServer> strategy = new ConsistentHashLBStrategy<>();
+        int keys = 1000;
+        for (int i = 0; i < keys; i++) {
+            strategy.select(servers, hashInvocation("job-" + i));
+        }
+
+        // 数量不变但成员变化，新服务能够分到参数，下线的服务不再被选中
+        List<IntegerLBServer> replaced = new ArrayList<>(servers.subList(1, servers.size()));
+        replaced.add(new IntegerLBServer(servers.size()));
+        Set<String> selected = new HashSet<>();
+        for (int i = 0; i < keys; i++) {
+            strategy.select(replaced, hashInvocation("job-" + i)).ifPresent(server -> selected.add(server.getServerId()));
+        }
+        Assertions.assertFalse(selected.contains("0"));
+        Assertions.assertTrue(selected.contains(String.valueOf(servers.size())));
+
+        // 同一个列表对象被原地修改后依然选中列表中的服务
+        String removed = replaced.remove(0).getServerId();
+        for (int i = 0; i < keys; i++) {
+            Assertions.assertNotEquals(removed, strategy.select(replaced, hashInvocation("job-" + i)).map(IntegerLBServer::getServerId).orElse(null));
+        }
+    }
+
+
+    private RPCInvocation hashInvocation(String key) {
+        Map<String, String> params = Maps.newHashMap();
+        params.put(ConsistentHashLBStrategy.HASH_PARAM_NAME, "key");
+        params.put("key", key);
+        return new RPCInvocation("test", params);
+    }
+
+
 
 }
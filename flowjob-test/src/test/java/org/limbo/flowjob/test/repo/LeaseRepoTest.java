@@ -0,0 +1,150 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.repo;
+
+import lombok.Setter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.limbo.flowjob.broker.core.meta.lock.Lease;
+import org.limbo.flowjob.broker.core.meta.lock.LeaseManager;
+import org.limbo.flowjob.broker.dao.entity.BucketEntity;
+import org.limbo.flowjob.broker.dao.repositories.BucketEntityRepo;
+import org.limbo.flowjob.broker.dao.repositories.BucketRepo;
+import org.limbo.flowjob.broker.dao.repositories.LeaseRepo;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.inject.Inject;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * @author Brozen
+ * @since 2024-02-07
+ */
+@SpringBootTest
+@ExtendWith(SpringExtension.class)
+class LeaseRepoTest {
+
+    @Setter(onMethod_ = @Inject)
+    private LeaseRepo leaseRepo;
+
+    @Setter(onMethod_ = @Inject)
+    private BucketRepo bucketRepo;
+
+    @Setter(onMethod_ = @Inject)
+    private BucketEntityRepo bucketEntityRepo;
+
+    private String leaseName() {
+        return "TEST_LEASE_" + UUID.randomUUID();
+    }
+
+    @Test
+    void reacquireBumpsToken() {
+        String name = leaseName();
+        Long first = leaseRepo.acquire(name, "a", 10000);
+        Long second = leaseRepo.acquire(name, "a", 10000);
+        Assertions.assertNotNull(first);
+        Assertions.assertNotNull(second);
+        Assertions.assertEquals(first + 1, second);
+    }
+
+    @Test
+    void otherOwnerWaitsForExpiry() throws InterruptedException {
+        String name = leaseName();
+        Long tokenA = leaseRepo.acquire(name, "a", 500);
+        Assertions.assertNotNull(tokenA);
+        Assertions.assertNull(leaseRepo.acquire(name, "b", 500));
+
+        Thread.sleep(800);
+        Long tokenB = leaseRepo.acquire(name, "b", 500);
+        Assertions.assertNotNull(tokenB);
+        Assertions.assertTrue(tokenB > tokenA);
+        // 被接管后原持有者不能续期
+        Assertions.assertFalse(leaseRepo.renew(name, "a", tokenA, 500));
+    }
+
+    @Test
+    void renewWithStaleToken() {
+        String name = leaseName();
+        Long stale = leaseRepo.acquire(name, "a", 10000);
+        Long current = leaseRepo.acquire(name, "a", 10000);
+        Assertions.assertFalse(leaseRepo.renew(name, "a", stale, 10000));
+        Assertions.assertTrue(leaseRepo.renew(name, "a", current, 10000));
+    }
+
+    @Test
+    void managerCachesAndReleases() {
+        String name = leaseName();
+        LeaseManager a = new LeaseManager(leaseRepo, "a");
+        LeaseManager b = new LeaseManager(leaseRepo, "b");
+        try {
+            Lease leaseA = a.tryAcquire(name, 10000);
+            Assertions.assertNotNull(leaseA);
+            // 有效期内返回本地缓存，token 不变
+            Assertions.assertSame(leaseA, a.tryAcquire(name, 10000));
+            Assertions.assertNull(b.tryAcquire(name, 10000));
+
+            a.release(name);
+            Assertions.assertNull(a.get(name));
+            Lease leaseB = b.tryAcquire(name, 10000);
+            Assertions.assertNotNull(leaseB);
+            Assertions.assertTrue(leaseB.getToken() > leaseA.getToken());
+        } finally {
+            a.shutdown();
+            b.shutdown();
+        }
+    }
+
+    @Test
+    void bucketWriteWithStaleToken() throws Exception {
+        String name = leaseName();
+        long start = System.nanoTime();
+        Long staleToken = leaseRepo.acquire(name, "a", 10000);
+        Long currentToken = leaseRepo.acquire(name, "a", 10000);
+        Lease stale = new Lease(name, staleToken, 10000, start);
+        Lease current = new Lease(name, currentToken, 10000, start);
+
+        // 使用超出正常范围的桶，不影响集群中真实的桶
+        int bucket = 100000 + (int) (Math.random() * 10000);
+        URL from = new URL("http://127.0.0.1:9001");
+        URL to = new URL("http://127.0.0.1:9002");
+        try {
+            Assertions.assertEquals(0, bucketRepo.create(Collections.singletonMap(bucket, from), stale));
+            Assertions.assertFalse(bucketRepo.findAll().containsKey(bucket));
+
+            Assertions.assertEquals(1, bucketRepo.create(Collections.singletonMap(bucket, from), current));
+            Assertions.assertEquals(0, bucketRepo.transfer(Collections.singleton(bucket), from, to, stale));
+            Assertions.assertEquals(from, bucketRepo.findAll().get(bucket));
+
+            Assertions.assertEquals(1, bucketRepo.transfer(Collections.singleton(bucket), from, to, current));
+            Assertions.assertEquals(to, bucketRepo.findAll().get(bucket));
+        } finally {
+            List<BucketEntity> entities = bucketEntityRepo.findAll().stream()
+                    .filter(e -> e.getBucket() == bucket)
+                    .collect(Collectors.toList());
+            bucketEntityRepo.deleteAll(entities);
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.rpc;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.limbo.flowjob.common.http.HttpClientConfig;
+import org.limbo.flowjob.common.http.HttpClientRegistry;
+import org.limbo.flowjob.common.rpc.EmbedHttpRpcServer;
+import org.limbo.flowjob.common.rpc.EmbedHttpServerHandler;
+import org.limbo.flowjob.common.rpc.IHttpHandlerProcessor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Brozen
+ * @since 2024-02-22
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class EmbedHttpRpcServerTest {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private EmbedHttpRpcServer server;
+
+    private String baseUrl;
+
+    @BeforeAll
+    void init() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new EmbedHttpRpcServer(port, (method, uri, data) -> "{\"uri\":\"" + uri + "\",\"data\":" + data + "}");
+        server.start();
+        baseUrl = "http://127.0.0.1:" + port;
+    }
+
+    @AfterAll
+    void destroy() {
+        server.stop();
+    }
+
+    @Test
+    void testHttp1AndH2c() throws Exception {
+        HttpClientConfig config = new HttpClientConfig();
+        config.setH2c(true);
+        HttpClientRegistry.configure(config);
+
+        // 共享连接池
+        Assertions.assertSame(HttpClientRegistry.client().connectionPool(), HttpClientRegistry.embedClient().connectionPool());
+
+        assertEcho(HttpClientRegistry.client(), Protocol.HTTP_1_1);
+        assertEcho(HttpClientRegistry.embedClient(), Protocol.H2_PRIOR_KNOWLEDGE);
+
+        HttpClientRegistry.configure(new HttpClientConfig());
+    }
+
+    @Test
+    void testAsyncProcessAndBusy() throws Exception {
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        IHttpHandlerProcessor async = new IHttpHandlerProcessor() {
+            @Override
+            public String process(HttpMethod httpMethod, String uri, String data) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletableFuture<String> processAsync(HttpMethod httpMethod, String uri, InputStream data, Executor executor) {
+                return pending;
+            }
+        };
+
+        // 处理完成前请求体不释放，完成后响应并释放
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+        EmbeddedChannel channel = new EmbeddedChannel(new EmbedHttpServerHandler(pool, async));
+        FullHttpRequest request = newRequest();
+        channel.writeInbound(request);
+        Assertions.assertEquals(1, request.refCnt());
+        Assertions.assertNull(channel.readOutbound());
+
+        pending.complete("{}");
+        FullHttpResponse response = channel.readOutbound();
+        Assertions.assertEquals(HttpResponseStatus.OK, response.status());
+        Assertions.assertEquals("{}", response.content().toString(StandardCharsets.UTF_8));
+        Assertions.assertEquals(0, request.refCnt());
+        response.release();
+
+        // 线程池已满时响应 503
+        CountDownLatch latch = new CountDownLatch(1);
+        pool.execute(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        channel = new EmbeddedChannel(new EmbedHttpServerHandler(pool, (method, uri, data) -> data));
+        request = newRequest();
+        channel.writeInbound(request);
+        response = channel.readOutbound();
+        Assertions.assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, response.status());
+        Assertions.assertEquals("1", response.headers().get(HttpHeaderNames.RETRY_AFTER));
+        Assertions.assertEquals(0, request.refCnt());
+        response.release();
+
+        latch.countDown();
+        pool.shutdown();
+    }
+
+    private FullHttpRequest newRequest() {
+        return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/api/v1/echo",
+                Unpooled.copiedBuffer("1", StandardCharsets.UTF_8));
+    }
+
+    private void assertEcho(OkHttpClient client, Protocol protocol) throws Exception {
+        Request request = new Request.Builder()
+                .url(baseUrl + "/api/v1/echo")
+                .post(RequestBody.create(JSON, "1"))
+                .build();
+
+        // 服务异步启动，等待端口可用
+        IOException lastError = null;
+        for (int i = 0; i < 50; i++) {
+            try (Response response = client.newCall(request).execute()) {
+                Assertions.assertEquals(200, response.code());
+                Assertions.assertEquals(protocol, response.protocol());
+                Assertions.assertEquals("{\"uri\":\"/api/v1/echo\",\"data\":1}", response.body().string());
+                return;
+            } catch (IOException e) {
+                lastError = e;
+                Thread.sleep(100);
+            }
+        }
+        throw lastError;
+    }
+
+}
@@ -0,0 +1,325 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.rpc;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.limbo.flowjob.common.http.HttpClientConfig;
+import org.limbo.flowjob.common.http.HttpClientRegistry;
+import org.limbo.flowjob.common.http.LoadBalanceInterceptor;
+import org.limbo.flowjob.common.lb.BaseLBServer;
+import org.limbo.flowjob.common.lb.BaseLBServerRepository;
+import org.limbo.flowjob.common.lb.CircuitBreaker;
+import org.limbo.flowjob.common.lb.strategies.RoundRobinLBStrategy;
+import org.limbo.flowjob.common.rpc.EmbedHttpRpcServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * @author Brozen
+ * @since 2024-03-02
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class LoadBalanceInterceptorTest {
+
+    private static final String BASE_URL = "http://0.0.0.0:8080";
+
+    private final CountDownLatch slow = new CountDownLatch(1);
+
+    private EmbedHttpRpcServer fastServer;
+
+    private EmbedHttpRpcServer slowServer;
+
+    private EmbedHttpRpcServer otherServer;
+
+    private EmbedHttpRpcServer flakyServer;
+
+    private final AtomicInteger flakyCalls = new AtomicInteger();
+
+    private String fastUrl;
+
+    private String slowUrl;
+
+    private String otherUrl;
+
+    private String flakyUrl;
+
+    private String deadUrl;
+
+    @BeforeAll
+    void init() throws Exception {
+        int fastPort = freePort();
+        fastServer = new EmbedHttpRpcServer(fastPort, (method, uri, data) -> "fast");
+        fastServer.start();
+        fastUrl = "http://127.0.0.1:" + fastPort;
+
+        int slowPort = freePort();
+        slowServer = new EmbedHttpRpcServer(slowPort, (method, uri, data) -> {
+            try {
+                slow.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            return "slow";
+        });
+        slowServer.start();
+        slowUrl = "http://127.0.0.1:" + slowPort;
+
+        int otherPort = freePort();
+        otherServer = new EmbedHttpRpcServer(otherPort, (method, uri, data) -> "other");
+        otherServer.start();
+        otherUrl = "http://127.0.0.1:" + otherPort;
+
+        // 第一次请求返回 500，之后正常
+        int flakyPort = freePort();
+        flakyServer = new EmbedHttpRpcServer(flakyPort, (method, uri, data) -> {
+            if (flakyCalls.incrementAndGet() == 1) {
+                throw new IllegalStateException("flaky");
+            }
+            return "flaky";
+        });
+        flakyServer.start();
+        flakyUrl = "http://127.0.0.1:" + flakyPort;
+
+        // 没有服务监听的端口
+        deadUrl = "http://127.0.0.1:" + freePort();
+
+        // 服务异步启动，等待端口可用
+        OkHttpClient client = HttpClientRegistry.client();
+        for (int i = 0; i < 50; i++) {
+            try (Response response = client.newCall(new Request.Builder().url(fastUrl + "/ping").build()).execute()) {
+                if (response.isSuccessful()) {
+                    return;
+                }
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    @AfterAll
+    void destroy() {
+        slow.countDown();
+        fastServer.stop();
+        slowServer.stop();
+        otherServer.stop();
+        flakyServer.stop();
+    }
+
+    @Test
+    void testCircuitBreakerTransition() {
+        CircuitBreaker breaker = new CircuitBreaker("s1", 2, 1000, 4000);
+        long now = 0;
+
+        breaker.onFailure(now);
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        breaker.onFailure(now);
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        Assertions.assertFalse(breaker.tryAcquire(now + 999));
+
+        // 摘除到期后只放行一个探测请求
+        Assertions.assertTrue(breaker.tryAcquire(now + 1000));
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        Assertions.assertFalse(breaker.tryAcquire(now + 1000));
+
+        // 探测失败再次摘除，时长翻倍
+        now += 1000;
+        breaker.onFailure(now);
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        Assertions.assertFalse(breaker.isAvailable(now + 1999));
+        Assertions.assertTrue(breaker.tryAcquire(now + 2000));
+
+        // 探测成功恢复
+        breaker.onSuccess(now + 2000, 10);
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        Assertions.assertTrue(breaker.tryAcquire(now + 2000));
+    }
+
+    @Test
+    void testEjectDeadServer() throws Exception {
+        HttpClientConfig config = new HttpClientConfig();
+        config.setFailureThreshold(1);
+        config.setEjectionTime(Duration.ofMinutes(1));
+        OkHttpClient client = client(config, deadUrl, fastUrl);
+
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals("fast", get(client));
+        }
+    }
+
+    @Test
+    void testPanicWhenAllEjected() throws Exception {
+        HttpClientConfig config = new HttpClientConfig();
+        config.setFailureThreshold(1);
+        config.setEjectionTime(Duration.ofMinutes(1));
+        OkHttpClient client = client(config, flakyUrl);
+
+        try (Response response = client.newCall(new Request.Builder().url(BASE_URL + "/echo").build()).execute()) {
+            Assertions.assertEquals(500, response.code());
+        }
+        // 唯一的节点已被摘除，恐慌模式下仍然发送请求，成功后恢复
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals("flaky", get(client));
+        }
+    }
+
+    @Test
+    void testRecoverOnSuccessWhileEjected() {
+        CircuitBreaker breaker = new CircuitBreaker("s1", 1, 60000, 60000);
+        breaker.onFailure(0);
+        Assertions.assertFalse(breaker.isAvailable(1));
+        // 恐慌模式下被摘除的节点调用成功同样恢复
+        breaker.onSuccess(1, 10);
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void testHedgeIdempotentRequest() throws Exception {
+        HttpClientConfig config = new HttpClientConfig();
+        config.setHedgeDelay(Duration.ofMillis(100));
+        OkHttpClient client = client(config, slowUrl, fastUrl);
+
+        // 轮询保证两次请求中至少一次先选中慢节点
+        for (int i = 0; i < 2; i++) {
+            long start = System.currentTimeMillis();
+            Assertions.assertEquals("fast", get(client));
+            Assertions.assertTrue(System.currentTimeMillis() - start < 5000);
+        }
+    }
+
+    @Test
+    void testHedgeThroughCallerClient() throws Exception {
+        HttpClientConfig config = new HttpClientConfig();
+        config.setHedgeDelay(Duration.ofMillis(100));
+        List<Integer> readTimeouts = new CopyOnWriteArrayList<>();
+        OkHttpClient client = client(config, builder -> builder
+                .readTimeout(7, TimeUnit.SECONDS)
+                .addInterceptor(chain -> {
+                    readTimeouts.add(chain.readTimeoutMillis());
+                    return chain.proceed(chain.request());
+                }), slowUrl, fastUrl);
+
+        // 对冲请求同样经过本拦截器之后的拦截器，并使用调用方客户端的超时配置
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertEquals("fast", get(client));
+        }
+        Assertions.assertTrue(readTimeouts.size() > 2, "attempts " + readTimeouts.size());
+        for (Integer readTimeout : readTimeouts) {
+            Assertions.assertEquals(7000, readTimeout);
+        }
+    }
+
+    @Test
+    void testHedgeCancel() throws Exception {
+        HttpClientConfig config = new HttpClientConfig();
+        config.setHedgeDelay(Duration.ofMillis(100));
+        OkHttpClient client = client(config, slowUrl);
+
+        // 只有慢节点，外部调用取消后不再等待
+        Call call = client.newCall(new Request.Builder().url(BASE_URL + "/echo").build());
+        new Thread(() -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException ignored) {
+            }
+            call.cancel();
+        }).start();
+        long start = System.currentTimeMillis();
+        Assertions.assertThrows(IOException.class, call::execute);
+        Assertions.assertTrue(System.currentTimeMillis() - start < 3000);
+    }
+
+    @Test
+    void testAffinity() throws Exception {
+        OkHttpClient client = client(new HttpClientConfig(), fastUrl, otherUrl);
+        Request request = new Request.Builder()
+                .url(BASE_URL + "/echo")
+                .tag(LoadBalanceInterceptor.Affinity.class, new LoadBalanceInterceptor.Affinity("heartbeat"))
+                .build();
+
+        // 轮询策略下带有 affinity 的请求始终发往第一次成功的节点
+        String first = null;
+        for (int i = 0; i < 6; i++) {
+            try (Response response = client.newCall(request).execute()) {
+                Assertions.assertNotNull(response.body());
+                String body = response.body().string();
+                if (first == null) {
+                    first = body;
+                }
+                Assertions.assertEquals(first, body);
+            }
+        }
+    }
+
+    private OkHttpClient client(HttpClientConfig config, String... urls) throws Exception {
+        return client(config, builder -> builder, urls);
+    }
+
+    /**
+     * @param customizer 在负载均衡拦截器之后修改客户端配置
+     */
+    private OkHttpClient client(HttpClientConfig config, UnaryOperator<OkHttpClient.Builder> customizer, String... urls) throws Exception {
+        List<BaseLBServer> servers = new ArrayList<>();
+        for (String url : urls) {
+            servers.add(new BaseLBServer(new URL(url)));
+        }
+
+        HttpClientRegistry.configure(config);
+        try {
+            LoadBalanceInterceptor<BaseLBServer> interceptor = new LoadBalanceInterceptor<>(
+                    new BaseLBServerRepository<>(servers), new RoundRobinLBStrategy<>()
+            );
+            OkHttpClient client = customizer.apply(HttpClientRegistry.client().newBuilder().addInterceptor(interceptor)).build();
+            interceptor.attach(client);
+            return client;
+        } finally {
+            HttpClientRegistry.configure(new HttpClientConfig());
+        }
+    }
+
+    private String get(OkHttpClient client) throws IOException {
+        try (Response response = client.newCall(new Request.Builder().url(BASE_URL + "/echo").build()).execute()) {
+            Assertions.assertNotNull(response.body());
+            return response.body().string();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.rpc;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.limbo.flowjob.api.dto.ResponseDTO;
+import org.limbo.flowjob.common.exception.RpcException;
+import org.limbo.flowjob.common.http.HttpClientConfig;
+import org.limbo.flowjob.common.http.HttpClientRegistry;
+import org.limbo.flowjob.common.http.OKHttpRpc;
+import org.limbo.flowjob.common.lb.BaseLBServer;
+import org.limbo.flowjob.common.rpc.EmbedHttpRpcServer;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Brozen
+ * @since 2024-02-24
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class OKHttpRpcAsyncTest {
+
+    private static final TypeReference<ResponseDTO<Integer>> INT_RESPONSE = new TypeReference<ResponseDTO<Integer>>() {
+    };
+
+    private final CountDownLatch slow = new CountDownLatch(1);
+
+    private EmbedHttpRpcServer server;
+
+    private String baseUrl;
+
+    @BeforeAll
+    void init() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new EmbedHttpRpcServer(port, (method, uri, data) -> {
+            if (uri.startsWith("/slow")) {
+                try {
+                    slow.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            return "{\"code\":200,\"data\":" + data + "}";
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + port;
+
+        // 服务异步启动，等待端口可用
+        TestRpc rpc = new TestRpc();
+        for (int i = 0; i < 50; i++) {
+            try {
+                rpc.post("/echo", 0).get();
+                return;
+            } catch (ExecutionException e) {
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    @AfterAll
+    void destroy() {
+        slow.countDown();
+        server.stop();
+    }
+
+    /**
+     * 单线程连续发出请求，不等待响应
+     */
+    @Test
+    void testPipeline() throws Exception {
+        TestRpc rpc = new TestRpc();
+        List<CompletableFuture<ResponseDTO<Integer>>> futures = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            futures.add(rpc.post("/echo", i));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            Assertions.assertEquals(i, futures.get(i).get(10, TimeUnit.SECONDS).getData());
+        }
+    }
+
+    @Test
+    void testPendingLimitAndCancel() throws Exception {
+        HttpClientConfig config = new HttpClientConfig();
+        config.setMaxPendingRequests(1);
+        HttpClientRegistry.configure(config);
+        TestRpc rpc;
+        try {
+            rpc = new TestRpc();
+        } finally {
+            HttpClientRegistry.configure(new HttpClientConfig());
+        }
+
+        CompletableFuture<ResponseDTO<Integer>> pending = rpc.post("/slow", 1);
+        // 超出上限时直接失败，不占用连接
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> rpc.post("/echo", 2).get(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(e.getCause() instanceof RpcException);
+
+        // 取消后释放额度
+        Assertions.assertTrue(pending.cancel(true));
+        Assertions.assertEquals(3, rpc.post("/echo", 3).get(10, TimeUnit.SECONDS).getData());
+    }
+
+    private class TestRpc extends OKHttpRpc<BaseLBServer> {
+
+        TestRpc() {
+            super(null, null, true);
+        }
+
+        CompletableFuture<ResponseDTO<Integer>> post(String path, int data) {
+            return executePostAsync(baseUrl + path, data, INT_RESPONSE);
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+
+package org.limbo.flowjob.test.rpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.api.constants.ExecuteResult;
+import org.limbo.flowjob.api.param.agent.TaskFeedbackParam;
+import org.limbo.flowjob.api.param.broker.AgentHeartbeatParam;
+import org.limbo.flowjob.api.param.broker.AgentResourceParam;
+import org.limbo.flowjob.api.param.broker.JobFeedbackParam;
+import org.limbo.flowjob.api.param.broker.WorkerHeartbeatParam;
+import org.limbo.flowjob.api.param.broker.WorkerLatencyParam;
+import org.limbo.flowjob.api.param.broker.WorkerResourceParam;
+import org.limbo.flowjob.api.param.worker.TaskSubmitParam;
+import org.limbo.flowjob.common.rpc.tcp.RpcParamCodec;
+import org.limbo.flowjob.common.utils.json.JacksonUtils;
+
+import java.math.BigDecimal;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 二进制编码的参数解码后与原参数一致，且与 JSON 往返的结果相同
+ *
+ * @author Brozen
+ * @since 2024-02-23
+ */
+class RpcParamCodecTest {
+
+    @Test
+    void testTaskSubmit() throws Exception {
+        Map<String, Object> context = new LinkedHashMap<>();
+        context.put("str", "中文");
+        context.put("int", 1);
+        context.put("long", 1L << 40);
+        context.put("smallLong", 2L);
+        context.put("double", 1.5D);
+        context.put("bool", true);
+        context.put("null", null);
+        context.put("list", Arrays.asList(1, "a", Collections.singletonMap("k", "v")));
+        context.put("decimal", new BigDecimal("1.25"));
+
+        TaskSubmitParam param = new TaskSubmitParam();
+        param.setJobId("job");
+        param.setTaskId("task");
+        param.setAgentRpcUrl(new URL("http://127.0.0.1:9877"));
+        param.setType(1);
+        param.setContext(context);
+        param.setTaskAttributes(Arrays.asList(Collections.singletonMap("a", 1), Collections.singletonMap("b", 2)));
+
+        assertRoundTrip(param, TaskSubmitParam.class);
+    }
+
+    @Test
+    void testFeedback() {
+        TaskFeedbackParam taskFeedback = new TaskFeedbackParam();
+        taskFeedback.setJobId("job");
+        taskFeedback.setTaskId("task");
+        taskFeedback.setResult(ExecuteResult.FAILED);
+        taskFeedback.setErrorMsg("error");
+        taskFeedback.setErrorStackTrace(String.join("", Collections.nCopies(70000, "x")));
+        taskFeedback.setResultData("{}");
+        assertRoundTrip(taskFeedback, TaskFeedbackParam.class);
+
+        JobFeedbackParam jobFeedback = new JobFeedbackParam();
+        jobFeedback.setResult(ExecuteResult.SUCCEED);
+        jobFeedback.setContext(null);
+        assertRoundTrip(jobFeedback, JobFeedbackParam.class);
+    }
+
+    @Test
+    void testHeartbeat() {
+        WorkerResourceParam workerResource = new WorkerResourceParam();
+        workerResource.setAvailableCpu(0.5F);
+        workerResource.setAvailableQueueLimit(10);
+        WorkerHeartbeatParam workerHeartbeat = new WorkerHeartbeatParam();
+        workerHeartbeat.setAvailableResource(workerResource);
+        workerHeartbeat.setTopologyVersion(3L);
+        workerHeartbeat.setResourceVersion(5L);
+        assertRoundTrip(workerHeartbeat, WorkerHeartbeatParam.class);
+        assertRoundTrip(new WorkerHeartbeatParam(), WorkerHeartbeatParam.class);
+
+        AgentResourceParam agentResource = new AgentResourceParam();
+        agentResource.setAvailableQueueLimit(100);
+        WorkerLatencyParam latency = new WorkerLatencyParam();
+        latency.setWorkerId("worker");
+        latency.setCompleted(2);
+        latency.setAvgLatency(10);
+        latency.setMaxLatency(20);
+        latency.setOutstanding(1);
+        AgentHeartbeatParam agentHeartbeat = new AgentHeartbeatParam();
+        agentHeartbeat.setAvailableResource(agentResource);
+        agentHeartbeat.setBaseVersion(4L);
+        agentHeartbeat.setWorkerLatencies(Collections.singletonList(latency));
+        assertRoundTrip(agentHeartbeat, AgentHeartbeatParam.class);
+    }
+
+    @Test
+    void testUnsupported() {
+        Assertions.assertFalse(RpcParamCodec.supports(new HashMap<>()));
+        Assertions.assertFalse(RpcParamCodec.supports(null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RpcParamCodec.encode(new HashMap<>()));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RpcParamCodec.decode(new byte[]{127}));
+    }
+
+    private <T> void assertRoundTrip(T param, Class<T> type) {
+        Assertions.assertTrue(RpcParamCodec.supports(param));
+        byte[] bytes = RpcParamCodec.encode(param);
+        Object decoded = RpcParamCodec.decode(bytes);
+
+        // 与经过 JSON 传输后接收方得到的对象一致
+        T received = JacksonUtils.parseObject(JacksonUtils.toJSONString(param), type);
+        Assertions.assertEquals(received, decoded);
+        Assertions.assertEquals(JacksonUtils.toJSONString(received), JacksonUtils.toJSONString(decoded));
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.rpc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.limbo.flowjob.api.constants.ExecuteResult;
+import org.limbo.flowjob.api.param.agent.TaskFeedbackParam;
+import org.limbo.flowjob.common.exception.RpcException;
+import org.limbo.flowjob.common.http.HttpClientConfig;
+import org.limbo.flowjob.common.http.HttpClientRegistry;
+import org.limbo.flowjob.common.rpc.EmbedHttpRpcServer;
+import org.limbo.flowjob.common.rpc.tcp.RpcFrame;
+import org.limbo.flowjob.common.rpc.tcp.RpcFrameDecoder;
+import org.limbo.flowjob.common.rpc.tcp.RpcFrameEncoder;
+import org.limbo.flowjob.common.rpc.tcp.TcpRpcTransport;
+import org.limbo.flowjob.common.utils.json.JacksonUtils;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+/**
+ * 内嵌 RPC 服务同一端口上的 HTTP 与二进制协议
+ *
+ * @author Brozen
+ * @since 2024-02-23
+ */
+@Slf4j
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class TcpRpcTransportTest {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private static final int THREADS = 8;
+
+    private static final int REQUESTS_PER_THREAD = 2000;
+
+    private EmbedHttpRpcServer server;
+
+    private String baseUrl;
+
+    private TcpRpcTransport tcp;
+
+    @BeforeAll
+    void init() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new EmbedHttpRpcServer(port, (method, uri, data) -> {
+            if (uri.endsWith("/error")) {
+                throw new IllegalStateException("error");
+            }
+            return "{\"uri\":\"" + uri + "\",\"data\":" + data + "}";
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + port;
+        tcp = new TcpRpcTransport(new HttpClientConfig());
+
+        // 服务异步启动，等待端口可用
+        for (int i = 0; i < 50; i++) {
+            try {
+                tcp.post(baseUrl + "/api/v1/echo", "0");
+                return;
+            } catch (RpcException e) {
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    @AfterAll
+    void destroy() {
+        tcp.close();
+        server.stop();
+    }
+
+    @Test
+    void testEcho() {
+        Assertions.assertEquals("{\"uri\":\"/api/v1/echo?id=1\",\"data\":\"中文\"}", tcp.post(baseUrl + "/api/v1/echo?id=1", "\"中文\""));
+        Assertions.assertThrows(RpcException.class, () -> tcp.post(baseUrl + "/api/v1/error", "1"));
+        // 出错后连接仍可用
+        Assertions.assertEquals("{\"uri\":\"/api/v1/echo\",\"data\":2}", tcp.post(baseUrl + "/api/v1/echo", "2"));
+    }
+
+    /**
+     * 二进制编码的参数在服务端解码，未覆盖 processParamAsync 的处理器收到等价的 JSON
+     */
+    @Test
+    void testBinaryParam() {
+        TaskFeedbackParam param = new TaskFeedbackParam();
+        param.setJobId("job");
+        param.setTaskId("task");
+        param.setResult(ExecuteResult.SUCCEED);
+        param.setContext(Collections.singletonMap("k", 1));
+        Assertions.assertEquals(
+                "{\"uri\":\"/api/v1/echo\",\"data\":" + JacksonUtils.toJSONString(param) + "}",
+                tcp.postParam(baseUrl + "/api/v1/echo", param)
+        );
+    }
+
+    /**
+     * 首帧之后的帧魔数错误时同样解码失败，不会按错位的 length 继续读取
+     */
+    @Test
+    void testCorruptedFrame() {
+        EmbeddedChannel encoder = new EmbeddedChannel(RpcFrameEncoder.INSTANCE);
+        encoder.writeOutbound(RpcFrame.request(1L, "/api/v1/echo", "1"));
+        ByteBuf frame = encoder.readOutbound();
+
+        EmbeddedChannel decoder = new EmbeddedChannel(new RpcFrameDecoder(1024));
+        ByteBuf corrupted = frame.copy();
+        corrupted.setShort(0, 0x4745);
+        decoder.writeInbound(frame);
+        RpcFrame decoded = decoder.readInbound();
+        Assertions.assertEquals(1L, decoded.getRequestId());
+        Assertions.assertThrows(CorruptedFrameException.class, () -> decoder.writeInbound(corrupted));
+        Assertions.assertNull(decoder.readInbound());
+    }
+
+    /**
+     * 多线程共享一个连接，响应不会错配；同时与 HTTP/1.1 对比吞吐量，二进制协议不应更慢。
+     * 精确的吞吐量对比见 {@link org.limbo.flowjob.test.benchmark.RpcTransportBenchmark}
+     */
+    @Test
+    void testThroughput() throws Exception {
+        OkHttpClient client = HttpClientRegistry.client();
+        BiFunction<String, String, String> http = (url, body) -> {
+            Request request = new Request.Builder().url(url).post(RequestBody.create(JSON, body)).build();
+            try (Response response = client.newCall(request).execute()) {
+                return response.body().string();
+            } catch (IOException e) {
+                throw new RpcException("Api access failed " + url, e);
+            }
+        };
+
+        long httpThroughput = run("http", http);
+        long tcpThroughput = run("tcp", tcp::post);
+        Assertions.assertTrue(tcpThroughput >= httpThroughput, "tcp " + tcpThroughput + " msgs/s < http " + httpThroughput + " msgs/s");
+    }
+
+    /**
+     * @return 吞吐量，msgs/s
+     */
+    private long run(String name, BiFunction<String, String, String> transport) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                        int data = thread * REQUESTS_PER_THREAD + i;
+                        String response = transport.apply(baseUrl + "/api/v1/echo", String.valueOf(data));
+                        Assertions.assertEquals("{\"uri\":\"/api/v1/echo\",\"data\":" + data + "}", response);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long costNanos = System.nanoTime() - start;
+            long total = (long) THREADS * REQUESTS_PER_THREAD;
+            long throughput = total * 1000000000L / costNanos;
+            log.debug("{}: {} requests, {} ms, {} msgs/s", name, total, costNanos / 1000000, throughput);
+            return throughput;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
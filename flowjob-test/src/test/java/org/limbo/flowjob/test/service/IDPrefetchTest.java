@@ -0,0 +1,143 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+
+package org.limbo.flowjob.test.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.application.component.IDGeneratorComponent;
+import org.limbo.flowjob.broker.core.cluster.BrokerConfig;
+import org.limbo.flowjob.broker.core.meta.IDType;
+import org.limbo.flowjob.broker.dao.entity.IdEntity;
+import org.limbo.flowjob.broker.dao.repositories.IdEntityRepo;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 号段预取：每个号段都在耗尽前申请下一个号段，不会退化为同步申请
+ *
+ * @author Devil
+ * @since 2023/9/22
+ */
+class IDPrefetchTest {
+
+    private static final int STEP = 100;
+
+    private final AtomicLong currentId = new AtomicLong();
+
+    /**
+     * 已分配出去的最大 ID
+     */
+    private final AtomicLong issued = new AtomicLong();
+
+    /**
+     * 每次申请号段时 [号段起点, 当时已分配的最大 ID]
+     */
+    private final List<long[]> loads = new CopyOnWriteArrayList<>();
+
+    private IDGeneratorComponent generator;
+
+    @BeforeEach
+    void setUp() {
+        IdEntityRepo idEntityRepo = Mockito.mock(IdEntityRepo.class);
+        Mockito.when(idEntityRepo.findById(IDType.APP.name())).thenAnswer(m -> {
+            IdEntity entity = new IdEntity();
+            entity.setType(IDType.APP.name());
+            entity.setCurrentId(currentId.get());
+            entity.setStep(STEP);
+            return Optional.of(entity);
+        });
+        Mockito.when(idEntityRepo.casGainId(Mockito.eq(IDType.APP.name()), Mockito.anyLong(), Mockito.anyLong())).thenAnswer(m -> {
+            long oldId = m.getArgument(2);
+            if (!currentId.compareAndSet(oldId, m.getArgument(1))) {
+                return 0;
+            }
+            loads.add(new long[]{oldId, issued.get()});
+            return 1;
+        });
+
+        generator = new IDGeneratorComponent();
+        generator.setIdEntityRepo(idEntityRepo);
+        generator.setBrokerConfig(new BrokerConfig());
+    }
+
+    @Test
+    void testPrefetchEverySegment() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            nextId();
+        }
+        generator.destroy();
+        assertPrefetched();
+    }
+
+    @Test
+    void testPrefetchConcurrently() throws Exception {
+        int threads = 4;
+        int count = 250;
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        ids.add(nextId());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        Assertions.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        generator.destroy();
+
+        Assertions.assertEquals(threads * count, ids.size());
+        assertPrefetched();
+    }
+
+    private long nextId() throws InterruptedException {
+        long id = Long.parseLong(generator.generateId(IDType.APP));
+        issued.accumulateAndGet(id, Math::max);
+        // 模拟调用方的处理耗时，给预取留出时间
+        Thread.sleep(1);
+        return id;
+    }
+
+    /**
+     * 除了第一个号段，每个号段都在上一个号段耗尽前申请
+     */
+    private void assertPrefetched() {
+        Assertions.assertTrue(loads.size() > 3);
+        for (int i = 1; i < loads.size(); i++) {
+            long[] load = loads.get(i);
+            Assertions.assertTrue(load[1] < load[0], "segment from " + load[0] + " loaded after " + load[1] + " issued");
+        }
+    }
+
+}
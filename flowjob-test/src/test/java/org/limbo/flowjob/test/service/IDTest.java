@@ -20,6 +20,7 @@ package org.limbo.flowjob.test.service;
 
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.limbo.flowjob.broker.core.meta.IDGenerator;
@@ -29,6 +30,9 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import javax.inject.Inject;
 import javax.transaction.Transactional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * @author Devil
@@ -59,4 +63,22 @@ class IDTest {
 
         Thread.sleep(5000);
     }
+
+    @Test
+    void unique() throws InterruptedException {
+        int threads = 4;
+        int count = 5000;
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    ids.add(idGenerator.generateId(IDType.JOB_INSTANCE));
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        Assertions.assertEquals(threads * count, ids.size());
+    }
 }
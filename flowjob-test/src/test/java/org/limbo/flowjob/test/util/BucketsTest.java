@@ -0,0 +1,73 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.core.cluster.Buckets;
+import org.limbo.flowjob.broker.core.cluster.Node;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Brozen
+ * @since 2024-02-06
+ */
+class BucketsTest {
+
+    @Test
+    void testOf() {
+        // 和 MySQL 中 CRC32('100001') % 4096 一致
+        Assertions.assertEquals(1749, Buckets.of("100001"));
+        for (int i = 0; i < 1000; i++) {
+            int bucket = Buckets.of(String.valueOf(i));
+            Assertions.assertTrue(bucket >= 0 && bucket < Buckets.COUNT);
+        }
+    }
+
+    @Test
+    void testMinimalMovement() throws MalformedURLException {
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            nodes.add(new Node("broker-" + i, new URL("http://127.0.0.1:" + (8080 + i))));
+        }
+        Node[] before = new Node[Buckets.COUNT];
+        for (int bucket = 0; bucket < Buckets.COUNT; bucket++) {
+            before[bucket] = Buckets.owner(bucket, nodes);
+        }
+
+        // 新增一个节点，只有归属新节点的桶发生变化
+        Node added = new Node("broker-4", new URL("http://127.0.0.1:8084"));
+        nodes.add(added);
+        int moved = 0;
+        for (int bucket = 0; bucket < Buckets.COUNT; bucket++) {
+            Node after = Buckets.owner(bucket, nodes);
+            if (after != before[bucket]) {
+                Assertions.assertSame(added, after);
+                moved++;
+            }
+        }
+        // 理想情况为 1/5
+        Assertions.assertTrue(moved > Buckets.COUNT / 10 && moved < Buckets.COUNT * 3 / 10, "moved " + moved);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.test.util;
+
+import com.cronutils.model.CronType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.core.schedule.calculator.CompiledCron;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+
+import java.time.LocalDateTime;
+
+/**
+ * @author Brozen
+ * @since 2024-02-05
+ */
+class CompiledCronTest {
+
+    @Test
+    void testCached() {
+        CompiledCron c1 = CompiledCron.of("0/10 * * * * ? *", CronType.QUARTZ.name());
+        CompiledCron c2 = CompiledCron.of("0/10 * * * * ? *", CronType.QUARTZ.name());
+        Assertions.assertSame(c1, c2);
+    }
+
+    @Test
+    void testNextAfter() {
+        CompiledCron cron = CompiledCron.of("0/10 * * * * ? *", CronType.QUARTZ.name());
+        long anchor = TimeUtils.toTimestamp(LocalDateTime.of(2024, 2, 5, 12, 0, 0));
+
+        // 触发时间本身不算，连续取多次会跨过预计算的序列
+        long last = anchor;
+        for (int i = 1; i <= 100; i++) {
+            long next = cron.nextAfter(last);
+            Assertions.assertEquals(anchor + i * 10000L, next);
+            last = next;
+        }
+
+        // 较早的时间点也能正确计算
+        Assertions.assertEquals(anchor + 10000L, cron.nextAfter(anchor + 1));
+        Assertions.assertEquals(anchor, cron.nextAfter(anchor - 5000));
+    }
+
+    @Test
+    void testStaleAfterNotRewindWindow() {
+        CompiledCron cron = CompiledCron.of("0/5 * * * * ? *", CronType.QUARTZ.name());
+        long anchor = TimeUtils.toTimestamp(LocalDateTime.of(2024, 2, 5, 12, 0, 0));
+        Assertions.assertEquals(anchor + 5000L, cron.nextAfter(anchor));
+
+        // 交替查询较早和较新的时间点，较早的查询不影响共享序列
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals(anchor - 60000L + 5000L, cron.nextAfter(anchor - 60000L));
+            Assertions.assertEquals(anchor + 10000L, cron.nextAfter(anchor + 5000L));
+        }
+    }
+
+}
@@ -19,6 +19,7 @@
 package org.limbo.flowjob.test.util;
 
 import com.google.common.collect.Sets;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.limbo.flowjob.broker.core.utils.Verifies;
 import org.limbo.flowjob.common.utils.dag.DAG;
@@ -118,6 +119,23 @@ public class DAGTest {
         }
     }
 
+    /**
+     * 节点序号与节点加入顺序无关
+     */
+    @Test
+    void testIndexOf() {
+        List<DAGNode> jobInfos = new ArrayList<>();
+        jobInfos.add(job("c", null));
+        jobInfos.add(job("a", Sets.newHashSet("b", "c")));
+        jobInfos.add(job("b", Sets.newHashSet("c")));
+
+        DAG<DAGNode> dag = new DAG<>(jobInfos);
+        Assertions.assertEquals(0, dag.indexOf("a"));
+        Assertions.assertEquals(1, dag.indexOf("b"));
+        Assertions.assertEquals(2, dag.indexOf("c"));
+        Assertions.assertEquals(-1, dag.indexOf("d"));
+    }
+
     public static DAGNode job(String id, Set<String> childrenIds) {
         Set<String> parentIds = new HashSet<>();
         return new DAGNode() {
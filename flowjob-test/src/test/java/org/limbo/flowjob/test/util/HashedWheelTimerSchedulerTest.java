@@ -0,0 +1,179 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+
+package org.limbo.flowjob.test.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.core.schedule.Scheduled;
+import org.limbo.flowjob.broker.core.schedule.scheduler.HashedWheelTimerScheduler;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 时间轮线程只分发任务，某个通道被卡住时其他任务仍然准时触发
+ *
+ * @author Brozen
+ * @since 2024-02-03
+ */
+class HashedWheelTimerSchedulerTest {
+
+    private static final int LANES = 2;
+
+    @Test
+    void testWedgedLaneNotDelayOthers() throws Exception {
+        TestScheduler scheduler = new TestScheduler();
+        CountDownLatch release = new CountDownLatch(1);
+        String wedgedId = "wedged";
+        String otherId = OrderedLaneExecutorTest.keyOnOtherLane(wedgedId, LANES);
+        try {
+            // 卡住一个通道并让它的队列溢出
+            for (int i = 0; i < 50; i++) {
+                scheduler.schedule(new TestScheduled(wedgedId, TimeUtils.currentLocalDateTime(), () -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+            }
+
+            int count = 10;
+            CountDownLatch fired = new CountDownLatch(count);
+            List<Long> delays = new CopyOnWriteArrayList<>();
+            for (int i = 0; i < count; i++) {
+                long triggerAt = System.currentTimeMillis() + 200 + i * 50;
+                LocalDateTime scheduleAt = TimeUtils.toLocalDateTime(triggerAt);
+                scheduler.schedule(new TestScheduled(otherId, scheduleAt, () -> {
+                    delays.add(System.currentTimeMillis() - triggerAt);
+                    fired.countDown();
+                }));
+            }
+
+            Assertions.assertTrue(fired.await(5, TimeUnit.SECONDS));
+            for (Long delay : delays) {
+                Assertions.assertTrue(delay < 300, "fire delay " + delay);
+            }
+            Assertions.assertTrue(scheduler.getExecutor().overflowCount() > 0);
+        } finally {
+            release.countDown();
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    void testRejectedTaskRearmed() throws Exception {
+        TestScheduler scheduler = new TestScheduler();
+        CountDownLatch release = new CountDownLatch(1);
+        String wedgedId = "wedged";
+        // 通道队列 2 个、溢出队列 32 个，超出的任务被拒绝后重新放入时间轮
+        int count = 50;
+        CountDownLatch executed = new CountDownLatch(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                scheduler.schedule(new TestScheduled(wedgedId, TimeUtils.currentLocalDateTime(), () -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    executed.countDown();
+                }));
+            }
+            Thread.sleep(300);
+            Assertions.assertTrue(scheduler.getExecutor().rejectedCount() > 0);
+
+            release.countDown();
+            Assertions.assertTrue(executed.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            scheduler.stop();
+        }
+    }
+
+    private static class TestScheduler extends HashedWheelTimerScheduler<TestScheduled> {
+
+        TestScheduler() {
+            super(10L, TimeUnit.MILLISECONDS, LANES, 2);
+        }
+
+        @Override
+        public void schedule(TestScheduled scheduled) {
+            calAndSchedule(scheduled);
+        }
+
+        @Override
+        public void unschedule(String id) {
+        }
+
+        @Override
+        protected void afterExecute(TestScheduled scheduled, Throwable thrown) {
+        }
+    }
+
+    private static class TestScheduled implements Scheduled {
+
+        private final String id;
+
+        private final LocalDateTime scheduleAt;
+
+        private final Runnable task;
+
+        TestScheduled(String id, LocalDateTime scheduleAt, Runnable task) {
+            this.id = id;
+            this.scheduleAt = scheduleAt;
+            this.task = task;
+        }
+
+        @Override
+        public String scheduleId() {
+            return id;
+        }
+
+        @Override
+        public void execute() {
+            task.run();
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public boolean stopped() {
+            return false;
+        }
+
+        @Override
+        public LocalDateTime scheduleAt() {
+            return scheduleAt;
+        }
+
+        @Override
+        public boolean verify() {
+            return true;
+        }
+    }
+
+}
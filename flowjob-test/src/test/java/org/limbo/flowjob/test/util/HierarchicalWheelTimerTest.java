@@ -0,0 +1,133 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+
+
+package org.limbo.flowjob.test.util;
+
+import io.netty.util.Timeout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.core.schedule.scheduler.HierarchicalWheelTimer;
+import org.limbo.flowjob.common.thread.NamedThreadFactory;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分层时间轮：分钟、小时桶的降级时机，以及降级前后的取消
+ * 使用可控时钟推进分层判断的时间，降级检测与秒级时间轮仍按真实时间运行
+ *
+ * @author Brozen
+ * @since 2024-02-08
+ */
+class HierarchicalWheelTimerTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * 大于一次降级检测间隔，保证期间至少检测过一次
+     */
+    private static final long CASCADE_WAIT = 1500;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private HierarchicalWheelTimer timer;
+
+    @BeforeEach
+    void setUp() {
+        // 对齐到整小时，方便计算桶的开始时间
+        clock.set((System.currentTimeMillis() / HOUR + 1) * HOUR);
+        timer = new HierarchicalWheelTimer(NamedThreadFactory.newInstance("HierarchicalWheelTimerTest"), 10, TimeUnit.MILLISECONDS, clock::get);
+    }
+
+    @AfterEach
+    void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    void testMinuteToSecond() throws Exception {
+        long deadline = clock.get() + MINUTE + 30000;
+        CountDownLatch fired = new CountDownLatch(1);
+        timer.newTimeout(t -> fired.countDown(), deadline - clock.get(), TimeUnit.MILLISECONDS);
+
+        // 分钟桶还未开始，不会降级
+        clock.set(deadline - 40000);
+        Assertions.assertFalse(fired.await(CASCADE_WAIT, TimeUnit.MILLISECONDS));
+
+        // 分钟桶开始后降级到秒级时间轮，按剩余时间触发
+        clock.set(deadline - 300);
+        Assertions.assertTrue(fired.await(CASCADE_WAIT + 1000, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testHourToMinute() throws Exception {
+        long deadline = clock.get() + 2 * HOUR + 30 * MINUTE;
+        CountDownLatch fired = new CountDownLatch(1);
+        timer.newTimeout(t -> fired.countDown(), deadline - clock.get(), TimeUnit.MILLISECONDS);
+
+        // 小时桶开始后先降级到分钟桶，剩余时间还超过一分钟，不会触发
+        clock.set(deadline - 30 * MINUTE);
+        Assertions.assertFalse(fired.await(CASCADE_WAIT, TimeUnit.MILLISECONDS));
+        clock.set(deadline - 10 * MINUTE);
+        Assertions.assertFalse(fired.await(CASCADE_WAIT, TimeUnit.MILLISECONDS));
+
+        // 分钟桶开始后降级到秒级时间轮
+        clock.set(deadline - 300);
+        Assertions.assertTrue(fired.await(CASCADE_WAIT + 1000, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testCancelBeforeCascade() throws Exception {
+        long deadline = clock.get() + MINUTE + 30000;
+        CountDownLatch fired = new CountDownLatch(1);
+        Timeout timeout = timer.newTimeout(t -> fired.countDown(), deadline - clock.get(), TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(timeout.cancel());
+        Assertions.assertTrue(timeout.isCancelled());
+
+        // 已取消的任务降级时被丢弃
+        clock.set(deadline - 300);
+        Assertions.assertFalse(fired.await(CASCADE_WAIT + 1000, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(timeout.isExpired());
+    }
+
+    @Test
+    void testCancelAfterCascade() throws Exception {
+        long deadline = clock.get() + MINUTE + 30000;
+        CountDownLatch fired = new CountDownLatch(1);
+        Timeout timeout = timer.newTimeout(t -> fired.countDown(), deadline - clock.get(), TimeUnit.MILLISECONDS);
+
+        // 降级到秒级时间轮，剩余约 3s 真实时间
+        clock.set(deadline - 3000);
+        Assertions.assertFalse(fired.await(CASCADE_WAIT, TimeUnit.MILLISECONDS));
+
+        // 取消需要传递到秒级时间轮上的 Timeout
+        Assertions.assertTrue(timeout.cancel());
+        Assertions.assertFalse(fired.await(3000, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(timeout.isExpired());
+        Assertions.assertFalse(timeout.cancel());
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+
+package org.limbo.flowjob.test.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.common.thread.OrderedLaneExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 有序执行通道在队列满时溢出排队，不阻塞提交也不乱序执行
+ *
+ * @author Brozen
+ * @since 2024-02-03
+ */
+class OrderedLaneExecutorTest {
+
+    @Test
+    void testOrderWhenQueueFull() throws Exception {
+        OrderedLaneExecutor executor = new OrderedLaneExecutor("test-lane", 1, 2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+
+        // 第一个任务占住通道线程，使后续任务堆满队列
+        executor.execute("key", () -> {
+            started.countDown();
+            await(release);
+            executed.add(0);
+        });
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // 队列满后进入溢出队列，提交线程不会被阻塞
+        int total = 20;
+        for (int i = 1; i < total; i++) {
+            int n = i;
+            executor.execute("key", () -> executed.add(n));
+        }
+        Assertions.assertEquals(total - 1 - 2, executor.overflowCount());
+        Assertions.assertEquals(total - 1, executor.queuedCount());
+
+        release.countDown();
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(total, executed.size());
+        for (int i = 0; i < total; i++) {
+            Assertions.assertEquals(i, executed.get(i));
+        }
+        Assertions.assertEquals(total, executor.submittedCount());
+        Assertions.assertEquals(0, executor.queuedCount());
+    }
+
+    @Test
+    void testWedgedLaneNotBlockOthers() throws Exception {
+        OrderedLaneExecutor executor = new OrderedLaneExecutor("test-lane", 2, 2, 200);
+        String wedgedKey = "wedged";
+        String otherKey = keyOnOtherLane(wedgedKey, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 100; i++) {
+                executor.execute(wedgedKey, () -> await(release));
+            }
+            Assertions.assertTrue(executor.overflowCount() > 0);
+
+            CountDownLatch executed = new CountDownLatch(10);
+            for (int i = 0; i < 10; i++) {
+                executor.execute(otherKey, executed::countDown);
+            }
+            Assertions.assertTrue(executed.await(1, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testRejectWhenSpillFull() throws Exception {
+        OrderedLaneExecutor executor = new OrderedLaneExecutor("test-lane", 1, 2, 3);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        try {
+            executor.execute("key", () -> {
+                started.countDown();
+                await(release);
+            });
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            // 通道队列 2 个，溢出队列 3 个，之后的任务被拒绝
+            for (int i = 0; i < 5; i++) {
+                int n = i;
+                executor.execute("key", () -> executed.add(n));
+            }
+            Assertions.assertThrows(RejectedExecutionException.class, () -> executor.execute("key", () -> executed.add(-1)));
+            Assertions.assertEquals(1, executor.rejectedCount());
+            Assertions.assertEquals(5, executor.queuedCount());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(Arrays.asList(0, 1, 2, 3, 4), executed);
+    }
+
+    @Test
+    void testRejectAfterShutdown() throws Exception {
+        OrderedLaneExecutor executor = new OrderedLaneExecutor("test-lane", 2, 2);
+        CountDownLatch executed = new CountDownLatch(1);
+        executor.execute("key", executed::countDown);
+        executor.shutdown();
+
+        Assertions.assertTrue(executed.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assertions.assertThrows(RejectedExecutionException.class, () -> executor.execute("key", () -> {
+        }));
+    }
+
+    /**
+     * @return 与 key 落在不同通道上的 key
+     */
+    static String keyOnOtherLane(String key, int laneCount) {
+        int lane = Math.floorMod(key.hashCode(), laneCount);
+        for (int i = 0; ; i++) {
+            String other = "other-" + i;
+            if (Math.floorMod(other.hashCode(), laneCount) != lane) {
+                return other;
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
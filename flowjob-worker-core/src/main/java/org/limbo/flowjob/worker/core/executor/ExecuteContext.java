@@ -23,11 +23,14 @@ import org.limbo.flowjob.common.constants.TaskConstant;
 import org.limbo.flowjob.worker.core.domain.Task;
 import org.limbo.flowjob.worker.core.rpc.WorkerAgentRpc;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * @author Devil
@@ -40,6 +43,16 @@ public class ExecuteContext implements Runnable {
         WAITING, RUNNING, SUCCEED, FAILED, CANCELED
     }
 
+    /**
+     * 执行结果反馈失败后的重试次数，反馈必须送达，不能像状态上报一样丢弃
+     */
+    private static final int FEEDBACK_RETRY_TIMES = 5;
+
+    /**
+     * 反馈重试的初始间隔，每次翻倍
+     */
+    private static final long FEEDBACK_RETRY_DELAY_MILLIS = 200;
+
     private ScheduledExecutorService scheduledReportPool;
 
     public final TaskRepository taskRepository;
@@ -113,14 +126,14 @@ public class ExecuteContext implements Runnable {
 
             // 执行成功
             this.status.set(Status.SUCCEED);
-            this.agentRpc.feedbackTaskSucceed(task);
+            feedbackSucceed(0);
         } catch (Exception e) {
 
             // 执行异常
             log.error("Task execute error", e);
             this.status.set(Status.FAILED);
 
-            this.agentRpc.feedbackTaskFailed(task, e);
+            feedbackFailed(e, 0);
 
         } finally {
             // 最终都要移除任务
@@ -142,10 +155,50 @@ public class ExecuteContext implements Runnable {
 
         @Override
         public void run() {
-            agentRpc.reportTask(task);
+            // 异步上报，避免阻塞上报线程池；上报失败不影响下次上报
+            agentRpc.reportTaskAsync(task).whenComplete((r, e) -> {
+                if (e != null) {
+                    log.warn("Report task fail task={}", task.getTaskId(), e);
+                }
+            });
         }
     }
 
+    /**
+     * 异步反馈执行成功，任务线程无需等待 agent 响应即可执行下一个任务。
+     * 失败（包括等待响应的请求数超限）时退避重试，重试耗尽后按执行失败反馈
+     */
+    private void feedbackSucceed(int times) {
+        feedback(agentRpc.feedbackTaskSucceedAsync(task), times, () -> feedbackSucceed(times + 1), e -> feedbackFailed(e, 0));
+    }
+
+    /**
+     * 异步反馈执行失败，失败时退避重试
+     */
+    private void feedbackFailed(Throwable ex, int times) {
+        feedback(agentRpc.feedbackTaskFailedAsync(task, ex), times, () -> feedbackFailed(ex, times + 1),
+                e -> log.error("Feedback task fail, give up task={} status={}", task.getTaskId(), status.get(), e));
+    }
+
+    private void feedback(CompletableFuture<Boolean> future, int times, Runnable retry, Consumer<Throwable> exhausted) {
+        future.whenComplete((r, e) -> {
+            if (e == null) {
+                return;
+            }
+            if (times >= FEEDBACK_RETRY_TIMES) {
+                exhausted.accept(e);
+                return;
+            }
+            log.warn("Feedback task fail task={} status={} times={}", task.getTaskId(), status.get(), times, e);
+            try {
+                scheduledReportPool.schedule(retry, FEEDBACK_RETRY_DELAY_MILLIS << times, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException re) {
+                // 上报线程池已停止，直接重试
+                retry.run();
+            }
+        });
+    }
+
 
     /**
      * 取消当前任务上下文的执行
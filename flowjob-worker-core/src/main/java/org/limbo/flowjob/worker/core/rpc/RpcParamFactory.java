@@ -47,6 +47,16 @@ import java.util.stream.Collectors;
  */
 public class RpcParamFactory {
 
+    /**
+     * 可用 CPU 变化超过此值才在心跳中上报
+     */
+    private static final float CPU_THRESHOLD = 0.1f;
+
+    /**
+     * 可用内存变化超过此比例才在心跳中上报
+     */
+    private static final double RAM_THRESHOLD = 0.05;
+
     /**
      * 封装 Worker 注册参数
      */
@@ -94,15 +104,27 @@ public class RpcParamFactory {
     }
 
     /**
-     * 封装 Worker 心跳参数
+     * 封装 Worker 心跳参数，只包含相对上次上报变化超过阈值的资源字段
+     *
+     * @param reported broker 已知的资源，为空时全量上报
      */
-    public static WorkerHeartbeatParam heartbeatParam(Worker worker) {
+    public static WorkerHeartbeatParam heartbeatParam(Worker worker, WorkerResourceParam reported) {
         // 可用资源
         WorkerResources workerResource = worker.getResource();
+        float cpu = workerResource.availableCpu();
+        long ram = workerResource.availableRam();
+        int queueSize = workerResource.availableQueueSize();
+
         WorkerResourceParam resource = new WorkerResourceParam();
-        resource.setAvailableCpu(workerResource.availableCpu());
-        resource.setAvailableRAM(workerResource.availableRam());
-        resource.setAvailableQueueLimit(workerResource.availableQueueSize());
+        if (reported == null || Math.abs(cpu - reported.getAvailableCpu()) >= CPU_THRESHOLD) {
+            resource.setAvailableCpu(cpu);
+        }
+        if (reported == null || (ram != reported.getAvailableRAM() && Math.abs(ram - reported.getAvailableRAM()) >= reported.getAvailableRAM() * RAM_THRESHOLD)) {
+            resource.setAvailableRAM(ram);
+        }
+        if (reported == null || queueSize != reported.getAvailableQueueLimit()) {
+            resource.setAvailableQueueLimit(queueSize);
+        }
 
         // 组装心跳参数
         WorkerHeartbeatParam heartbeatParam = new WorkerHeartbeatParam();
@@ -111,6 +133,23 @@ public class RpcParamFactory {
         return heartbeatParam;
     }
 
+    /**
+     * 将心跳上报的增量合并到 broker 已知的资源上
+     *
+     * @param reported broker 已知的资源，为空时 delta 即为全量
+     * @param delta    本次上报的资源
+     */
+    public static WorkerResourceParam mergeResource(WorkerResourceParam reported, WorkerResourceParam delta) {
+        if (reported == null) {
+            return delta;
+        }
+        WorkerResourceParam merged = new WorkerResourceParam();
+        merged.setAvailableCpu(delta.getAvailableCpu() == null ? reported.getAvailableCpu() : delta.getAvailableCpu());
+        merged.setAvailableRAM(delta.getAvailableRAM() == null ? reported.getAvailableRAM() : delta.getAvailableRAM());
+        merged.setAvailableQueueLimit(delta.getAvailableQueueLimit() == null ? reported.getAvailableQueueLimit() : delta.getAvailableQueueLimit());
+        return merged;
+    }
+
     public static TaskFeedbackParam taskFeedbackParam(String jobId, String taskId, String result, Throwable ex) {
         TaskFeedbackParam feedbackParam = new TaskFeedbackParam();
         feedbackParam.setJobId(jobId);
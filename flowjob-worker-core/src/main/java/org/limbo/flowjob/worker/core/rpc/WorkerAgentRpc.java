@@ -24,6 +24,7 @@ import org.limbo.flowjob.worker.core.domain.Worker;
 
 import javax.annotation.Nullable;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Devil
@@ -56,4 +57,25 @@ public interface WorkerAgentRpc {
     Boolean feedbackTaskFailed(Task task, @Nullable Throwable ex);
 
     void setWorker(Worker worker);
+
+    /**
+     * 异步提交子任务，见 {@link #submitSubTasks(Task, List)}
+     */
+    CompletableFuture<Boolean> submitSubTasksAsync(Task task, List<SubTask> subTasks);
+
+    /**
+     * 异步反馈任务执行状态，见 {@link #reportTask(Task)}
+     */
+    CompletableFuture<Boolean> reportTaskAsync(Task task);
+
+    /**
+     * 异步反馈任务执行成功，见 {@link #feedbackTaskSucceed(Task)}
+     */
+    CompletableFuture<Boolean> feedbackTaskSucceedAsync(Task task);
+
+    /**
+     * 异步反馈任务执行失败，见 {@link #feedbackTaskFailed(Task, Throwable)}
+     */
+    CompletableFuture<Boolean> feedbackTaskFailedAsync(Task task, @Nullable Throwable ex);
+
 }
@@ -22,6 +22,8 @@ import org.limbo.flowjob.api.param.broker.PlanInstanceJobScheduleParam;
 import org.limbo.flowjob.common.exception.RegisterFailException;
 import org.limbo.flowjob.worker.core.domain.Worker;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author Brozen
  * @since 2022-08-30
@@ -62,4 +64,19 @@ public interface WorkerBrokerRpc {
      */
     String commitDelayInstance(DelayInstanceCommitParam.StandaloneParam param);
 
+    /**
+     * 异步基于Plan 创建实例，见 {@link #commitPlanInstance(PlanInstanceCommitParam)}
+     */
+    CompletableFuture<String> commitPlanInstanceAsync(PlanInstanceCommitParam param);
+
+    /**
+     * 异步触发PlanInstance下job执行，见 {@link #schedulePlanInstanceJob(PlanInstanceJobScheduleParam)}
+     */
+    CompletableFuture<String> schedulePlanInstanceJobAsync(PlanInstanceJobScheduleParam param);
+
+    /**
+     * 异步提交延迟任务，见 {@link #commitDelayInstance(DelayInstanceCommitParam.StandaloneParam)}
+     */
+    CompletableFuture<String> commitDelayInstanceAsync(DelayInstanceCommitParam.StandaloneParam param);
+
 }
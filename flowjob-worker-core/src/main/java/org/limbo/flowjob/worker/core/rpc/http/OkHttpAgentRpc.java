@@ -38,6 +38,7 @@ import org.limbo.flowjob.worker.core.rpc.WorkerAgentRpc;
 
 import javax.annotation.Nullable;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.limbo.flowjob.api.constants.rpc.HttpAgentApi.*;
 
@@ -51,53 +52,46 @@ public class OkHttpAgentRpc extends OKHttpRpc<BaseLBServer> implements WorkerAge
     @Getter
     private Worker worker;
 
+    private static final TypeReference<ResponseDTO<Boolean>> BOOLEAN_RESPONSE = new TypeReference<ResponseDTO<Boolean>>() {
+    };
+
     public OkHttpAgentRpc() {
-        super(null, null);
+        super(null, null, true);
     }
 
     @Override
     public Boolean submitSubTasks(Task task, List<SubTask> subTasks) {
         SubTaskCreateParam param = RpcParamFactory.subTaskCreateParam(task.getJobId(), subTasks);
+        ResponseDTO<Boolean> response = executePost(task.getRpcUrl() + API_TASK_RECEIVE, param, BOOLEAN_RESPONSE);
+        return checkResponse(response, "Worker submit sub task failed: ");
+    }
 
-        ResponseDTO<Boolean> response = executePost(task.getRpcUrl() + API_TASK_RECEIVE, param, new TypeReference<ResponseDTO<Boolean>>() {
-        });
-
-        if (response == null || !response.success()) {
-            String msg = response == null ? MsgConstants.UNKNOWN : (response.getCode() + ":" + response.getMessage());
-            throw new RpcException("Worker submit sub task failed: " + msg);
-        }
-
-        return response.getData();
+    @Override
+    public CompletableFuture<Boolean> submitSubTasksAsync(Task task, List<SubTask> subTasks) {
+        SubTaskCreateParam param = RpcParamFactory.subTaskCreateParam(task.getJobId(), subTasks);
+        return executePostAsync(task.getRpcUrl() + API_TASK_RECEIVE, param, BOOLEAN_RESPONSE,
+                response -> checkResponse(response, "Worker submit sub task failed: "));
     }
 
     @Override
     public Boolean reportTaskExecuting(Task task) {
         TaskReportParam param = RpcParamFactory.taskReportParam(task.getJobId(), task.getTaskId(), worker.getId(), worker.getRpcBaseURL());
-
-        ResponseDTO<Boolean> response = executePost(task.getRpcUrl() + API_TASK_EXECUTING, param, new TypeReference<ResponseDTO<Boolean>>() {
-        });
-
-        if (response == null || !response.success()) {
-            String msg = response == null ? MsgConstants.UNKNOWN : (response.getCode() + ":" + response.getMessage());
-            throw new RpcException("Worker report task failed: " + msg);
-        }
-
-        return response.getData();
+        ResponseDTO<Boolean> response = executePost(task.getRpcUrl() + API_TASK_EXECUTING, param, BOOLEAN_RESPONSE);
+        return checkResponse(response, "Worker report task failed: ");
     }
 
     @Override
     public Boolean reportTask(Task task) {
         TaskReportParam param = RpcParamFactory.taskReportParam(task.getJobId(), task.getTaskId(), worker.getId(), worker.getRpcBaseURL());
+        ResponseDTO<Boolean> response = executePost(task.getRpcUrl() + API_TASK_REPORT, param, BOOLEAN_RESPONSE);
+        return checkResponse(response, "Worker report task failed: ");
+    }
 
-        ResponseDTO<Boolean> response = executePost(task.getRpcUrl() + API_TASK_REPORT, param, new TypeReference<ResponseDTO<Boolean>>() {
-        });
-
-        if (response == null || !response.success()) {
-            String msg = response == null ? MsgConstants.UNKNOWN : (response.getCode() + ":" + response.getMessage());
-            throw new RpcException("Worker report task failed: " + msg);
-        }
-
-        return response.getData();
+    @Override
+    public CompletableFuture<Boolean> reportTaskAsync(Task task) {
+        TaskReportParam param = RpcParamFactory.taskReportParam(task.getJobId(), task.getTaskId(), worker.getId(), worker.getRpcBaseURL());
+        return executePostAsync(task.getRpcUrl() + API_TASK_REPORT, param, BOOLEAN_RESPONSE,
+                response -> checkResponse(response, "Worker report task failed: "));
     }
 
     @Override
@@ -112,16 +106,32 @@ public class OkHttpAgentRpc extends OKHttpRpc<BaseLBServer> implements WorkerAge
         return doFeedbackTask(task, taskFeedbackParam);
     }
 
+    @Override
+    public CompletableFuture<Boolean> feedbackTaskSucceedAsync(Task task) {
+        TaskFeedbackParam taskFeedbackParam = RpcParamFactory.taskFeedbackParam(task.getJobId(), task.getTaskId(), task.getResult(), null);
+        return executePostAsync(task.getRpcUrl() + API_TASK_FEEDBACK, taskFeedbackParam, BOOLEAN_RESPONSE,
+                response -> checkResponse(response, "Worker feedback Task failed: "));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> feedbackTaskFailedAsync(Task task, @Nullable Throwable ex) {
+        TaskFeedbackParam taskFeedbackParam = RpcParamFactory.taskFeedbackParam(task.getJobId(), task.getTaskId(), task.getResult(), ex);
+        return executePostAsync(task.getRpcUrl() + API_TASK_FEEDBACK, taskFeedbackParam, BOOLEAN_RESPONSE,
+                response -> checkResponse(response, "Worker feedback Task failed: "));
+    }
+
     /**
      * 反馈任务执行结果
      */
     private Boolean doFeedbackTask(Task task, TaskFeedbackParam feedbackParam) {
-        ResponseDTO<Boolean> response = executePost(task.getRpcUrl() + API_TASK_FEEDBACK, feedbackParam, new TypeReference<ResponseDTO<Boolean>>() {
-        });
+        ResponseDTO<Boolean> response = executePost(task.getRpcUrl() + API_TASK_FEEDBACK, feedbackParam, BOOLEAN_RESPONSE);
+        return checkResponse(response, "Worker feedback Task failed: ");
+    }
 
+    private Boolean checkResponse(ResponseDTO<Boolean> response, String errorPrefix) {
         if (response == null || !response.success()) {
             String msg = response == null ? MsgConstants.UNKNOWN : (response.getCode() + ":" + response.getMessage());
-            throw new RpcException("Worker feedback Task failed: " + msg);
+            throw new RpcException(errorPrefix + msg);
         }
         return response.getData();
     }
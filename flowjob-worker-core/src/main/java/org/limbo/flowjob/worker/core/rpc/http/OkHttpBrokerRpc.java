@@ -32,7 +32,9 @@ import org.limbo.flowjob.api.dto.broker.WorkerRegisterDTO;
 import org.limbo.flowjob.api.param.broker.DelayInstanceCommitParam;
 import org.limbo.flowjob.api.param.broker.PlanInstanceCommitParam;
 import org.limbo.flowjob.api.param.broker.PlanInstanceJobScheduleParam;
+import org.limbo.flowjob.api.param.broker.WorkerHeartbeatParam;
 import org.limbo.flowjob.api.param.broker.WorkerRegisterParam;
+import org.limbo.flowjob.api.param.broker.WorkerResourceParam;
 import org.limbo.flowjob.common.exception.RegisterFailException;
 import org.limbo.flowjob.common.exception.RpcException;
 import org.limbo.flowjob.common.http.OKHttpRpc;
@@ -45,6 +47,7 @@ import org.limbo.flowjob.worker.core.rpc.WorkerBrokerRpc;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static org.limbo.flowjob.api.constants.rpc.HttpBrokerApi.*;
@@ -65,10 +68,48 @@ public class OkHttpBrokerRpc extends OKHttpRpc<BaseLBServer> implements WorkerBr
 
     private static final Protocol DEFAULT_PROTOCOL = Protocol.HTTP;
 
+    private static final TypeReference<ResponseDTO<String>> STRING_RESPONSE = new TypeReference<ResponseDTO<String>>() {
+    };
+
+    /**
+     * 每隔多少次心跳全量上报一次资源，避免 broker 上的资源因增量丢失而偏离
+     */
+    private static final int FULL_SYNC_PERIOD = 10;
+
+    /**
+     * 心跳尽量发往同一个 broker，增量上报基于的资源保存在该 broker 上
+     */
+    private static final String HEARTBEAT_AFFINITY = "heartbeat";
+
     @Getter
     @Setter
     private Worker worker;
 
+    /**
+     * broker 已知的资源，心跳只上报相对它的变化，为空时下次全量上报
+     */
+    private WorkerResourceParam reported;
+
+    /**
+     * reported 对应的资源版本
+     */
+    private long reportedVersion;
+
+    /**
+     * 最近一次上报的资源版本，每次心跳递增
+     */
+    private long resourceVersion = 0;
+
+    /**
+     * 心跳次数
+     */
+    private int heartbeatCount = 0;
+
+    /**
+     * 已知的 broker 拓扑版本
+     */
+    private volatile Long topologyVersion;
+
     public OkHttpBrokerRpc(LBServerRepository<BaseLBServer> repository, LBStrategy<BaseLBServer> strategy) {
         super(repository, strategy);
         this.repository = repository;
@@ -91,6 +132,8 @@ public class OkHttpBrokerRpc extends OKHttpRpc<BaseLBServer> implements WorkerBr
         // 注册成功，更新 broker 节点拓扑
         if (result != null) {
             updateBrokerTopology(result.getBrokerTopology());
+            reported = null;
+            heartbeatCount = 0;
             return result.getWorkerId();
         } else {
             String msg = "Register failed after tried all broker, please check your configuration";
@@ -141,6 +184,7 @@ public class OkHttpBrokerRpc extends OKHttpRpc<BaseLBServer> implements WorkerBr
         }
 
         repository.updateServers(brokerNodes);
+        topologyVersion = topo.getVersion();
     }
 
     /**
@@ -148,53 +192,80 @@ public class OkHttpBrokerRpc extends OKHttpRpc<BaseLBServer> implements WorkerBr
      */
     @Override
     public void heartbeat() {
-        ResponseDTO<WorkerRegisterDTO> response = executePost(BASE_URL + API_WORKER_HEARTBEAT + "?id=" + worker.getId(), RpcParamFactory.heartbeatParam(worker), new TypeReference<ResponseDTO<WorkerRegisterDTO>>() {
-        });
+        WorkerResourceParam base = heartbeatCount++ % FULL_SYNC_PERIOD == 0 ? null : reported;
+        WorkerRegisterDTO data = sendHeartbeat(base);
+        if (base != null && data != null && data.isFullSyncRequired()) {
+            // 心跳发往了没有增量基准的 broker，立即全量上报
+            sendHeartbeat(null);
+        }
+    }
+
+    private WorkerRegisterDTO sendHeartbeat(WorkerResourceParam base) {
+        WorkerHeartbeatParam param = RpcParamFactory.heartbeatParam(worker, base);
+        param.setTopologyVersion(topologyVersion);
+        long version = ++resourceVersion;
+        param.setResourceVersion(version);
+        if (base != null) {
+            param.setBaseVersion(reportedVersion);
+        }
+
+        // 心跳失败时 broker 可能没有收到增量，下次全量上报
+        reported = null;
+        ResponseDTO<WorkerRegisterDTO> response = executeStickyPost(BASE_URL + API_WORKER_HEARTBEAT + "?id=" + worker.getId(), param, new TypeReference<ResponseDTO<WorkerRegisterDTO>>() {
+        }, HEARTBEAT_AFFINITY, true);
 
         if (response == null || !response.success()) {
             String msg = response == null ? MsgConstants.UNKNOWN : (response.getCode() + ":" + response.getMessage());
             throw new RpcException("Worker heartbeat failed: " + msg);
         }
+        reported = RpcParamFactory.mergeResource(base, param.getAvailableResource());
+        reportedVersion = version;
 
-        // 更新 broker 节点拓扑
-        if (response.getData() != null) {
-            WorkerRegisterDTO data = response.getData();
+        // 拓扑版本变化时才会返回，更新 broker 节点拓扑
+        WorkerRegisterDTO data = response.getData();
+        if (data != null && data.getBrokerTopology() != null) {
             updateBrokerTopology(data.getBrokerTopology());
         }
+        return data;
     }
 
     @Override
     public String commitPlanInstance(PlanInstanceCommitParam param) {
         String url = BASE_URL + API_PLAN_INSTANCE_COMMIT;
-        ResponseDTO<String> response = executePost(url, param, new TypeReference<ResponseDTO<String>>() {
-        });
+        return checkResponse(executePost(url, param, STRING_RESPONSE), url);
+    }
 
-        if (response == null || !response.success()) {
-            String msg = response == null ? MsgConstants.UNKNOWN : (response.getCode() + ":" + response.getMessage());
-            throw new RpcException(url + " failed: " + msg);
-        }
-        return response.getData();
+    @Override
+    public CompletableFuture<String> commitPlanInstanceAsync(PlanInstanceCommitParam param) {
+        String url = BASE_URL + API_PLAN_INSTANCE_COMMIT;
+        return executePostAsync(url, param, STRING_RESPONSE, response -> checkResponse(response, url));
     }
 
     @Override
     public String schedulePlanInstanceJob(PlanInstanceJobScheduleParam param) {
         String url = BASE_URL + API_PLAN_INSTANCE_JOB_SCHEDULE;
-        ResponseDTO<String> response = executePost(url, param, new TypeReference<ResponseDTO<String>>() {
-        });
+        return checkResponse(executePost(url, param, STRING_RESPONSE), url);
+    }
 
-        if (response == null || !response.success()) {
-            String msg = response == null ? MsgConstants.UNKNOWN : (response.getCode() + ":" + response.getMessage());
-            throw new RpcException(url + " failed: " + msg);
-        }
-        return response.getData();
+    @Override
+    public CompletableFuture<String> schedulePlanInstanceJobAsync(PlanInstanceJobScheduleParam param) {
+        String url = BASE_URL + API_PLAN_INSTANCE_JOB_SCHEDULE;
+        return executePostAsync(url, param, STRING_RESPONSE, response -> checkResponse(response, url));
     }
 
     @Override
     public String commitDelayInstance(DelayInstanceCommitParam.StandaloneParam param) {
         String url = BASE_URL + API_DELAY_INSTANCE_COMMIT;
-        ResponseDTO<String> response = executePost(url, param, new TypeReference<ResponseDTO<String>>() {
-        });
+        return checkResponse(executePost(url, param, STRING_RESPONSE), url);
+    }
+
+    @Override
+    public CompletableFuture<String> commitDelayInstanceAsync(DelayInstanceCommitParam.StandaloneParam param) {
+        String url = BASE_URL + API_DELAY_INSTANCE_COMMIT;
+        return executePostAsync(url, param, STRING_RESPONSE, response -> checkResponse(response, url));
+    }
 
+    private String checkResponse(ResponseDTO<String> response, String url) {
         if (response == null || !response.success()) {
             String msg = response == null ? MsgConstants.UNKNOWN : (response.getCode() + ":" + response.getMessage());
             throw new RpcException(url + " failed: " + msg);
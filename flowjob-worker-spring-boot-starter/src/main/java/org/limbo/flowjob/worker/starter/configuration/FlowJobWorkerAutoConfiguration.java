@@ -17,9 +17,11 @@
 package org.limbo.flowjob.worker.starter.configuration;
 
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.limbo.flowjob.api.constants.Protocol;
+import org.limbo.flowjob.common.http.HttpClientRegistry;
 import org.limbo.flowjob.common.lb.BaseLBServer;
 import org.limbo.flowjob.common.lb.BaseLBServerRepository;
 import org.limbo.flowjob.common.lb.LBServerRepository;
@@ -45,6 +47,7 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.util.Assert;
 
 import java.net.MalformedURLException;
@@ -72,6 +75,16 @@ public class FlowJobWorkerAutoConfiguration {
         this.workerProps = workerProps;
     }
 
+    /**
+     * 按配置初始化的共享 HTTP 客户端，RPC 客户端都从 {@link HttpClientRegistry} 获取，创建 RPC 客户端的 bean 依赖此 bean。
+     * 不参与按类型注入，避免与应用自己声明的 {@link OkHttpClient} 冲突
+     */
+    @Bean(name = "fjwHttpClient", autowireCandidate = false)
+    public OkHttpClient httpClient() {
+        HttpClientRegistry.configure(workerProps.getHttp());
+        return HttpClientRegistry.client();
+    }
+
 
     /**
      * 用于扫描 @Executor 注解标记的方法
@@ -131,6 +144,7 @@ public class FlowJobWorkerAutoConfiguration {
      * Broker 通信模块
      */
     @Bean
+    @DependsOn("fjwHttpClient")
     @ConditionalOnMissingBean(WorkerBrokerRpc.class)
     public WorkerBrokerRpc brokerRpc(LBServerRepository<BaseLBServer> fjwBrokerLoadBalanceRepo, LBStrategy<BaseLBServer> fjwBrokerLoadBalanceStrategy) {
         List<URL> brokers = workerProps.getBrokers();
@@ -151,6 +165,7 @@ public class FlowJobWorkerAutoConfiguration {
      * Agent 通信模块
      */
     @Bean
+    @DependsOn("fjwHttpClient")
     @ConditionalOnMissingBean(WorkerAgentRpc.class)
     public WorkerAgentRpc agentRpc() {
         return new OkHttpAgentRpc();
@@ -30,9 +30,14 @@ import org.limbo.flowjob.common.utils.json.JacksonUtils;
 import org.limbo.flowjob.worker.core.domain.Task;
 import org.limbo.flowjob.worker.core.domain.Worker;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 import static org.limbo.flowjob.api.constants.rpc.HttpWorkerApi.API_SUBMIT_TASK;
@@ -49,10 +54,31 @@ public class HttpHandlerProcessor implements IHttpHandlerProcessor {
 
     @Override
     public String process(HttpMethod httpMethod, String uri, String data) {
-        return JacksonUtils.toJSONString(process0(httpMethod, uri, data));
+        byte[] bytes = data == null ? new byte[0] : data.getBytes(StandardCharsets.UTF_8);
+        return JacksonUtils.toJSONString(process0(httpMethod, uri, new ByteArrayInputStream(bytes), null));
     }
 
-    private ResponseDTO<?> process0(HttpMethod httpMethod, String uri, String data) {
+    /**
+     * 在业务线程池中直接从请求体解析参数，不再先转为字符串
+     */
+    @Override
+    public CompletableFuture<String> processAsync(HttpMethod httpMethod, String uri, InputStream data, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> JacksonUtils.toJSONString(process0(httpMethod, uri, data, null)), executor);
+    }
+
+    /**
+     * 二进制协议解码后的参数直接使用，无需再解析 JSON
+     */
+    @Override
+    public CompletableFuture<String> processParamAsync(HttpMethod httpMethod, String uri, Object param, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> JacksonUtils.toJSONString(process0(httpMethod, uri, null, param)), executor);
+    }
+
+    /**
+     * @param data  JSON 请求体，param 不为空时忽略
+     * @param param 已解码的请求参数
+     */
+    private ResponseDTO<?> process0(HttpMethod httpMethod, String uri, InputStream data, Object param) {
         if (StringUtils.isBlank(uri)) {
             String msg = "Invalid request, Uri is empty.";
             return ResponseDTO.<Void>builder().notFound(msg).build();
@@ -66,8 +92,8 @@ public class HttpHandlerProcessor implements IHttpHandlerProcessor {
 
         try {
             if (API_SUBMIT_TASK.equals(uri)) {
-                TaskSubmitParam param = JacksonUtils.parseObject(data, TaskSubmitParam.class);
-                return ResponseDTO.<Boolean>builder().ok(receive(param)).build();
+                TaskSubmitParam taskSubmitParam = parseParam(data, param, TaskSubmitParam.class);
+                return ResponseDTO.<Boolean>builder().ok(receive(taskSubmitParam)).build();
             }
 
             String msg = "Invalid request, Uri NotFound.";
@@ -79,6 +105,16 @@ public class HttpHandlerProcessor implements IHttpHandlerProcessor {
         }
     }
 
+    private static <T> T parseParam(InputStream data, Object param, Class<T> type) {
+        if (param == null) {
+            return JacksonUtils.parseObject(data, type);
+        }
+        if (!type.isInstance(param)) {
+            throw new IllegalArgumentException("Param type mismatch, expect " + type.getSimpleName() + " but " + param.getClass().getSimpleName());
+        }
+        return type.cast(param);
+    }
+
 
     public Boolean receive(TaskSubmitParam param) {
         log.info("receive task {}", param);
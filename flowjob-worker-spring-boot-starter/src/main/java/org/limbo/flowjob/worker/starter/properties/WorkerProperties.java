@@ -18,6 +18,7 @@ package org.limbo.flowjob.worker.starter.properties;
 
 import lombok.Data;
 import org.limbo.flowjob.api.constants.Protocol;
+import org.limbo.flowjob.common.http.HttpClientConfig;
 import org.limbo.flowjob.worker.starter.processor.event.WorkerReadyEvent;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
@@ -108,5 +109,9 @@ public class WorkerProperties {
      */
     private boolean autoRegister = true;
 
+    /**
+     * 与 broker、agent 通信的 HTTP 客户端配置
+     */
+    private HttpClientConfig http = new HttpClientConfig();
 
 }